@@ -0,0 +1,99 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.benchmark;
+
+import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
+import io.ib67.astralflow.internal.storage.impl.chunk.ChunkMachineIndex;
+import io.ib67.astralflow.internal.storage.impl.chunk.MachineData;
+import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineDataTag;
+import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineIndexTag;
+import io.ib67.astralflow.test.TestUtil;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding machine tags of a chunk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkTagBenchmark {
+    private static final String[] TYPES = {
+            "io.ib67.astralflow.benchmark.MachineA",
+            "io.ib67.astralflow.benchmark.MachineB",
+            "io.ib67.astralflow.benchmark.MachineC"
+    };
+
+    @Param({"1", "100", "10000"})
+    public int machines;
+
+    private ChunkMachineIndex index;
+    private MachineData data;
+    private byte[] encodedIndex;
+    private byte[] encodedData;
+
+    @Setup
+    public void setup() {
+        TestUtil.init();
+        var world = Bukkit.getWorld("world");
+        var indexEntries = new HashMap<Location, String>();
+        data = new MachineData(0, 0);
+        for (int i = 0; i < machines; i++) {
+            var loc = new Location(world, i & 15, i >> 8, (i >> 4) & 15);
+            indexEntries.put(loc, TYPES[i % TYPES.length]);
+            var json = "{\"uuid\":\"" + new UUID(0, i) + "\",\"state\":{\"type\":\"a.b.C\",\"data\":{\"energy\":" + i + "}},\"type\":\"" + TYPES[i % TYPES.length] + "\"}";
+            data.save(loc, MachineStorageType.JSON, json.getBytes(StandardCharsets.UTF_8));
+        }
+        index = new ChunkMachineIndex(indexEntries, 0, 0);
+        encodedIndex = MachineIndexTag.INSTANCE.toPrimitive(index, null);
+        encodedData = MachineDataTag.INSTANCE.toPrimitive(data, null);
+    }
+
+    @Benchmark
+    public byte[] encodeIndex() {
+        return MachineIndexTag.INSTANCE.toPrimitive(index, null);
+    }
+
+    @Benchmark
+    public ChunkMachineIndex decodeIndex() {
+        return MachineIndexTag.INSTANCE.fromPrimitive(encodedIndex, null);
+    }
+
+    @Benchmark
+    public byte[] encodeData() {
+        return MachineDataTag.INSTANCE.toPrimitive(data, null);
+    }
+
+    @Benchmark
+    public MachineData decodeData() {
+        return MachineDataTag.INSTANCE.fromPrimitive(encodedData, null);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.benchmark;
+
+import io.ib67.astralflow.AstralFlow;
+import io.ib67.astralflow.item.ItemState;
+import io.ib67.astralflow.item.internal.serialization.ItemStorageType;
+import io.ib67.astralflow.item.internal.tag.ItemStateTag;
+import io.ib67.astralflow.test.TestUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding item states, which happens whenever we look into an item.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItemStateTagBenchmark {
+    private ItemStateTag tag;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        TestUtil.init();
+        tag = new ItemStateTag(ItemStorageType.JSON, AstralFlow.getInstance().getFactories());
+        var state = new ItemState.SimpleItemState();
+        state.put("owner", "c7d4b5a2-6a38-4e0e-9d0b-6a2b0c1e9f11");
+        state.put("charge", 1024);
+        state.put("mode", "fast");
+        encoded = tag.toPrimitive(state, null);
+    }
+
+    @Benchmark
+    public ItemState decode() {
+        return tag.fromPrimitive(encoded, null);
+    }
+}
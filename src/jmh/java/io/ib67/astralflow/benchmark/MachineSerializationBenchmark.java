@@ -0,0 +1,78 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.benchmark;
+
+import io.ib67.astralflow.AstralFlow;
+import io.ib67.astralflow.internal.serialization.MachineStorageHelper;
+import io.ib67.astralflow.internal.storage.MachineSerializer;
+import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
+import io.ib67.astralflow.machines.IMachine;
+import io.ib67.astralflow.machines.MachineProperty;
+import io.ib67.astralflow.storage.DummyStatefulMachine;
+import io.ib67.astralflow.test.TestUtil;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing and deserializing a machine with {@link MachineStorageHelper} or the binary serializer, which happens for every machine in loading/saving chunks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MachineSerializationBenchmark {
+    @Param({"JSON", "BINARY"})
+    public MachineStorageType storageType;
+    private MachineSerializer helper;
+    private IMachine machine;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() {
+        TestUtil.init();
+        var flow = AstralFlow.getInstance();
+        flow.getFactories().register(DummyStatefulMachine.class, DummyStatefulMachine::new);
+        helper = storageType.apply(flow.getFactories(), flow.getMachineManager());
+        machine = new DummyStatefulMachine(MachineProperty.builder()
+                .uuid(UUID.randomUUID())
+                .location(new Location(Bukkit.getWorld("world"), 1, 2, 3))
+                .manager(flow.getMachineManager())
+                .build());
+        serialized = helper.toData(machine);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return helper.toData(machine);
+    }
+
+    @Benchmark
+    public IMachine deserialize() {
+        return helper.fromData(serialized);
+    }
+}
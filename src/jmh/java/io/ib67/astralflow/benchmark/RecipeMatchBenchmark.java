@@ -0,0 +1,95 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.benchmark;
+
+import io.ib67.astralflow.item.recipe.AstralRecipe;
+import io.ib67.astralflow.item.recipe.IRecipeRegistry;
+import io.ib67.astralflow.item.recipe.RecipeRegistryImpl;
+import io.ib67.astralflow.item.recipe.choices.MaterialChoice;
+import io.ib67.astralflow.item.recipe.kind.Shaped;
+import io.ib67.astralflow.test.TestUtil;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching a crafting matrix against registered recipes, which happens whenever a player changes the crafting grid.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecipeMatchBenchmark {
+    @Param({"10", "2000"})
+    public int recipes;
+
+    private IRecipeRegistry registry;
+    private ItemStack[] lastRecipe;
+    private ItemStack[] noRecipe;
+
+    @Setup
+    public void setup() {
+        TestUtil.init();
+        registry = new RecipeRegistryImpl();
+        var materials = Arrays.stream(Material.values())
+                .filter(it -> it.isItem() && !it.isAir() && !it.isLegacy())
+                .toArray(Material[]::new);
+        for (int i = 0; i < recipes; i++) {
+            // a different pair for each recipe
+            var top = materials[i % materials.length];
+            var bottom = materials[i / materials.length + 1];
+            registry.registerRecipe(Shaped.of(new NamespacedKey("astralflow", "benchmark_" + i))
+                    .shape("A", "B")
+                    .setIngredient('A', new MaterialChoice(top))
+                    .setIngredient('B', new MaterialChoice(bottom))
+                    .build());
+            if (i == recipes - 1) {
+                lastRecipe = new ItemStack[]{
+                        null, new ItemStack(top), null,
+                        null, new ItemStack(bottom), null,
+                        null, null, null
+                };
+            }
+        }
+        noRecipe = new ItemStack[]{
+                new ItemStack(Material.STICK), new ItemStack(Material.STICK), new ItemStack(Material.STICK),
+                null, null, null,
+                null, null, null
+        };
+    }
+
+    @Benchmark
+    public AstralRecipe matchLast() {
+        return registry.matchRecipe(lastRecipe);
+    }
+
+    @Benchmark
+    public AstralRecipe matchNone() {
+        return registry.matchRecipe(noRecipe);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.benchmark;
+
+import io.ib67.astralflow.Tickable;
+import io.ib67.astralflow.machines.internal.scheduler.SimpleCatchingScheduler;
+import io.ib67.astralflow.scheduler.AwaitingTickable;
+import io.ib67.astralflow.scheduler.TickReceipt;
+import io.ib67.astralflow.test.TestUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A tick of {@link SimpleCatchingScheduler} with lots of tickables.
+ * Setup runs in the benchmark thread, which becomes the main thread of the mock server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulerBenchmark {
+    @Param({"100000"})
+    public int tickables;
+
+    private SimpleCatchingScheduler scheduler;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws ReflectiveOperationException {
+        TestUtil.init();
+        scheduler = new SimpleCatchingScheduler(4);
+        // Scheduler#add checks duplicates linearly, filling the queue directly keeps the setup fast.
+        var field = SimpleCatchingScheduler.class.getDeclaredField("tickables");
+        field.setAccessible(true);
+        var queue = (Queue<AwaitingTickable<?>>) field.get(scheduler);
+        for (int i = 0; i < tickables; i++) {
+            queue.add(new AwaitingTickable<>(new CountingTickable(), new TickReceipt<>()));
+        }
+    }
+
+    @Benchmark
+    public void tick() {
+        scheduler.tick();
+    }
+
+    static final class CountingTickable implements Tickable<CountingTickable> {
+        private long ticks;
+
+        @Override
+        public void update(CountingTickable self) {
+            ticks++;
+        }
+    }
+}
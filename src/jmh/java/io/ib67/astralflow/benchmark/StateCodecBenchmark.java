@@ -0,0 +1,107 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+
+package io.ib67.astralflow.benchmark;
+
+import com.google.gson.Gson;
+import io.ib67.astralflow.internal.serialization.codec.StateCodec;
+import io.ib67.astralflow.internal.serialization.codec.StateCodecCompiler;
+import io.ib67.astralflow.machines.IState;
+import io.ib67.internal.util.bukkit.BukkitGson;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a typical machine state with a compiled {@link StateCodec} versus gson, which is what the BINARY and JSON storage types do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StateCodecBenchmark {
+    private StateCodec<GeneratorState> codec;
+    private Gson gson;
+    private GeneratorState state;
+    private ByteBuf buf;
+    private byte[] encoded;
+    private String json;
+
+    @Setup
+    public void setup() {
+        codec = StateCodecCompiler.compile(GeneratorState.class);
+        gson = BukkitGson.INSTANCE;
+        state = new GeneratorState();
+        state.owner = UUID.randomUUID();
+        state.energy = 12800;
+        state.capacity = 64000;
+        state.progress = 0.42;
+        state.ticks = 1234567L;
+        state.running = true;
+        state.mode = TimeUnit.SECONDS;
+        state.label = "generator";
+        buf = Unpooled.buffer(256);
+        codec.encode(state, buf);
+        encoded = new byte[buf.readableBytes()];
+        buf.readBytes(encoded);
+        json = gson.toJson(state);
+    }
+
+    @Benchmark
+    public int encodeCompiled() {
+        buf.clear();
+        codec.encode(state, buf);
+        return buf.writerIndex();
+    }
+
+    @Benchmark
+    public GeneratorState decodeCompiled() {
+        return codec.decode(Unpooled.wrappedBuffer(encoded));
+    }
+
+    @Benchmark
+    public byte[] encodeGson() {
+        return gson.toJson(state).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public GeneratorState decodeGson() {
+        return gson.fromJson(json, GeneratorState.class);
+    }
+
+    public static final class GeneratorState implements IState {
+        private UUID owner;
+        private int energy;
+        private int capacity;
+        private double progress;
+        private long ticks;
+        private boolean running;
+        private TimeUnit mode;
+        private String label;
+    }
+}
@@ -32,16 +32,32 @@ import io.ib67.astralflow.hook.HookType;
 import io.ib67.astralflow.hook.event.server.SaveDataEvent;
 import io.ib67.astralflow.internal.AstralConstants;
 import io.ib67.astralflow.internal.Warnings;
+import io.ib67.astralflow.internal.command.AstralFlowCommand;
 import io.ib67.astralflow.internal.config.AstralFlowConfiguration;
 import io.ib67.astralflow.internal.config.ConfigManager;
 import io.ib67.astralflow.internal.config.Language;
 import io.ib67.astralflow.internal.listener.*;
 import io.ib67.astralflow.internal.listener.crafts.RecipeListener;
+import io.ib67.astralflow.internal.metrics.AstralMetrics;
+import io.ib67.astralflow.internal.metrics.MetricsExporter;
+import io.ib67.astralflow.internal.serialization.TypeRegistry;
 import io.ib67.astralflow.internal.serialization.config.LanguageSerializer;
 import io.ib67.astralflow.internal.storage.IMachineStorage;
 import io.ib67.astralflow.internal.storage.SimpleChunkTracker;
+import io.ib67.astralflow.internal.storage.impl.MachineStorageBackend;
 import io.ib67.astralflow.internal.storage.impl.chunk.ChunkBasedMachineStorage;
+import io.ib67.astralflow.internal.storage.impl.chunk.ChunkDataBackend;
 import io.ib67.astralflow.internal.storage.impl.chunk.MachineCache;
+import io.ib67.astralflow.internal.storage.impl.chunk.PdcChunkDataBackend;
+import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineDataTag;
+import io.ib67.astralflow.internal.storage.impl.journal.MachineJournal;
+import io.ib67.astralflow.internal.storage.impl.kv.KvChunkDataBackend;
+import io.ib67.astralflow.internal.storage.impl.kv.KvMachineStorage;
+import io.ib67.astralflow.internal.storage.impl.migration.MachineMigrator;
+import io.ib67.astralflow.internal.storage.impl.migration.MigrationPlan;
+import io.ib67.astralflow.internal.storage.impl.migration.RegionScanner;
+import io.ib67.astralflow.internal.storage.impl.region.RegionChunkDataBackend;
+import io.ib67.astralflow.internal.storage.impl.region.RegionFileMachineStorage;
 import io.ib67.astralflow.internal.task.SaveDataTask;
 import io.ib67.astralflow.internal.update.UpdateChecker;
 import io.ib67.astralflow.item.oredict.internal.CompoundOreDict;
@@ -58,6 +74,10 @@ import io.ib67.astralflow.manager.impl.FactoryManagerImpl;
 import io.ib67.astralflow.manager.impl.ItemRegistryImpl;
 import io.ib67.astralflow.manager.impl.MachineManagerImpl;
 import io.ib67.astralflow.manager.impl.SimpleTickManager;
+import io.ib67.astralflow.metrics.IMetricsRegistry;
+import io.ib67.astralflow.metrics.impl.SimpleMetricsRegistry;
+import io.ib67.astralflow.scheduler.IActivationRange;
+import io.ib67.astralflow.scheduler.internal.ChunkActivationRange;
 import io.ib67.astralflow.security.ISecurityService;
 import io.ib67.astralflow.security.impl.SimpleSecurityService;
 import io.ib67.astralflow.security.mem.impl.SimpleLeakTracker;
@@ -94,10 +114,12 @@ import static org.inlambda.kiwi.Kiwi.fromAny;
 @ApiStatus.Internal
 public final class AstralFlow extends JavaPlugin implements AstralFlowAPI {
     private AstralFlowConfiguration configuration;
+    private ConfigManager<AstralFlowConfiguration> configHolder;
     @Getter
     private IMachineManager machineManager;
     private final Path machineIndex = getDataFolder().toPath().resolve("machines.index");
     private final Path languageDir = getDataFolder().toPath().resolve("locales");
+    private final Path migrationPlan = getDataFolder().toPath().resolve("migration.json");
     @Getter
     private IFactoryManager factories;
     @Getter
@@ -115,6 +137,8 @@ public final class AstralFlow extends JavaPlugin implements AstralFlowAPI {
 
     @Getter
     private ISecurityService securityService;
+    @Getter
+    private final IMetricsRegistry metricsRegistry = new SimpleMetricsRegistry();
 
     private static AstralFlow instance;
     private Metrics metric;
@@ -128,6 +152,7 @@ public final class AstralFlow extends JavaPlugin implements AstralFlowAPI {
     }
 
     private static final Map<HookType<?>, List<Consumer<?>>> HOOKS = new HashMap<>();
+    private static final int MIGRATION_BATCH_SIZE = 64;
     @Getter
     private static volatile boolean initialized = false; // volatile to prevent opcode reshuffle
 
@@ -180,13 +205,18 @@ public final class AstralFlow extends JavaPlugin implements AstralFlowAPI {
         loadFactoryManager(); // FileStorage needs.
         loadConfig();
         loadSecurityService();
+        loadMetrics();
         var scheduler = new SimpleCatchingScheduler(configuration.optimization.machineTickExceptionLimit);
-        tickManager = new SimpleTickManager(scheduler);
+        tickManager = new SimpleTickManager(scheduler, loadActivationRange());
         loadMachineManager();
         //scheduler = new TickScheduler(machineManager);
         //scheduler.runTaskTimer(this, 0L, 1L); // Every tick.
         loadItemManager();
         loadListeners();
+        var command = getCommand("astralflow");
+        if (command != null) {
+            command.setExecutor(new AstralFlowCommand(scheduler, migrationPlan, configuration.optimization, configuration.locale));
+        }
 
         if (configuration.recipeSetting.injectVanillaCraftingTable) {
             injectVanillaCraft();
@@ -252,6 +282,40 @@ public final class AstralFlow extends JavaPlugin implements AstralFlowAPI {
         securityService = new SimpleSecurityService(leakTracker);
     }
 
+    private IActivationRange loadActivationRange() {
+        var optimization = configuration.optimization;
+        if (optimization.machineActivationRange < 0) {
+            return IActivationRange.DISABLED;
+        }
+        var activationRange = new ChunkActivationRange(
+                optimization.machineActivationRange,
+                optimization.reducedMachineActivationRange,
+                Math.max(1, optimization.reducedMachineTickInterval),
+                Math.max(0, optimization.inactiveMachineTickInterval)
+        );
+        getServer().getPluginManager().registerEvents(activationRange, this);
+        return activationRange;
+    }
+
+    private void loadMetrics() {
+        AstralMetrics.registerAll(metricsRegistry);
+        var setting = configuration.metricsSetting;
+        var exporter = new MetricsExporter(metricsRegistry);
+        if (setting.httpPort > 0) {
+            try {
+                exporter.startHttp(setting.httpAddress, setting.httpPort);
+                Log.info(LogCategory.INIT, "Metrics are available at http://" + setting.httpAddress + ":" + setting.httpPort + "/metrics");
+            } catch (IOException e) {
+                Log.warn(LogCategory.INIT, "Cannot start metrics endpoint: " + e.getMessage());
+            }
+        }
+        if (setting.dumpInterval > 0) {
+            var dumpFile = getDataFolder().toPath().resolve("metrics.prom");
+            Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> exporter.dump(dumpFile), setting.dumpInterval, setting.dumpInterval);
+        }
+        HookType.PLUGIN_SHUTDOWN.register(exporter::stop);
+    }
+
     private void injectVanillaCraft() {
         Log.info(LogCategory.INIT, "Injecting vanilla crafting table");
         Bukkit.getPluginManager().registerEvents(new RecipeListener(recipeRegistry), this);
@@ -280,6 +344,7 @@ public final class AstralFlow extends JavaPlugin implements AstralFlowAPI {
         for (Consumer<SaveDataEvent> hook : getHooks(HookType.SAVE_DATA)) {
             hook.accept(new SaveDataEvent(true));
         }
+        TypeRegistry.INSTANCE.clear(); // after machines are saved, or it pins classes of other plugins across reloads.
 
 
     }
@@ -298,20 +363,139 @@ public final class AstralFlow extends JavaPlugin implements AstralFlowAPI {
     }
 
     private void loadMachineManager() {
-        machineStorage = new ChunkBasedMachineStorage(
-                new MachineCache(machineIndex),
-                factories, configuration.optimization.defaultMachineStorageType,
-                configuration.optimization.chunkMapCapacity,
-                configuration.optimization.allowChunkMapResizing
-        );
+        MachineDataTag.INSTANCE.setCompressionThreshold(configuration.optimization.machineDataCompressionThreshold);
+        runScheduledMigration();
+        var optimization = configuration.optimization;
+        machineStorage = switch (optimization.machineStorageBackend) {
+            case CHUNK -> new ChunkBasedMachineStorage(
+                    new MachineCache(machineIndex),
+                    factories, optimization.defaultMachineStorageType,
+                    optimization.chunkMapCapacity,
+                    optimization.allowChunkMapResizing,
+                    optimization.chunkLoaderThreads,
+                    optimization.loadTicklessMachinesEagerly
+            );
+            case REGION -> newRegionFileStorage();
+            case KV -> newKvStorage();
+        };
+        if (optimization.machineJournal && machineStorage instanceof ChunkBasedMachineStorage chunkStorage) {
+            chunkStorage.enableJournal(newJournal(), optimization.machineJournalMachinesPerTick);
+        }
         machineManager = new MachineManagerImpl(
-                machineStorage, tickManager,
+                machineStorage, factories, tickManager,
                 configuration.optimization.initialMachineCapacity, configuration.optimization.allowMachineMapResizing,
-                new SimpleChunkTracker(configuration.optimization.chunkMapCapacity,
-                        configuration.optimization.allowChunkMapResizing),
+                new SimpleChunkTracker(configuration.optimization.chunkMapCapacity),
                 securityService.getLeakTracker());
     }
 
+    private void runScheduledMigration() {
+        MigrationPlan plan;
+        try {
+            plan = MigrationPlan.load(migrationPlan);
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.warn(MIGRATOR, "Cannot read the scheduled migration, skipped.");
+            return;
+        }
+        if (plan == null) {
+            return;
+        }
+        var optimization = configuration.optimization;
+        if (plan.getSource() != optimization.machineStorageBackend) {
+            Log.warn(MIGRATOR, "The scheduled migration is from " + plan.getSource() + " but machines are stored in " + optimization.machineStorageBackend + ", discarded.");
+            fromAny(() -> Files.deleteIfExists(migrationPlan));
+            return;
+        }
+        var source = openBackend(plan.getSource());
+        var target = plan.getTarget() == plan.getSource() ? source : openBackend(plan.getTarget());
+        var worlds = new LinkedHashMap<World, Path>();
+        for (World world : Bukkit.getWorlds()) {
+            worlds.put(world, RegionScanner.regionDirectory(world));
+        }
+        try {
+            // machines are only created to be serialized again when their storage types are changed, so there's no manager.
+            new MachineMigrator(source, target, plan.getStorageType(), type -> type.apply(factories, null), new MachineCache(machineIndex),
+                    Math.max(1, Runtime.getRuntime().availableProcessors() - 1), MIGRATION_BATCH_SIZE)
+                    .migrate(plan, migrationPlan, worlds);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            abortMigration(plan, "Migration failed.");
+            return;
+        } finally {
+            target.close();
+            if (source != target) {
+                source.close();
+            }
+        }
+        if (plan.getFailedChunkCount() > 0) {
+            // machines in these chunks are only in the source.
+            abortMigration(plan, plan.getFailedChunkCount() + " chunks can't be migrated, see the log above.");
+            return;
+        }
+        optimization.machineStorageBackend = plan.getTarget();
+        optimization.defaultMachineStorageType = plan.getStorageType();
+        configHolder.saveConfig(configuration);
+        fromAny(() -> Files.deleteIfExists(migrationPlan));
+    }
+
+    /**
+     * Keep machines in the source backend and let the migration start over on the next startup,
+     * since machines in chunks which have been migrated will be changed in the source.
+     */
+    private void abortMigration(MigrationPlan plan, String reason) {
+        plan.reset();
+        try {
+            plan.save(migrationPlan);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Log.warn(MIGRATOR, reason + " Machines are still loaded from " + plan.getSource() + ", and the migration will start over on the next startup. Use /astralflow migrate cancel to give up.");
+    }
+
+    @SneakyThrows
+    private ChunkDataBackend openBackend(MachineStorageBackend backend) {
+        var dataFolder = getDataFolder().toPath();
+        return switch (backend) {
+            case CHUNK -> new PdcChunkDataBackend(ChunkBasedMachineStorage.MACHINE_INDEX_TAG, ChunkBasedMachineStorage.MACHINE_DATA_TAG);
+            case REGION -> new RegionChunkDataBackend(dataFolder.resolve("regions"));
+            case KV -> new KvChunkDataBackend(dataFolder.resolve("machines"), KvMachineStorage.MEMTABLE_LIMIT, KvMachineStorage.COMPACTION_TRIGGER, configuration.optimization.machineDeltaCompactionInterval);
+        };
+    }
+
+    @SneakyThrows
+    private IMachineStorage newRegionFileStorage() {
+        var optimization = configuration.optimization;
+        return new RegionFileMachineStorage(
+                new MachineCache(machineIndex),
+                factories, optimization.defaultMachineStorageType,
+                optimization.chunkMapCapacity,
+                optimization.allowChunkMapResizing,
+                optimization.chunkLoaderThreads,
+                optimization.loadTicklessMachinesEagerly,
+                getDataFolder().toPath().resolve("regions")
+        );
+    }
+
+    @SneakyThrows
+    private IMachineStorage newKvStorage() {
+        var optimization = configuration.optimization;
+        return new KvMachineStorage(
+                new MachineCache(machineIndex),
+                factories, optimization.defaultMachineStorageType,
+                optimization.chunkMapCapacity,
+                optimization.allowChunkMapResizing,
+                optimization.chunkLoaderThreads,
+                optimization.loadTicklessMachinesEagerly,
+                getDataFolder().toPath().resolve("machines"),
+                optimization.machineDeltaCompactionInterval
+        );
+    }
+
+    @SneakyThrows
+    private MachineJournal newJournal() {
+        return new MachineJournal(getDataFolder().toPath().resolve("journal"), configuration.optimization.machineJournalCommitInterval);
+    }
+
     private void loadItemManager() {
         itemRegistry = new ItemRegistryImpl(configuration.recipeSetting.addVanillaOreDict
                 ? new CompoundOreDict(List.of(new SimpleOreDict(), new VanillaOreDict()))
@@ -325,7 +509,7 @@ public final class AstralFlow extends JavaPlugin implements AstralFlowAPI {
 
         var confFile = new File(getDataFolder(), "config.conf");
         if (!AstralConstants.MOCKING) extractLanguage();
-        ConfigManager<AstralFlowConfiguration> configHolder = new ConfigManager<>(confFile.toPath(), t -> t.serializers(e -> e.register(Language.class, new LanguageSerializer(languageDir))));
+        configHolder = new ConfigManager<>(confFile.toPath(), t -> t.serializers(e -> e.register(Language.class, new LanguageSerializer(languageDir))));
         if (!confFile.exists() || confFile.length() == 0) {
             confFile.createNewFile();
             configHolder.saveConfig(AstralFlowConfiguration.defaultConfiguration(machineIndex));
@@ -410,7 +594,20 @@ public final class AstralFlow extends JavaPlugin implements AstralFlowAPI {
 
     @Override
     public <T> boolean callHooks(HookType<T> hookType, T event) {
-        for (Consumer<T> hook : getHooks(hookType)) {
+        var hooks = getHooks(hookType);
+        if (hooks.isEmpty()) {
+            return false;
+        }
+        var start = System.nanoTime();
+        try {
+            return callHooks0(hooks, hookType, event);
+        } finally {
+            AstralMetrics.HOOK_DISPATCH_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    private <T> boolean callHooks0(Collection<? extends Consumer<T>> hooks, HookType<T> hookType, T event) {
+        for (Consumer<T> hook : hooks) {
             try {
                 hook.accept(event);
             } catch (Throwable throwable) {
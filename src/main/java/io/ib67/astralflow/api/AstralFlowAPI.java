@@ -31,6 +31,7 @@ import io.ib67.astralflow.manager.IFactoryManager;
 import io.ib67.astralflow.manager.IMachineManager;
 import io.ib67.astralflow.manager.ITickManager;
 import io.ib67.astralflow.manager.ItemRegistry;
+import io.ib67.astralflow.metrics.IMetricsRegistry;
 import io.ib67.astralflow.security.ISecurityService;
 import io.ib67.astralflow.texture.ITextureRegistry;
 import org.bukkit.plugin.Plugin;
@@ -91,6 +92,14 @@ public interface AstralFlowAPI {
      */
     ISecurityService getSecurityService();
 
+    /**
+     * @return the {@link IMetricsRegistry}
+     * @throws UnsupportedOperationException if the implementation doesn't collect metrics, which is the default.
+     */
+    default IMetricsRegistry getMetricsRegistry() {
+        throw new UnsupportedOperationException("Metrics are not supported by " + getClass().getName());
+    }
+
     /**
      * Register hook but don't need an argument.
      *
@@ -95,8 +95,11 @@ public enum AstralHelper {
      * @return machine
      */
     @Nullable
+    @SuppressWarnings("unchecked")
     public static <M extends IMachine> M getMachine(Block block, Class<M> clazz) {
-        return getMachine(block.getLocation(), clazz);
+        var m = AstralFlow.getInstance().getMachineManager().findMachine(block);
+        if (!clazz.isInstance(m)) return null;
+        return (M) m;
     }
 
     /**
@@ -106,7 +109,7 @@ public enum AstralHelper {
      * @return True if the block is a machine, false otherwise
      */
     public static boolean hasMachine(Block block, Class<? extends IMachine> machineType) {
-        return hasMachine(block) && machineType.isInstance(AstralFlow.getInstance().getMachineManager().getAndLoadMachine(block.getLocation()));
+        return machineType.isInstance(AstralFlow.getInstance().getMachineManager().findMachine(block));
     }
 
     /**
@@ -147,7 +150,7 @@ public enum AstralHelper {
      */
     @Nullable
     public static IMachine getMachine(Block block) {
-        return AstralFlow.getInstance().getMachineManager().getAndLoadMachine(block.getLocation());
+        return AstralFlow.getInstance().getMachineManager().findMachine(block);
     }
 
     /**
@@ -35,7 +35,6 @@ import io.ib67.astralflow.item.builder.ItemBuilder;
 import io.ib67.astralflow.machines.IMachine;
 import io.ib67.astralflow.machines.MachineContext;
 import io.ib67.astralflow.machines.MachineProperty;
-import io.ib67.astralflow.machines.Tickless;
 import io.ib67.astralflow.util.Blocks;
 import lombok.Getter;
 import org.bukkit.Bukkit;
@@ -125,7 +124,7 @@ public class MachineItem extends ItemBase {
             if (evt.isCancelled()) {
                 return;
             }
-            AstralFlow.getInstance().getMachineManager().setupMachine(machine, !typeOfMachine.isAnnotationPresent(Tickless.class));
+            AstralFlow.getInstance().getMachineManager().setupMachine(machine, !AstralFlow.getInstance().getFactories().getDescriptor(typeOfMachine).tickless());
         } else {
             return;
         }
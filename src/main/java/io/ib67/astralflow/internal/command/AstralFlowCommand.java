@@ -0,0 +1,227 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.command;
+
+import io.ib67.astralflow.internal.config.AstralFlowConfiguration;
+import io.ib67.astralflow.internal.config.Language;
+import io.ib67.astralflow.internal.storage.impl.MachineStorageBackend;
+import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
+import io.ib67.astralflow.internal.storage.impl.migration.MigrationPlan;
+import io.ib67.astralflow.machines.internal.scheduler.SimpleCatchingScheduler;
+import io.ib67.astralflow.machines.internal.scheduler.TickProfiler;
+import lombok.RequiredArgsConstructor;
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * {@code /astralflow profile <start [sampleInterval]|stop|report [topN]>}
+ * <br>
+ * {@code /astralflow migrate <status|cancel|<backend> [storageType]>}
+ */
+@ApiStatus.Internal
+@RequiredArgsConstructor
+public final class AstralFlowCommand implements TabExecutor {
+    private static final int PROFILER_CAPACITY = 256;
+    private static final int PROFILER_WINDOW = 20 * 60; // a minute
+    private static final int DEFAULT_SAMPLE_INTERVAL = 10;
+    private static final int DEFAULT_TOP_N = 10;
+
+    private static final String MIGRATE_PERMISSION = "astralflow.command.migrate";
+
+    private final SimpleCatchingScheduler scheduler;
+    private final Path migrationPlan;
+    private final AstralFlowConfiguration.Optimization optimization;
+    private final Language language;
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        if (args.length == 0) {
+            return false;
+        }
+        return switch (args[0].toLowerCase()) {
+            case "profile" -> profile(sender, label, args);
+            case "migrate" -> migrate(sender, args);
+            default -> false;
+        };
+    }
+
+    private boolean profile(CommandSender sender, String label, String[] args) {
+        var action = args.length > 1 ? args[1].toLowerCase() : "report";
+        switch (action) {
+            case "start" -> {
+                var interval = args.length > 2 ? parsePositive(args[2]) : DEFAULT_SAMPLE_INTERVAL;
+                if (interval < 1) {
+                    send(sender, language.profileBadInterval);
+                    return true;
+                }
+                scheduler.setProfiler(new TickProfiler(PROFILER_CAPACITY, interval, Math.max(PROFILER_WINDOW, interval)));
+                send(sender, language.profileStarted, interval);
+            }
+            case "stop" -> {
+                scheduler.setProfiler(null);
+                send(sender, language.profileStopped);
+            }
+            case "report" -> {
+                var profiler = scheduler.getProfiler();
+                if (profiler == null) {
+                    send(sender, language.profileNotRunning, label);
+                    return true;
+                }
+                var topN = args.length > 2 ? parsePositive(args[2]) : DEFAULT_TOP_N;
+                if (topN < 1) {
+                    send(sender, language.profileBadTopN);
+                    return true;
+                }
+                sendReport(sender, profiler.report(topN));
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean migrate(CommandSender sender, String[] args) {
+        if (!sender.hasPermission(MIGRATE_PERMISSION)) {
+            send(sender, language.migrateNoPermission);
+            return true;
+        }
+        MigrationPlan plan;
+        try {
+            plan = MigrationPlan.load(migrationPlan);
+        } catch (IOException e) {
+            e.printStackTrace();
+            send(sender, language.migrateCannotReadPlan);
+            return true;
+        }
+        var action = args.length > 1 ? args[1].toLowerCase() : "status";
+        switch (action) {
+            case "status" -> {
+                if (plan == null) {
+                    send(sender, language.migrateNotScheduled);
+                    return true;
+                }
+                send(sender, language.migrateStatus, plan.getSource(), plan.getTarget(), plan.getStorageType());
+                if (plan.isStarted()) {
+                    send(sender, language.migrateInterrupted, plan.getCompletedRegions().size(), plan.getMachines());
+                }
+            }
+            case "cancel" -> {
+                if (plan == null) {
+                    send(sender, language.migrateNotScheduled);
+                    return true;
+                }
+                try {
+                    Files.deleteIfExists(migrationPlan);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    send(sender, language.migrateCannotCancel);
+                    return true;
+                }
+                send(sender, language.migrateCancelled);
+            }
+            default -> {
+                var target = parseEnum(MachineStorageBackend.class, args[1]);
+                var storageType = args.length > 2 ? parseEnum(MachineStorageType.class, args[2]) : optimization.defaultMachineStorageType;
+                if (target == null || storageType == null) {
+                    return false;
+                }
+                if (plan != null && plan.isStarted()) {
+                    send(sender, language.migrateAlreadyStarted);
+                    return true;
+                }
+                try {
+                    new MigrationPlan(optimization.machineStorageBackend, target, storageType).save(migrationPlan);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    send(sender, language.migrateCannotSchedule);
+                    return true;
+                }
+                send(sender, language.migrateScheduled, optimization.machineStorageBackend, target, storageType);
+            }
+        }
+        return true;
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String str) {
+        try {
+            return Enum.valueOf(type, str.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void sendReport(CommandSender sender, TickProfiler.Report report) {
+        var ticks = report.sampledTicks();
+        send(sender, language.profileReportHeader, ticks);
+        if (report.types().isEmpty()) {
+            send(sender, language.profileReportEmpty);
+            return;
+        }
+        for (TickProfiler.Entry entry : report.types()) {
+            send(sender, language.profileReportEntry, entry.nanosPerTick(ticks) / 1e6, entry.p99Nanos() / 1e6, entry.samples(), entry.name(), entry.namespace());
+        }
+        send(sender, language.profileReportByExtension);
+        for (TickProfiler.Entry entry : report.namespaces()) {
+            send(sender, language.profileReportExtensionEntry, entry.nanosPerTick(ticks) / 1e6, entry.name());
+        }
+    }
+
+    private static void send(CommandSender sender, String message, Object... args) {
+        sender.sendMessage(ChatColor.translateAlternateColorCodes('&', message.formatted(args).stripTrailing()));
+    }
+
+    private static int parsePositive(String str) {
+        try {
+            return Integer.parseInt(str);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String alias, @NotNull String[] args) {
+        return switch (args.length) {
+            case 1 -> List.of("profile", "migrate");
+            case 2 -> switch (args[0].toLowerCase()) {
+                case "profile" -> List.of("start", "stop", "report");
+                case "migrate" -> Stream.concat(Stream.of("status", "cancel"), Arrays.stream(MachineStorageBackend.values()).map(Enum::name)).toList();
+                default -> List.of();
+            };
+            case 3 -> args[0].equalsIgnoreCase("migrate") && parseEnum(MachineStorageBackend.class, args[1]) != null
+                    ? Arrays.stream(MachineStorageType.values()).map(Enum::name).toList()
+                    : List.of();
+            default -> List.of();
+        };
+    }
+}
@@ -23,6 +23,7 @@ package io.ib67.astralflow.internal.config;
 
 import com.google.gson.annotations.SerializedName;
 import io.ib67.astralflow.internal.listener.crafts.RecipeListener;
+import io.ib67.astralflow.internal.storage.impl.MachineStorageBackend;
 import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
 import org.jetbrains.annotations.ApiStatus;
 import org.spongepowered.configurate.objectmapping.ConfigSerializable;
@@ -73,6 +74,12 @@ public final class AstralFlowConfiguration {
     @SerializedName("security-settings")
     @Comment("Settings about security")
     public Security securitySetting = new Security();
+    /**
+     * Settings about metrics
+     */
+    @SerializedName("metrics-settings")
+    @Comment("Settings about metrics")
+    public MetricsSetting metricsSetting = new MetricsSetting();
 
     public AstralFlowConfiguration() {
         // empty constructor for CDN
@@ -114,6 +121,38 @@ public final class AstralFlowConfiguration {
         public boolean updateCheck = true;
     }
 
+    /**
+     * Metrics settings.
+     */
+    @ConfigSerializable
+    public static class MetricsSetting {
+        /**
+         * Port of the HTTP endpoint which serves metrics in Prometheus format at {@code /metrics}.
+         */
+        @Comment("""
+                Port of the HTTP endpoint which serves metrics in Prometheus text format at /metrics. Set -1 to disable
+                """)
+        @SerializedName("http-port")
+        public int httpPort = -1;
+        /**
+         * Address to bind the HTTP endpoint.
+         */
+        @Comment("""
+                Address to bind the HTTP endpoint. Keep it 127.0.0.1 unless your Prometheus is on another machine.
+                """)
+        @SerializedName("http-address")
+        public String httpAddress = "127.0.0.1";
+        /**
+         * How often should metrics be written into {@code metrics.prom} of the data folder, in ticks.
+         */
+        @Comment("""
+                How often should we write metrics into metrics.prom of the data folder, in ticks. Set -1 to disable
+                It is useful for node_exporter's textfile collector.
+                """)
+        @SerializedName("dump-interval")
+        public int dumpInterval = -1;
+    }
+
     /**
      * Optimizations.
      */
@@ -133,14 +172,12 @@ public final class AstralFlowConfiguration {
 
         /**
          * Can machine map be resized?
-         * Resizing happens when the elements amount reaches capacity * 0.75F. For resizing, the map will copy all values and re-process them, which may cause a performance hit.
-         * Machines usually have lesser elements, so it's recommended to enable this feature.
-         * If you don't know what this means, don't change this value.
+         *
+         * @deprecated machines are kept in a slot table which always grows by copying arrays, this option has no effect.
          */
+        @Deprecated
         @Comment("""
-                Can we resize the machine map?
-                Resizing happens when the elements amount reaches capacity * 0.75F. For resizing, the map will copy all values and re-process them, which may cause a performance hit.
-                Machines usually have lesser elements, so it's recommended to enable this feature. If you don't know what this means, don't change this value.
+                Deprecated, it has no effect now. Machines are kept in a table which grows cheaply.
                 """)
         @SerializedName("machine-map-resizing")
         public boolean allowMachineMapResizing = true;
@@ -175,9 +212,64 @@ public final class AstralFlowConfiguration {
          * The default serializer to use for machine storage.
          */
         @SerializedName("machine-storage-serializer")
-        @Comment("The default serializer to use for machine storage.")
+        @Comment("""
+                The default serializer to use for machine storage.
+                JSON is readable and supports delta encoding in the KV backend. BINARY is smaller and faster, states made of plain fields (numbers, strings, enums, UUIDs) are encoded without gson.
+                """)
         public MachineStorageType defaultMachineStorageType = MachineStorageType.JSON;
 
+        /**
+         * Where machines are stored. Changing this doesn't migrate existing machines.
+         */
+        @Comment("""
+                Where machines are stored. CHUNK stores them in the chunk NBT, REGION stores them in region files under the plugin folder, which keeps large machine data out of the world.
+                KV stores each machine as an entry of an embedded key-value store under the plugin folder, which suits worlds with huge amounts of machines.
+                Changing this doesn't migrate existing machines!
+                """)
+        @SerializedName("machine-storage-backend")
+        public MachineStorageBackend machineStorageBackend = MachineStorageBackend.CHUNK;
+
+        @Comment("""
+                Only for the KV backend and machines stored as JSON. Changed machines are saved as small patches of the fields which are changed,
+                and they're saved as a whole after this number of patches. Set 0 to always save them as a whole.
+                Machines are still serialized as a whole to compute patches, so this reduces bytes written, not serialization time.
+                """)
+        @SerializedName("machine-delta-compaction-interval")
+        public int machineDeltaCompactionInterval = 16;
+
+        /**
+         * Should states of loaded machines be journaled between full saves? They're replayed after a crash.
+         */
+        @Comment("""
+                Should we journal states of loaded machines between full saves? After a crash, they're restored when their chunks are loaded.
+                This allows a larger data-save-intervals with less data lost in crashes.
+                """)
+        @SerializedName("machine-journal")
+        public boolean machineJournal = false;
+
+        @Comment("""
+                How many machines can be checked for changes in a tick. Changed ones are written into the journal.
+                Only machines which have ticked since they're checked are serialized, changes of tickless or suspended machines are left to full saves.
+                """)
+        @SerializedName("machine-journal-machines-per-tick")
+        public int machineJournalMachinesPerTick = 64;
+
+        @Comment("""
+                How long (in milliseconds) should the journal gather changes before writing them to the disk together.
+                """)
+        @SerializedName("machine-journal-commit-interval")
+        public int machineJournalCommitInterval = 200;
+
+        /**
+         * Machine data of a chunk larger than this (in bytes) is compressed before being written into the chunk. -1 disables compression.
+         */
+        @Comment("""
+                Machine data of a chunk larger than this (in bytes) will be compressed before being written into the chunk. Set -1 to disable compression.
+                Helps with machines holding lots of items. Compressed chunks are still readable after disabling it.
+                """)
+        @SerializedName("machine-data-compression-threshold")
+        public int machineDataCompressionThreshold = 2048;
+
         /**
          * How many exceptions in ticks for us to take action for these exceptional machines? (Deactivation)
          * NOTE: This value WILL NOT decrease at present. If you want to catch frequently occurring exceptions, you can increase this value.
@@ -189,6 +281,61 @@ public final class AstralFlowConfiguration {
                 If you want to completely ban errored machines, set this value to 0.
                 """)
         public int machineTickExceptionLimit = 4;
+
+        /**
+         * How many threads should be used to decode machines in loading chunks?
+         * Decoding happens off the main thread and machines are activated in a later tick, which smooths fast travelling over machine-dense areas.
+         * Machine constructors must be thread-safe to enable this. 0 means loading synchronously.
+         */
+        @Comment("""
+                How many threads should be used to decode machines in loading chunks? Set 0 to load them synchronously in the main thread.
+                Decoding happens off the main thread and machines are activated in a later tick, which reduces lag spikes while players are flying over machine-dense areas.
+                Only enable it if all of your extensions create machines without touching the world in their constructors.
+                """)
+        @SerializedName("chunk-loader-threads")
+        public int chunkLoaderThreads = 0;
+
+        /**
+         * Should tickless machines be deserialized when their chunks are loaded?
+         * If not, they're deserialized when they're requested for the first time, and untouched ones are written back as-is.
+         */
+        @Comment("""
+                Should tickless machines be loaded with their chunks? Machines that need ticking are always loaded immediately.
+                If false, tickless machines are loaded when they're used for the first time, which makes loading chunks with lots of passive machines faster.
+                """)
+        @SerializedName("load-tickless-machines-eagerly")
+        public boolean loadTicklessMachinesEagerly = true;
+
+        /**
+         * Machines within this distance (in chunks) of a player are ticked every tick. -1 disables activation range.
+         */
+        @Comment("""
+                Machines within this distance (in chunks) of any player are ticked every tick. Set -1 to tick all machines at full rate.
+                Machines annotated with @AlwaysActive are never throttled.
+                """)
+        @SerializedName("machine-activation-range")
+        public int machineActivationRange = -1;
+
+        /**
+         * Machines within this distance (in chunks) of a player, but out of {@link #machineActivationRange}, are ticked at a reduced rate.
+         */
+        @Comment("""
+                Machines within this distance (in chunks) of any player but out of machine-activation-range are ticked every reduced-machine-tick-interval ticks.
+                """)
+        @SerializedName("reduced-machine-activation-range")
+        public int reducedMachineActivationRange = 8;
+
+        @Comment("""
+                How often should machines in reduced activation range be ticked, in ticks.
+                """)
+        @SerializedName("reduced-machine-tick-interval")
+        public int reducedMachineTickInterval = 4;
+
+        @Comment("""
+                How often should machines out of any activation range be ticked, in ticks. Set 0 to suspend them until players approach.
+                """)
+        @SerializedName("inactive-machine-tick-interval")
+        public int inactiveMachineTickInterval = 20;
     }
 
     /**
@@ -31,6 +31,31 @@ public final class Language {
             &8&o 这通常不需要太长时间 ( < 3min )
             """;
     public final String anyItemName = "&a?? 任何物品 ??";
+    // /astralflow profile, arguments are filled in with String#formatted.
+    public final String profileBadInterval = "&c 采样间隔必须是正整数。";
+    public final String profileStarted = "&a 性能分析已启动，每 %d tick 采样一次。";
+    public final String profileStopped = "&a 性能分析已停止。";
+    public final String profileNotRunning = "&c 性能分析未在运行，请使用 /%s profile start 启动。";
+    public final String profileBadTopN = "&c 显示条数必须是正整数。";
+    public final String profileReportHeader = "&b 共采样 %d tick，机器 tick 耗时如下：";
+    public final String profileReportEmpty = "&7  尚无机器被 tick。";
+    public final String profileReportEntry = "&e  %.3f ms/t &7(p99 %.3f ms, %d 次采样) &f%s &7[%s]";
+    public final String profileReportByExtension = "&b 按扩展统计：";
+    public final String profileReportExtensionEntry = "&e  %.3f ms/t &f%s";
+    // /astralflow migrate
+    public final String migrateNoPermission = "&c 你没有迁移机器的权限。";
+    public final String migrateCannotReadPlan = "&c 无法读取已计划的迁移，详见控制台。";
+    public final String migrateNotScheduled = "&7 当前没有计划中的迁移。";
+    public final String migrateStatus = "&b 已计划从 %s 迁移到 %s (%s)。";
+    public final String migrateInterrupted = "&e  迁移在完成 %d 个区域文件、%d 台机器后中断，将在下次启动时继续。";
+    public final String migrateCannotCancel = "&c 无法取消迁移，详见控制台。";
+    public final String migrateCancelled = "&a 迁移已取消。";
+    public final String migrateAlreadyStarted = "&c 迁移已经开始。请重启服务器以完成迁移，或先将其取消。";
+    public final String migrateCannotSchedule = "&c 无法计划迁移，详见控制台。";
+    public final String migrateScheduled = """
+            &a 已计划从 %s 迁移到 %s (%s)。
+            &a 迁移会在下次启动、机器加载之前进行，重启服务器即可开始。
+            """;
     @Getter
     private final String name = "zh_CN";
 }
@@ -26,12 +26,12 @@ import io.ib67.astralflow.api.AstralFlowAPI;
 import io.ib67.astralflow.api.AstralHelper;
 import io.ib67.astralflow.api.events.MachineBlockBreakEvent;
 import io.ib67.astralflow.api.events.MachineBlockPlaceEvent;
+import io.ib67.astralflow.api.events.MachinesExplodeEvent;
 import io.ib67.astralflow.api.events.PlayerInteractMachineEvent;
 import io.ib67.astralflow.hook.HookType;
 import io.ib67.astralflow.machines.IMachine;
 import io.ib67.astralflow.machines.trait.Pushable;
 import lombok.RequiredArgsConstructor;
-import lombok.SneakyThrows;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -45,11 +45,8 @@ import org.bukkit.event.block.*;
 import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.event.inventory.InventoryOpenEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
-import org.bukkit.util.Vector;
-import org.jetbrains.annotations.NotNull;
 
-import java.util.Collection;
-import java.util.Comparator;
+import java.util.*;
 
 @RequiredArgsConstructor
 public final class BlockListener implements Listener {
@@ -57,12 +54,13 @@ public final class BlockListener implements Listener {
 
     @EventHandler(ignoreCancelled = true)
     public void onBlockPlace(BlockPlaceEvent event) {
-        if (flow.getMachineManager().isMachine(event.getBlockPlaced()) && !event.isCancelled()) {
+        var placedMachine = flow.getMachineManager().findMachine(event.getBlockPlaced());
+        if (placedMachine != null && !event.isCancelled()) {
             event.setCancelled(flow.callHooks(
                     HookType.MACHINE_PLACE,
                     new MachineBlockPlaceEvent(
                             event.getBlockPlaced(),
-                            flow.getMachineManager().getAndLoadMachine(event.getBlockPlaced().getLocation()),
+                            placedMachine,
                             event.getPlayer()
                     )
             ));
@@ -96,13 +94,13 @@ public final class BlockListener implements Listener {
         if (!event.hasBlock()) {
             return;
         }
-        var clickedBlock = event.getClickedBlock();
-        if (flow.getMachineManager().isMachine(clickedBlock)) {
+        var machine = flow.getMachineManager().findMachine(event.getClickedBlock());
+        if (machine != null) {
             var evt = PlayerInteractMachineEvent.builder()
                     .cancelled(false)
                     .itemInHand(event.getItem())
                     .clickType(event.getAction())
-                    .machine(flow.getMachineManager().getAndLoadMachine(event.getClickedBlock().getLocation()))
+                    .machine(machine)
                     .player(event.getPlayer())
                     .build();
             Bukkit.getPluginManager().callEvent(evt);
@@ -115,12 +113,12 @@ public final class BlockListener implements Listener {
         underly_onBlockBreak(event);
     }
 
-    private MachineBlockBreakEvent underly_onBlockBreak(BlockBreakEvent event) {
+    private void underly_onBlockBreak(BlockBreakEvent event) {
         var clickedBlock = event.getBlock();
         event.setCancelled(flow.callHooks(HookType.BLOCK_BREAK_LOW, event));
-        if (flow.getMachineManager().isMachine(clickedBlock)) {
+        var machine = flow.getMachineManager().findMachine(clickedBlock);
+        if (machine != null) {
             event.setDropItems(false);
-            var machine = flow.getMachineManager().getAndLoadMachine(clickedBlock.getLocation());
             var evt = MachineBlockBreakEvent.builder()
                     .cancelled(false)
                     .dropItem(true)
@@ -134,12 +132,11 @@ public final class BlockListener implements Listener {
             } else {
                 AstralFlow.getInstance().getMachineManager().terminateAndRemoveMachine(machine);
             }
-            return evt;
+            return;
         }
         if (!event.isCancelled()) {
             flow.callHooks(HookType.BLOCK_BREAK, event);
         }
-        return null;
     }
 
     @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
@@ -169,35 +166,58 @@ public final class BlockListener implements Listener {
 
     @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
     public void onBlockExplode(BlockExplodeEvent event) {
-        var it = event.blockList().iterator();
-        while (it.hasNext()) {
-            var block = it.next();
-            var evt = new BlockBreakEvent(block, null);
-            var mb = underly_onBlockBreak(evt);
-            if (mb != null && mb.isDropItem()) {
-                it.remove();
-                block.setType(Material.AIR);
-                continue;
-            }
-            if (evt.isCancelled()) {
-                it.remove();
+        var blocks = event.blockList();
+        var machines = flow.getMachineManager().findMachines(blocks);
+        boolean hasBreakHooks = !flow.getHooks(HookType.BLOCK_BREAK_LOW).isEmpty() || !flow.getHooks(HookType.BLOCK_BREAK).isEmpty();
+        if (hasBreakHooks) { // there are thousands of blocks in a tnt cannon volley, don't make events for nobody.
+            var it = blocks.iterator();
+            while (it.hasNext()) {
+                var block = it.next();
+                var evt = new BlockBreakEvent(block, null);
+                evt.setCancelled(flow.callHooks(HookType.BLOCK_BREAK_LOW, evt));
+                if (!evt.isCancelled() && !machines.containsKey(block)) {
+                    flow.callHooks(HookType.BLOCK_BREAK, evt);
+                }
+                if (evt.isCancelled()) {
+                    machines.remove(block);
+                    it.remove();
+                }
             }
         }
+        if (!machines.isEmpty()) {
+            onMachinesExplode(event.getBlock(), blocks, machines);
+        }
         flow.callHooks(HookType.BLOCK_EXPLODE, event);
     }
 
-    // for slime blocks. Thanks to `Plugindustry/WheelCore` for their codes.
-    private static Comparator<IMachine> getSuitableComparator(BlockFace direction) {
-        if (direction.getModX() == 1)
-            return Comparator.<IMachine>comparingDouble(e -> e.getLocation().getX()).reversed();
-        else if (direction.getModX() == -1) return Comparator.comparingDouble(e -> e.getLocation().getX());
-        else if (direction.getModY() == 1)
-            return Comparator.<IMachine>comparingDouble(e -> e.getLocation().getY()).reversed();
-        else if (direction.getModY() == -1) return Comparator.comparingDouble(e -> e.getLocation().getY());
-        else if (direction.getModZ() == 1)
-            return Comparator.<IMachine>comparingDouble(e -> e.getLocation().getZ()).reversed();
-        else if (direction.getModZ() == -1) return Comparator.comparingDouble(e -> e.getLocation().getZ());
-        else throw new IllegalArgumentException("Invalid direction");
+    private void onMachinesExplode(Block source, List<Block> blocks, Map<Block, IMachine> machines) {
+        var protectedBlocks = new HashSet<>(machines.keySet());
+        var explodeEvent = new MachinesExplodeEvent(source, machines);
+        Bukkit.getPluginManager().callEvent(explodeEvent);
+        if (explodeEvent.isCancelled()) {
+            blocks.removeAll(protectedBlocks);
+            return;
+        }
+        protectedBlocks.removeAll(machines.keySet()); // the ones removed by listeners.
+        for (Map.Entry<Block, IMachine> entry : machines.entrySet()) {
+            var evt = MachineBlockBreakEvent.builder()
+                    .cancelled(false)
+                    .dropItem(true)
+                    .block(entry.getKey())
+                    .machine(entry.getValue())
+                    .build();
+            Bukkit.getPluginManager().callEvent(evt);
+            if (evt.isCancelled()) {
+                protectedBlocks.add(entry.getKey());
+                continue;
+            }
+            flow.getMachineManager().terminateAndRemoveMachine(entry.getValue());
+            if (evt.isDropItem()) {
+                protectedBlocks.add(entry.getKey()); // drops are up to the machine
+                entry.getKey().setType(Material.AIR);
+            }
+        }
+        blocks.removeAll(protectedBlocks);
     }
 
     @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
@@ -217,29 +237,39 @@ public final class BlockListener implements Listener {
     }
 
     private boolean onBlockMove(Collection<? extends Block> movingBlocks, BlockFace direction) {
-        var machines = movingBlocks.stream().filter(AstralHelper::hasMachine).map(AstralHelper::getMachine).toList();
+        var machines = flow.getMachineManager().findMachines(movingBlocks).values();
         if (machines.isEmpty()) {
             return false;
         }
-        if (!machines.stream().allMatch(it -> it instanceof Pushable)) {
+        var factories = AstralFlow.getInstance().getFactories();
+        if (!machines.stream().allMatch(it -> factories.getDescriptor(it.getClass()).pushable())) {
             return true;
-        } else {
-            // all are pushable
-            var comparator = getSuitableComparator(direction);
-            machines.stream()
-                    .sorted(comparator)
-                    .filter(e -> e instanceof Pushable)
-                    .map(e -> (Pushable) e)
-                    .forEach(e -> handleMachineMove(e, ((IMachine) e).getLocation().clone().add(direction.getDirection()), direction.getDirection()));
-            return false;
         }
+        // all are pushable, they're detached together so the order doesn't matter for the storage.
+        // but machines may look at their neighbours when they're pushed, so the front ones go first.
+        var vector = direction.getDirection();
+        var moves = new LinkedHashMap<Location, Location>(machines.size());
+        machines.stream().sorted(getSuitableComparator(direction)).forEach(machine -> {
+            var prevLoc = AstralHelper.purifyLocation(machine.getLocation().clone());
+            var newLoc = prevLoc.clone().add(vector);
+            ((Pushable) machine).push(newLoc, vector);
+            moves.put(prevLoc, newLoc);
+        });
+        flow.getMachineManager().relocateMachines(moves);
+        return false;
     }
 
-    @SneakyThrows
-    private static void handleMachineMove(@NotNull Pushable mach, Location loc, Vector direction) {
-        var machine = (IMachine) mach;
-        var prevLoc = AstralHelper.purifyLocation(machine.getLocation().clone());
-        mach.push(loc, direction);
-        machine.getProperty().getManager().updateMachineLocation(prevLoc, loc, machine);
+    // for slime blocks. Thanks to `Plugindustry/WheelCore` for their codes.
+    private static Comparator<IMachine> getSuitableComparator(BlockFace direction) {
+        if (direction.getModX() == 1)
+            return Comparator.<IMachine>comparingDouble(e -> e.getLocation().getX()).reversed();
+        else if (direction.getModX() == -1) return Comparator.comparingDouble(e -> e.getLocation().getX());
+        else if (direction.getModY() == 1)
+            return Comparator.<IMachine>comparingDouble(e -> e.getLocation().getY()).reversed();
+        else if (direction.getModY() == -1) return Comparator.comparingDouble(e -> e.getLocation().getY());
+        else if (direction.getModZ() == 1)
+            return Comparator.<IMachine>comparingDouble(e -> e.getLocation().getZ()).reversed();
+        else if (direction.getModZ() == -1) return Comparator.comparingDouble(e -> e.getLocation().getZ());
+        else throw new IllegalArgumentException("Invalid direction");
     }
 }
@@ -34,8 +34,9 @@ import org.bukkit.event.Listener;
 public final class MachineListener implements Listener {
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true) // latest to know
     private void onInteract(PlayerInteractMachineEvent event) {
-        if (event.getMachine() instanceof Interactive) {
-            ((Interactive) event.getMachine()).onInteract(event.getClickType(), event.getPlayer(), event.getItemInHand());
+        var machine = event.getMachine();
+        if (AstralFlow.getInstance().getFactories().getDescriptor(machine.getClass()).interactive()) {
+            ((Interactive) machine).onInteract(event.getClickType(), event.getPlayer(), event.getItemInHand());
         }
     }
 
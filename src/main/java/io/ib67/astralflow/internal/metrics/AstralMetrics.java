@@ -0,0 +1,59 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.metrics;
+
+import io.ib67.astralflow.metrics.Counter;
+import io.ib67.astralflow.metrics.Histogram;
+import io.ib67.astralflow.metrics.IMetricsRegistry;
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * Metrics of AstralFlow itself. They're static so that hot paths don't have to look them up.
+ */
+@ApiStatus.Internal
+public final class AstralMetrics {
+    public static final Histogram SCHEDULER_TICK_TIME = new Histogram("astralflow_scheduler_tick_nanoseconds", "Time spent in a tick of the scheduler");
+    public static final Counter TICKABLES_TICKED = new Counter("astralflow_scheduler_ticked_total", "Tickables (mostly machines) ticked by the scheduler");
+    public static final Histogram CHUNK_LOAD_TIME = new Histogram("astralflow_chunk_load_nanoseconds", "Time spent decoding machines of a loading chunk");
+    public static final Histogram CHUNK_FINALIZE_TIME = new Histogram("astralflow_chunk_finalize_nanoseconds", "Time spent saving machines of a chunk");
+    public static final Counter SERIALIZED_BYTES = new Counter("astralflow_machine_serialized_bytes_total", "Bytes of serialized machines");
+    public static final Counter DESERIALIZED_BYTES = new Counter("astralflow_machine_deserialized_bytes_total", "Bytes of deserialized machines");
+    public static final Counter RECIPE_MATCHES = new Counter("astralflow_recipe_matches_total", "Attempts to match recipes");
+    public static final Counter RECIPE_MATCH_HITS = new Counter("astralflow_recipe_match_hits_total", "Attempts which found a recipe");
+    public static final Histogram HOOK_DISPATCH_TIME = new Histogram("astralflow_hook_dispatch_nanoseconds", "Time spent calling hooks of an event");
+
+    private AstralMetrics() {
+
+    }
+
+    public static void registerAll(IMetricsRegistry registry) {
+        registry.register(SCHEDULER_TICK_TIME);
+        registry.register(TICKABLES_TICKED);
+        registry.register(CHUNK_LOAD_TIME);
+        registry.register(CHUNK_FINALIZE_TIME);
+        registry.register(SERIALIZED_BYTES);
+        registry.register(DESERIALIZED_BYTES);
+        registry.register(RECIPE_MATCHES);
+        registry.register(RECIPE_MATCH_HITS);
+        registry.register(HOOK_DISPATCH_TIME);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import io.ib67.astralflow.metrics.IMetricsRegistry;
+import io.ib67.internal.util.bukkit.Log;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Exposes metrics at {@code /metrics} of a local HTTP endpoint, or dumps them into a file.
+ */
+@ApiStatus.Internal
+@RequiredArgsConstructor
+public final class MetricsExporter {
+    private final IMetricsRegistry registry;
+    private HttpServer server;
+
+    public void startHttp(String address, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/metrics", exchange -> {
+            try (exchange) {
+                var body = registry.exportPrometheus().getBytes(UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+        });
+        server.start(); // requests are served by its own dispatcher thread.
+    }
+
+    public void dump(Path file) {
+        try {
+            var temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temp, registry.exportPrometheus());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.warn("Metrics", "Cannot dump metrics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+}
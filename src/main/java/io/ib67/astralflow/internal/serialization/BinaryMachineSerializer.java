@@ -0,0 +1,173 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+
+package io.ib67.astralflow.internal.serialization;
+
+import com.google.gson.Gson;
+import io.ib67.astralflow.internal.metrics.AstralMetrics;
+import io.ib67.astralflow.internal.serialization.codec.StateCodec;
+import io.ib67.astralflow.internal.serialization.codec.StateCodecCompiler;
+import io.ib67.astralflow.internal.serialization.codec.StateCodecs;
+import io.ib67.astralflow.internal.storage.MachineSerializer;
+import io.ib67.astralflow.item.ItemKey;
+import io.ib67.astralflow.machines.IMachine;
+import io.ib67.astralflow.machines.IState;
+import io.ib67.astralflow.machines.MachineProperty;
+import io.ib67.astralflow.machines.PrimitiveMachineState;
+import io.ib67.astralflow.manager.IFactoryManager;
+import io.ib67.astralflow.manager.IMachineManager;
+import io.ib67.internal.util.bukkit.BukkitGson;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.UUID;
+
+import static io.ib67.astralflow.internal.storage.impl.chunk.BufferUtil.*;
+
+/**
+ * Serializes machines into a compact binary form. States are encoded by {@link StateCodecs} when their classes are supported, otherwise by gson.
+ * <p>
+ * [uuid (16 bytes)][machineType string][world string][x double][y double][z double][stateType string, empty if there's no state][stateFormat byte][state]
+ * <p>
+ * The state is a {@link StateCodec} output if stateFormat is {@link #FORMAT_COMPILED}, or a json string if it's {@link #FORMAT_JSON}.
+ */
+@ApiStatus.Internal
+public final class BinaryMachineSerializer implements MachineSerializer {
+    private static final byte FORMAT_COMPILED = 0;
+    private static final byte FORMAT_JSON = 1;
+
+    private final IFactoryManager factories;
+    private final IMachineManager defaultManager;
+    private final Gson stateSerializer;
+
+    /**
+     * @param defaultManager manager of created machines, which can be null if they're only created to be serialized again, e.g. when migrating.
+     */
+    public BinaryMachineSerializer(IFactoryManager factories, @Nullable IMachineManager defaultManager) {
+        Objects.requireNonNull(factories, "factories cannot be null");
+        this.factories = factories;
+        this.defaultManager = defaultManager;
+        this.stateSerializer = BukkitGson.BUILDER
+                .registerTypeHierarchyAdapter(ItemKey.class, new ItemKeySerializer())
+                .registerTypeHierarchyAdapter(PrimitiveMachineState.class, new PrimitiveStateSerializer()).create(); // same as MachineStorageHelper
+    }
+
+    @Override
+    public byte[] toData(IMachine machine) {
+        var buf = Unpooled.buffer(128);
+        buf.writeLong(machine.getId().getMostSignificantBits());
+        buf.writeLong(machine.getId().getLeastSignificantBits());
+        writeString3(machine.getType().getName(), buf);
+        var loc = machine.getLocation();
+        writeString3(loc.getWorld().getName(), buf);
+        buf.writeDouble(loc.getX());
+        buf.writeDouble(loc.getY());
+        buf.writeDouble(loc.getZ());
+        writeState(machine.getState(), buf);
+        var data = ByteBufUtil.getBytes(buf);
+        AstralMetrics.SERIALIZED_BYTES.add(data.length);
+        return data;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeState(IState state, ByteBuf buf) {
+        if (state == null) {
+            writeString3("", buf);
+            return;
+        }
+        var type = state.getType();
+        writeString3(type.getName(), buf);
+        var codec = type == state.getClass() ? (StateCodec<IState>) StateCodecs.INSTANCE.get(type) : null; // gson serializes the actual class
+        if (codec != null) {
+            buf.writeByte(FORMAT_COMPILED);
+            codec.encode(state, buf);
+        } else {
+            buf.writeByte(FORMAT_JSON);
+            writeString3(stateSerializer.toJson(state), buf);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public IMachine fromData(byte[] data) {
+        AstralMetrics.DESERIALIZED_BYTES.add(data.length);
+        var buf = Unpooled.wrappedBuffer(data);
+        var uuid = new UUID(buf.readLong(), buf.readLong());
+        var type = readString3(buf);
+        var location = new Location(Bukkit.getWorld(readString3(buf)), buf.readDouble(), buf.readDouble(), buf.readDouble());
+        var state = readState(buf);
+
+        var clazz = TypeRegistry.INSTANCE.resolveOrNull(type);
+        if (clazz == null || !IMachine.class.isAssignableFrom(clazz)) {
+            throw new IllegalArgumentException("Can't find machine type: " + type);
+        }
+        var factory = factories.getMachineFactory((Class<? extends IMachine>) clazz);
+        if (factory == null) {
+            throw new IllegalArgumentException("No factories have registered for this type: " + type);
+        }
+        return factory.createMachine(
+                MachineProperty
+                        .builder()
+                        .manager(defaultManager)
+                        .location(location)
+                        .state(state)
+                        .uuid(uuid)
+                        .build()
+        );
+    }
+
+    private IState readState(ByteBuf buf) {
+        var name = readString3(buf);
+        if (name.isEmpty()) {
+            return null;
+        }
+        var type = TypeRegistry.INSTANCE.resolveOrNull(name);
+        if (type == null || !IState.class.isAssignableFrom(type)) {
+            throw new IllegalArgumentException("Can't find state type: " + name);
+        }
+        var format = buf.readByte();
+        if (format == FORMAT_JSON) {
+            return (IState) stateSerializer.fromJson(readString3(buf), type);
+        }
+        if (format != FORMAT_COMPILED) {
+            throw new IllegalArgumentException("Unknown state format: " + format);
+        }
+        var codec = StateCodecs.INSTANCE.get(type);
+        if (codec == null) { // the class has been changed, let gson try its best.
+            return (IState) stateSerializer.fromJson(StateCodecCompiler.toJson(buf), type);
+        }
+        return (IState) codec.decode(buf);
+    }
+
+    @Override
+    public UUID readId(byte[] data) {
+        var buf = ByteBuffer.wrap(data);
+        return new UUID(buf.getLong(), buf.getLong());
+    }
+}
@@ -46,6 +46,13 @@ public final class JsonMachineSerializer implements JsonSerializer<IMachine>, Js
     private final IFactoryManager factories;
     private final IMachineManager defaultManager;
 
+    /**
+     * Read the id of a serialized machine without creating it.
+     */
+    public static UUID readId(JsonObject machine) {
+        return UUID.fromString(machine.get(KEY_ID).getAsString());
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public IMachine deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
@@ -56,7 +63,7 @@ public final class JsonMachineSerializer implements JsonSerializer<IMachine>, Js
         Location location = context.deserialize(jo.get(KEY_LOCATION), Location.class);
         var type = jo.getAsJsonPrimitive(KEY_TYPE).getAsString();
 
-        return fromAny(() -> (Object) Class.forName(type)) // to be caught.
+        return fromAny(() -> (Object) TypeRegistry.INSTANCE.resolve(type)) // to be caught.
                 .map(clazz -> {
                     var factory = factories.getMachineFactory((Class<? extends IMachine>) clazz);
                     if (factory == null) {
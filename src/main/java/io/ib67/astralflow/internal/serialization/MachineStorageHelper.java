@@ -22,22 +22,27 @@
 package io.ib67.astralflow.internal.serialization;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import io.ib67.astralflow.internal.metrics.AstralMetrics;
 import io.ib67.astralflow.internal.storage.MachineSerializer;
 import io.ib67.astralflow.item.ItemKey;
 import io.ib67.astralflow.machines.IMachine;
 import io.ib67.astralflow.machines.IState;
+import io.ib67.astralflow.machines.PrimitiveMachineState;
 import io.ib67.astralflow.manager.IFactoryManager;
 import io.ib67.astralflow.manager.IMachineManager;
 import io.ib67.internal.util.bukkit.BukkitGson;
 
 import java.nio.charset.StandardCharsets;
+import java.util.UUID;
 
 public final class MachineStorageHelper implements MachineSerializer {
     private final Gson MACHINE_SERIALIZER;
 
     public MachineStorageHelper(IFactoryManager factories, IMachineManager manager) {
         var a = BukkitGson.BUILDER
-                .registerTypeHierarchyAdapter(ItemKey.class, new ItemKeySerializer()).create();
+                .registerTypeHierarchyAdapter(ItemKey.class, new ItemKeySerializer())
+                .registerTypeHierarchyAdapter(PrimitiveMachineState.class, new PrimitiveStateSerializer()).create();
         MACHINE_SERIALIZER = BukkitGson.BUILDER
                 .registerTypeHierarchyAdapter(IMachine.class, new JsonMachineSerializer(factories, manager))
                 .registerTypeHierarchyAdapter(IState.class, new StateSerializer(a))
@@ -58,11 +63,19 @@ public final class MachineStorageHelper implements MachineSerializer {
 
     @Override
     public IMachine fromData(byte[] o) {
+        AstralMetrics.DESERIALIZED_BYTES.add(o.length);
         return fromJson(new String(o));
     }
 
     @Override
     public byte[] toData(IMachine machine) {
-        return toJson(machine).getBytes(StandardCharsets.UTF_8);
+        var data = toJson(machine).getBytes(StandardCharsets.UTF_8);
+        AstralMetrics.SERIALIZED_BYTES.add(data.length);
+        return data;
+    }
+
+    @Override
+    public UUID readId(byte[] data) {
+        return JsonMachineSerializer.readId(JsonParser.parseString(new String(data, StandardCharsets.UTF_8)).getAsJsonObject());
     }
 }
@@ -0,0 +1,96 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+
+package io.ib67.astralflow.internal.serialization;
+
+import com.google.gson.*;
+import io.ib67.astralflow.machines.PrimitiveMachineState;
+import io.ib67.astralflow.machines.StateLayout;
+import lombok.SneakyThrows;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Type;
+
+/**
+ * Writes {@link PrimitiveMachineState}s as a flat object of slot names to values. Unknown names are ignored and missing slots are left zero.
+ */
+@ApiStatus.Internal
+public final class PrimitiveStateSerializer implements JsonSerializer<PrimitiveMachineState>, JsonDeserializer<PrimitiveMachineState> {
+    private static final ClassValue<MethodHandle> CONSTRUCTORS = new ClassValue<>() {
+        @Override
+        @SneakyThrows
+        protected MethodHandle computeValue(Class<?> type) {
+            var constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(constructor).asType(MethodType.methodType(PrimitiveMachineState.class));
+        }
+    };
+
+    @Override
+    public JsonElement serialize(PrimitiveMachineState src, Type typeOfSrc, JsonSerializationContext context) {
+        var jo = new JsonObject();
+        var layout = src.getLayout();
+        for (StateLayout.IntKey key : layout.getIntKeys()) {
+            jo.addProperty(key.getName(), src.get(key));
+        }
+        for (StateLayout.LongKey key : layout.getLongKeys()) {
+            jo.addProperty(key.getName(), src.get(key));
+        }
+        for (StateLayout.DoubleKey key : layout.getDoubleKeys()) {
+            jo.addProperty(key.getName(), src.get(key));
+        }
+        return jo;
+    }
+
+    @Override
+    @SneakyThrows
+    public PrimitiveMachineState deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
+        if (!(typeOfT instanceof Class<?> type)) {
+            throw new JsonParseException("Unknown state type: " + typeOfT);
+        }
+        var jo = json.getAsJsonObject();
+        var state = (PrimitiveMachineState) CONSTRUCTORS.get(type).invokeExact();
+        var layout = state.getLayout();
+        for (StateLayout.IntKey key : layout.getIntKeys()) {
+            var value = jo.get(key.getName());
+            if (value != null && !value.isJsonNull()) {
+                state.set(key, value.getAsInt());
+            }
+        }
+        for (StateLayout.LongKey key : layout.getLongKeys()) {
+            var value = jo.get(key.getName());
+            if (value != null && !value.isJsonNull()) {
+                state.set(key, value.getAsLong());
+            }
+        }
+        for (StateLayout.DoubleKey key : layout.getDoubleKeys()) {
+            var value = jo.get(key.getName());
+            if (value != null && !value.isJsonNull()) {
+                state.set(key, value.getAsDouble());
+            }
+        }
+        return state;
+    }
+}
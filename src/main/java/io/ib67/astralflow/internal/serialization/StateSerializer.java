@@ -40,7 +40,7 @@ public final class StateSerializer implements JsonSerializer<IState>, JsonDeseri
         // assertion 1. context is a bukkit compatible serializer
         var jo = json.getAsJsonObject();
         var clazName = jo.get(KEY_TYPE).getAsString();
-        return (IState) fromAny(() -> Class.forName(clazName))
+        return (IState) fromAny(() -> TypeRegistry.INSTANCE.resolve(clazName))
                 .map(claz -> defaultSerializer.fromJson(jo.getAsJsonObject(KEY_DATA), (Type) claz))
                 .orElseThrow(() -> new JsonParseException("Can't find state type: " + clazName));
     }
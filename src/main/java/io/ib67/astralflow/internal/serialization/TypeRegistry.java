@@ -0,0 +1,165 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.serialization;
+
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves type names that appear in machine data to classes, so that loading a chunk full of machines doesn't pay
+ * a {@link Class#forName(String)} for every machine and state.
+ * <p>
+ * Every resolved type gets an id which is stable until the server stops. Thread-safe, chunk decoders may use it concurrently.
+ * <p>
+ * Classes are weakly referenced, so plugins providing machines can be reloaded without their class loaders being pinned,
+ * and the registry is {@link #clear() cleared} when AstralFlow is disabled. A reloaded class keeps the id of its name.
+ */
+@ApiStatus.Internal
+public final class TypeRegistry {
+    public static final TypeRegistry INSTANCE = new TypeRegistry();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final List<Entry> entriesById = new ArrayList<>();
+
+    TypeRegistry() { // tests use their own registries.
+
+    }
+
+    /**
+     * Resolve the class by its name.
+     *
+     * @param name binary name of the class
+     * @return the class
+     * @throws ClassNotFoundException if the class cannot be found. Failures are not cached since the class may be provided later.
+     */
+    public Class<?> resolve(String name) throws ClassNotFoundException {
+        return lookup(name).type();
+    }
+
+    /**
+     * @param name binary name of the class
+     * @return the class, or null if it cannot be found.
+     */
+    @Nullable
+    public Class<?> resolveOrNull(String name) {
+        try {
+            return resolve(name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the id of a type.
+     *
+     * @param name binary name of the class
+     * @return id
+     * @throws ClassNotFoundException if the class cannot be found.
+     */
+    public int getId(String name) throws ClassNotFoundException {
+        return lookup(name).id();
+    }
+
+    /**
+     * Get the id of a loaded type.
+     *
+     * @param type the class
+     * @return id
+     */
+    public int getId(Class<?> type) {
+        Objects.requireNonNull(type, "type cannot be null");
+        var entry = entries.get(type.getName());
+        return entry != null && entry.type() == type ? entry.id() : register(type.getName(), type).id();
+    }
+
+    /**
+     * @param id id of the type
+     * @return the class, or null if the id is unknown or the class has been unloaded.
+     */
+    @Nullable
+    public Class<?> getType(int id) {
+        synchronized (entriesById) {
+            return id < 0 || id >= entriesById.size() ? null : entriesById.get(id).type();
+        }
+    }
+
+    /**
+     * Get the canonical instance of a type name, so that indexes of thousands of chunks share the same strings.
+     *
+     * @param name type name
+     * @return interned name
+     */
+    public String intern(String name) {
+        Objects.requireNonNull(name, "name cannot be null");
+        var entry = entries.get(name);
+        return entry == null ? name : entry.name();
+    }
+
+    private Entry lookup(String name) throws ClassNotFoundException {
+        Objects.requireNonNull(name, "name cannot be null");
+        var entry = entries.get(name);
+        if (entry != null && entry.type() != null) {
+            return entry;
+        }
+        return register(name, Class.forName(name)); // don't hold the lock while loading classes.
+    }
+
+    private Entry register(String name, Class<?> type) {
+        synchronized (entriesById) {
+            var entry = entries.get(name);
+            if (entry == null) {
+                entry = new Entry(entriesById.size(), name, new WeakReference<>(type));
+                entriesById.add(entry);
+                entries.put(name, entry);
+            } else if (entry.type() != type) { // unloaded or reloaded
+                entry = new Entry(entry.id(), entry.name(), new WeakReference<>(type));
+                entriesById.set(entry.id(), entry);
+                entries.put(name, entry);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Forget all the types. Ids are reassigned afterwards, so it should only be called when nothing is using them.
+     */
+    public void clear() {
+        synchronized (entriesById) {
+            entries.clear();
+            entriesById.clear();
+        }
+    }
+
+    private record Entry(int id, String name, WeakReference<Class<?>> typeRef) {
+        @Nullable
+        Class<?> type() {
+            return typeRef.get();
+        }
+    }
+}
@@ -0,0 +1,497 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+
+package io.ib67.astralflow.internal.serialization.codec;
+
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.annotations.JsonAdapter;
+import io.ib67.astralflow.machines.PrimitiveMachineState;
+import io.ib67.astralflow.machines.StateLayout;
+import io.netty.buffer.ByteBuf;
+import lombok.SneakyThrows;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static io.ib67.astralflow.internal.storage.impl.chunk.BufferUtil.*;
+
+/**
+ * Builds {@link StateCodec}s out of state classes. Fields are read and written by {@link MethodHandle}s instead of going through Gson's reflective adapters.
+ * <p>
+ * Supported shapes are {@link PrimitiveMachineState}s, records and concrete classes with a no-arg constructor, whose serialized fields
+ * (non-static, non-transient, including inherited ones) are all primitives, boxed primitives, {@link String}s, {@link UUID}s or enums. Anything else is left to Gson.
+ * <p>
+ * Encoded form: [fieldCount varint] then [name string][kind byte][value] for every field.
+ * Fields are matched by name when decoding, so adding, removing or retyping fields doesn't break saved states. Unknown or mismatched fields are skipped.
+ */
+@ApiStatus.Internal
+public final class StateCodecCompiler {
+    private static final MethodType NEW_INSTANCE = MethodType.methodType(Object.class);
+    private static final MethodType NEW_RECORD = MethodType.methodType(Object.class, Object[].class);
+
+    private StateCodecCompiler() {
+
+    }
+
+    /**
+     * @param type class of the state
+     * @return the codec, or null if the class isn't supported.
+     */
+    @Nullable
+    public static <S> StateCodec<S> compile(Class<S> type) {
+        if (type.isInterface() || type.isArray() || type.isEnum() || type.isPrimitive()
+                || Modifier.isAbstract(type.getModifiers())
+                || type.isAnonymousClass() || type.isLocalClass()
+                || (type.isMemberClass() && !Modifier.isStatic(type.getModifiers()))) {
+            return null;
+        }
+        try {
+            if (PrimitiveMachineState.class.isAssignableFrom(type)) {
+                return new PrimitiveCodec<>(newInstance(type));
+            }
+            return type.isRecord() ? compileRecord(type) : compileClass(type);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null; // inaccessible, e.g. in a named module.
+        }
+    }
+
+    @Nullable
+    private static <S> StateCodec<S> compileRecord(Class<S> type) throws ReflectiveOperationException {
+        var components = type.getRecordComponents();
+        var slots = new Slot[components.length];
+        var parameterTypes = new Class<?>[components.length];
+        for (int i = 0; i < components.length; i++) {
+            var component = components[i];
+            var kind = Kind.of(component.getType());
+            if (kind == null || component.isAnnotationPresent(JsonAdapter.class)) {
+                return null;
+            }
+            var accessor = component.getAccessor();
+            accessor.setAccessible(true);
+            var getter = MethodHandles.lookup().unreflect(accessor);
+            slots[i] = new Slot(component.getName(), kind, component.getType(), i, getter, null);
+            parameterTypes[i] = component.getType();
+        }
+        var constructor = type.getDeclaredConstructor(parameterTypes);
+        constructor.setAccessible(true);
+        var handle = MethodHandles.lookup().unreflectConstructor(constructor)
+                .asSpreader(Object[].class, components.length)
+                .asType(NEW_RECORD);
+        return new RecordCodec<>(slots, handle);
+    }
+
+    @Nullable
+    private static <S> StateCodec<S> compileClass(Class<S> type) throws ReflectiveOperationException {
+        var slots = new ArrayList<Slot>();
+        var names = new HashMap<String, Slot>();
+        for (Class<?> clazz = type; clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+                    continue; // same as gson
+                }
+                var kind = Kind.of(field.getType());
+                if (kind == null || field.isSynthetic() || field.isAnnotationPresent(JsonAdapter.class) || names.containsKey(field.getName())) {
+                    return null;
+                }
+                field.setAccessible(true);
+                var lookup = MethodHandles.lookup();
+                var slot = new Slot(field.getName(), kind, field.getType(), slots.size(), lookup.unreflectGetter(field), lookup.unreflectSetter(field));
+                slots.add(slot);
+                names.put(slot.name, slot);
+            }
+        }
+        return new ClassCodec<>(slots.toArray(new Slot[0]), names, newInstance(type));
+    }
+
+    private static MethodHandle newInstance(Class<?> type) throws ReflectiveOperationException {
+        var constructor = type.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        return MethodHandles.lookup().unreflectConstructor(constructor).asType(NEW_INSTANCE);
+    }
+
+    /**
+     * Read an encoded state as json, for states whose classes can't be compiled anymore.
+     * Enums and {@link UUID}s are read as strings, like how gson writes them.
+     *
+     * @param buf encoded state
+     * @return fields of the state
+     */
+    public static JsonObject toJson(ByteBuf buf) {
+        var json = new JsonObject();
+        for (int i = readVarInt(buf); i > 0; i--) {
+            var name = readString3(buf);
+            var value = Kind.read(buf).read(buf);
+            if (value == null) {
+                json.add(name, JsonNull.INSTANCE);
+            } else if (value instanceof Boolean bool) {
+                json.addProperty(name, bool);
+            } else if (value instanceof Number number) {
+                json.addProperty(name, number);
+            } else if (value instanceof Character character) {
+                json.addProperty(name, character);
+            } else {
+                json.addProperty(name, value.toString());
+            }
+        }
+        return json;
+    }
+
+    private static Map<String, Slot> byName(Slot[] slots) {
+        var map = new HashMap<String, Slot>();
+        for (Slot slot : slots) {
+            map.put(slot.name, slot);
+        }
+        return map;
+    }
+
+    /**
+     * Types of fields, the ordinal is written before every value.
+     */
+    private enum Kind {
+        NULL, BOOLEAN, BYTE, SHORT, CHAR, INT, LONG, FLOAT, DOUBLE, STRING, UUID, ENUM;
+
+        private static final Kind[] VALUES = values();
+
+        @Nullable
+        static Kind of(Class<?> type) {
+            if (type == boolean.class || type == Boolean.class) return BOOLEAN;
+            if (type == byte.class || type == Byte.class) return BYTE;
+            if (type == short.class || type == Short.class) return SHORT;
+            if (type == char.class || type == Character.class) return CHAR;
+            if (type == int.class || type == Integer.class) return INT;
+            if (type == long.class || type == Long.class) return LONG;
+            if (type == float.class || type == Float.class) return FLOAT;
+            if (type == double.class || type == Double.class) return DOUBLE;
+            if (type == String.class) return STRING;
+            if (type == java.util.UUID.class) return UUID;
+            if (type.isEnum()) return ENUM;
+            return null;
+        }
+
+        static Kind read(ByteBuf buf) {
+            var index = buf.readUnsignedByte();
+            if (index >= VALUES.length) {
+                throw new IllegalArgumentException("Unknown field kind: " + index);
+            }
+            return VALUES[index];
+        }
+
+        void write(Object value, ByteBuf buf) {
+            switch (this) {
+                case BOOLEAN -> buf.writeBoolean((Boolean) value);
+                case BYTE -> buf.writeByte((Byte) value);
+                case SHORT -> buf.writeShort((Short) value);
+                case CHAR -> buf.writeChar((Character) value);
+                case INT -> buf.writeInt((Integer) value);
+                case LONG -> buf.writeLong((Long) value);
+                case FLOAT -> buf.writeFloat((Float) value);
+                case DOUBLE -> buf.writeDouble((Double) value);
+                case STRING -> writeString3((String) value, buf);
+                case UUID -> {
+                    var id = (java.util.UUID) value;
+                    buf.writeLong(id.getMostSignificantBits());
+                    buf.writeLong(id.getLeastSignificantBits());
+                }
+                case ENUM -> writeString3(((Enum<?>) value).name(), buf);
+                case NULL -> {
+                }
+            }
+        }
+
+        /**
+         * @return the value, enums are read as their names.
+         */
+        @Nullable
+        Object read(ByteBuf buf) {
+            return switch (this) {
+                case NULL -> null;
+                case BOOLEAN -> buf.readBoolean();
+                case BYTE -> buf.readByte();
+                case SHORT -> buf.readShort();
+                case CHAR -> buf.readChar();
+                case INT -> buf.readInt();
+                case LONG -> buf.readLong();
+                case FLOAT -> buf.readFloat();
+                case DOUBLE -> buf.readDouble();
+                case STRING, ENUM -> readString3(buf);
+                case UUID -> new java.util.UUID(buf.readLong(), buf.readLong());
+            };
+        }
+    }
+
+    /**
+     * A field or a record component.
+     */
+    private static final class Slot {
+        private final String name;
+        private final Kind kind;
+        private final boolean primitive;
+        private final int index;
+        private final Object defaultValue;
+        private final MethodHandle getter; // (Object)T, T is the primitive type if it's a primitive.
+        private final MethodHandle setter; // (Object,T)void, null for records.
+        private final Map<String, Object> enumConstants;
+
+        Slot(String name, Kind kind, Class<?> type, int index, MethodHandle getter, @Nullable MethodHandle setter) {
+            this.name = name;
+            this.kind = kind;
+            this.primitive = type.isPrimitive();
+            this.index = index;
+            var erased = primitive ? type : Object.class;
+            this.getter = getter.asType(MethodType.methodType(erased, Object.class));
+            this.setter = setter == null ? null : setter.asType(MethodType.methodType(void.class, Object.class, erased));
+            this.defaultValue = primitive ? Array.get(Array.newInstance(type, 1), 0) : null;
+            if (kind == Kind.ENUM) {
+                enumConstants = new HashMap<>();
+                for (Object constant : type.getEnumConstants()) {
+                    enumConstants.put(((Enum<?>) constant).name(), constant);
+                }
+            } else {
+                enumConstants = null;
+            }
+        }
+
+        void write(Object state, ByteBuf buf) throws Throwable {
+            writeString3(name, buf);
+            if (!primitive) {
+                var value = (Object) getter.invokeExact(state);
+                if (value == null) {
+                    buf.writeByte(Kind.NULL.ordinal());
+                } else {
+                    buf.writeByte(kind.ordinal());
+                    kind.write(value, buf);
+                }
+                return;
+            }
+            buf.writeByte(kind.ordinal());
+            switch (kind) {
+                case BOOLEAN -> buf.writeBoolean((boolean) getter.invokeExact(state));
+                case BYTE -> buf.writeByte((byte) getter.invokeExact(state));
+                case SHORT -> buf.writeShort((short) getter.invokeExact(state));
+                case CHAR -> buf.writeChar((char) getter.invokeExact(state));
+                case INT -> buf.writeInt((int) getter.invokeExact(state));
+                case LONG -> buf.writeLong((long) getter.invokeExact(state));
+                case FLOAT -> buf.writeFloat((float) getter.invokeExact(state));
+                case DOUBLE -> buf.writeDouble((double) getter.invokeExact(state));
+                default -> throw new AssertionError(kind);
+            }
+        }
+
+        /**
+         * Read the value into a field.
+         */
+        void read(Object state, Kind actual, ByteBuf buf) throws Throwable {
+            if (actual == Kind.NULL) {
+                if (!primitive) {
+                    setter.invokeExact(state, (Object) null);
+                }
+                return;
+            }
+            if (!primitive) {
+                setter.invokeExact(state, readValue(buf));
+                return;
+            }
+            switch (kind) {
+                case BOOLEAN -> setter.invokeExact(state, buf.readBoolean());
+                case BYTE -> setter.invokeExact(state, buf.readByte());
+                case SHORT -> setter.invokeExact(state, buf.readShort());
+                case CHAR -> setter.invokeExact(state, buf.readChar());
+                case INT -> setter.invokeExact(state, buf.readInt());
+                case LONG -> setter.invokeExact(state, buf.readLong());
+                case FLOAT -> setter.invokeExact(state, buf.readFloat());
+                case DOUBLE -> setter.invokeExact(state, buf.readDouble());
+                default -> throw new AssertionError(kind);
+            }
+        }
+
+        /**
+         * @return the value boxed, unknown enum constants are read as null, like what gson does.
+         */
+        @Nullable
+        Object readValue(ByteBuf buf) {
+            var value = kind.read(buf);
+            return kind == Kind.ENUM ? enumConstants.get((String) value) : value;
+        }
+    }
+
+    private abstract static class CompiledCodec<S> implements StateCodec<S> {
+        protected final Slot[] slots;
+        protected final Map<String, Slot> names;
+
+        CompiledCodec(Slot[] slots, Map<String, Slot> names) {
+            this.slots = slots;
+            this.names = names;
+        }
+
+        @Override
+        @SneakyThrows
+        public void encode(S state, ByteBuf buf) {
+            writeVarInt(slots.length, buf);
+            for (Slot slot : slots) {
+                slot.write(state, buf);
+            }
+        }
+
+        /**
+         * Read the name and the kind of the next field.
+         *
+         * @return its slot, or null if it's unknown or its kind has been changed, in which case the value is skipped.
+         */
+        @Nullable
+        protected Slot next(ByteBuf buf) {
+            var slot = names.get(readString3(buf));
+            var actual = Kind.read(buf);
+            if (slot == null || (actual != Kind.NULL && actual != slot.kind)) {
+                actual.read(buf);
+                return null;
+            }
+            buf.readerIndex(buf.readerIndex() - 1); // let the slot see the kind.
+            return slot;
+        }
+    }
+
+    private static final class ClassCodec<S> extends CompiledCodec<S> {
+        private final MethodHandle constructor; // ()Object
+
+        ClassCodec(Slot[] slots, Map<String, Slot> names, MethodHandle constructor) {
+            super(slots, names);
+            this.constructor = constructor;
+        }
+
+        @Override
+        @SneakyThrows
+        @SuppressWarnings("unchecked")
+        public S decode(ByteBuf buf) {
+            var state = (Object) constructor.invokeExact();
+            for (int i = readVarInt(buf); i > 0; i--) {
+                var slot = next(buf);
+                if (slot != null) {
+                    slot.read(state, Kind.read(buf), buf);
+                }
+            }
+            return (S) state;
+        }
+    }
+
+    private static final class RecordCodec<S> extends CompiledCodec<S> {
+        private final MethodHandle constructor; // (Object[])Object
+
+        RecordCodec(Slot[] slots, MethodHandle constructor) {
+            super(slots, byName(slots));
+            this.constructor = constructor;
+        }
+
+        @Override
+        @SneakyThrows
+        @SuppressWarnings("unchecked")
+        public S decode(ByteBuf buf) {
+            var args = new Object[slots.length];
+            for (Slot slot : slots) {
+                args[slot.index] = slot.defaultValue;
+            }
+            for (int i = readVarInt(buf); i > 0; i--) {
+                var slot = next(buf);
+                if (slot == null) {
+                    continue;
+                }
+                if (Kind.read(buf) != Kind.NULL) {
+                    args[slot.index] = slot.readValue(buf);
+                } else if (!slot.primitive) {
+                    args[slot.index] = null;
+                }
+            }
+            return (S) (Object) constructor.invokeExact(args);
+        }
+    }
+
+    /**
+     * Codec of {@link PrimitiveMachineState}s, which are saved without names.
+     * [intCount varint][ints][longCount varint][longs][doubleCount varint][doubles], slots beyond the layout are skipped when decoding.
+     */
+    private static final class PrimitiveCodec<S> implements StateCodec<S> {
+        private final MethodHandle constructor; // ()Object
+
+        PrimitiveCodec(MethodHandle constructor) {
+            this.constructor = constructor;
+        }
+
+        @Override
+        public void encode(S s, ByteBuf buf) {
+            var state = (PrimitiveMachineState) s;
+            var layout = state.getLayout();
+            writeVarInt(layout.getIntKeys().size(), buf);
+            for (StateLayout.IntKey key : layout.getIntKeys()) {
+                buf.writeInt(state.get(key));
+            }
+            writeVarInt(layout.getLongKeys().size(), buf);
+            for (StateLayout.LongKey key : layout.getLongKeys()) {
+                buf.writeLong(state.get(key));
+            }
+            writeVarInt(layout.getDoubleKeys().size(), buf);
+            for (StateLayout.DoubleKey key : layout.getDoubleKeys()) {
+                buf.writeDouble(state.get(key));
+            }
+        }
+
+        @Override
+        @SneakyThrows
+        @SuppressWarnings("unchecked")
+        public S decode(ByteBuf buf) {
+            var state = (PrimitiveMachineState) (Object) constructor.invokeExact();
+            var layout = state.getLayout();
+            var intKeys = layout.getIntKeys();
+            for (int i = 0, count = readVarInt(buf); i < count; i++) {
+                var value = buf.readInt();
+                if (i < intKeys.size()) {
+                    state.set(intKeys.get(i), value);
+                }
+            }
+            var longKeys = layout.getLongKeys();
+            for (int i = 0, count = readVarInt(buf); i < count; i++) {
+                var value = buf.readLong();
+                if (i < longKeys.size()) {
+                    state.set(longKeys.get(i), value);
+                }
+            }
+            var doubleKeys = layout.getDoubleKeys();
+            for (int i = 0, count = readVarInt(buf); i < count; i++) {
+                var value = buf.readDouble();
+                if (i < doubleKeys.size()) {
+                    state.set(doubleKeys.get(i), value);
+                }
+            }
+            return (S) state;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+
+package io.ib67.astralflow.internal.serialization.codec;
+
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Optional;
+
+/**
+ * Compiled codecs of state classes. A class is compiled the first time a state of it is saved or loaded, and failures are cached too.
+ */
+@ApiStatus.Internal
+public final class StateCodecs {
+    public static final StateCodecs INSTANCE = new StateCodecs();
+
+    private final ClassValue<Optional<StateCodec<?>>> codecs = new ClassValue<>() {
+        @Override
+        protected Optional<StateCodec<?>> computeValue(Class<?> type) {
+            return Optional.ofNullable(StateCodecCompiler.compile(type));
+        }
+    };
+
+    private StateCodecs() {
+
+    }
+
+    /**
+     * @param type class of the state
+     * @return the codec, or null if the class can only be serialized by gson.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public <S> StateCodec<S> get(Class<S> type) {
+        return (StateCodec<S>) codecs.get(type).orElse(null);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage;
+
+import io.ib67.astralflow.api.AstralHelper;
+import io.ib67.internal.util.bukkit.Log;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Loads chunks without blocking the main thread and keeps them loaded by plugin chunk tickets.<br />
+ * Requests for the same chunk share one load, and the ticket is removed when all of them are released.
+ * On servers without an asynchronous chunk API (i.e. Spigot), chunks are loaded in the next tick instead.
+ * Should be used in the main thread only.
+ */
+@ApiStatus.Internal
+public final class ChunkTicketLoader {
+    private static final MethodHandle GET_CHUNK_AT_ASYNC = findAsyncChunkApi();
+
+    private final Plugin plugin;
+    private final Map<ChunkPos, Request> requests = new HashMap<>();
+
+    public ChunkTicketLoader(Plugin plugin) {
+        Objects.requireNonNull(plugin, "plugin cannot be null");
+        this.plugin = plugin;
+    }
+
+    private static MethodHandle findAsyncChunkApi() {
+        try {
+            // Paper: CompletableFuture<Chunk> World#getChunkAtAsync(int x, int z)
+            return MethodHandles.publicLookup().findVirtual(World.class, "getChunkAtAsync", MethodType.methodType(CompletableFuture.class, int.class, int.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Load the chunk and hold it until {@link #release(World, int, int)} is called as many times as this method.
+     *
+     * @param world  world
+     * @param chunkX chunk x
+     * @param chunkZ chunk z
+     * @return a future completed in the main thread once the chunk is loaded. If the load fails, the request is dropped
+     * and doesn't need to be released.
+     */
+    public CompletableFuture<Chunk> acquire(World world, int chunkX, int chunkZ) {
+        Objects.requireNonNull(world, "world cannot be null");
+        AstralHelper.ensureMainThread("Chunk ticket acquisition");
+        var pos = new ChunkPos(world, chunkX, chunkZ);
+        var request = requests.get(pos);
+        if (request != null) {
+            request.references++;
+            return request.future;
+        }
+        var newRequest = new Request();
+        requests.put(pos, newRequest);
+        if (world.isChunkLoaded(chunkX, chunkZ)) {
+            newRequest.future = CompletableFuture.completedFuture(hold(pos, newRequest, world.getChunkAt(chunkX, chunkZ)));
+        } else {
+            newRequest.future = loadAsync(pos)
+                    .whenComplete((chunk, throwable) -> {
+                        if (throwable != null && requests.get(pos) == newRequest) {
+                            requests.remove(pos); // or later requests would get the same failure.
+                        }
+                    })
+                    .thenApply(chunk -> hold(pos, newRequest, chunk));
+        }
+        return newRequest.future;
+    }
+
+    /**
+     * Release a request from {@link #acquire(World, int, int)}.
+     *
+     * @param world  world
+     * @param chunkX chunk x
+     * @param chunkZ chunk z
+     */
+    public void release(World world, int chunkX, int chunkZ) {
+        Objects.requireNonNull(world, "world cannot be null");
+        AstralHelper.ensureMainThread("Chunk ticket release");
+        var pos = new ChunkPos(world, chunkX, chunkZ);
+        var request = requests.get(pos);
+        if (request == null) {
+            Log.warn("ChunkTicketLoader", "Chunk " + chunkX + "," + chunkZ + " is released more times than it is acquired.");
+            return;
+        }
+        if (--request.references > 0) {
+            return;
+        }
+        requests.remove(pos);
+        if (request.ticketed) {
+            world.removePluginChunkTicket(chunkX, chunkZ, plugin);
+        }
+    }
+
+    /**
+     * Remove all tickets. Pending loads are still completed.
+     */
+    public void releaseAll() {
+        requests.forEach((pos, request) -> {
+            if (request.ticketed) {
+                pos.world().removePluginChunkTicket(pos.x(), pos.z(), plugin);
+            }
+        });
+        requests.clear();
+    }
+
+    private Chunk hold(ChunkPos pos, Request request, Chunk chunk) {
+        if (requests.get(pos) == request) { // not released yet.
+            pos.world().addPluginChunkTicket(pos.x(), pos.z(), plugin); // cheap since it's loaded.
+            request.ticketed = true;
+        }
+        return chunk;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Chunk> loadAsync(ChunkPos pos) {
+        if (GET_CHUNK_AT_ASYNC != null) {
+            try {
+                return (CompletableFuture<Chunk>) GET_CHUNK_AT_ASYNC.invoke(pos.world(), pos.x(), pos.z()); // completed in the main thread.
+            } catch (Throwable t) {
+                return CompletableFuture.failedFuture(t);
+            }
+        }
+        var future = new CompletableFuture<Chunk>();
+        Bukkit.getScheduler().runTask(plugin, () -> { // don't block the caller at least.
+            try {
+                future.complete(pos.world().getChunkAt(pos.x(), pos.z()));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    private record ChunkPos(World world, int x, int z) {
+    }
+
+    private static final class Request {
+        private int references = 1;
+        private boolean ticketed;
+        private CompletableFuture<Chunk> future;
+    }
+}
@@ -25,10 +25,14 @@ import io.ib67.astralflow.machines.IMachine;
 import io.ib67.astralflow.manager.IMachineManager;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.jetbrains.annotations.ApiStatus;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 @ApiStatus.AvailableSince("0.1.0")
 public interface IMachineStorage extends KeyedStorage<Location, IMachine> {
@@ -38,9 +42,90 @@ public interface IMachineStorage extends KeyedStorage<Location, IMachine> {
 
     UUID getUUIDByLocation(Location location);
 
+    /**
+     * Machines in the chunk which have been loaded. Storages may defer loading some of them until they're requested by {@link #get(Object)}
+     *
+     * @param chunk chunk
+     * @return loaded machines
+     */
     Collection<? extends IMachine> getMachinesByChunk(Chunk chunk);
 
+    /**
+     * Get the machine at the block, equals to {@link #get(Object)} but avoids creating locations for blocks without machines.
+     *
+     * @param world world
+     * @param x     block x
+     * @param y     block y
+     * @param z     block z
+     * @return machine or null
+     */
+    default IMachine find(World world, int x, int y, int z) {
+        return get(new Location(world, x, y, z));
+    }
+
+    /**
+     * A quick check before looking up blocks of a chunk one by one.
+     *
+     * @param world  world
+     * @param chunkX chunk x
+     * @param chunkZ chunk z
+     * @return false if the chunk certainly has no machines.
+     */
+    default boolean mayHaveMachines(World world, int chunkX, int chunkZ) {
+        return true;
+    }
+
     void initChunk(Chunk chunk);
 
+    /**
+     * Load the chunk and hand its machines over once they're ready, which may happen in a later tick.
+     *
+     * @param chunk     chunk
+     * @param whenReady called on the main thread with machines in the chunk
+     */
+    default void initChunk(Chunk chunk, Consumer<Collection<? extends IMachine>> whenReady) {
+        initChunk(chunk);
+        whenReady.accept(getMachinesByChunk(chunk));
+    }
+
     void finalizeChunk(Chunk chunk, boolean isUnloading);
+
+    /**
+     * Finalize chunks which are unloaded together, such as when the server is shutting down.
+     * Storages may serialize their machines concurrently, so nothing else should be touching them.
+     *
+     * @param chunks unloading chunks
+     */
+    default void finalizeChunks(Collection<? extends Chunk> chunks) {
+        for (Chunk chunk : chunks) {
+            finalizeChunk(chunk, true);
+        }
+    }
+
+    /**
+     * Called when the server is shutting down, after the last {@link #flush()}.
+     * Storages writing asynchronously should block until all the data is persisted.
+     */
+    default void close() {
+
+    }
+
+    /**
+     * Move machines to their new locations at once. Machines are detached before any of them is attached, so they can move into each other's old places.
+     *
+     * @param moves old locations to new locations
+     * @throws IllegalArgumentException if there isn't a machine at any of the old locations, nothing is moved in that case.
+     */
+    default void relocate(Map<Location, Location> moves) {
+        var machines = new LinkedHashMap<Location, IMachine>(moves.size());
+        moves.forEach((from, to) -> {
+            var machine = get(from);
+            if (machine == null) {
+                throw new IllegalArgumentException("There is no machine at " + from);
+            }
+            machines.put(to, machine);
+        });
+        moves.keySet().forEach(this::remove);
+        machines.forEach(this::save);
+    }
 }
@@ -24,9 +24,21 @@ package io.ib67.astralflow.internal.storage;
 import io.ib67.astralflow.machines.IMachine;
 import org.jetbrains.annotations.ApiStatus;
 
+import java.util.UUID;
+
 @ApiStatus.AvailableSince("0.1.0")
 public interface MachineSerializer {
     IMachine fromData(byte[] t);
 
     byte[] toData(IMachine machine);
+
+    /**
+     * Read the id of a serialized machine. Implementations should do it without creating the machine.
+     *
+     * @param data serialized machine
+     * @return its id
+     */
+    default UUID readId(byte[] data) {
+        return fromData(data).getId();
+    }
 }
@@ -22,38 +22,83 @@
 package io.ib67.astralflow.internal.storage;
 
 import io.ib67.astralflow.internal.IChunkTracker;
+import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
-import org.inlambda.kiwi.WeakHashSet;
+import org.bukkit.World;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Set;
+import java.util.*;
+import java.util.stream.Stream;
 
+/**
+ * Tracks chunks by their world UIDs and coordinates, so neither {@link Chunk#equals(Object)} nor weak references are involved,
+ * and unloaded worlds are not kept alive.
+ * Chunks are marked and unmarked deterministically by chunk load and unload.
+ */
 public final class SimpleChunkTracker implements IChunkTracker {
-    private final Set<Chunk> markedChunks;
+    private final Map<UUID, Set<Long>> markedChunks = new HashMap<>();
+    private final int capacity;
+
+    private final Collection<Chunk> view = new AbstractCollection<>() {
+        @Override
+        public Iterator<Chunk> iterator() { // chunks which are no longer loaded are skipped, instead of being loaded synchronously.
+            return markedChunks.entrySet().stream()
+                    .flatMap(entry -> {
+                        var world = Bukkit.getWorld(entry.getKey());
+                        return world == null ? Stream.empty() : loadedKeys(world, entry.getValue())
+                                .map(key -> world.getChunkAt((int) (key >> 32), (int) (long) key));
+                    })
+                    .iterator();
+        }
+
+        @Override
+        public int size() { // counts what the iterator returns.
+            var size = 0L;
+            for (Map.Entry<UUID, Set<Long>> entry : markedChunks.entrySet()) {
+                var world = Bukkit.getWorld(entry.getKey());
+                if (world != null) {
+                    size += loadedKeys(world, entry.getValue()).count();
+                }
+            }
+            return (int) size;
+        }
+    };
+
+    /**
+     * @param capacity initial capacity of chunks in a world
+     */
+    public SimpleChunkTracker(int capacity) {
+        this.capacity = Math.max(capacity, 16);
+    }
+
+    private static Stream<Long> loadedKeys(World world, Set<Long> keys) {
+        return keys.stream().filter(key -> world.isChunkLoaded((int) (key >> 32), (int) (long) key));
+    }
 
-    public SimpleChunkTracker(int capacity, boolean allowResizing) {
-        markedChunks = new WeakHashSet(capacity);
-        if (!allowResizing) ((WeakHashSet<Chunk>) markedChunks).disableResizing();
+    private static long chunkKey(Chunk chunk) {
+        return ((long) chunk.getX() << 32) | (chunk.getZ() & 0xFFFFFFFFL);
     }
 
     @Override
     public boolean isChunkMarked(Chunk chunk) {
-        return markedChunks.contains(chunk);
+        var chunks = markedChunks.get(chunk.getWorld().getUID());
+        return chunks != null && chunks.contains(chunkKey(chunk));
     }
 
     @Override
     public void markChunk(Chunk chunk) {
-        markedChunks.add(chunk);
+        markedChunks.computeIfAbsent(chunk.getWorld().getUID(), k -> new HashSet<>(capacity)).add(chunkKey(chunk));
     }
 
     @Override
     public void unmarkChunk(Chunk chunk) {
-        markedChunks.remove(chunk);
+        var chunks = markedChunks.get(chunk.getWorld().getUID());
+        if (chunks != null) {
+            chunks.remove(chunkKey(chunk));
+        }
     }
 
     @Override
     public Collection<? extends Chunk> getMarkedChunks() {
-        return Collections.unmodifiableCollection(markedChunks);
+        return view;
     }
 }
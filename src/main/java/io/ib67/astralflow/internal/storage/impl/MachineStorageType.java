@@ -21,6 +21,7 @@
 
 package io.ib67.astralflow.internal.storage.impl;
 
+import io.ib67.astralflow.internal.serialization.BinaryMachineSerializer;
 import io.ib67.astralflow.internal.serialization.MachineStorageHelper;
 import io.ib67.astralflow.internal.storage.MachineSerializer;
 import io.ib67.astralflow.manager.IFactoryManager;
@@ -33,7 +34,11 @@ import java.util.function.BiFunction;
 @RequiredArgsConstructor
 @Getter
 public enum MachineStorageType implements BiFunction<IFactoryManager, IMachineManager, MachineSerializer> {
-    JSON(0, MachineStorageHelper::new);
+    JSON(0, MachineStorageHelper::new),
+    /**
+     * Compact binary form, states are encoded by compiled codecs when possible.
+     */
+    BINARY(1, BinaryMachineSerializer::new);
 
     private final int typeIndex;
     private final BiFunction<IFactoryManager, IMachineManager, MachineSerializer> factory;
@@ -41,6 +46,7 @@ public enum MachineStorageType implements BiFunction<IFactoryManager, IMachineMa
     public static MachineStorageType getType(int index) {
         return switch (index) {
             case 0 -> JSON;
+            case 1 -> BINARY;
             default -> throw new IllegalArgumentException("Invalid type index");
         };
     }
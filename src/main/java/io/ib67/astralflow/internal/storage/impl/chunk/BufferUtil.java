@@ -24,6 +24,7 @@ package io.ib67.astralflow.internal.storage.impl.chunk;
 import io.netty.buffer.ByteBuf;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -69,4 +70,54 @@ public final class BufferUtil {
         var z = chunkZ * 16 + buf.readByte();
         return new Location(Bukkit.getWorld(worldName), x, y, z);
     }
+
+    public static void writeVarInt(int value, ByteBuf buf) {
+        while ((value & ~0x7F) != 0) {
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+
+    public static int readVarInt(ByteBuf buf) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            var b = buf.readByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("VarInt is too long");
+    }
+
+    public static void writeString3(String str, ByteBuf buf) {
+        var bytes = str.getBytes(UTF_8);
+        writeVarInt(bytes.length, buf);
+        buf.writeBytes(bytes);
+    }
+
+    public static String readString3(ByteBuf buf) {
+        var len = readVarInt(buf);
+        var str = buf.toString(buf.readerIndex(), len, UTF_8);
+        buf.skipBytes(len);
+        return str;
+    }
+
+    /**
+     * Write a location relative to its chunk, the world is written separately.
+     * [x (4 bits) | z (4 bits)] [zigzag varint y]
+     */
+    public static void writeLocation3(Location loc, ByteBuf buf) {
+        buf.writeByte((loc.getBlockX() & 15) << 4 | (loc.getBlockZ() & 15));
+        var y = loc.getBlockY();
+        writeVarInt((y << 1) ^ (y >> 31), buf);
+    }
+
+    public static Location readLocation3(World world, int chunkX, int chunkZ, ByteBuf buf) {
+        var xz = buf.readUnsignedByte();
+        var zigzagY = readVarInt(buf);
+        var y = (zigzagY >>> 1) ^ -(zigzagY & 1);
+        return new Location(world, (chunkX << 4) + (xz >> 4), y, (chunkZ << 4) + (xz & 15));
+    }
 }
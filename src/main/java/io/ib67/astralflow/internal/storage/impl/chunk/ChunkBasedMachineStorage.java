@@ -23,36 +23,74 @@ package io.ib67.astralflow.internal.storage.impl.chunk;
 
 import io.ib67.astralflow.AstralFlow;
 import io.ib67.astralflow.api.AstralHelper;
+import io.ib67.astralflow.hook.HookType;
 import io.ib67.astralflow.internal.AstralConstants;
+import io.ib67.astralflow.internal.metrics.AstralMetrics;
 import io.ib67.astralflow.internal.storage.IMachineStorage;
 import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
-import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineDataTag;
-import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineIndexTag;
+import io.ib67.astralflow.internal.storage.impl.journal.JournaledChunkDataBackend;
+import io.ib67.astralflow.internal.storage.impl.journal.MachineJournal;
 import io.ib67.astralflow.machines.IMachine;
 import io.ib67.astralflow.manager.IFactoryManager;
 import io.ib67.astralflow.manager.IMachineManager;
+import io.ib67.astralflow.scheduler.TickReceipt;
 import io.ib67.astralflow.util.LogCategory;
 import io.ib67.internal.util.bukkit.Log;
+import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.event.Listener;
 import org.inlambda.kiwi.reflection.AccessibleClass;
+import org.inlambda.kiwi.tuple.Pair;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
 
 public class ChunkBasedMachineStorage implements IMachineStorage {
 
     public static final NamespacedKey MACHINE_INDEX_TAG = new NamespacedKey(AstralFlow.getInstance().asPlugin(), "machine_index_tag");
     public static final NamespacedKey MACHINE_DATA_TAG = new NamespacedKey(AstralFlow.getInstance().asPlugin(), "machine_data_tag");
+    private static final int JOURNAL_VISITS_PER_SERIALIZATION = 8;
     private final MachineCache machineCache;
 
     private final Map<Chunk, InMemoryChunk> chunkMap;
+    private final Map<World, Map<Long, InMemoryChunk>> chunksByWorld = new HashMap<>(); // same as chunkMap, keyed by packed coordinates
     private final IFactoryManager factoryManager;
     private final MachineStorageType defaultSerializer;
+    private final int chunkLoaderThreads;
+    private final boolean eagerTickless;
+    private final ChunkDataBackend rawBackend;
+    private ChunkDataBackend backend;
     private InMemoryChunkFactory chunkFactory;
+    private MachineJournal journal;
+    private int journalBudget;
+    private final Map<IMachine, JournalMark> journalMarks = new IdentityHashMap<>();
+    private IMachineManager manager;
+    private final Deque<IMachine> journalCursor = new ArrayDeque<>();
+    private StagedChunkLoader stagedLoader;
 
     public ChunkBasedMachineStorage(MachineCache cache, IFactoryManager factoryManager, MachineStorageType defaultSerializer, int initialCapacity, boolean allowResizing) {
+        this(cache, factoryManager, defaultSerializer, initialCapacity, allowResizing, 0, true);
+    }
+
+    /**
+     * @param chunkLoaderThreads threads to decode chunks with, 0 to load chunks synchronously
+     * @param eagerTickless      deserialize tickless machines on chunk load, or until someone needs them
+     */
+    public ChunkBasedMachineStorage(MachineCache cache, IFactoryManager factoryManager, MachineStorageType defaultSerializer, int initialCapacity, boolean allowResizing, int chunkLoaderThreads, boolean eagerTickless) {
+        this(cache, factoryManager, defaultSerializer, initialCapacity, allowResizing, chunkLoaderThreads, eagerTickless, new PdcChunkDataBackend(MACHINE_INDEX_TAG, MACHINE_DATA_TAG));
+    }
+
+    /**
+     * @param backend where encoded chunks are stored
+     */
+    protected ChunkBasedMachineStorage(MachineCache cache, IFactoryManager factoryManager, MachineStorageType defaultSerializer, int initialCapacity, boolean allowResizing, int chunkLoaderThreads, boolean eagerTickless, ChunkDataBackend backend) {
         Objects.requireNonNull(factoryManager, "factoryManager cannot be null");
+        Objects.requireNonNull(backend, "backend cannot be null");
         Objects.requireNonNull(defaultSerializer, "defaultSerializer cannot be null");
         Objects.requireNonNull(cache, "machine cache cannot be null");
         chunkMap = new HashMap<>(Math.max(initialCapacity, 256)); // at least you need 256
@@ -62,53 +100,177 @@ public class ChunkBasedMachineStorage implements IMachineStorage {
         this.machineCache = cache;
         this.factoryManager = factoryManager;
         this.defaultSerializer = defaultSerializer;
+        this.chunkLoaderThreads = chunkLoaderThreads;
+        this.eagerTickless = eagerTickless;
+        this.backend = backend;
+        this.rawBackend = backend;
+    }
+
+    /**
+     * Journal states of loaded machines between full saves, must be called before {@link #init(IMachineManager)}.
+     *
+     * @param journal         the journal
+     * @param machinesPerTick how many ticked machines can be serialized in a tick to see if they've changed
+     */
+    public void enableJournal(MachineJournal journal, int machinesPerTick) {
+        Objects.requireNonNull(journal, "journal cannot be null");
+        if (chunkFactory != null) {
+            throw new IllegalStateException("MachineStorage has been initialized");
+        }
+        this.journal = journal;
+        this.journalBudget = machinesPerTick;
+        this.backend = new JournaledChunkDataBackend(backend, journal);
     }
 
     public void finalizeChunk(Chunk unloadingChunk, boolean isUnloading) {
         Objects.requireNonNull(unloadingChunk, "chunk cannot be null");
         Objects.requireNonNull(chunkFactory, "MachineStorage hasn't been initialized");
+        awaitPending(unloadingChunk);
         if (!chunkMap.containsKey(unloadingChunk)) {
             var inmem = chunkFactory.loadChunk(unloadingChunk); // todo: faster cache
-            if (inmem.getMachines().size() == 0) {
+            backend.release(unloadingChunk);
+            if (!inmem.hasMachines()) {
                 return;
             }
             Log.warn("CBMS", "It seems that chunk " + unloadingChunk.getX() + "," + unloadingChunk.getZ() + " is not registered in the chunk map. This may be a potential bug.");
             return;
         }
+        var start = System.nanoTime();
         var memChunk = chunkMap.get(unloadingChunk);
         if (AstralConstants.DEBUG) {
-            if (memChunk.getMachines().size() != 0)
-                Log.info(LogCategory.DEBUG, (isUnloading ? "UNLOADING" : "LOADED") + " " + memChunk.getMachines().size() + " machines in chunk " + unloadingChunk.getX() + "," + unloadingChunk.getZ() + " will be saved.");
+            if (memChunk.hasMachines())
+                Log.info(LogCategory.DEBUG, (isUnloading ? "UNLOADING" : "LOADED") + " " + memChunk.getLoadedMachines().size() + " loaded machines in chunk " + unloadingChunk.getX() + "," + unloadingChunk.getZ() + " will be saved.");
         }
-        for (IMachine machine : memChunk.getMachines()) {
-            this.save(machine.getLocation(), machine); // avoiding undefined behaviours.
+        for (Map.Entry<Location, IMachine> entry : memChunk.snapshotMachines().entrySet()) {
+            var machine = entry.getValue();
+            try {
+                memChunk.saveSerialized(entry.getKey(), machine, memChunk.serialize(machine)); // only changed ones make the chunk dirty.
+                machineCache.update(machine.getId(), entry.getKey());
+            } catch (Throwable t) {
+                new IllegalStateException("Failed to save machine at " + entry.getKey() + ", its last saved state is kept", t).printStackTrace();
+            }
         }
         if (AstralConstants.DEBUG) {
-            if (memChunk.getMachines().size() != 0)
+            if (memChunk.hasMachines())
                 Log.info(LogCategory.DEBUG, "Done. Flushing cache");
         }
         if (isUnloading) {
+            if (journal != null) {
+                memChunk.getLoadedMachines().forEach(journalMarks::remove);
+            }
             chunkMap.remove(unloadingChunk);
+            var chunks = chunksByWorld.get(unloadingChunk.getWorld());
+            if (chunks != null) {
+                chunks.remove(chunkKey(unloadingChunk.getX(), unloadingChunk.getZ()));
+            }
+        }
+        if (memChunk.isDirty()) { // untouched chunks are already up-to-date.
+            flushChunkCache(unloadingChunk, memChunk);
+        }
+        if (isUnloading) {
+            backend.release(unloadingChunk);
+        }
+        if (memChunk.hasMachines()) {
+            AstralMetrics.CHUNK_FINALIZE_TIME.record(System.nanoTime() - start);
         }
-        flushChunkCache(unloadingChunk, memChunk);
+    }
+
+    /**
+     * Machines are serialized on a fork-join pool, and only chunks with changes are written to the backend.
+     */
+    @Override
+    public void finalizeChunks(Collection<? extends Chunk> chunks) {
+        Objects.requireNonNull(chunkFactory, "MachineStorage hasn't been initialized");
+        var start = System.nanoTime();
+        var snapshots = new ArrayList<ChunkSnapshot>(chunks.size());
+        for (Chunk chunk : chunks) {
+            awaitPending(chunk);
+            var memChunk = chunkMap.remove(chunk);
+            if (memChunk == null) {
+                continue;
+            }
+            var byWorld = chunksByWorld.get(chunk.getWorld());
+            if (byWorld != null) {
+                byWorld.remove(chunkKey(chunk.getX(), chunk.getZ()));
+            }
+            if (journal != null) {
+                memChunk.getLoadedMachines().forEach(journalMarks::remove);
+            }
+            if (memChunk.isDirty() || memChunk.hasLoadedMachines()) { // untouched chunks are already up-to-date.
+                snapshots.add(new ChunkSnapshot(chunk, memChunk, memChunk.snapshotMachines()));
+            }
+        }
+        var snapshotTime = System.nanoTime();
+        var pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        List<SerializedChunk> serializedChunks;
+        try {
+            serializedChunks = pool.submit(() -> snapshots.parallelStream().map(ChunkBasedMachineStorage::serializeChunk).toList()).join();
+        } finally {
+            pool.shutdown();
+        }
+        var serializeTime = System.nanoTime();
+        int machines = 0, written = 0;
+        for (SerializedChunk serialized : serializedChunks) {
+            var snapshot = serialized.snapshot();
+            var memChunk = snapshot.memChunk();
+            var changed = memChunk.isDirty();
+            for (Map.Entry<Location, byte[]> entry : serialized.data().entrySet()) {
+                var machine = snapshot.machines().get(entry.getKey());
+                changed |= memChunk.saveSerialized(entry.getKey(), machine, entry.getValue());
+                machineCache.update(machine.getId(), entry.getKey());
+            }
+            machines += serialized.data().size();
+            if (changed) {
+                flushChunkCache(snapshot.chunk(), memChunk);
+                written++;
+            }
+        }
+        chunks.forEach(backend::release);
+        var commitTime = System.nanoTime();
+        Log.info(LogCategory.TERMINATION, String.format("Finalized %d chunks with %d loaded machines, %d of them have changes. (snapshot %.1f ms, serialize %.1f ms, commit %.1f ms)",
+                chunks.size(), machines, written, (snapshotTime - start) / 1e6, (serializeTime - snapshotTime) / 1e6, (commitTime - serializeTime) / 1e6));
+    }
+
+    private static SerializedChunk serializeChunk(ChunkSnapshot snapshot) {
+        var data = new HashMap<Location, byte[]>();
+        for (Map.Entry<Location, IMachine> entry : snapshot.machines().entrySet()) {
+            try {
+                data.put(entry.getKey(), snapshot.memChunk().serialize(entry.getValue()));
+            } catch (Throwable t) {
+                new IllegalStateException("Failed to save machine at " + entry.getKey() + ", its last saved state is kept", t).printStackTrace();
+            }
+        }
+        return new SerializedChunk(snapshot, data);
     }
 
     private void flushChunkCache(Chunk chunk, InMemoryChunk memChunk) {
         Objects.requireNonNull(chunkFactory, "MachineStorage hasn't been initialized");
-        var pdc = chunk.getPersistentDataContainer();
-        pdc.set(MACHINE_INDEX_TAG, MachineIndexTag.INSTANCE, memChunk.getIndex());
-        pdc.set(MACHINE_DATA_TAG, MachineDataTag.INSTANCE, memChunk.getMachineDatas());
+        backend.write(chunk, memChunk.getIndex(), memChunk.getMachineDatas());
+        memChunk.markWritten();
     }
 
     @Override
     public void init(IMachineManager manager) {
+        this.manager = manager;
+        if (rawBackend instanceof Listener listener) {
+            Bukkit.getPluginManager().registerEvents(listener, AstralFlow.getInstance().asPlugin());
+        }
+        if (journal != null) {
+            Bukkit.getScheduler().runTaskTimer(AstralFlow.getInstance().asPlugin(), this::journalTick, 1L, 1L);
+        }
         this.chunkFactory = new InMemoryChunkFactory(
                 factoryManager,
                 manager,
                 defaultSerializer,
-                MACHINE_INDEX_TAG,
-                MACHINE_DATA_TAG
+                backend,
+                eagerTickless,
+                machine -> manager.setupMachine(machine, !factoryManager.getDescriptor(machine.getClass()).tickless())
         );
+        if (chunkLoaderThreads > 0) {
+            stagedLoader = new StagedChunkLoader(chunkFactory, chunkLoaderThreads);
+            Bukkit.getScheduler().runTaskTimer(AstralFlow.getInstance().asPlugin(), stagedLoader::drain, 1L, 1L);
+            HookType.PLUGIN_SHUTDOWN.register(stagedLoader::shutdown);
+        }
     }
 
     /* DELEGATED */
@@ -132,15 +294,16 @@ public class ChunkBasedMachineStorage implements IMachineStorage {
         if (imc == null) {
             return Collections.emptyList();
         }
-        return chunkMap.get(chunk).getMachines();
+        return imc.getLoadedMachines();
     }
 
     @Override
     public boolean has(Location uuid) {
         Objects.requireNonNull(chunkFactory, "MachineStorage hasn't been initialized");
         Objects.requireNonNull(uuid, "location cannot be null");
-        // check cache.
-        return getUUIDByLocation(AstralHelper.purifyLocation(uuid)) == null;
+        var loc = AstralHelper.purifyLocation(uuid);
+        var imc = initChunk$lazy(loc.getChunk(), false);
+        return imc != null && imc.hasMachine(loc); // don't deserialize it.
     }
 
     @Override
@@ -150,24 +313,59 @@ public class ChunkBasedMachineStorage implements IMachineStorage {
         initChunk$lazy(chunk, false);
     }
 
+    @Override
+    public void initChunk(Chunk chunk, Consumer<Collection<? extends IMachine>> whenReady) {
+        Objects.requireNonNull(chunkFactory, "MachineStorage hasn't been initialized");
+        Objects.requireNonNull(chunk, "chunk cannot be null");
+        Objects.requireNonNull(whenReady, "callback cannot be null");
+        if (stagedLoader == null || chunkMap.containsKey(chunk)) {
+            IMachineStorage.super.initChunk(chunk, whenReady);
+            return;
+        }
+        stagedLoader.submit(chunk, imc -> {
+            var installed = installChunk(chunk, imc, false);
+            whenReady.accept(installed == null ? Collections.emptyList() : installed.getLoadedMachines());
+        });
+    }
+
+    private void awaitPending(Chunk chunk) {
+        if (stagedLoader != null) {
+            stagedLoader.await(chunk); // only blocks for this chunk.
+        }
+    }
+
     private InMemoryChunk initChunk$lazy(Chunk chunk, boolean create) { // actually it's a lazy init, returning the chunk can be used or null
+        awaitPending(chunk);
         if (chunkMap.containsKey(chunk)) {
             return chunkMap.get(chunk); // or it will override the original data.
         }
-        var IMChunk = chunkFactory.loadChunk(chunk);
-        if (IMChunk.getMachines().size() == 0) {
+        return installChunk(chunk, chunkFactory.loadChunk(chunk), create);
+    }
+
+    private InMemoryChunk installChunk(Chunk chunk, InMemoryChunk IMChunk, boolean create) {
+        if (!IMChunk.hasMachines()) {
             if (create) {
-                chunkMap.put(chunk, IMChunk);
+                putChunk(chunk, IMChunk);
                 return IMChunk;
             } else {
+                backend.release(chunk); // not kept
                 return null;
             }
         } else {
-            chunkMap.put(chunk, IMChunk);
+            putChunk(chunk, IMChunk);
             return IMChunk;
         }
     }
 
+    private void putChunk(Chunk chunk, InMemoryChunk IMChunk) {
+        chunkMap.put(chunk, IMChunk);
+        chunksByWorld.computeIfAbsent(chunk.getWorld(), k -> new HashMap<>()).put(chunkKey(chunk.getX(), chunk.getZ()), IMChunk);
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
 
     @Override
     public IMachine get(Location aloc) {
@@ -180,6 +378,7 @@ public class ChunkBasedMachineStorage implements IMachineStorage {
                 return null;
             }
         }
+        awaitPending(loc.getChunk());
         var inMemoryChunk = chunkMap.get(loc.getChunk());
         if (inMemoryChunk == null) {
             return null;
@@ -187,6 +386,31 @@ public class ChunkBasedMachineStorage implements IMachineStorage {
         return inMemoryChunk.getMachine(loc);
     }
 
+    @Override
+    public IMachine find(World world, int x, int y, int z) {
+        Objects.requireNonNull(chunkFactory, "MachineStorage hasn't been initialized");
+        Objects.requireNonNull(world, "world cannot be null");
+        if (!world.isChunkLoaded(x >> 4, z >> 4) || (stagedLoader != null && stagedLoader.isPending(world, x >> 4, z >> 4))) {
+            return get(new Location(world, x, y, z)); // slow path
+        }
+        var chunks = chunksByWorld.get(world);
+        var inMemoryChunk = chunks == null ? null : chunks.get(chunkKey(x >> 4, z >> 4));
+        if (inMemoryChunk == null) {
+            return null; // loaded chunks without machines are not in the map.
+        }
+        return inMemoryChunk.getMachine(world, x, y, z);
+    }
+
+    @Override
+    public boolean mayHaveMachines(World world, int chunkX, int chunkZ) {
+        Objects.requireNonNull(world, "world cannot be null");
+        if (!world.isChunkLoaded(chunkX, chunkZ) || (stagedLoader != null && stagedLoader.isPending(world, chunkX, chunkZ))) {
+            return true; // we don't know.
+        }
+        var chunks = chunksByWorld.get(world);
+        return chunks != null && chunks.containsKey(chunkKey(chunkX, chunkZ));
+    }
+
     @Override
     public Collection<? extends Location> getKeys() {
         return machineCache.getAllMachineLocation();
@@ -220,6 +444,39 @@ public class ChunkBasedMachineStorage implements IMachineStorage {
         }
         chunkMap.get(loc.getChunk()).removeMachine(loc);
         machineCache.remove(loc);
+        if (journal != null) {
+            journal.remove(loc); // its digest is dropped once the journal finds it gone.
+        }
+    }
+
+    @Override
+    public void relocate(Map<Location, Location> moves) {
+        Objects.requireNonNull(chunkFactory, "MachineStorage hasn't been initialized");
+        Objects.requireNonNull(moves, "moves cannot be null");
+        for (Location from : moves.keySet()) { // check before moving anything
+            var loc = AstralHelper.purifyLocation(from);
+            var imc = initChunk$lazy(loc.getChunk(), false);
+            if (imc == null || !imc.hasMachine(loc)) {
+                throw new IllegalArgumentException("There is no machine at " + loc);
+            }
+        }
+        var detached = new ArrayList<Map.Entry<Location, Pair<IMachine, Pair<MachineStorageType, byte[]>>>>(moves.size());
+        for (Map.Entry<Location, Location> move : moves.entrySet()) {
+            var from = AstralHelper.purifyLocation(move.getKey());
+            var machine = chunkMap.get(from.getChunk()).detachMachine(from);
+            machineCache.remove(from);
+            if (journal != null) {
+                journal.remove(from);
+                journalMarks.remove(machine.left);
+            }
+            detached.add(Map.entry(AstralHelper.purifyLocation(move.getValue()), machine));
+        }
+        for (var entry : detached) {
+            var to = entry.getKey();
+            var machine = entry.getValue();
+            initChunk$lazy(to.getChunk(), true).attachMachine(to, machine.left, machine.right); // serialized at next flush.
+            machineCache.update(machine.left.getId(), to);
+        }
     }
 
     @Override
@@ -229,5 +486,77 @@ public class ChunkBasedMachineStorage implements IMachineStorage {
             finalizeChunk(chunk, false);
         }
         machineCache.save();
+        if (journal != null) {
+            var sealed = journal.seal(); // states journaled afterwards are newer than this save.
+            backend.flush().thenRun(() -> journal.release(sealed));
+        } else {
+            backend.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        backend.close();
+        if (journal != null) {
+            journal.close(true);
+        }
+    }
+
+    /**
+     * Serialize machines which have ticked since they're journaled, and journal the ones whose state is different.
+     * Machines that aren't ticked, e.g. tickless or suspended ones, are skipped without serializing them. Changes made to them are saved by the next full save.
+     */
+    private void journalTick() {
+        if (journalCursor.isEmpty()) {
+            for (InMemoryChunk memChunk : chunkMap.values()) {
+                journalCursor.addAll(memChunk.getLoadedMachines());
+            }
+        }
+        var visits = journalBudget * JOURNAL_VISITS_PER_SERIALIZATION; // checking a mark is much cheaper than serializing.
+        for (int serialized = 0; serialized < journalBudget && visits > 0 && !journalCursor.isEmpty(); visits--) {
+            var machine = journalCursor.poll();
+            var loc = AstralHelper.purifyLocation(machine.getLocation());
+            var chunks = chunksByWorld.get(loc.getWorld());
+            var memChunk = chunks == null ? null : chunks.get(chunkKey(loc.getBlockX() >> 4, loc.getBlockZ() >> 4));
+            if (memChunk == null || !memChunk.isLoaded(loc, machine)) {
+                journalMarks.remove(machine); // gone
+                continue;
+            }
+            var receipt = manager.getReceiptByMachine(machine);
+            if (receipt == null) {
+                continue; // not ticking
+            }
+            var mark = journalMarks.computeIfAbsent(machine, k -> new JournalMark());
+            if (mark.receipt == receipt && mark.ticks == receipt.getTicks()) {
+                continue; // not ticked since the last check
+            }
+            mark.receipt = receipt;
+            mark.ticks = receipt.getTicks();
+            serialized++;
+            byte[] data;
+            try {
+                data = memChunk.serialize(machine);
+            } catch (Throwable t) {
+                continue; // leave it to the full save, which reports it.
+            }
+            var crc = new CRC32();
+            crc.update(data);
+            if (mark.digest != crc.getValue()) {
+                mark.digest = crc.getValue();
+                journal.put(loc, machine.getType().getName(), memChunk.getDefaultStorageType(), data);
+            }
+        }
+    }
+
+    private static final class JournalMark {
+        private TickReceipt<?> receipt; // ticks are counted per receipt, which is replaced when the machine is re-activated.
+        private long ticks;
+        private long digest = -1; // of the last journaled state
+    }
+
+    private record ChunkSnapshot(Chunk chunk, InMemoryChunk memChunk, Map<Location, IMachine> machines) {
+    }
+
+    private record SerializedChunk(ChunkSnapshot snapshot, Map<Location, byte[]> data) {
     }
 }
@@ -0,0 +1,93 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.chunk;
+
+import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineDataTag;
+import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineIndexTag;
+import org.bukkit.Chunk;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where machines of a chunk live. {@link ChunkBasedMachineStorage} keeps machines of loaded chunks in memory
+ * and only reads/writes them through this when the chunk is loaded or saved.
+ */
+@ApiStatus.Internal
+public interface ChunkDataBackend {
+    /**
+     * Read the encoded tags of a chunk. Always called from the main thread.
+     *
+     * @param chunk chunk
+     * @return undecoded tags, whose index is null if the chunk has never been written.
+     */
+    RawChunk read(Chunk chunk);
+
+    /**
+     * Write machines of a chunk. Always called from the main thread, and the given objects mustn't be kept after returning.
+     * The following {@link #read(Chunk)} must see the written data, even if it's written asynchronously.
+     *
+     * @param chunk chunk
+     * @param index index of the chunk
+     * @param data  serialized machines
+     */
+    void write(Chunk chunk, ChunkMachineIndex index, MachineData data);
+
+    /**
+     * Called when the chunk is no longer kept in memory, after its last {@link #write(Chunk, ChunkMachineIndex, MachineData)}.
+     * Backends may drop anything they remember about the chunk.
+     *
+     * @param chunk chunk
+     */
+    default void release(Chunk chunk) {
+
+    }
+
+    /**
+     * Encode the index with {@link MachineIndexTag}.
+     */
+    static byte[] encodeIndex(ChunkMachineIndex index) {
+        return MachineIndexTag.INSTANCE.toPrimitive(index, null);
+    }
+
+    /**
+     * Encode machine data with {@link MachineDataTag}.
+     */
+    static byte[] encodeData(ChunkMachineIndex index, MachineData data) {
+        // machine types are shared with the index, which makes a good dictionary if the data is going to be compressed.
+        return MachineDataTag.INSTANCE.toPrimitive(data, index.getMachineTypes());
+    }
+
+    /**
+     * Called after the storage is flushed. Backends writing asynchronously should start to persist pending writes.
+     *
+     * @return completes once everything written before is durable.
+     */
+    CompletableFuture<Void> flush();
+
+    /**
+     * Called when the server is shutting down, after the last flush. Must block until everything is durable.
+     */
+    default void close() {
+
+    }
+}
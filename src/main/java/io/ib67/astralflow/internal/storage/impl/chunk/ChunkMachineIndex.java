@@ -27,12 +27,14 @@ import org.bukkit.Location;
 import org.jetbrains.annotations.ApiStatus;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 
 @ApiStatus.Internal
 public final class ChunkMachineIndex {
 
     private final Map<Location, String> machines;
+    private final Map<Integer, long[]> occupancy = new HashMap<>(); // section y -> 16x16x16 bits of machine blocks
     @Getter
     private final int chunkX;
     @Getter
@@ -47,20 +49,59 @@ public final class ChunkMachineIndex {
         if (!machines.isEmpty()) {
             hasMachines = true;
         }
+        for (Location location : machines.keySet()) {
+            mark(location.getBlockX(), location.getBlockY(), location.getBlockZ(), true);
+        }
     }
 
     public void addMachine(Location loc,IMachine machine) {
         hasMachines = true;
         machines.put(loc, machine.getType().getName());
+        mark(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ(), true);
     }
 
     public void removeMachine(Location loc) {
-        machines.remove(loc);
+        if (machines.remove(loc) != null) {
+            mark(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ(), false);
+        }
         if (machines.isEmpty()) {
             hasMachines = false;
         }
     }
 
+    /**
+     * Is there any machine at the block? A bit test without touching the index map.
+     *
+     * @param x block x
+     * @param y block y
+     * @param z block z
+     * @return result
+     */
+    public boolean hasMachineAt(int x, int y, int z) {
+        var bits = occupancy.get(y >> 4);
+        if (bits == null) {
+            return false;
+        }
+        int bit = bitIndex(x, y, z);
+        return (bits[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    private void mark(int x, int y, int z, boolean present) {
+        int bit = bitIndex(x, y, z);
+        if (present) {
+            occupancy.computeIfAbsent(y >> 4, k -> new long[64])[bit >>> 6] |= 1L << bit;
+        } else {
+            var bits = occupancy.get(y >> 4);
+            if (bits != null) {
+                bits[bit >>> 6] &= ~(1L << bit);
+            }
+        }
+    }
+
+    private static int bitIndex(int x, int y, int z) {
+        return (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+    }
+
     public Collection<? extends Location> getLocations() {
         return machines.keySet();
     }
@@ -27,60 +27,233 @@ import io.ib67.astralflow.machines.IMachine;
 import lombok.AccessLevel;
 import lombok.Getter;
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.inlambda.kiwi.tuple.Pair;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
+/**
+ * Machines of a chunk. They're kept as raw data until someone needs them, untouched machines are written back as they were.
+ */
 public final class InMemoryChunk {
     @Getter(AccessLevel.PACKAGE)
     private final ChunkMachineIndex index;
     @Getter(AccessLevel.PACKAGE)
     private final MachineData machineDatas;
 
-    private final Map<Location, IMachine> machines;
+    private final Map<Location, IMachine> machines = new HashMap<>(); // deserialized machines
 
     private final MachineStorageType defaultStorageType;
-    private final MachineSerializer serializer;
+    private final Function<MachineStorageType, MachineSerializer> serializers;
+    private final Consumer<IMachine> lazyLoadListener;
+    private boolean modified = false;
 
-    public InMemoryChunk(ChunkMachineIndex index, MachineData machineDatas, Map<Location, IMachine> machines, MachineStorageType defaultStorageType, MachineSerializer serializer) {
+    public InMemoryChunk(ChunkMachineIndex index, MachineData machineDatas, MachineStorageType defaultStorageType, Function<MachineStorageType, MachineSerializer> serializers, Consumer<IMachine> lazyLoadListener) {
         Objects.requireNonNull(index);
         Objects.requireNonNull(machineDatas);
-        Objects.requireNonNull(machines);
         Objects.requireNonNull(defaultStorageType);
-        Objects.requireNonNull(serializer);
+        Objects.requireNonNull(serializers);
+        Objects.requireNonNull(lazyLoadListener);
 
         this.defaultStorageType = defaultStorageType;
-        this.serializer = serializer;
+        this.serializers = serializers;
+        this.lazyLoadListener = lazyLoadListener;
         this.index = index;
         this.machineDatas = machineDatas;
-        this.machines = machines;
     }
 
+    /**
+     * Get the machine, deserializing it if it hasn't been touched before.
+     *
+     * @param loc location
+     * @return machine or null
+     */
     public IMachine getMachine(Location loc) {
-        return machines.get(loc);
+        var machine = machines.get(loc);
+        if (machine == null && index.getMachineType(loc) != null) {
+            machine = loadMachine(loc);
+            lazyLoadListener.accept(machine);
+        }
+        return machine;
+    }
+
+    /**
+     * Same as {@link #getMachine(Location)}, blocks without machines are rejected by a bit test.
+     */
+    public IMachine getMachine(World world, int x, int y, int z) {
+        if (!index.hasMachineAt(x, y, z)) {
+            return null;
+        }
+        return getMachine(new Location(world, x, y, z));
     }
 
-    public Collection<? extends IMachine> getMachines() {
+    public boolean hasMachine(Location loc) {
+        return index.getMachineType(loc) != null;
+    }
+
+    public boolean hasMachines() {
+        return index.isHasMachines();
+    }
+
+    /**
+     * @return machines that have been deserialized.
+     */
+    public Collection<? extends IMachine> getLoadedMachines() {
         return machines.values();
     }
 
-    public void saveMachine(Location loc, IMachine state) {
+    /**
+     * @return a copy of deserialized machines and their locations.
+     */
+    Map<Location, IMachine> snapshotMachines() {
+        return Map.copyOf(machines);
+    }
+
+    /**
+     * Deserialize machines whose type matches the filter. The lazy-load listener won't be notified.
+     *
+     * @param typeFilter filter of machine type names
+     */
+    void loadMachines(Predicate<String> typeFilter) {
+        for (Map.Entry<Location, String> entry : index.getEntries()) {
+            if (!machines.containsKey(entry.getKey()) && typeFilter.test(entry.getValue())) {
+                loadMachine(entry.getKey());
+            }
+        }
+    }
+
+    private IMachine loadMachine(Location loc) {
+        var machineData = machineDatas.getData(loc);
+        if (machineData == null) {
+            throw new IllegalStateException("Machine data is missing at " + loc);
+        }
+        try {
+            var machine = serializers.apply(machineData.left).fromData(machineData.right);
+            machines.put(loc, machine);
+            return machine;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Failed to load machine at " + loc, t);
+        }
+    }
+
+    /**
+     * Does the chunk need to be written back? States of loaded machines are only known to be changed once they're
+     * serialized and {@link #saveSerialized(Location, IMachine, byte[]) compared}, see {@link #hasLoadedMachines()}.
+     *
+     * @return result
+     */
+    public boolean isDirty() {
+        return modified;
+    }
 
+    /**
+     * @return whether some machines are deserialized, whose states may have changed.
+     */
+    public boolean hasLoadedMachines() {
+        return !machines.isEmpty();
+    }
+
+    /**
+     * Is the machine loaded at the location?
+     */
+    boolean isLoaded(Location loc, IMachine machine) {
+        return machines.get(loc) == machine;
+    }
+
+    /**
+     * Serialize a machine in the default format without saving it.
+     */
+    byte[] serialize(IMachine machine) {
+        return serializers.apply(defaultStorageType).toData(machine);
+    }
+
+    MachineStorageType getDefaultStorageType() {
+        return defaultStorageType;
+    }
+
+    /**
+     * Store a machine serialized by {@link #serialize(IMachine)}.
+     *
+     * @return false if it's the same as the stored one.
+     */
+    boolean saveSerialized(Location loc, IMachine machine, byte[] data) {
+        var stored = machineDatas.getData(loc);
+        if (stored != null && stored.left == defaultStorageType && Arrays.equals(stored.right, data)) {
+            return false;
+        }
+        index.addMachine(loc, machine);
+        machineDatas.save(loc, defaultStorageType, data);
+        modified = true;
+        return true;
+    }
+
+    void markWritten() {
+        modified = false;
+    }
+
+    public void saveMachine(Location loc, IMachine state) {
         var previousMachine = machines.put(loc, state);
-        index.addMachine(loc,state);
+        index.addMachine(loc, state);
         try {
-            machineDatas.save(loc, defaultStorageType, serializer.toData(state));
-        }catch(Throwable throwable){
-            machines.put(loc, previousMachine);
+            machineDatas.save(loc, defaultStorageType, serializers.apply(defaultStorageType).toData(state));
+            modified = true;
+        } catch (Throwable throwable) {
+            if (previousMachine == null) {
+                machines.remove(loc);
+            } else {
+                machines.put(loc, previousMachine);
+            }
             index.removeMachine(loc);
             throw new IllegalArgumentException("Failed to save machine, operation is rolled back", throwable);
         }
     }
 
+    /**
+     * Take the machine out without serializing it. Used for moving machines together with {@link #attachMachine(Location, IMachine, Pair)}
+     *
+     * @param loc location
+     * @return the machine and its last serialized data, or null if there isn't any
+     */
+    public @Nullable Pair<IMachine, Pair<MachineStorageType, byte[]>> detachMachine(Location loc) {
+        var machine = getMachine(loc);
+        if (machine == null) {
+            return null;
+        }
+        var data = machineDatas.getData(loc);
+        removeMachine(loc);
+        return new Pair<>(machine, data);
+    }
+
+    /**
+     * Put a machine here, it'll be serialized when the chunk is flushed.
+     *
+     * @param loc     location
+     * @param machine machine
+     * @param data    its last serialized data, kept in case serializing it fails. Null if it's never been serialized.
+     */
+    public void attachMachine(Location loc, IMachine machine, @Nullable Pair<MachineStorageType, byte[]> data) {
+        machines.put(loc, machine);
+        index.addMachine(loc, machine);
+        if (data == null) {
+            machineDatas.remove(loc);
+        } else {
+            machineDatas.save(loc, data.left, data.right);
+        }
+        modified = true;
+    }
+
     public void removeMachine(Location loc) {
         machines.remove(loc);
         index.removeMachine(loc);
         machineDatas.remove(loc);
+        modified = true;
     }
 }
@@ -21,82 +21,122 @@
 
 package io.ib67.astralflow.internal.storage.impl.chunk;
 
+import io.ib67.astralflow.internal.metrics.AstralMetrics;
+import io.ib67.astralflow.internal.serialization.TypeRegistry;
 import io.ib67.astralflow.internal.storage.MachineSerializer;
 import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
 import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineDataTag;
 import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineIndexTag;
 import io.ib67.astralflow.machines.IMachine;
+import io.ib67.astralflow.machines.Tickless;
 import io.ib67.astralflow.manager.IFactoryManager;
 import io.ib67.astralflow.manager.IMachineManager;
 import org.bukkit.Chunk;
-import org.bukkit.Location;
 import org.bukkit.NamespacedKey;
 
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Consumer;
 
 public final class InMemoryChunkFactory {
     private final IFactoryManager factory;
     private final IMachineManager defaultMachineManager;
     private final MachineStorageType storageType;
 
-    private final NamespacedKey machineIndexKey;
-    private final NamespacedKey machineDataKey;
+    private final ChunkDataBackend backend;
 
     private final Map<MachineStorageType, MachineSerializer> serializers = new EnumMap<>(MachineStorageType.class);
 
+    private final boolean eagerTickless;
+    private final Consumer<IMachine> lazyLoadListener;
+
     public InMemoryChunkFactory(IFactoryManager factory, IMachineManager defaultMachineManager, MachineStorageType storageType, NamespacedKey machineIndexKey, NamespacedKey machineDataKey) {
+        this(factory, defaultMachineManager, storageType, machineIndexKey, machineDataKey, true, machine -> {
+        });
+    }
+
+    /**
+     * @param eagerTickless    should we deserialize {@link Tickless} machines when the chunk is loaded?
+     * @param lazyLoadListener called when a machine is deserialized after its chunk is loaded
+     */
+    public InMemoryChunkFactory(IFactoryManager factory, IMachineManager defaultMachineManager, MachineStorageType storageType, NamespacedKey machineIndexKey, NamespacedKey machineDataKey, boolean eagerTickless, Consumer<IMachine> lazyLoadListener) {
+        this(factory, defaultMachineManager, storageType, new PdcChunkDataBackend(machineIndexKey, machineDataKey), eagerTickless, lazyLoadListener);
+    }
+
+    /**
+     * @param backend where the tags are read from
+     */
+    public InMemoryChunkFactory(IFactoryManager factory, IMachineManager defaultMachineManager, MachineStorageType storageType, ChunkDataBackend backend, boolean eagerTickless, Consumer<IMachine> lazyLoadListener) {
         Objects.requireNonNull(factory, "factory cannot be null");
         Objects.requireNonNull(storageType, "storageType cannot be null");
-        Objects.requireNonNull(machineIndexKey, "machineIndexKey cannot be null");
-        Objects.requireNonNull(machineDataKey, "machineDataKey cannot be null");
+        Objects.requireNonNull(backend, "backend cannot be null");
         Objects.requireNonNull(defaultMachineManager, "defaultMachineManager cannot be null");
+        Objects.requireNonNull(lazyLoadListener, "lazyLoadListener cannot be null");
+        this.eagerTickless = eagerTickless;
+        this.lazyLoadListener = lazyLoadListener;
         this.defaultMachineManager = defaultMachineManager;
-        this.machineIndexKey = machineIndexKey;
-        this.machineDataKey = machineDataKey;
+        this.backend = backend;
         this.factory = factory;
         this.storageType = storageType;
     }
 
 
     public InMemoryChunk loadChunk(Chunk chunk) {
-        // load data.
-        var pdc = chunk.getPersistentDataContainer();
-        if (!pdc.has(machineIndexKey, MachineIndexTag.INSTANCE)) {
-            // initialization.
-            var index = new ChunkMachineIndex(new HashMap<>(), chunk.getX(), chunk.getZ());
-            pdc.set(machineIndexKey, MachineIndexTag.INSTANCE, index);
-        }
+        return decodeChunk(readChunk(chunk));
+    }
 
+    /**
+     * Copy the machine tags out of the backend. This is the only step that must happen on the main thread.
+     *
+     * @param chunk chunk
+     * @return undecoded tags
+     */
+    public RawChunk readChunk(Chunk chunk) {
+        return backend.read(chunk);
+    }
+
+    /**
+     * Decode tags and deserialize machines. Safe to be called from any thread.
+     *
+     * @param raw undecoded tags
+     * @return the chunk
+     */
+    public InMemoryChunk decodeChunk(RawChunk raw) {
         // load index
-        var chunksIndex = pdc.get(machineIndexKey, MachineIndexTag.INSTANCE);
+        var chunksIndex = raw.decodedIndex() != null
+                ? raw.decodedIndex()
+                : raw.index() == null
+                ? null
+                : MachineIndexTag.INSTANCE.fromPrimitive(raw.index(), raw.context());
         if (chunksIndex == null || !chunksIndex.isHasMachines()) {
-            return new InMemoryChunk(chunksIndex, new MachineData(chunk.getX(), chunk.getZ()), new HashMap<>(), storageType, getSerializer(storageType));
+            return new InMemoryChunk(new ChunkMachineIndex(new HashMap<>(), raw.chunkX(), raw.chunkZ()), new MachineData(raw.chunkX(), raw.chunkZ()), storageType, this::getSerializer, lazyLoadListener);
         } else {
-            var machines = pdc.get(machineDataKey, MachineDataTag.INSTANCE);
-            if(machines == null){
+            var start = System.nanoTime();
+            var machines = raw.decodedData() != null
+                    ? raw.decodedData()
+                    : raw.data() == null ? null : MachineDataTag.INSTANCE.fromPrimitive(raw.data(), raw.context());
+            if (machines == null) {
                 throw new IllegalStateException("Machine data tag is missing");
             }
-            var machinesMap = new HashMap<Location, IMachine>();
-            // initialize machines.
-            for (Map.Entry<Location, String> entry : chunksIndex.getEntries()) {
-                var location = entry.getKey();
-                var type = entry.getValue();
-                var machineData = machines.getData(location);
-                try {
-                    var machine = getSerializer(machineData.left).fromData(machineData.right);
-                    machinesMap.put(location, machine);
-                }catch(Throwable t){
-                    throw new IllegalStateException("Failed to load machine at " + location, t);
-                }
-            }
-            return new InMemoryChunk(chunksIndex, machines, machinesMap, storageType, getSerializer(storageType));
+            var chunk = new InMemoryChunk(chunksIndex, machines, storageType, this::getSerializer, lazyLoadListener);
+            // machines to be ticked are always initialized, others are up to the config.
+            chunk.loadMachines(type -> eagerTickless || !isTickless(type));
+            AstralMetrics.CHUNK_LOAD_TIME.record(System.nanoTime() - start);
+            return chunk;
+        }
+    }
+
+    private boolean isTickless(String type) {
+        var clazz = TypeRegistry.INSTANCE.resolveOrNull(type);
+        if (clazz == null || !IMachine.class.isAssignableFrom(clazz)) {
+            return false; // let it fail when loading.
         }
+        return factory.getDescriptor(clazz.asSubclass(IMachine.class)).tickless();
     }
 
-    private MachineSerializer getSerializer(MachineStorageType type) {
+    private synchronized MachineSerializer getSerializer(MachineStorageType type) { // decoders may run concurrently
         return serializers.computeIfAbsent(type, k -> k.apply(factory, defaultMachineManager));
     }
 }
@@ -0,0 +1,108 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.chunk;
+
+import org.bukkit.Chunk;
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldSaveEvent;
+import org.bukkit.persistence.PersistentDataType;
+import org.inlambda.kiwi.tuple.Pair;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Stores machine tags in the chunk's {@link org.bukkit.persistence.PersistentDataContainer}, which are saved along with the chunk by the server.
+ * <p>
+ * {@link WorldSaveEvent} is fired before the chunks are written, and chunks are written asynchronously. Thus, a flush is only
+ * considered durable once all the worlds written before have been saved again, when the chunks of the previous save are done.
+ */
+@ApiStatus.Internal
+public final class PdcChunkDataBackend implements ChunkDataBackend, Listener {
+    private static final int SAVES_TO_BE_DURABLE = 2;
+    private final NamespacedKey machineIndexKey;
+    private final NamespacedKey machineDataKey;
+    private final Set<World> unsavedWorlds = new HashSet<>();
+    private final List<Pair<Map<World, Integer>, CompletableFuture<Void>>> waitingForSave = new ArrayList<>();
+
+    public PdcChunkDataBackend(NamespacedKey machineIndexKey, NamespacedKey machineDataKey) {
+        Objects.requireNonNull(machineIndexKey, "machineIndexKey cannot be null");
+        Objects.requireNonNull(machineDataKey, "machineDataKey cannot be null");
+        this.machineIndexKey = machineIndexKey;
+        this.machineDataKey = machineDataKey;
+    }
+
+    @Override
+    public RawChunk read(Chunk chunk) {
+        var pdc = chunk.getPersistentDataContainer();
+        var index = pdc.get(machineIndexKey, PersistentDataType.BYTE_ARRAY);
+        var data = index == null ? null : pdc.get(machineDataKey, PersistentDataType.BYTE_ARRAY);
+        return new RawChunk(chunk.getX(), chunk.getZ(), index, data, pdc.getAdapterContext());
+    }
+
+    @Override
+    public void write(Chunk chunk, ChunkMachineIndex index, MachineData data) {
+        unsavedWorlds.add(chunk.getWorld());
+        var pdc = chunk.getPersistentDataContainer();
+        pdc.set(machineIndexKey, PersistentDataType.BYTE_ARRAY, ChunkDataBackend.encodeIndex(index));
+        pdc.set(machineDataKey, PersistentDataType.BYTE_ARRAY, ChunkDataBackend.encodeData(index, data));
+    }
+
+    @Override
+    public CompletableFuture<Void> flush() {
+        if (unsavedWorlds.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        var future = new CompletableFuture<Void>();
+        var saves = new HashMap<World, Integer>();
+        for (World world : unsavedWorlds) {
+            saves.put(world, SAVES_TO_BE_DURABLE);
+        }
+        waitingForSave.add(new Pair<>(saves, future));
+        unsavedWorlds.clear();
+        return future;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldSave(WorldSaveEvent event) {
+        var iterator = waitingForSave.iterator();
+        while (iterator.hasNext()) {
+            var waiting = iterator.next();
+            waiting.left.computeIfPresent(event.getWorld(), (world, saves) -> saves == 1 ? null : saves - 1);
+            if (waiting.left.isEmpty()) {
+                iterator.remove();
+                waiting.right.complete(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.chunk;
+
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Undecoded machine tags of a chunk, copied out of its {@link ChunkDataBackend} on the main thread.
+ * Backends which don't store tags (such as key-value stores) may hand decoded ones over directly.
+ *
+ * @param chunkX       x of the chunk
+ * @param chunkZ       z of the chunk
+ * @param index        raw bytes of the machine index tag, null if the chunk has never been initialized
+ * @param data         raw bytes of the machine data tag, null if absent
+ * @param context      adapter context of the PDC which the tags come from, null if they don't come from a PDC
+ * @param decodedIndex the index if it's already decoded, which takes precedence over {@code index}
+ * @param decodedData  machine data if it's already decoded, which takes precedence over {@code data}
+ */
+@ApiStatus.Internal
+public record RawChunk(
+        int chunkX,
+        int chunkZ,
+        byte @Nullable [] index,
+        byte @Nullable [] data,
+        @Nullable PersistentDataAdapterContext context,
+        @Nullable ChunkMachineIndex decodedIndex,
+        @Nullable MachineData decodedData
+) {
+    public RawChunk(int chunkX, int chunkZ, byte @Nullable [] index, byte @Nullable [] data, @Nullable PersistentDataAdapterContext context) {
+        this(chunkX, chunkZ, index, data, context, null, null);
+    }
+
+    public static RawChunk decoded(ChunkMachineIndex index, MachineData data) {
+        return new RawChunk(index.getChunkX(), index.getChunkZ(), null, null, null, index, data);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.chunk;
+
+import io.ib67.astralflow.api.AstralHelper;
+import io.ib67.internal.util.bukkit.Log;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Loads chunks in three stages:
+ * <ol>
+ *     <li>raw tags are copied out of the PDC on the main thread ({@link #submit(Chunk, Consumer)})</li>
+ *     <li>tags are decoded and machines are deserialized on a worker pool</li>
+ *     <li>decoded chunks are handed back to the main thread in a later tick ({@link #drain()})</li>
+ * </ol>
+ * Anyone who needs a pending chunk right now can {@link #await(Chunk)} it, which only blocks for that chunk.
+ */
+@ApiStatus.Internal
+public final class StagedChunkLoader {
+    private final InMemoryChunkFactory chunkFactory;
+    private final ExecutorService decoders;
+    private final Map<Chunk, PendingChunk> pendingChunks = new HashMap<>();
+    private final Map<World, Set<Long>> pendingPositions = new HashMap<>(); // same as pendingChunks, keyed by packed coordinates
+    private final Queue<PendingChunk> decodedChunks = new ConcurrentLinkedQueue<>();
+
+    public StagedChunkLoader(InMemoryChunkFactory chunkFactory, int threads) {
+        Objects.requireNonNull(chunkFactory, "chunkFactory cannot be null");
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.chunkFactory = chunkFactory;
+        var counter = new AtomicInteger();
+        this.decoders = Executors.newFixedThreadPool(threads, r -> {
+            var thread = new Thread(r, "AstralFlow Chunk Loader #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start loading the chunk. {@code whenReady} is called on the main thread once the chunk is decoded.
+     *
+     * @param chunk     chunk
+     * @param whenReady callback
+     */
+    public void submit(Chunk chunk, Consumer<InMemoryChunk> whenReady) {
+        AstralHelper.ensureMainThread("Staged chunk loading");
+        if (pendingChunks.containsKey(chunk)) {
+            return;
+        }
+        var raw = chunkFactory.readChunk(chunk);
+        if (decoders.isShutdown()) {
+            whenReady.accept(chunkFactory.decodeChunk(raw));
+            return;
+        }
+        var pending = new PendingChunk(chunk, whenReady);
+        pendingChunks.put(chunk, pending);
+        pendingPositions.computeIfAbsent(chunk.getWorld(), k -> new HashSet<>()).add(chunkKey(chunk.getX(), chunk.getZ()));
+        CompletableFuture.supplyAsync(() -> chunkFactory.decodeChunk(raw), decoders)
+                .whenComplete((result, throwable) -> {
+                    if (throwable != null) pending.result.completeExceptionally(throwable);
+                    else pending.result.complete(result);
+                    decodedChunks.add(pending);
+                });
+    }
+
+    public boolean isPending(Chunk chunk) {
+        return pendingChunks.containsKey(chunk);
+    }
+
+    /**
+     * Same as {@link #isPending(Chunk)}, without getting the chunk.
+     */
+    public boolean isPending(World world, int chunkX, int chunkZ) {
+        var positions = pendingPositions.get(world);
+        return positions != null && positions.contains(chunkKey(chunkX, chunkZ));
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Block until the chunk is decoded, and hand it over immediately.
+     *
+     * @param chunk chunk
+     */
+    public void await(Chunk chunk) {
+        AstralHelper.ensureMainThread("Staged chunk loading");
+        var pending = pendingChunks.get(chunk);
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.result.join();
+        } catch (CompletionException | CancellationException exception) {
+            // reported by finish.
+        }
+        finish(pending);
+    }
+
+    /**
+     * Hand decoded chunks over to their callbacks. Runs every tick.
+     */
+    public void drain() {
+        for (PendingChunk pending; (pending = decodedChunks.poll()) != null; ) {
+            finish(pending);
+        }
+    }
+
+    /**
+     * Stop accepting new chunks and wait for submitted chunks.
+     */
+    public void shutdown() {
+        decoders.shutdown();
+        for (PendingChunk pending : pendingChunks.values().toArray(PendingChunk[]::new)) {
+            await(pending.chunk);
+        }
+    }
+
+    private void finish(PendingChunk pending) {
+        if (pendingChunks.get(pending.chunk) != pending) {
+            return; // already handed over by await.
+        }
+        pendingChunks.remove(pending.chunk);
+        var positions = pendingPositions.get(pending.chunk.getWorld());
+        if (positions != null) {
+            positions.remove(chunkKey(pending.chunk.getX(), pending.chunk.getZ()));
+            if (positions.isEmpty()) {
+                pendingPositions.remove(pending.chunk.getWorld());
+            }
+        }
+        try {
+            pending.whenReady.accept(pending.result.join());
+        } catch (CompletionException exception) {
+            new IllegalStateException("Failed to load machines in chunk " + pending.chunk.getX() + "," + pending.chunk.getZ(), exception.getCause()).printStackTrace();
+            Log.warn("CBMS", "Machines in chunk " + pending.chunk.getX() + "," + pending.chunk.getZ() + " are not loaded.");
+        }
+    }
+
+    private static final class PendingChunk {
+        private final Chunk chunk;
+        private final Consumer<InMemoryChunk> whenReady;
+        private final CompletableFuture<InMemoryChunk> result = new CompletableFuture<>();
+
+        private PendingChunk(Chunk chunk, Consumer<InMemoryChunk> whenReady) {
+            this.chunk = chunk;
+            this.whenReady = whenReady;
+        }
+    }
+}
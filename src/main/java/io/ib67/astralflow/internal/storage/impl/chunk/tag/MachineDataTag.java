@@ -25,24 +25,53 @@ import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
 import io.ib67.astralflow.internal.storage.impl.chunk.MachineData;
 import io.ib67.internal.util.bukkit.Log;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import lombok.Getter;
+import lombok.Setter;
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.persistence.PersistentDataAdapterContext;
 import org.bukkit.persistence.PersistentDataType;
 import org.inlambda.kiwi.tuple.Pair;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import static io.ib67.astralflow.internal.storage.impl.chunk.BufferUtil.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.inlambda.kiwi.Kiwi.pairOf;
 
 @ApiStatus.Internal
 public final class MachineDataTag implements PersistentDataType<byte[], MachineData> {
     public static final MachineDataTag INSTANCE = new MachineDataTag();
-    private static final int STORAGE_VERSION = 1;
+    private static final int STORAGE_VERSION = 4;
 
+    private static final byte CODEC_RAW = 0;
+    private static final byte CODEC_DEFLATE = 1;
+
+    /**
+     * Common fragments of JSON machines. Deflate prefers the latter part of a dictionary, so the most frequent ones come last.
+     */
+    private static final String DICTIONARY_SKELETON = "\"pitch\":0.0,\"yaw\":0.0},\"loc\":{\"world\":\"\",\"x\":\"y\":\"z\":"
+            + "{\"uuid\":\"\",\"state\":{\"type\":\"\",\"data\":{\"type\":\"io.ib67.astralflow.";
+
+    /**
+     * Chunks whose machine data is larger than this (in bytes) are compressed. -1 disables compression.
+     */
+    @Getter
+    @Setter
+    private volatile int compressionThreshold = -1;
 
     @NotNull
     @Override
@@ -59,28 +88,55 @@ public final class MachineDataTag implements PersistentDataType<byte[], MachineD
     @NotNull
     @Override
     public byte[] toPrimitive(@NotNull MachineData complex, @NotNull PersistentDataAdapterContext context) {
+        return toPrimitive(complex, List.of());
+    }
+
+    /**
+     * Encode machine data, using machine types as the dictionary if it's going to be compressed.
+     *
+     * @param machineTypes types of machines in the chunk, usually the constant pool from {@link MachineIndexTag}
+     * @return the tag
+     */
+    public byte[] toPrimitive(MachineData complex, Collection<? extends String> machineTypes) {
         /**
-         * [version][chunkXZ][count]{ [int(the loc hash)] [dataType] [dataLen][data] }
+         * [version][chunkXZ][count (varint)][worldName][codec]
+         * RAW: { [location] [dataType] [dataLen (varint)][data] }
+         * DEFLATE: [dictSize (varint)]{ [dictEntry] } [rawLen (varint)][deflated entries]
          */
-        var buf = Unpooled.buffer();
+        var machineData = complex.getMachineData();
+        var buf = PooledByteBufAllocator.DEFAULT.heapBuffer(16 + machineData.size() * 64);
+        var entries = PooledByteBufAllocator.DEFAULT.heapBuffer(machineData.size() * 64);
         try {
             buf.writeByte(STORAGE_VERSION);
             buf.writeInt(complex.getChunkX());
             buf.writeInt(complex.getChunkZ());
-            buf.writeInt(complex.getMachineData().size());
-            for (Map.Entry<Location, Pair<MachineStorageType, byte[]>> longPairEntry : complex.getMachineData().entrySet()) {
-                var intHash = longPairEntry.getKey();
-                // write loc
-                writeLocation2(longPairEntry.getKey(), buf);
-
-                buf.writeByte(longPairEntry.getValue().left.getTypeIndex());
-                var data = longPairEntry.getValue().right;
-                buf.writeInt(data.length);
-                buf.writeBytes(data);
+            writeVarInt(machineData.size(), buf);
+            if (machineData.isEmpty()) {
+                return ByteBufUtil.getBytes(buf);
             }
-            var result = buf.array();
-            buf.release();
-            return result;
+            writeString3(machineData.keySet().iterator().next().getWorld().getName(), buf); // a chunk has only one world.
+            for (Map.Entry<Location, Pair<MachineStorageType, byte[]>> entry : machineData.entrySet()) {
+                writeLocation3(entry.getKey(), entries);
+                entries.writeByte(entry.getValue().left.getTypeIndex());
+                var data = entry.getValue().right;
+                writeVarInt(data.length, entries);
+                entries.writeBytes(data);
+            }
+            var threshold = compressionThreshold;
+            if (threshold < 0 || entries.readableBytes() < threshold) {
+                buf.writeByte(CODEC_RAW);
+                buf.writeBytes(entries);
+            } else {
+                var dictEntries = new ArrayList<String>(new LinkedHashSet<String>(machineTypes));
+                buf.writeByte(CODEC_DEFLATE);
+                writeVarInt(dictEntries.size(), buf);
+                for (String dictEntry : dictEntries) {
+                    writeString3(dictEntry, buf);
+                }
+                writeVarInt(entries.readableBytes(), buf);
+                deflate(entries, buildDictionary(dictEntries), buf);
+            }
+            return ByteBufUtil.getBytes(buf); // exact size, or the PDC will keep the spare capacity.
         } catch (Throwable t) {
             t.printStackTrace();
             Log.warn("CBMS", "Failed to write machine data!!");
@@ -88,10 +144,11 @@ public final class MachineDataTag implements PersistentDataType<byte[], MachineD
             buf.writeByte(STORAGE_VERSION);
             buf.writeInt(complex.getChunkX());
             buf.writeInt(complex.getChunkZ());
-            buf.writeInt(0);
-            var result = buf.array();
+            writeVarInt(0, buf);
+            return ByteBufUtil.getBytes(buf);
+        } finally {
             buf.release();
-            return result;
+            entries.release();
         }
     }
 
@@ -104,10 +161,128 @@ public final class MachineDataTag implements PersistentDataType<byte[], MachineD
             switch (version) {
                 case 0:
                     return fromPrimitiveV0(buf);
+                case 1:
+                    return fromPrimitiveV1(buf);
+                case 3:
+                    return fromPrimitiveV3(buf);
                 default:
                     throw new IllegalArgumentException("Unknown version: " + version);
             }
         }
+        try {
+            var chunkX = buf.readInt();
+            var chunkZ = buf.readInt();
+            var count = readVarInt(buf);
+            var result = new MachineData(chunkX, chunkZ);
+            if (count == 0) {
+                return result;
+            }
+            var world = Bukkit.getWorld(readString3(buf));
+            var codec = buf.readByte();
+            switch (codec) {
+                case CODEC_RAW:
+                    readEntries(world, chunkX, chunkZ, count, buf, result);
+                    break;
+                case CODEC_DEFLATE:
+                    var dictEntries = new ArrayList<String>();
+                    for (int i = readVarInt(buf); i > 0; i--) {
+                        dictEntries.add(readString3(buf));
+                    }
+                    var rawLen = readVarInt(buf);
+                    var entries = Unpooled.wrappedBuffer(inflate(buf, buildDictionary(dictEntries), rawLen));
+                    readEntries(world, chunkX, chunkZ, count, entries, result);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown codec: " + codec);
+            }
+            return result;
+        } catch (Throwable t) {
+            Log.warn("Failed to read machine data!!");
+            return null;
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static void readEntries(World world, int chunkX, int chunkZ, int count, ByteBuf buf, MachineData result) {
+        for (int i = 0; i < count; i++) {
+            var loc = readLocation3(world, chunkX, chunkZ, buf);
+            var type = MachineStorageType.getType(buf.readByte());
+            var data = new byte[readVarInt(buf)];
+            buf.readBytes(data);
+            result.getMachineData().put(loc, new Pair<>(type, data));
+        }
+    }
+
+    private static byte[] buildDictionary(List<String> machineTypes) {
+        var sb = new StringBuilder(DICTIONARY_SKELETON.length() + machineTypes.size() * 48);
+        for (String machineType : machineTypes) {
+            sb.append('"').append(machineType).append('"');
+        }
+        return sb.append(DICTIONARY_SKELETON).toString().getBytes(UTF_8);
+    }
+
+    private static void deflate(ByteBuf input, byte[] dictionary, ByteBuf output) {
+        var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setDictionary(dictionary);
+            deflater.setInput(input.array(), input.arrayOffset() + input.readerIndex(), input.readableBytes());
+            deflater.finish();
+            var chunk = new byte[4096];
+            while (!deflater.finished()) {
+                var len = deflater.deflate(chunk);
+                output.writeBytes(chunk, 0, len);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(ByteBuf input, byte[] dictionary, int rawLen) throws DataFormatException {
+        var inflater = new Inflater();
+        try {
+            inflater.setInput(input.array(), input.arrayOffset() + input.readerIndex(), input.readableBytes());
+            var result = new byte[rawLen];
+            var off = 0;
+            while (off < rawLen) {
+                var len = inflater.inflate(result, off, rawLen - off);
+                if (len == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new DataFormatException("Truncated machine data, expected " + rawLen + " bytes but got " + off);
+                    }
+                }
+                off += len;
+            }
+            return result;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Deprecated
+    private MachineData fromPrimitiveV3(ByteBuf buf) {
+        try {
+            var chunkX = buf.readInt();
+            var chunkZ = buf.readInt();
+            var count = readVarInt(buf);
+            var result = new MachineData(chunkX, chunkZ);
+            if (count == 0) {
+                return result;
+            }
+            readEntries(Bukkit.getWorld(readString3(buf)), chunkX, chunkZ, count, buf, result);
+            return result;
+        } catch (Throwable t) {
+            Log.warn("Failed to read machine data!!");
+            return null;
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Deprecated
+    private MachineData fromPrimitiveV1(ByteBuf buf) {
         try {
             var chunkX = buf.readInt();
             var chunkZ = buf.readInt();
@@ -21,11 +21,15 @@
 
 package io.ib67.astralflow.internal.storage.impl.chunk.tag;
 
+import io.ib67.astralflow.internal.serialization.TypeRegistry;
 import io.ib67.astralflow.internal.storage.impl.chunk.ChunkMachineIndex;
 import io.ib67.internal.util.bukkit.BukkitGson;
 import io.ib67.internal.util.bukkit.Log;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.persistence.PersistentDataAdapterContext;
 import org.bukkit.persistence.PersistentDataType;
@@ -39,6 +43,7 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import static io.ib67.astralflow.internal.storage.impl.chunk.BufferUtil.*;
@@ -48,7 +53,7 @@ import static org.inlambda.kiwi.Kiwi.runAny;
 @ApiStatus.Internal
 public final class MachineIndexTag implements PersistentDataType<byte[], ChunkMachineIndex> {
     public static final MachineIndexTag INSTANCE = new MachineIndexTag();
-    private static final int STORAGE_VERSION = 2;
+    private static final int STORAGE_VERSION = 3;
 
     public static Map<Location, String> readEntries0(int chunkX, int chunkZ, int count, ByteBuf buf) {
         var result = new HashMap<Location, String>(count, 2); // avoid-resizing at loading
@@ -84,6 +89,39 @@ public final class MachineIndexTag implements PersistentDataType<byte[], ChunkMa
         }
     }
 
+    public static void writeEntries3(Collection<? extends Map.Entry<Location, String>> collection, ByteBuf buffer) {
+        // [world] cpool [size] { [Len][Data] } { [typeCPoolId][Location] }, all lengths and ids are varints.
+        var world = collection.isEmpty() ? "" : collection.iterator().next().getKey().getWorld().getName(); // a chunk has only one world.
+        writeString3(world, buffer);
+        var constants = new LinkedHashMap<String, Integer>();
+        for (Map.Entry<Location, String> entry : collection) {
+            constants.putIfAbsent(entry.getValue(), constants.size());
+        }
+        writeVarInt(constants.size(), buffer);
+        for (String constant : constants.keySet()) {
+            writeString3(constant, buffer);
+        }
+        for (Map.Entry<Location, String> entry : collection) {
+            writeVarInt(constants.get(entry.getValue()), buffer);
+            writeLocation3(entry.getKey(), buffer);
+        }
+    }
+
+    public static Map<Location, String> readEntries3(int chunkX, int chunkZ, int count, ByteBuf buf) {
+        var world = Bukkit.getWorld(readString3(buf));
+        var poolSize = readVarInt(buf);
+        var constants = new String[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            constants[i] = TypeRegistry.INSTANCE.intern(readString3(buf));
+        }
+        var result = new HashMap<Location, String>(count, 2); // avoid-resizing at loading
+        for (int i = 0; i < count; i++) {
+            var typeName = constants[readVarInt(buf)];
+            result.put(readLocation3(world, chunkX, chunkZ, buf), typeName);
+        }
+        return new HashMap<>(result); // or the map cannot be resized.
+    }
+
     public static Map<Location, String> readEntries1(int chunkX, int chunkZ, int count, ByteBuf buf) {
         // read constant pool
         var poolSize = buf.readInt();
@@ -111,7 +149,7 @@ public final class MachineIndexTag implements PersistentDataType<byte[], ChunkMa
         for (int i = 0; i < poolSize; i++) {
             var nameLen = new byte[buf.readShort()];
             buf.readBytes(nameLen);
-            constants[i] = new String(nameLen, UTF_8);
+            constants[i] = TypeRegistry.INSTANCE.intern(new String(nameLen, UTF_8));
         }
 
         //read entries
@@ -144,20 +182,24 @@ public final class MachineIndexTag implements PersistentDataType<byte[], ChunkMa
          * [chunkX]
          * [chunkZ]
          * [hasMachine]
-         * [machineCounts]
+         * [machineCounts (varint)]
+         * [worldName]
          * Machine List...
-         * [machineLocation]
          * [machineType]
+         * [machineLocation]
          */
-        var buffer = Unpooled.buffer();
+        var entries = complex.getEntries();
+        var buffer = PooledByteBufAllocator.DEFAULT.heapBuffer(16 + entries.size() * 8);
         try {
             buffer.writeByte(STORAGE_VERSION);
             buffer.writeInt(complex.getChunkX());
             buffer.writeInt(complex.getChunkZ());
             buffer.writeBoolean(complex.isHasMachines());
-            buffer.writeInt(complex.getMachineTypes().size());
-            writeEntries2(complex.getEntries(), buffer);
-            return buffer.array();
+            if (complex.isHasMachines()) {
+                writeVarInt(entries.size(), buffer);
+                writeEntries3(entries, buffer);
+            }
+            return ByteBufUtil.getBytes(buffer); // exact size, or the PDC will keep the spare capacity.
         } catch (Throwable t) {
             t.printStackTrace();
             Log.warn("CBMS", "Cannot save data for chunk " + complex.getChunkX() + ", " + complex.getChunkZ());
@@ -172,7 +214,7 @@ public final class MachineIndexTag implements PersistentDataType<byte[], ChunkMa
             buffer.writeInt(complex.getChunkX());
             buffer.writeInt(complex.getChunkZ());
             buffer.writeBoolean(false);
-            return buffer.array();
+            return ByteBufUtil.getBytes(buffer);
         } finally {
             buffer.release();
         }
@@ -192,6 +234,8 @@ public final class MachineIndexTag implements PersistentDataType<byte[], ChunkMa
                     return readVersion0(buf, chunkX, chunkZ);
                 case 1:
                     return readVersion1(buf, chunkX, chunkZ);
+                case 2:
+                    return readVersion2(buf, chunkX, chunkZ);
                 default:
                     throw new UnsupportedOperationException("Unknown version: " + version);
             }
@@ -201,8 +245,8 @@ public final class MachineIndexTag implements PersistentDataType<byte[], ChunkMa
             if (!hasMachines) {
                 return new ChunkMachineIndex(new HashMap<>(), chunkX, chunkZ);
             }
-            var count = buf.readInt();
-            var entries = readEntries2(chunkX, chunkZ, count, buf);
+            var count = readVarInt(buf);
+            var entries = readEntries3(chunkX, chunkZ, count, buf);
             buf.release();
             return new ChunkMachineIndex(entries, chunkX, chunkZ);
         } catch (Throwable throwable) {
@@ -212,6 +256,17 @@ public final class MachineIndexTag implements PersistentDataType<byte[], ChunkMa
         }
     }
 
+    private ChunkMachineIndex readVersion2(ByteBuf buf, int chunkX, int chunkZ) {
+        var hasMachines = buf.readBoolean();
+        if (!hasMachines) {
+            return new ChunkMachineIndex(new HashMap<>(), chunkX, chunkZ);
+        }
+        var count = buf.readInt();
+        var entries = readEntries2(chunkX, chunkZ, count, buf);
+        buf.release();
+        return new ChunkMachineIndex(entries, chunkX, chunkZ);
+    }
+
     private ChunkMachineIndex readVersion1(ByteBuf buf, int chunkX, int chunkZ) {
         var hasMachines = buf.readBoolean();
         if (!hasMachines) {
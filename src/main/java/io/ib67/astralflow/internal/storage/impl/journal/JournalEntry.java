@@ -0,0 +1,60 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.journal;
+
+import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+
+/**
+ * The state of a machine at some moment, or its removal if {@code data} is null.
+ */
+@ApiStatus.Internal
+public record JournalEntry(
+        UUID world,
+        int x,
+        int y,
+        int z,
+        @Nullable MachineStorageType storageType,
+        @Nullable String machineType,
+        byte @Nullable [] data
+) {
+    public boolean isRemoval() {
+        return data == null;
+    }
+
+    public int chunkX() {
+        return x >> 4;
+    }
+
+    public int chunkZ() {
+        return z >> 4;
+    }
+
+    public Location toLocation(World world) {
+        return new Location(world, x, y, z);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.journal;
+
+import io.ib67.astralflow.internal.serialization.TypeRegistry;
+import io.ib67.astralflow.internal.storage.impl.chunk.ChunkDataBackend;
+import io.ib67.astralflow.internal.storage.impl.chunk.ChunkMachineIndex;
+import io.ib67.astralflow.internal.storage.impl.chunk.MachineData;
+import io.ib67.astralflow.internal.storage.impl.chunk.RawChunk;
+import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineDataTag;
+import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineIndexTag;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Patches chunks with states recovered from the {@link MachineJournal} when they're read.
+ */
+@ApiStatus.Internal
+public final class JournaledChunkDataBackend implements ChunkDataBackend {
+    private final ChunkDataBackend delegate;
+    private final MachineJournal journal;
+
+    public JournaledChunkDataBackend(ChunkDataBackend delegate, MachineJournal journal) {
+        Objects.requireNonNull(delegate, "delegate cannot be null");
+        Objects.requireNonNull(journal, "journal cannot be null");
+        this.delegate = delegate;
+        this.journal = journal;
+    }
+
+    @Override
+    public RawChunk read(Chunk chunk) {
+        var raw = delegate.read(chunk);
+        var patches = journal.getRecovered(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ());
+        if (patches == null) {
+            return raw;
+        }
+        // decoded here as we need to patch them, only happens once for each chunk after a crash.
+        var index = raw.decodedIndex() != null
+                ? raw.decodedIndex()
+                : raw.index() == null ? null : MachineIndexTag.INSTANCE.fromPrimitive(raw.index(), raw.context());
+        var data = raw.decodedData() != null
+                ? raw.decodedData()
+                : raw.data() == null ? null : MachineDataTag.INSTANCE.fromPrimitive(raw.data(), raw.context());
+        var types = new HashMap<Location, String>();
+        if (index != null) {
+            for (Map.Entry<Location, String> entry : index.getEntries()) {
+                types.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (data == null) {
+            data = new MachineData(chunk.getX(), chunk.getZ());
+        }
+        for (JournalEntry patch : patches) {
+            var loc = patch.toLocation(chunk.getWorld());
+            if (patch.isRemoval()) {
+                types.remove(loc);
+                data.remove(loc);
+            } else {
+                types.put(loc, TypeRegistry.INSTANCE.intern(patch.machineType()));
+                data.save(loc, patch.storageType(), patch.data());
+            }
+        }
+        return RawChunk.decoded(new ChunkMachineIndex(types, chunk.getX(), chunk.getZ()), data);
+    }
+
+    @Override
+    public void write(Chunk chunk, ChunkMachineIndex index, MachineData data) {
+        delegate.write(chunk, index, data);
+        journal.markWritten(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ()); // patches are in the chunk now.
+    }
+
+    @Override
+    public void release(Chunk chunk) {
+        delegate.release(chunk);
+    }
+
+    @Override
+    public CompletableFuture<Void> flush() {
+        return delegate.flush();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.journal;
+
+import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
+import io.ib67.internal.util.bukkit.Log;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.bukkit.Location;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import static io.ib67.astralflow.internal.storage.impl.chunk.BufferUtil.*;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A write-ahead log of machine states between two full saves.
+ * <p>
+ * States are appended as they change and a background thread writes them into the current segment, fsync-ing once for
+ * all the records gathered during the commit interval. A full save {@link #seal() seals} the segment, which is deleted
+ * once the save is {@link #release(long) durable}. The released id is persisted before that, so segments which survived a
+ * crash while being deleted are never replayed over the newer save. Other segments left by a crash are replayed at startup,
+ * and the newest state of each machine is kept until its chunk is written again.
+ * <p>
+ * Record: [length int][world uuid][x int][y int][z int][removed bool]([storageType byte][machineType string][dataLen varint][data])[crc32 long]
+ */
+@ApiStatus.Internal
+public final class MachineJournal {
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String RELEASED_FILE = "released";
+    private static final Object STOP = new Object();
+
+    private final Path directory;
+    private final long commitIntervalMillis;
+    private final Map<ChunkRef, Map<Long, JournalEntry>> recovered = new ConcurrentHashMap<>();
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong currentSegment = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean cleanShutdown;
+    private FileChannel segment;
+
+    /**
+     * @param commitIntervalMillis how long to gather records before a fsync
+     */
+    public MachineJournal(Path directory, long commitIntervalMillis) throws IOException {
+        Objects.requireNonNull(directory, "directory cannot be null");
+        this.directory = directory;
+        this.commitIntervalMillis = commitIntervalMillis;
+        Files.createDirectories(directory);
+        var released = readReleased();
+        var lastSegment = released;
+        for (Long id : listSegments()) {
+            if (id > released) {
+                replay(segmentPath(id));
+            }
+            lastSegment = Math.max(lastSegment, id);
+        }
+        if (!recovered.isEmpty()) {
+            Log.warn("Journal", "Recovered unsaved states of machines in " + recovered.size() + " chunks, they'll be restored when the chunks are loaded.");
+        }
+        currentSegment.set(lastSegment + 1);
+        segment = FileChannel.open(segmentPath(currentSegment.get()), CREATE, WRITE, TRUNCATE_EXISTING);
+        writer = new Thread(this::run, "AstralFlow Journal Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private List<Long> listSegments() throws IOException {
+        var result = new ArrayList<Long>();
+        try (var files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                var name = path.getFileName().toString();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    result.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                }
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    private long readReleased() throws IOException {
+        var file = directory.resolve(RELEASED_FILE);
+        if (!Files.exists(file)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(Files.readString(file).trim());
+        } catch (NumberFormatException e) {
+            Log.warn("Journal", "Ignoring the corrupted release marker, all the segments will be replayed.");
+            return -1;
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%016d", id) + SEGMENT_SUFFIX);
+    }
+
+    private void replay(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, READ)) {
+            if (channel.size() == 0) {
+                return;
+            }
+            var buf = Unpooled.wrappedBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            while (buf.readableBytes() >= 4) {
+                var length = buf.readInt();
+                if (length < 0 || buf.readableBytes() < length + 8L) {
+                    break; // torn
+                }
+                var crc = new CRC32();
+                crc.update(buf.nioBuffer(buf.readerIndex(), length));
+                if (crc.getValue() != buf.getLong(buf.readerIndex() + length)) {
+                    Log.warn("Journal", "Checksum mismatch in " + path.getFileName() + ", the rest is discarded.");
+                    break;
+                }
+                var entry = readEntry(buf);
+                buf.skipBytes(8);
+                recovered.computeIfAbsent(new ChunkRef(entry.world(), entry.chunkX(), entry.chunkZ()), k -> new ConcurrentHashMap<>())
+                        .put(blockKey(entry.x(), entry.y(), entry.z()), entry);
+            }
+        }
+    }
+
+    private static long blockKey(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | (y & 0xFFF);
+    }
+
+    private static JournalEntry readEntry(ByteBuf buf) {
+        var world = new UUID(buf.readLong(), buf.readLong());
+        var x = buf.readInt();
+        var y = buf.readInt();
+        var z = buf.readInt();
+        if (buf.readBoolean()) {
+            return new JournalEntry(world, x, y, z, null, null, null);
+        }
+        var storageType = MachineStorageType.getType(buf.readByte());
+        var machineType = readString3(buf);
+        var data = new byte[readVarInt(buf)];
+        buf.readBytes(data);
+        return new JournalEntry(world, x, y, z, storageType, machineType, data);
+    }
+
+    private static void writeEntry(JournalEntry entry, ByteBuf buf) {
+        var lengthIndex = buf.writerIndex();
+        buf.writeInt(0); // placeholder
+        var start = buf.writerIndex();
+        buf.writeLong(entry.world().getMostSignificantBits());
+        buf.writeLong(entry.world().getLeastSignificantBits());
+        buf.writeInt(entry.x());
+        buf.writeInt(entry.y());
+        buf.writeInt(entry.z());
+        buf.writeBoolean(entry.isRemoval());
+        if (!entry.isRemoval()) {
+            buf.writeByte(entry.storageType().getTypeIndex());
+            writeString3(entry.machineType(), buf);
+            writeVarInt(entry.data().length, buf);
+            buf.writeBytes(entry.data());
+        }
+        var length = buf.writerIndex() - start;
+        buf.setInt(lengthIndex, length);
+        var crc = new CRC32();
+        crc.update(buf.nioBuffer(start, length));
+        buf.writeLong(crc.getValue());
+    }
+
+    /**
+     * Record the state of a machine.
+     */
+    public void put(Location loc, String machineType, MachineStorageType storageType, byte[] data) {
+        queue.add(new JournalEntry(loc.getWorld().getUID(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ(), storageType, machineType, data));
+    }
+
+    /**
+     * Record that there's no machine at the location anymore.
+     */
+    public void remove(Location loc) {
+        queue.add(new JournalEntry(loc.getWorld().getUID(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ(), null, null, null));
+    }
+
+    /**
+     * Start a new segment. Called right after a full save has been taken, so records after this are newer than the save.
+     *
+     * @return id of the sealed segment, to be {@link #release(long) released} once the save is durable.
+     */
+    public long seal() {
+        var sealed = currentSegment.getAndIncrement();
+        queue.add(new Seal(sealed + 1));
+        return sealed;
+    }
+
+    /**
+     * Delete the segment and all the segments before it, as the full save taken when it's sealed is durable.
+     */
+    public void release(long segment) {
+        queue.add(new Release(segment));
+    }
+
+    /**
+     * @return recovered states of machines in the chunk, or null if there's none.
+     */
+    public @Nullable Collection<JournalEntry> getRecovered(UUID world, int chunkX, int chunkZ) {
+        var entries = recovered.get(new ChunkRef(world, chunkX, chunkZ));
+        return entries == null ? null : entries.values();
+    }
+
+    /**
+     * Forget recovered states of the chunk, since they've been written into the chunk.
+     */
+    public void markWritten(UUID world, int chunkX, int chunkZ) {
+        recovered.remove(new ChunkRef(world, chunkX, chunkZ));
+    }
+
+    /**
+     * Stop the writer.
+     *
+     * @param clean whether the full save is durable, so all the segments could be discarded.
+     */
+    public void close(boolean clean) {
+        cleanShutdown = clean;
+        queue.add(STOP);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        var batch = new ArrayList<>();
+        var buf = Unpooled.buffer();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                Thread.sleep(commitIntervalMillis); // gather more records into this commit.
+                queue.drainTo(batch);
+                for (Object item : batch) {
+                    if (item instanceof JournalEntry entry) {
+                        writeEntry(entry, buf);
+                    } else if (item instanceof Seal seal) {
+                        writeAndForce(buf);
+                        segment.close();
+                        segment = FileChannel.open(segmentPath(seal.nextSegment()), CREATE, WRITE, TRUNCATE_EXISTING);
+                        writeCarryOver(buf); // or they're gone with older segments.
+                    } else if (item instanceof Release release) {
+                        writeAndForce(buf);
+                        releaseSegments(release.segment());
+                    } else if (item == STOP) {
+                        writeAndForce(buf);
+                        if (cleanShutdown) {
+                            shutdownCleanly(buf);
+                        }
+                        segment.close();
+                        return;
+                    }
+                }
+                writeAndForce(buf);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.warn("Journal", "The journal writer has crashed, unsaved machine states may be lost after a crash.");
+        } finally {
+            buf.release();
+        }
+    }
+
+    private void writeCarryOver(ByteBuf buf) throws IOException {
+        for (Map<Long, JournalEntry> entries : recovered.values()) {
+            for (JournalEntry entry : entries.values()) {
+                writeEntry(entry, buf);
+            }
+        }
+        writeAndForce(buf);
+    }
+
+    private void shutdownCleanly(ByteBuf buf) throws IOException {
+        var next = currentSegment.incrementAndGet();
+        segment.close();
+        segment = FileChannel.open(segmentPath(next), CREATE, WRITE, TRUNCATE_EXISTING);
+        writeCarryOver(buf);
+        releaseSegments(next - 1);
+        if (recovered.isEmpty()) {
+            segment.close();
+            Files.deleteIfExists(segmentPath(next));
+            Files.deleteIfExists(directory.resolve(RELEASED_FILE)); // ids start over when there's no segment.
+        }
+    }
+
+    private void releaseSegments(long upTo) throws IOException {
+        var marker = directory.resolve(RELEASED_FILE);
+        var temp = directory.resolve(RELEASED_FILE + ".tmp");
+        Files.writeString(temp, Long.toString(upTo));
+        try (var channel = FileChannel.open(temp, WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, marker, REPLACE_EXISTING, ATOMIC_MOVE);
+        for (Long id : listSegments()) {
+            if (id <= upTo) {
+                Files.deleteIfExists(segmentPath(id));
+            }
+        }
+    }
+
+    private void writeAndForce(ByteBuf buf) throws IOException {
+        if (!buf.isReadable()) {
+            return;
+        }
+        var nio = buf.nioBuffer();
+        while (nio.hasRemaining()) {
+            segment.write(nio);
+        }
+        segment.force(false);
+        buf.clear();
+    }
+
+    private record ChunkRef(UUID world, int chunkX, int chunkZ) {
+    }
+
+    private record Seal(long nextSegment) {
+    }
+
+    private record Release(long segment) {
+    }
+}
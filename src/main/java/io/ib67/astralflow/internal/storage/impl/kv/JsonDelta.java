@@ -0,0 +1,134 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.kv;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Field-level patches between two JSON objects, such as two snapshots of a machine.
+ * <p>
+ * A patch is an array of operations. {@code [path, value]} sets the field, {@code [path]} removes it.
+ * The path is an array of field names from the root. Objects are diffed recursively, other values are replaced as a whole.
+ */
+@ApiStatus.Internal
+final class JsonDelta {
+    private JsonDelta() {
+    }
+
+    /**
+     * @return operations which turn {@code base} into {@code current}, or null if any of them isn't a JSON object.
+     */
+    static @Nullable JsonArray diff(byte[] base, byte[] current) {
+        var before = parse(base);
+        var after = parse(current);
+        if (before == null || after == null || !before.isJsonObject() || !after.isJsonObject()) {
+            return null;
+        }
+        var patch = new JsonArray();
+        diff(new ArrayList<>(), before.getAsJsonObject(), after.getAsJsonObject(), patch);
+        return patch;
+    }
+
+    private static void diff(List<String> path, JsonObject before, JsonObject after, JsonArray patch) {
+        for (Map.Entry<String, JsonElement> entry : before.entrySet()) {
+            if (!after.has(entry.getKey())) {
+                patch.add(operation(path, entry.getKey(), null));
+            }
+        }
+        for (Map.Entry<String, JsonElement> entry : after.entrySet()) {
+            var previous = before.get(entry.getKey());
+            var value = entry.getValue();
+            if (previous != null && previous.isJsonObject() && value.isJsonObject()) {
+                path.add(entry.getKey());
+                diff(path, previous.getAsJsonObject(), value.getAsJsonObject(), patch);
+                path.remove(path.size() - 1);
+            } else if (!value.equals(previous)) {
+                patch.add(operation(path, entry.getKey(), value));
+            }
+        }
+    }
+
+    private static JsonArray operation(List<String> parent, String field, @Nullable JsonElement value) {
+        var path = new JsonArray(parent.size() + 1);
+        parent.forEach(path::add);
+        path.add(field);
+        var operation = new JsonArray(2);
+        operation.add(path);
+        if (value != null) {
+            operation.add(value);
+        }
+        return operation;
+    }
+
+    /**
+     * Apply a patch created by {@link #diff(byte[], byte[])}.
+     *
+     * @return the patched object
+     */
+    static byte[] apply(byte[] base, byte[] patch) {
+        var root = JsonParser.parseString(new String(base, StandardCharsets.UTF_8)).getAsJsonObject();
+        for (JsonElement element : JsonParser.parseString(new String(patch, StandardCharsets.UTF_8)).getAsJsonArray()) {
+            var operation = element.getAsJsonArray();
+            var path = operation.get(0).getAsJsonArray();
+            var parent = root;
+            for (int i = 0; i < path.size() - 1; i++) {
+                var name = path.get(i).getAsString();
+                var child = parent.get(name);
+                if (child == null || !child.isJsonObject()) {
+                    child = new JsonObject();
+                    parent.add(name, child);
+                }
+                parent = child.getAsJsonObject();
+            }
+            var field = path.get(path.size() - 1).getAsString();
+            if (operation.size() == 1) {
+                parent.remove(field);
+            } else {
+                parent.add(field, operation.get(1));
+            }
+        }
+        return root.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] encode(JsonArray patch) {
+        return patch.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static @Nullable JsonElement parse(byte[] json) {
+        try {
+            return JsonParser.parseString(new String(json, StandardCharsets.UTF_8));
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.kv;
+
+import io.ib67.astralflow.internal.serialization.TypeRegistry;
+import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
+import io.ib67.astralflow.internal.storage.impl.chunk.ChunkDataBackend;
+import io.ib67.astralflow.internal.storage.impl.chunk.ChunkMachineIndex;
+import io.ib67.astralflow.internal.storage.impl.chunk.MachineData;
+import io.ib67.astralflow.internal.storage.impl.chunk.RawChunk;
+import io.ib67.internal.util.bukkit.Log;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static io.ib67.astralflow.internal.storage.impl.chunk.BufferUtil.*;
+
+/**
+ * Stores every machine as an entry of a {@link LsmStore}, keyed by {@link MachineKeys}. Loading a chunk is a range scan over its prefix.
+ * <p>
+ * Chunks written between two flushes are coalesced and applied as one {@link WriteBatch} by a background thread.
+ * <p>
+ * Value: [storageType byte][machineType string][dataLen varint][data]
+ * <p>
+ * If delta encoding is enabled, a changed JSON machine is saved as a {@link JsonDelta} patch against its last persisted state
+ * instead of the whole state, as long as the patch is small enough. The value of a patch is the patch itself.
+ * Patches are applied in order when the chunk is read, and the machine is rewritten as a whole after a number of them.
+ * The patch is computed from the fully serialized state, so it saves bytes written rather than serialization time.
+ * Other backends rewrite whole chunks and don't use patches.
+ */
+@ApiStatus.Internal
+public final class KvChunkDataBackend implements ChunkDataBackend {
+    private final LsmStore store;
+    private final int deltaCompactionInterval;
+    private final Map<ChunkRef, PendingChunk> pending = new ConcurrentHashMap<>();
+    private final Map<ChunkRef, Map<Location, Persisted>> persisted = new HashMap<>(); // states of machines in the store, for diffing.
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "AstralFlow KV Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public KvChunkDataBackend(Path directory, long memtableLimit, int compactionTrigger) throws IOException {
+        this(directory, memtableLimit, compactionTrigger, 0);
+    }
+
+    /**
+     * @param deltaCompactionInterval how many patches a machine can have before it's rewritten as a whole. Zero disables delta encoding.
+     */
+    public KvChunkDataBackend(Path directory, long memtableLimit, int compactionTrigger, int deltaCompactionInterval) throws IOException {
+        Objects.requireNonNull(directory, "directory cannot be null");
+        this.store = new LsmStore(directory, memtableLimit, compactionTrigger);
+        this.deltaCompactionInterval = Math.max(0, deltaCompactionInterval);
+    }
+
+    private static ChunkRef refOf(Chunk chunk) {
+        return new ChunkRef(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ());
+    }
+
+    @Override
+    public RawChunk read(Chunk chunk) {
+        var world = chunk.getWorld();
+        var ref = refOf(chunk);
+        var prefix = MachineKeys.chunkPrefix(world, chunk.getX(), chunk.getZ());
+        var entries = new TreeMap<byte[], byte[]>(LsmStore.KEY_ORDER);
+        store.scan(prefix, MachineKeys.prefixEnd(prefix)).forEachRemaining(entry -> entries.put(entry.getKey(), entry.getValue()));
+        var pendingChunk = pending.get(ref);
+        if (pendingChunk != null) {
+            pendingChunk.applyTo(entries); // not persisted yet
+        }
+        var types = new HashMap<Location, String>();
+        var data = new MachineData(chunk.getX(), chunk.getZ());
+        var states = new HashMap<Location, Persisted>();
+        byte[] machineKey = null;
+        Location loc = null;
+        Persisted state = null;
+        for (Map.Entry<byte[], byte[]> entry : entries.entrySet()) {
+            var key = entry.getKey();
+            if (MachineKeys.isPatch(key)) {
+                if (state == null || !Arrays.equals(key, 0, MachineKeys.KEY_LENGTH, machineKey, 0, MachineKeys.KEY_LENGTH)) {
+                    continue; // its machine is gone.
+                }
+                state = new Persisted(state.machineType(), state.storageType(), JsonDelta.apply(state.data(), entry.getValue()), state.patches() + 1);
+            } else {
+                if (state != null) {
+                    states.put(loc, state);
+                }
+                machineKey = key;
+                loc = MachineKeys.toLocation(world, key);
+                var buf = Unpooled.wrappedBuffer(entry.getValue());
+                var storageType = MachineStorageType.getType(buf.readByte());
+                var machineType = TypeRegistry.INSTANCE.intern(readString3(buf));
+                var bytes = new byte[readVarInt(buf)];
+                buf.readBytes(bytes);
+                state = new Persisted(machineType, storageType, bytes, 0);
+            }
+        }
+        if (state != null) {
+            states.put(loc, state);
+        }
+        for (Map.Entry<Location, Persisted> entry : states.entrySet()) {
+            types.put(entry.getKey(), entry.getValue().machineType());
+            data.save(entry.getKey(), entry.getValue().storageType(), entry.getValue().data());
+        }
+        if (deltaCompactionInterval > 0) {
+            persisted.put(ref, states);
+        }
+        return RawChunk.decoded(new ChunkMachineIndex(types, chunk.getX(), chunk.getZ()), data);
+    }
+
+    @Override
+    public void write(Chunk chunk, ChunkMachineIndex index, MachineData data) {
+        var ref = refOf(chunk);
+        var states = deltaCompactionInterval > 0 ? persisted.computeIfAbsent(ref, k -> new HashMap<>()) : null;
+        var puts = new TreeMap<byte[], byte[]>(LsmStore.KEY_ORDER);
+        var present = new TreeSet<byte[]>(LsmStore.KEY_ORDER);
+        var rebased = new TreeSet<byte[]>(LsmStore.KEY_ORDER);
+        for (Map.Entry<Location, String> entry : index.getEntries()) {
+            var machineData = data.getData(entry.getKey());
+            if (machineData == null) {
+                continue; // not saved yet.
+            }
+            var key = MachineKeys.machineKey(entry.getKey());
+            present.add(key);
+            var current = new Persisted(entry.getValue(), machineData.left, machineData.right, 0);
+            var previous = states == null ? null : states.get(entry.getKey());
+            if (previous != null && previous.machineType().equals(current.machineType()) && previous.storageType() == current.storageType()) {
+                if (previous.data() == current.data() || Arrays.equals(previous.data(), current.data())) {
+                    continue; // untouched
+                }
+                if (current.storageType() == MachineStorageType.JSON && previous.patches() < deltaCompactionInterval) {
+                    var patch = JsonDelta.diff(previous.data(), current.data());
+                    if (patch != null && patch.size() == 0) {
+                        states.put(entry.getKey(), new Persisted(current.machineType(), current.storageType(), current.data(), previous.patches()));
+                        continue; // only formatted differently
+                    }
+                    var encoded = patch == null ? null : JsonDelta.encode(patch);
+                    if (encoded != null && encoded.length * 2 < current.data().length) {
+                        var patches = previous.patches() + 1;
+                        puts.put(MachineKeys.patchKey(key, patches), encoded);
+                        states.put(entry.getKey(), new Persisted(current.machineType(), current.storageType(), current.data(), patches));
+                        continue;
+                    }
+                }
+            }
+            var buf = Unpooled.buffer(machineData.right.length + entry.getValue().length() + 8);
+            buf.writeByte(machineData.left.getTypeIndex());
+            writeString3(entry.getValue(), buf);
+            writeVarInt(machineData.right.length, buf);
+            buf.writeBytes(machineData.right);
+            puts.put(key, ByteBufUtil.getBytes(buf));
+            rebased.add(key);
+            if (states != null) {
+                states.put(entry.getKey(), current);
+            }
+        }
+        if (states != null) {
+            states.keySet().retainAll(index.getLocations());
+        }
+        var update = new PendingChunk(MachineKeys.chunkPrefix(chunk.getWorld(), chunk.getX(), chunk.getZ()), puts, present, rebased);
+        pending.merge(ref, update, PendingChunk::then);
+    }
+
+    @Override
+    public void release(Chunk chunk) {
+        persisted.remove(refOf(chunk));
+    }
+
+    @Override
+    public CompletableFuture<Void> flush() {
+        return CompletableFuture.runAsync(this::persist, writer);
+    }
+
+    private void persist() {
+        var chunks = new HashMap<>(pending);
+        if (chunks.isEmpty()) {
+            return;
+        }
+        var batch = new WriteBatch();
+        for (PendingChunk chunk : chunks.values()) {
+            var stored = store.scan(chunk.prefix(), MachineKeys.prefixEnd(chunk.prefix()));
+            while (stored.hasNext()) {
+                var key = stored.next().getKey();
+                if (chunk.isObsolete(key)) {
+                    batch.delete(key); // removed, moved away or rewritten as a whole
+                }
+            }
+            chunk.puts().forEach(batch::put);
+        }
+        try {
+            store.write(batch);
+            chunks.forEach(pending::remove); // only if they're not updated in the meantime
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.warn("KVStore", "Failed to write " + chunks.size() + " chunks, they'll be retried at the next flush.");
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Iterate all the machines as they're at this moment, for backups.
+     * Keys are described in {@link MachineKeys}, values are described in {@link KvChunkDataBackend}.
+     */
+    public Iterator<Map.Entry<byte[], byte[]>> snapshot() {
+        return store.snapshot();
+    }
+
+    @Override
+    public void close() {
+        flush();
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.MINUTES)) {
+                Log.warn("KVStore", "Timed out while writing machines, data may be lost.");
+            }
+            store.checkpoint();
+            store.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private record ChunkRef(UUID world, int chunkX, int chunkZ) {
+    }
+
+    /**
+     * A machine as it's in the store, with patches applied.
+     */
+    private record Persisted(String machineType, MachineStorageType storageType, byte[] data, int patches) {
+    }
+
+    /**
+     * Changes of a chunk which haven't been persisted.
+     *
+     * @param puts    machines and patches to write
+     * @param present keys of machines in the chunk, others are deleted
+     * @param rebased keys of machines which are rewritten as a whole, so their stored patches are deleted
+     */
+    private record PendingChunk(byte[] prefix, NavigableMap<byte[], byte[]> puts, NavigableSet<byte[]> present, NavigableSet<byte[]> rebased) {
+        boolean isObsolete(byte[] key) {
+            var machineKey = MachineKeys.machineKeyOf(key);
+            if (!present.contains(machineKey)) {
+                return true;
+            }
+            return MachineKeys.isPatch(key) && rebased.contains(machineKey) && !puts.containsKey(key);
+        }
+
+        void applyTo(NavigableMap<byte[], byte[]> entries) {
+            entries.keySet().removeIf(this::isObsolete);
+            entries.putAll(puts);
+        }
+
+        /**
+         * @return changes of this and then the next one.
+         */
+        PendingChunk then(PendingChunk next) {
+            var puts = new TreeMap<byte[], byte[]>(LsmStore.KEY_ORDER);
+            for (Map.Entry<byte[], byte[]> entry : this.puts.entrySet()) {
+                var machineKey = MachineKeys.machineKeyOf(entry.getKey());
+                if (next.present.contains(machineKey) && !next.rebased.contains(machineKey)) {
+                    puts.put(entry.getKey(), entry.getValue());
+                }
+            }
+            puts.putAll(next.puts);
+            var rebased = new TreeSet<byte[]>(LsmStore.KEY_ORDER);
+            for (byte[] machineKey : this.rebased) {
+                if (next.present.contains(machineKey)) {
+                    rebased.add(machineKey);
+                }
+            }
+            rebased.addAll(next.rebased);
+            return new PendingChunk(prefix, puts, next.present, rebased);
+        }
+    }
+}
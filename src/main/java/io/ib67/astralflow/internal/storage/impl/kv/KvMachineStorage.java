@@ -0,0 +1,65 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.kv;
+
+import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
+import io.ib67.astralflow.internal.storage.impl.chunk.ChunkBasedMachineStorage;
+import io.ib67.astralflow.internal.storage.impl.chunk.MachineCache;
+import io.ib67.astralflow.manager.IFactoryManager;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Same as {@link ChunkBasedMachineStorage}, but machines are stored in an embedded key-value store instead of chunk NBT.
+ *
+ * @see KvChunkDataBackend
+ */
+@ApiStatus.Internal
+public class KvMachineStorage extends ChunkBasedMachineStorage {
+    public static final long MEMTABLE_LIMIT = 8 * 1024 * 1024;
+    public static final int COMPACTION_TRIGGER = 8;
+    private final KvChunkDataBackend backend;
+
+    /**
+     * @param directory               where the store is
+     * @param deltaCompactionInterval how many patches a machine can have before it's rewritten as a whole, zero to disable delta encoding
+     */
+    public KvMachineStorage(MachineCache cache, IFactoryManager factoryManager, MachineStorageType defaultSerializer, int initialCapacity, boolean allowResizing, int chunkLoaderThreads, boolean eagerTickless, Path directory, int deltaCompactionInterval) throws IOException {
+        this(cache, factoryManager, defaultSerializer, initialCapacity, allowResizing, chunkLoaderThreads, eagerTickless, new KvChunkDataBackend(directory, MEMTABLE_LIMIT, COMPACTION_TRIGGER, deltaCompactionInterval));
+    }
+
+    private KvMachineStorage(MachineCache cache, IFactoryManager factoryManager, MachineStorageType defaultSerializer, int initialCapacity, boolean allowResizing, int chunkLoaderThreads, boolean eagerTickless, KvChunkDataBackend backend) {
+        super(cache, factoryManager, defaultSerializer, initialCapacity, allowResizing, chunkLoaderThreads, eagerTickless, backend);
+        this.backend = backend;
+    }
+
+    /**
+     * @see KvChunkDataBackend#snapshot()
+     */
+    public Iterator<Map.Entry<byte[], byte[]>> snapshot() {
+        return backend.snapshot();
+    }
+}
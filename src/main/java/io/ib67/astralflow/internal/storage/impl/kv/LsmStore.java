@@ -0,0 +1,358 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.kv;
+
+import io.ib67.internal.util.bukkit.Log;
+import io.netty.buffer.Unpooled;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+import static io.ib67.astralflow.internal.storage.impl.chunk.BufferUtil.readVarInt;
+import static io.ib67.astralflow.internal.storage.impl.chunk.BufferUtil.writeVarInt;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A small log-structured merge tree.
+ * <p>
+ * Writes are appended to a log and applied to an in-memory table, which is written into a {@link SSTable} once it grows
+ * over the limit. When there're too many tables, all of them are merged into one. Reads merge the memory table and all
+ * tables from the newest to the oldest.
+ * <p>
+ * Live tables are listed in a manifest which is replaced atomically. Tables that aren't listed, e.g. the inputs of a compaction
+ * which crashed before deleting them, are deleted when the store is opened, so that values they hold can't come back from the dead.
+ * <p>
+ * Writes must come from one thread at a time, reads may happen on any thread.
+ */
+@ApiStatus.Internal
+public final class LsmStore implements Closeable {
+    /**
+     * Marks deleted keys. Compared by identity.
+     */
+    static final byte[] TOMBSTONE = new byte[0];
+    static final Comparator<byte[]> KEY_ORDER = Arrays::compareUnsigned;
+    private static final String LOG_NAME = "store.log";
+    private static final String TABLE_SUFFIX = ".sst";
+    private static final String MANIFEST_NAME = "MANIFEST";
+
+    private final Path directory;
+    private final long memtableLimit;
+    private final int compactionTrigger;
+    private final FileChannel log;
+    private final Object writeLock = new Object();
+    private volatile View view;
+    private long memtableBytes;
+    private long nextTableId;
+
+    /**
+     * @param memtableLimit     bytes of the memory table before it's written into a table
+     * @param compactionTrigger how many tables there could be before they're merged
+     */
+    public LsmStore(Path directory, long memtableLimit, int compactionTrigger) throws IOException {
+        Objects.requireNonNull(directory, "directory cannot be null");
+        this.directory = directory;
+        this.memtableLimit = memtableLimit;
+        this.compactionTrigger = compactionTrigger;
+        Files.createDirectories(directory);
+
+        var manifest = readManifest(); // null for stores created before manifests.
+        var tables = new ArrayList<SSTable>();
+        try (var files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                var name = path.getFileName().toString();
+                if (name.endsWith(TABLE_SUFFIX + ".tmp")) {
+                    Files.delete(path); // crashed while writing
+                } else if (name.endsWith(TABLE_SUFFIX)) {
+                    var id = Long.parseLong(name.substring(0, name.length() - TABLE_SUFFIX.length()));
+                    nextTableId = Math.max(nextTableId, id + 1);
+                    if (manifest != null && !manifest.remove(id)) {
+                        Files.delete(path); // replaced by a compaction, or written by a flush which didn't finish.
+                        continue;
+                    }
+                    tables.add(SSTable.open(path, id));
+                }
+            }
+        }
+        if (manifest != null && !manifest.isEmpty()) {
+            Log.warn("KVStore", "Tables " + manifest + " of " + directory + " are missing, entries in them are lost.");
+        }
+        tables.sort(Comparator.comparingLong(SSTable::id).reversed()); // newest first
+        if (manifest == null) {
+            writeManifest(tables);
+        }
+        var memtable = new ConcurrentSkipListMap<byte[], byte[]>(KEY_ORDER);
+        log = FileChannel.open(directory.resolve(LOG_NAME), CREATE, READ, WRITE);
+        replayLog(memtable);
+        view = new View(memtable, List.copyOf(tables));
+    }
+
+    private @Nullable Set<Long> readManifest() throws IOException {
+        var file = directory.resolve(MANIFEST_NAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        var ids = new HashSet<Long>();
+        for (String line : Files.readAllLines(file)) {
+            if (!line.isBlank()) {
+                ids.add(Long.parseLong(line.trim()));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Durably replace the list of live tables. Must be called before the log is truncated or replaced tables are deleted.
+     */
+    private void writeManifest(List<SSTable> tables) throws IOException {
+        var file = directory.resolve(MANIFEST_NAME);
+        var temp = directory.resolve(MANIFEST_NAME + ".tmp");
+        var content = new StringBuilder();
+        for (SSTable table : tables) {
+            content.append(table.id()).append('\n');
+        }
+        Files.writeString(temp, content);
+        try (var channel = FileChannel.open(temp, WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private void replayLog(NavigableMap<byte[], byte[]> memtable) throws IOException {
+        var size = log.size();
+        if (size == 0) {
+            return;
+        }
+        var buf = Unpooled.wrappedBuffer(log.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        var valid = 0;
+        while (buf.readableBytes() >= 4) {
+            var length = buf.readInt();
+            if (length < 0 || buf.readableBytes() < length + 8L) {
+                break; // torn
+            }
+            var crc = new CRC32();
+            crc.update(buf.nioBuffer(buf.readerIndex(), length));
+            if (crc.getValue() != buf.getLong(buf.readerIndex() + length)) {
+                Log.warn("KVStore", "Checksum mismatch in the log of " + directory + ", the rest is discarded.");
+                break;
+            }
+            var end = buf.readerIndex() + length;
+            while (buf.readerIndex() < end) {
+                var key = new byte[readVarInt(buf)];
+                buf.readBytes(key);
+                var tombstone = buf.readByte() == 1;
+                var value = new byte[readVarInt(buf)];
+                buf.readBytes(value);
+                memtable.put(key, tombstone ? TOMBSTONE : value);
+                memtableBytes += key.length + value.length;
+            }
+            buf.skipBytes(8);
+            valid = buf.readerIndex();
+        }
+        log.truncate(valid);
+        log.position(valid);
+    }
+
+    /**
+     * Apply the batch durably.
+     */
+    public void write(WriteBatch batch) throws IOException {
+        Objects.requireNonNull(batch, "batch cannot be null");
+        if (batch.isEmpty()) {
+            return;
+        }
+        synchronized (writeLock) {
+            var buf = Unpooled.buffer();
+            try {
+                buf.writeInt(0); // placeholder
+                for (Map.Entry<byte[], byte[]> op : batch.operations) {
+                    writeVarInt(op.getKey().length, buf);
+                    buf.writeBytes(op.getKey());
+                    buf.writeByte(op.getValue() == TOMBSTONE ? 1 : 0);
+                    writeVarInt(op.getValue().length, buf);
+                    buf.writeBytes(op.getValue());
+                }
+                var length = buf.readableBytes() - 4;
+                buf.setInt(0, length);
+                var crc = new CRC32();
+                crc.update(buf.nioBuffer(4, length));
+                buf.writeLong(crc.getValue());
+                var nio = buf.nioBuffer();
+                while (nio.hasRemaining()) {
+                    log.write(nio);
+                }
+                log.force(false);
+            } finally {
+                buf.release();
+            }
+            var memtable = view.memtable();
+            for (Map.Entry<byte[], byte[]> op : batch.operations) {
+                memtable.put(op.getKey(), op.getValue());
+                memtableBytes += op.getKey().length + op.getValue().length;
+            }
+            if (memtableBytes > memtableLimit) {
+                flushMemtable();
+            }
+        }
+    }
+
+    private void flushMemtable() throws IOException {
+        var current = view;
+        if (current.memtable().isEmpty()) {
+            return;
+        }
+        var id = nextTableId++;
+        var table = SSTable.write(tablePath(id), id, current.memtable().entrySet().iterator(), current.tables().isEmpty());
+        var tables = new ArrayList<SSTable>(current.tables().size() + 1);
+        tables.add(table);
+        tables.addAll(current.tables());
+        writeManifest(tables);
+        view = new View(new ConcurrentSkipListMap<>(KEY_ORDER), List.copyOf(tables));
+        log.truncate(0);
+        log.position(0);
+        log.force(false);
+        memtableBytes = 0;
+        if (tables.size() > compactionTrigger) {
+            compact();
+        }
+    }
+
+    private void compact() throws IOException {
+        var current = view;
+        var id = nextTableId++;
+        var merged = SSTable.write(tablePath(id), id, new MergingIterator(iterators(current.tables(), null, null)), true);
+        writeManifest(List.of(merged)); // tombstones are dropped, so the old tables must never be read again.
+        view = new View(current.memtable(), List.of(merged));
+        for (SSTable table : current.tables()) {
+            // readers may still be iterating it, which is fine since the mapping stays valid after deleting.
+            if (!table.path().toFile().delete()) {
+                table.path().toFile().deleteOnExit();
+            }
+        }
+    }
+
+    private Path tablePath(long id) {
+        return directory.resolve(String.format("%016d", id) + TABLE_SUFFIX);
+    }
+
+    private static List<Iterator<Map.Entry<byte[], byte[]>>> iterators(List<SSTable> tables, byte[] from, byte[] to) {
+        var result = new ArrayList<Iterator<Map.Entry<byte[], byte[]>>>(tables.size() + 1);
+        for (SSTable table : tables) {
+            result.add(table.iterator(from, to));
+        }
+        return result;
+    }
+
+    /**
+     * @return the value, or null if absent
+     */
+    public byte @Nullable [] get(byte[] key) {
+        Objects.requireNonNull(key, "key cannot be null");
+        var current = view;
+        var value = current.memtable().get(key);
+        if (value == null) {
+            for (SSTable table : current.tables()) {
+                value = table.get(key);
+                if (value != null) {
+                    break;
+                }
+            }
+        }
+        return value == TOMBSTONE ? null : value;
+    }
+
+    /**
+     * Iterate live entries in [from, to) in key order. The iterator is weakly consistent with concurrent writes.
+     *
+     * @param from inclusive, null for the beginning
+     * @param to   exclusive, null for the end
+     */
+    public Iterator<Map.Entry<byte[], byte[]>> scan(byte @Nullable [] from, byte @Nullable [] to) {
+        var current = view;
+        NavigableMap<byte[], byte[]> mem = current.memtable();
+        if (from != null && to != null) {
+            mem = mem.subMap(from, true, to, false);
+        } else if (from != null) {
+            mem = mem.tailMap(from, true);
+        } else if (to != null) {
+            mem = mem.headMap(to, false);
+        }
+        var sources = new ArrayList<Iterator<Map.Entry<byte[], byte[]>>>();
+        sources.add(mem.entrySet().iterator());
+        sources.addAll(iterators(current.tables(), from, to));
+        return new MergingIterator(sources);
+    }
+
+    /**
+     * Iterate all live entries as they're at this moment, regardless of writes afterwards. Useful for backups.
+     */
+    public Iterator<Map.Entry<byte[], byte[]>> snapshot() {
+        View current;
+        TreeMap<byte[], byte[]> mem;
+        synchronized (writeLock) { // tables are immutable, only the memory table needs a copy.
+            current = view;
+            mem = new TreeMap<>(current.memtable());
+        }
+        var sources = new ArrayList<Iterator<Map.Entry<byte[], byte[]>>>();
+        sources.add(mem.entrySet().iterator());
+        sources.addAll(iterators(current.tables(), null, null));
+        return new MergingIterator(sources);
+    }
+
+    /**
+     * Write the memory table into a table, so the log could be discarded.
+     */
+    public void checkpoint() throws IOException {
+        synchronized (writeLock) {
+            flushMemtable();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            log.close();
+        }
+    }
+
+    private record View(ConcurrentSkipListMap<byte[], byte[]> memtable, List<SSTable> tables) {
+    }
+}
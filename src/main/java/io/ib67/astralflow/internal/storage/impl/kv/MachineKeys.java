@@ -0,0 +1,103 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.kv;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Keys of machines in a {@link LsmStore}: [world uuid (16)][chunkX (4)][chunkZ (4)][y (4)][x and z in the chunk (1)].
+ * Integers have their sign bits flipped, so machines of a chunk are adjacent and sorted by coordinates.
+ * <p>
+ * Patches of a machine are keyed by its key followed by a sequence number (4), so they're sorted right after the machine.
+ */
+@ApiStatus.Internal
+final class MachineKeys {
+    static final int CHUNK_PREFIX_LENGTH = 24;
+    static final int KEY_LENGTH = CHUNK_PREFIX_LENGTH + 5;
+    static final int PATCH_KEY_LENGTH = KEY_LENGTH + 4;
+
+    private MachineKeys() {
+    }
+
+    static byte[] chunkPrefix(World world, int chunkX, int chunkZ) {
+        return putChunk(ByteBuffer.allocate(CHUNK_PREFIX_LENGTH), world, chunkX, chunkZ).array();
+    }
+
+    /**
+     * @return the smallest key greater than all keys starting with the prefix
+     */
+    static byte[] prefixEnd(byte[] prefix) {
+        var result = prefix.clone();
+        for (int i = result.length - 1; i >= 0; i--) {
+            if (++result[i] != 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Prefix has no upper bound");
+    }
+
+    static byte[] machineKey(Location loc) {
+        var x = loc.getBlockX();
+        var z = loc.getBlockZ();
+        return putChunk(ByteBuffer.allocate(KEY_LENGTH), loc.getWorld(), x >> 4, z >> 4)
+                .putInt(loc.getBlockY() ^ Integer.MIN_VALUE)
+                .put((byte) ((x & 15) << 4 | (z & 15)))
+                .array();
+    }
+
+    static byte[] patchKey(byte[] machineKey, int sequence) {
+        return ByteBuffer.allocate(PATCH_KEY_LENGTH).put(machineKey).putInt(sequence).array();
+    }
+
+    static boolean isPatch(byte[] key) {
+        return key.length == PATCH_KEY_LENGTH;
+    }
+
+    /**
+     * @return key of the machine, which the key belongs to.
+     */
+    static byte[] machineKeyOf(byte[] key) {
+        return key.length == KEY_LENGTH ? key : Arrays.copyOf(key, KEY_LENGTH);
+    }
+
+    static Location toLocation(World world, byte[] key) {
+        var buf = ByteBuffer.wrap(key);
+        var chunkX = buf.getInt(16) ^ Integer.MIN_VALUE;
+        var chunkZ = buf.getInt(20) ^ Integer.MIN_VALUE;
+        var y = buf.getInt(24) ^ Integer.MIN_VALUE;
+        var xz = buf.get(28) & 0xFF;
+        return new Location(world, (chunkX << 4) + (xz >> 4), y, (chunkZ << 4) + (xz & 15));
+    }
+
+    private static ByteBuffer putChunk(ByteBuffer buf, World world, int chunkX, int chunkZ) {
+        var uid = world.getUID();
+        return buf.putLong(uid.getMostSignificantBits())
+                .putLong(uid.getLeastSignificantBits())
+                .putInt(chunkX ^ Integer.MIN_VALUE)
+                .putInt(chunkZ ^ Integer.MIN_VALUE);
+    }
+}
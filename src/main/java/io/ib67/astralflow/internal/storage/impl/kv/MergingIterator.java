@@ -0,0 +1,103 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.kv;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges sorted sources into one sorted stream. For the same key, the source which comes first in the list wins,
+ * and keys whose winning value is a tombstone are skipped.
+ */
+@ApiStatus.Internal
+final class MergingIterator implements Iterator<Map.Entry<byte[], byte[]>> {
+    private final PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> {
+        var c = LsmStore.KEY_ORDER.compare(a.current.getKey(), b.current.getKey());
+        return c != 0 ? c : Integer.compare(a.priority, b.priority);
+    });
+    private Map.Entry<byte[], byte[]> next;
+
+    MergingIterator(List<? extends Iterator<Map.Entry<byte[], byte[]>>> sources) {
+        for (int i = 0; i < sources.size(); i++) {
+            var source = sources.get(i);
+            if (source.hasNext()) {
+                heads.add(new Head(i, source, source.next()));
+            }
+        }
+        advance();
+    }
+
+    private void advance() {
+        next = null;
+        while (next == null && !heads.isEmpty()) {
+            var head = heads.poll();
+            var winner = head.current;
+            head.advance(heads);
+            // drop shadowed versions from older sources
+            while (!heads.isEmpty() && LsmStore.KEY_ORDER.compare(heads.peek().current.getKey(), winner.getKey()) == 0) {
+                heads.poll().advance(heads);
+            }
+            if (winner.getValue() != LsmStore.TOMBSTONE) {
+                next = winner;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        var result = next;
+        advance();
+        return result;
+    }
+
+    private static final class Head {
+        private final int priority;
+        private final Iterator<Map.Entry<byte[], byte[]>> source;
+        private Map.Entry<byte[], byte[]> current;
+
+        private Head(int priority, Iterator<Map.Entry<byte[], byte[]>> source, Map.Entry<byte[], byte[]> current) {
+            this.priority = priority;
+            this.source = source;
+            this.current = current;
+        }
+
+        private void advance(PriorityQueue<Head> heads) {
+            if (source.hasNext()) {
+                current = source.next();
+                heads.add(this);
+            }
+        }
+    }
+}
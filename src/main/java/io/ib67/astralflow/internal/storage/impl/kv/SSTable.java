@@ -0,0 +1,239 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.kv;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static io.ib67.astralflow.internal.storage.impl.chunk.BufferUtil.readVarInt;
+import static io.ib67.astralflow.internal.storage.impl.chunk.BufferUtil.writeVarInt;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * An immutable sorted file of key-value pairs, memory-mapped for reading.
+ * <p>
+ * Layout: { [keyLen varint][key][flag byte, 1 for tombstones][valueLen varint][value] } { [keyLen varint][key][offset int] } [indexOffset int][indexCount int][magic int]
+ * <p>
+ * Every {@link #INDEX_INTERVAL}th key is kept in memory, so lookups only scan a few entries. A table is limited to 2GiB.
+ */
+@ApiStatus.Internal
+final class SSTable {
+    private static final int MAGIC = 0x4153_5354;
+    private static final int INDEX_INTERVAL = 32;
+    private static final int FOOTER_SIZE = 12;
+
+    private final Path path;
+    private final long id;
+    private final ByteBuffer mapped;
+    private final byte[][] indexKeys;
+    private final int[] indexOffsets;
+    private final int dataEnd;
+
+    private SSTable(Path path, long id) throws IOException {
+        this.path = path;
+        this.id = id;
+        try (var channel = FileChannel.open(path, READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // the mapping outlives the channel.
+        }
+        var size = mapped.capacity();
+        if (size < FOOTER_SIZE || mapped.getInt(size - 4) != MAGIC) {
+            throw new IOException("Corrupted table: " + path);
+        }
+        dataEnd = mapped.getInt(size - FOOTER_SIZE);
+        var indexCount = mapped.getInt(size - 8);
+        indexKeys = new byte[indexCount][];
+        indexOffsets = new int[indexCount];
+        var buf = Unpooled.wrappedBuffer(mapped.duplicate()).readerIndex(dataEnd);
+        for (int i = 0; i < indexCount; i++) {
+            indexKeys[i] = new byte[readVarInt(buf)];
+            buf.readBytes(indexKeys[i]);
+            indexOffsets[i] = buf.readInt();
+        }
+    }
+
+    static SSTable open(Path path, long id) throws IOException {
+        return new SSTable(path, id);
+    }
+
+    /**
+     * Write sorted entries into a new table. The file is written aside and moved into place, so a crash never leaves a partial table.
+     *
+     * @param dropTombstones if tombstones can be discarded, which is only safe when nothing older is left.
+     */
+    static SSTable write(Path path, long id, Iterator<Map.Entry<byte[], byte[]>> entries, boolean dropTombstones) throws IOException {
+        var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        var indexKeys = new ArrayList<byte[]>();
+        var indexOffsets = new ArrayList<Integer>();
+        var buf = Unpooled.buffer(1 << 16);
+        try (var channel = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            long written = 0;
+            int count = 0;
+            while (entries.hasNext()) {
+                var entry = entries.next();
+                var tombstone = entry.getValue() == LsmStore.TOMBSTONE;
+                if (tombstone && dropTombstones) {
+                    continue;
+                }
+                var offset = written + buf.readableBytes();
+                if (offset > Integer.MAX_VALUE) {
+                    throw new IOException("Table is too large: " + path);
+                }
+                if (count++ % INDEX_INTERVAL == 0) {
+                    indexKeys.add(entry.getKey());
+                    indexOffsets.add((int) offset);
+                }
+                writeVarInt(entry.getKey().length, buf);
+                buf.writeBytes(entry.getKey());
+                buf.writeByte(tombstone ? 1 : 0);
+                writeVarInt(entry.getValue().length, buf);
+                buf.writeBytes(entry.getValue());
+                if (buf.readableBytes() > (1 << 20)) {
+                    written += drain(buf, channel);
+                }
+            }
+            var dataEnd = written + buf.readableBytes();
+            for (int i = 0; i < indexKeys.size(); i++) {
+                writeVarInt(indexKeys.get(i).length, buf);
+                buf.writeBytes(indexKeys.get(i));
+                buf.writeInt(indexOffsets.get(i));
+            }
+            buf.writeInt((int) dataEnd);
+            buf.writeInt(indexKeys.size());
+            buf.writeInt(MAGIC);
+            drain(buf, channel);
+            channel.force(true);
+        } finally {
+            buf.release();
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return new SSTable(path, id);
+    }
+
+    private static int drain(ByteBuf buf, FileChannel channel) throws IOException {
+        var len = buf.readableBytes();
+        var nio = buf.nioBuffer();
+        while (nio.hasRemaining()) {
+            channel.write(nio);
+        }
+        buf.clear();
+        return len;
+    }
+
+    long id() {
+        return id;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    /**
+     * @return the value, {@link LsmStore#TOMBSTONE} if it's deleted, or null if this table doesn't know the key
+     */
+    byte[] get(byte[] key) {
+        var it = iterator(key, null);
+        if (!it.hasNext()) {
+            return null;
+        }
+        var entry = it.next();
+        return LsmStore.KEY_ORDER.compare(entry.getKey(), key) == 0 ? entry.getValue() : null;
+    }
+
+    /**
+     * Iterate entries in [from, to), including tombstones.
+     *
+     * @param from inclusive, null for the beginning
+     * @param to   exclusive, null for the end
+     */
+    Iterator<Map.Entry<byte[], byte[]>> iterator(byte @Nullable [] from, byte @Nullable [] to) {
+        var start = 0;
+        if (from != null) {
+            // the last sampled key <= from
+            int lo = 0, hi = indexKeys.length - 1;
+            while (lo <= hi) {
+                var mid = (lo + hi) >>> 1;
+                if (LsmStore.KEY_ORDER.compare(indexKeys[mid], from) <= 0) {
+                    start = indexOffsets[mid];
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+        }
+        var buf = Unpooled.wrappedBuffer(mapped.duplicate()).readerIndex(start).writerIndex(dataEnd);
+        return new Iterator<>() {
+            private Map.Entry<byte[], byte[]> next = fetch();
+
+            private Map.Entry<byte[], byte[]> fetch() {
+                while (buf.isReadable()) {
+                    var key = new byte[readVarInt(buf)];
+                    buf.readBytes(key);
+                    var tombstone = buf.readByte() == 1;
+                    var valueLen = readVarInt(buf);
+                    if (from != null && LsmStore.KEY_ORDER.compare(key, from) < 0) {
+                        buf.skipBytes(valueLen);
+                        continue;
+                    }
+                    if (to != null && LsmStore.KEY_ORDER.compare(key, to) >= 0) {
+                        return null;
+                    }
+                    if (tombstone) {
+                        buf.skipBytes(valueLen);
+                        return Map.entry(key, LsmStore.TOMBSTONE);
+                    }
+                    var value = new byte[valueLen];
+                    buf.readBytes(value);
+                    return Map.entry(key, value);
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<byte[], byte[]> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                var result = next;
+                next = fetch();
+                return result;
+            }
+        };
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.migration;
+
+import io.ib67.astralflow.internal.storage.MachineSerializer;
+import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
+import io.ib67.astralflow.internal.storage.impl.chunk.*;
+import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineDataTag;
+import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineIndexTag;
+import io.ib67.internal.util.bukkit.Log;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static io.ib67.astralflow.internal.storage.impl.migration.RegionScanner.unpackX;
+import static io.ib67.astralflow.internal.storage.impl.migration.RegionScanner.unpackZ;
+import static io.ib67.astralflow.util.LogCategory.MIGRATOR;
+
+/**
+ * Moves machines of every generated chunk from a {@link ChunkDataBackend} into another (or the same) one,
+ * re-encoding them with the current tag formats and the target {@link MachineStorageType}.
+ * The {@link MachineCache} is rebuilt from the machines it sees.
+ * <p>
+ * Chunks are streamed from vanilla region files in batches: tags are read on the main thread, decoded and converted
+ * on a worker pool, then written back on the main thread. Only one batch is kept in memory, and the progress is
+ * saved after every region file.
+ */
+@ApiStatus.Internal
+public final class MachineMigrator {
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    private final ChunkDataBackend source;
+    private final ChunkDataBackend target;
+    private final MachineStorageType storageType;
+    private final Function<MachineStorageType, MachineSerializer> serializerFactory;
+    private final Map<MachineStorageType, MachineSerializer> serializers = new EnumMap<>(MachineStorageType.class);
+    private final MachineCache cache;
+    private final int threads;
+    private final int batchSize;
+
+    /**
+     * @param source            where machines are read from
+     * @param target            where machines are written to, may be the same as {@code source}
+     * @param storageType       the storage type of migrated machines
+     * @param serializerFactory creates serializers, which may be called concurrently
+     * @param cache             the cache to rebuild
+     * @param threads           how many threads to decode chunks
+     * @param batchSize         how many chunks are loaded at the same time
+     */
+    public MachineMigrator(ChunkDataBackend source, ChunkDataBackend target, MachineStorageType storageType, Function<MachineStorageType, MachineSerializer> serializerFactory, MachineCache cache, int threads, int batchSize) {
+        Objects.requireNonNull(source, "source cannot be null");
+        Objects.requireNonNull(target, "target cannot be null");
+        Objects.requireNonNull(storageType, "storageType cannot be null");
+        Objects.requireNonNull(serializerFactory, "serializerFactory cannot be null");
+        Objects.requireNonNull(cache, "cache cannot be null");
+        if (threads <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("threads and batchSize must be positive");
+        }
+        this.source = source;
+        this.target = target;
+        this.storageType = storageType;
+        this.serializerFactory = serializerFactory;
+        this.cache = cache;
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Migrate all the generated chunks. Region files completed by the plan are skipped.
+     * Chunks which fail are retried once at the end, those still failing are kept in {@link MigrationPlan#getFailedChunks()}.
+     * Must be called from the main thread while nobody else is reading or writing the backends.
+     *
+     * @param plan              the plan, whose progress is saved into {@code planFile} after every region file
+     * @param planFile          where the plan is
+     * @param regionDirectories worlds to migrate, and where their vanilla region files are
+     */
+    public void migrate(MigrationPlan plan, Path planFile, Map<World, Path> regionDirectories) throws IOException {
+        if (!plan.isStarted()) {
+            cache.clear(); // rebuilt from what we see.
+        }
+        var regions = new LinkedHashMap<World, List<RegionScanner.Region>>();
+        var total = 0;
+        for (Map.Entry<World, Path> entry : regionDirectories.entrySet()) {
+            var list = RegionScanner.listRegions(entry.getValue());
+            regions.put(entry.getKey(), list);
+            total += list.size();
+        }
+        Log.info(MIGRATOR, "Migrating machines in " + total + " region files from " + plan.getSource() + " to " + plan.getTarget() + " (" + storageType + ")"
+                + (plan.isStarted() ? ", resuming from " + plan.getCompletedRegions().size() + " completed ones." : "."));
+        var counter = new AtomicInteger();
+        var workers = Executors.newFixedThreadPool(threads, r -> {
+            var thread = new Thread(r, "AstralFlow Migrator #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            var start = System.nanoTime();
+            var lastReport = start;
+            var migratedChunks = 0L;
+            for (Map.Entry<World, List<RegionScanner.Region>> entry : regions.entrySet()) {
+                var world = entry.getKey();
+                for (RegionScanner.Region region : entry.getValue()) {
+                    var name = world.getName() + "/" + region.path().getFileName();
+                    if (plan.isCompleted(name)) {
+                        continue;
+                    }
+                    var stats = migrateChunks(world, region.readChunks(), workers);
+                    checkpoint(world);
+                    for (long chunk : stats.failed) {
+                        plan.fail(world.getName(), chunk);
+                    }
+                    plan.complete(name, stats.chunks, stats.machines);
+                    cache.save();
+                    plan.save(planFile);
+                    migratedChunks += stats.chunks;
+                    var now = System.nanoTime();
+                    if (now - lastReport >= REPORT_INTERVAL) {
+                        lastReport = now;
+                        Log.info(MIGRATOR, String.format("Progress: %d/%d region files, %d chunks, %d machines (%.1f chunks/s)",
+                                plan.getCompletedRegions().size(), total, plan.getChunks(), plan.getMachines(),
+                                migratedChunks / ((now - start) / 1e9)));
+                    }
+                }
+            }
+            retryFailedChunks(plan, planFile, regions.keySet(), workers);
+        } finally {
+            workers.shutdownNow();
+        }
+        Log.info(MIGRATOR, "Migrated " + plan.getMachines() + " machines in " + plan.getChunks() + " chunks.");
+        if (plan.getFailedChunkCount() > 0) {
+            Log.warn(MIGRATOR, plan.getFailedChunkCount() + " chunks can't be migrated and are left as is.");
+        }
+    }
+
+    /**
+     * Give chunks which failed another chance, e.g. those failed in an interrupted run.
+     */
+    private void retryFailedChunks(MigrationPlan plan, Path planFile, Collection<World> worlds, ExecutorService workers) throws IOException {
+        if (plan.getFailedChunkCount() == 0) {
+            return;
+        }
+        Log.info(MIGRATOR, "Retrying " + plan.getFailedChunkCount() + " chunks which can't be migrated.");
+        for (World world : worlds) {
+            var chunks = plan.takeFailedChunks(world.getName());
+            if (chunks.length == 0) {
+                continue;
+            }
+            var stats = migrateChunks(world, chunks, workers);
+            checkpoint(world);
+            for (long chunk : stats.failed) {
+                plan.fail(world.getName(), chunk);
+            }
+            plan.count(stats.chunks, stats.machines);
+            cache.save();
+            plan.save(planFile);
+        }
+    }
+
+    private RegionStats migrateChunks(World world, long[] positions, ExecutorService workers) {
+        var stats = new RegionStats();
+        var saveChunks = target instanceof PdcChunkDataBackend;
+        for (int from = 0; from < positions.length; from += batchSize) {
+            var size = Math.min(batchSize, positions.length - from);
+            var chunks = new Chunk[size];
+            var wasLoaded = new boolean[size];
+            var results = new ArrayList<CompletableFuture<Converted>>(size);
+            for (int i = 0; i < size; i++) {
+                int x = unpackX(positions[from + i]), z = unpackZ(positions[from + i]);
+                wasLoaded[i] = world.isChunkLoaded(x, z);
+                chunks[i] = world.getChunkAt(x, z);
+                var raw = source.read(chunks[i]);
+                results.add(raw.index() == null && raw.decodedIndex() == null
+                        ? CompletableFuture.completedFuture(null)
+                        : CompletableFuture.supplyAsync(() -> convert(raw), workers));
+            }
+            for (int i = 0; i < size; i++) {
+                var chunk = chunks[i];
+                try {
+                    var converted = results.get(i).join();
+                    if (converted != null) {
+                        target.write(chunk, converted.index(), converted.data());
+                        converted.ids().forEach(cache::update);
+                        stats.chunks++;
+                        stats.machines += converted.ids().size();
+                    }
+                } catch (CompletionException e) {
+                    stats.failed.add(positions[from + i]);
+                    Log.warn(MIGRATOR, "Cannot migrate chunk " + chunk.getX() + ", " + chunk.getZ() + " in " + world.getName() + ": " + e.getCause());
+                }
+                source.release(chunk);
+                target.release(chunk);
+                if (!wasLoaded[i]) {
+                    world.unloadChunk(chunk.getX(), chunk.getZ(), saveChunks);
+                }
+            }
+        }
+        return stats;
+    }
+
+    private void checkpoint(World world) {
+        if (target instanceof PdcChunkDataBackend) {
+            world.save(); // tags are saved with the chunks.
+        } else {
+            target.flush().join();
+        }
+    }
+
+    private @Nullable Converted convert(RawChunk raw) {
+        var index = raw.decodedIndex() != null ? raw.decodedIndex() : MachineIndexTag.INSTANCE.fromPrimitive(raw.index(), raw.context());
+        if (!index.isHasMachines()) {
+            return null;
+        }
+        var data = raw.decodedData() != null
+                ? raw.decodedData()
+                : raw.data() == null ? null : MachineDataTag.INSTANCE.fromPrimitive(raw.data(), raw.context());
+        if (data == null) {
+            throw new IllegalStateException("Machine data tag is missing");
+        }
+        var serializer = getSerializer(storageType);
+        var types = new HashMap<Location, String>();
+        var newData = new MachineData(raw.chunkX(), raw.chunkZ());
+        var ids = new HashMap<UUID, Location>();
+        for (Map.Entry<Location, String> entry : index.getEntries()) {
+            var loc = entry.getKey();
+            var stored = data.getData(loc);
+            if (stored == null) {
+                continue; // it can't be loaded anyway.
+            }
+            var bytes = stored.left == storageType ? stored.right : serializer.toData(getSerializer(stored.left).fromData(stored.right));
+            types.put(loc, entry.getValue());
+            newData.save(loc, storageType, bytes);
+            ids.put(serializer.readId(bytes), loc);
+        }
+        return new Converted(new ChunkMachineIndex(types, raw.chunkX(), raw.chunkZ()), newData, ids);
+    }
+
+    private synchronized MachineSerializer getSerializer(MachineStorageType type) {
+        return serializers.computeIfAbsent(type, serializerFactory);
+    }
+
+    private record Converted(ChunkMachineIndex index, MachineData data, Map<UUID, Location> ids) {
+    }
+
+    private static final class RegionStats {
+        private final List<Long> failed = new ArrayList<>();
+        private long chunks;
+        private long machines;
+    }
+}
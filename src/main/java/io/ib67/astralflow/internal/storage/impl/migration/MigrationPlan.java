@@ -0,0 +1,145 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.migration;
+
+import io.ib67.astralflow.internal.storage.impl.MachineStorageBackend;
+import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
+import io.ib67.internal.util.bukkit.BukkitGson;
+import lombok.Getter;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * A scheduled migration and its progress, which is saved after every region file so that it can be resumed.
+ */
+@ApiStatus.Internal
+@Getter
+public final class MigrationPlan {
+    private final MachineStorageBackend source;
+    private final MachineStorageBackend target;
+    private final MachineStorageType storageType;
+    private Set<String> completedRegions = new HashSet<>();
+    private long chunks;
+    private long machines;
+    /**
+     * Chunks which can't be migrated, by world names. They're retried at the end of the migration.
+     */
+    private Map<String, Set<Long>> failedChunks = new HashMap<>();
+
+    public MigrationPlan(MachineStorageBackend source, MachineStorageBackend target, MachineStorageType storageType) {
+        Objects.requireNonNull(source, "source cannot be null");
+        Objects.requireNonNull(target, "target cannot be null");
+        Objects.requireNonNull(storageType, "storageType cannot be null");
+        this.source = source;
+        this.target = target;
+        this.storageType = storageType;
+    }
+
+    /**
+     * @return the plan, or null if there's nothing scheduled.
+     */
+    public static @Nullable MigrationPlan load(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        var plan = BukkitGson.INSTANCE.fromJson(Files.readString(file), MigrationPlan.class);
+        if (plan != null && plan.completedRegions == null) {
+            plan.completedRegions = new HashSet<>();
+        }
+        if (plan != null && plan.failedChunks == null) {
+            plan.failedChunks = new HashMap<>();
+        }
+        return plan;
+    }
+
+    public void save(Path file) throws IOException {
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, BukkitGson.INSTANCE.toJson(this));
+        Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    public boolean isStarted() {
+        return !completedRegions.isEmpty();
+    }
+
+    boolean isCompleted(String region) {
+        return completedRegions.contains(region);
+    }
+
+    /**
+     * @return how many chunks can't be migrated
+     */
+    public long getFailedChunkCount() {
+        return failedChunks.values().stream().mapToLong(Set::size).sum();
+    }
+
+    /**
+     * Forget the progress, so that the migration starts over. Used when machines have been changed in the source after it's started.
+     */
+    public void reset() {
+        completedRegions.clear();
+        failedChunks.clear();
+        chunks = 0;
+        machines = 0;
+    }
+
+    boolean isCompleted(String region) {
+        return completedRegions.contains(region);
+    }
+
+    void complete(String region, long chunks, long machines) {
+        completedRegions.add(region);
+        count(chunks, machines);
+    }
+
+    void count(long chunks, long machines) {
+        this.chunks += chunks;
+        this.machines += machines;
+    }
+
+    /**
+     * @param chunk chunk position, packed by {@link RegionScanner#pack(int, int)}
+     */
+    void fail(String world, long chunk) {
+        failedChunks.computeIfAbsent(world, k -> new HashSet<>()).add(chunk);
+    }
+
+    /**
+     * @return failed chunks of the world, which are removed from the plan.
+     */
+    long[] takeFailedChunks(String world) {
+        var chunks = failedChunks.remove(world);
+        return chunks == null ? new long[0] : chunks.stream().mapToLong(Long::longValue).toArray();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.migration;
+
+import org.bukkit.World;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Lists generated chunks by reading headers of vanilla region files, without loading anything else.
+ */
+@ApiStatus.Internal
+public final class RegionScanner {
+    private static final Pattern REGION_NAME = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+    private static final int HEADER_SIZE = 4096; // 1024 chunk locations
+
+    private RegionScanner() {
+
+    }
+
+    /**
+     * @return where vanilla region files of the world are.
+     */
+    public static Path regionDirectory(World world) {
+        var folder = world.getWorldFolder().toPath();
+        return switch (world.getEnvironment()) {
+            case NETHER -> folder.resolve("DIM-1").resolve("region");
+            case THE_END -> folder.resolve("DIM1").resolve("region");
+            default -> folder.resolve("region");
+        };
+    }
+
+    /**
+     * @return region files in the directory, sorted by their positions.
+     */
+    public static List<Region> listRegions(Path directory) throws IOException {
+        var result = new ArrayList<Region>();
+        if (!Files.isDirectory(directory)) {
+            return result;
+        }
+        try (var files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                var matcher = REGION_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    result.add(new Region(path, Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))));
+                }
+            }
+        }
+        result.sort(Comparator.comparingInt(Region::x).thenComparingInt(Region::z));
+        return result;
+    }
+
+    /**
+     * A vanilla region file.
+     *
+     * @param x region x, which is chunk x >> 5
+     * @param z region z, which is chunk z >> 5
+     */
+    public record Region(Path path, int x, int z) {
+        /**
+         * @return positions of generated chunks in this region, packed as {@code x << 32 | z & 0xFFFFFFFFL}.
+         */
+        public long[] readChunks() throws IOException {
+            var header = ByteBuffer.allocate(HEADER_SIZE);
+            try (var channel = FileChannel.open(path, READ)) {
+                while (header.hasRemaining()) {
+                    if (channel.read(header) < 0) {
+                        break; // truncated, take what we have.
+                    }
+                }
+            }
+            header.flip();
+            var chunks = new long[header.remaining() / 4];
+            var count = 0;
+            for (int i = 0; header.remaining() >= 4; i++) {
+                if (header.getInt() != 0) { // sector offset and count, zero if absent.
+                    chunks[count++] = pack((x << 5) + (i & 31), (z << 5) + (i >> 5));
+                }
+            }
+            return Arrays.copyOf(chunks, count);
+        }
+    }
+
+    public static long pack(int chunkX, int chunkZ) {
+        return (long) chunkX << 32 | chunkZ & 0xFFFFFFFFL;
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) packed;
+    }
+}
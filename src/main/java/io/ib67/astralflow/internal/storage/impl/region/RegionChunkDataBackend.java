@@ -0,0 +1,227 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.region;
+
+import io.ib67.astralflow.internal.storage.impl.chunk.ChunkDataBackend;
+import io.ib67.astralflow.internal.storage.impl.chunk.ChunkMachineIndex;
+import io.ib67.astralflow.internal.storage.impl.chunk.MachineData;
+import io.ib67.astralflow.internal.storage.impl.chunk.RawChunk;
+import io.ib67.internal.util.bukkit.Log;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.bukkit.Chunk;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static io.ib67.astralflow.internal.storage.impl.chunk.BufferUtil.readVarInt;
+import static io.ib67.astralflow.internal.storage.impl.chunk.BufferUtil.writeVarInt;
+
+/**
+ * Stores machine tags in region files owned by AstralFlow, instead of the chunk itself.
+ * <p>
+ * Writes are kept in memory until the next flush, then a background thread appends them to the write-ahead log and
+ * writes them into region files. Reads see pending writes first.
+ * <p>
+ * Layout: {@code <root>/<world>/r.<regionX>.<regionZ>.afr} and {@code <root>/journal.wal}
+ */
+@ApiStatus.Internal
+public final class RegionChunkDataBackend implements ChunkDataBackend {
+    private static final int PAYLOAD_VERSION = 1;
+
+    private final Path root;
+    private final Map<ChunkPos, RegionFile> regions = new ConcurrentHashMap<>(); // keyed by the first chunk of the region
+    private final Map<ChunkPos, byte[]> pending = new ConcurrentHashMap<>();
+    private final WriteAheadLog wal;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "AstralFlow Region Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RegionChunkDataBackend(Path root) throws IOException {
+        Objects.requireNonNull(root, "root cannot be null");
+        this.root = root;
+        Files.createDirectories(root);
+        this.wal = new WriteAheadLog(root.resolve("journal.wal"));
+        recover();
+    }
+
+    private void recover() throws IOException {
+        var touched = new HashSet<RegionFile>();
+        var replayed = wal.replay((pos, payload) -> {
+            var region = region(pos);
+            try {
+                region.write(pos.x(), pos.z(), payload);
+                touched.add(region);
+            } catch (IOException e) {
+                Log.warn("RegionStorage", "Cannot recover chunk " + pos + ": " + e.getMessage());
+                pending.put(pos, payload); // retried by the next flush, reads will see it in the meantime.
+            }
+        });
+        for (RegionFile regionFile : touched) {
+            regionFile.force();
+        }
+        if (pending.isEmpty()) {
+            wal.reset();
+        }
+        if (replayed > 0) {
+            Log.warn("RegionStorage", "Recovered " + replayed + " chunks from the write-ahead log.");
+        }
+    }
+
+    private RegionFile region(ChunkPos pos) {
+        return regions.computeIfAbsent(new ChunkPos(pos.world(), pos.regionX() << 5, pos.regionZ() << 5), k -> {
+            try {
+                var dir = root.resolve(k.world());
+                Files.createDirectories(dir);
+                return new RegionFile(dir.resolve("r." + pos.regionX() + "." + pos.regionZ() + ".afr"), pos.regionX(), pos.regionZ());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static ChunkPos posOf(Chunk chunk) {
+        return new ChunkPos(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+    }
+
+    @Override
+    public RawChunk read(Chunk chunk) {
+        var pos = posOf(chunk);
+        var payload = pending.get(pos);
+        if (payload == null) {
+            try {
+                payload = region(pos).read(pos.x(), pos.z());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read chunk " + pos, e);
+            }
+        }
+        if (payload == null) {
+            return new RawChunk(pos.x(), pos.z(), null, null, null);
+        }
+        var buf = Unpooled.wrappedBuffer(payload);
+        var version = buf.readByte();
+        if (version != PAYLOAD_VERSION) {
+            throw new IllegalStateException("Unknown region payload version " + version + " at " + pos);
+        }
+        var index = new byte[readVarInt(buf)];
+        buf.readBytes(index);
+        var data = new byte[readVarInt(buf)];
+        buf.readBytes(data);
+        return new RawChunk(pos.x(), pos.z(), index, data, null);
+    }
+
+    @Override
+    public void write(Chunk chunk, ChunkMachineIndex machineIndex, MachineData machineData) {
+        var index = ChunkDataBackend.encodeIndex(machineIndex);
+        var data = ChunkDataBackend.encodeData(machineIndex, machineData);
+        var buf = Unpooled.buffer(index.length + data.length + 11);
+        buf.writeByte(PAYLOAD_VERSION);
+        writeVarInt(index.length, buf);
+        buf.writeBytes(index);
+        writeVarInt(data.length, buf);
+        buf.writeBytes(data);
+        pending.put(posOf(chunk), ByteBufUtil.getBytes(buf));
+    }
+
+    @Override
+    public CompletableFuture<Void> flush() {
+        return CompletableFuture.runAsync(this::persist, writer);
+    }
+
+    private void persist() {
+        var batch = new HashMap<>(pending);
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            wal.append(batch);
+            var touched = new HashSet<RegionFile>();
+            var failed = new HashSet<ChunkPos>();
+            for (Map.Entry<ChunkPos, byte[]> entry : batch.entrySet()) {
+                var region = region(entry.getKey());
+                try {
+                    region.write(entry.getKey().x(), entry.getKey().z(), entry.getValue());
+                    touched.add(region);
+                } catch (IOException e) {
+                    Log.warn("RegionStorage", "Cannot write chunk " + entry.getKey() + ": " + e.getMessage());
+                    failed.add(entry.getKey());
+                }
+            }
+            for (RegionFile regionFile : touched) {
+                regionFile.force();
+            }
+            if (failed.isEmpty()) {
+                wal.reset(); // the WAL is the only durable copy of failed chunks.
+            } else {
+                Log.warn("RegionStorage", failed.size() + " chunks are kept in the WAL, they'll be retried at the next flush.");
+            }
+            batch.forEach((pos, payload) -> {
+                if (!failed.contains(pos)) {
+                    pending.remove(pos, payload); // only if they're not updated in the meantime
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.warn("RegionStorage", "Failed to persist " + batch.size() + " chunks, they'll be retried at the next flush.");
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.MINUTES)) {
+                Log.warn("RegionStorage", "Timed out while writing region files, data may be lost.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (RegionFile regionFile : regions.values()) {
+            try {
+                regionFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            wal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
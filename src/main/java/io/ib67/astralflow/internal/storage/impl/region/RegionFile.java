@@ -0,0 +1,219 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.region;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A file holding 32x32 chunks, laid out like Anvil: a 4KiB header of {@code (sectorOffset << 8) | sectorCount} for each chunk,
+ * followed by 4KiB sectors. Each chunk starts with its length in an int.
+ * <p>
+ * Chunks which don't fit in {@link #MAX_SECTORS} sectors are stored in their own files next to the region, named
+ * {@code c.<chunkX>.<chunkZ>.afc}, like the {@code .mcc} files of Anvil. Their length in the region is {@link #EXTERNAL}.
+ * <p>
+ * Reads go through a read-only mapping of the file, writes go through the channel. Writes are serialized, but they never
+ * overwrite sectors in use, and they only take the lock readers need to publish new offsets. So disk writes never block reads.
+ */
+@ApiStatus.Internal
+final class RegionFile implements Closeable {
+    static final int SECTOR_SIZE = 4096;
+    private static final int CHUNKS = 32 * 32;
+    private static final int MAX_SECTORS = 255;
+    private static final int EXTERNAL = -1;
+
+    private final Path path;
+    private final int regionX;
+    private final int regionZ;
+    private final FileChannel channel;
+    private final int[] offsets = new int[CHUNKS]; // guarded by lock
+    private final BitSet usedSectors = new BitSet(); // only used by writes
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object mappingLock = new Object();
+    private volatile MappedByteBuffer mapped;
+
+    RegionFile(Path path, int regionX, int regionZ) throws IOException {
+        this.path = path;
+        this.regionX = regionX;
+        this.regionZ = regionZ;
+        channel = FileChannel.open(path, CREATE, READ, WRITE);
+        usedSectors.set(0); // header
+        if (channel.size() < SECTOR_SIZE) {
+            writeFully(ByteBuffer.allocate(SECTOR_SIZE), 0);
+            return;
+        }
+        var header = ByteBuffer.allocate(SECTOR_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Unexpected end of region header: " + path);
+            }
+        }
+        var totalSectors = (int) ((channel.size() + SECTOR_SIZE - 1) / SECTOR_SIZE);
+        for (int i = 0; i < CHUNKS; i++) {
+            var entry = header.getInt(i * 4);
+            var start = entry >>> 8;
+            var count = entry & 0xFF;
+            if (entry == 0 || start == 0 || start + count > totalSectors) {
+                continue; // absent or truncated by a crash, the WAL will restore it if it's ever been committed.
+            }
+            offsets[i] = entry;
+            usedSectors.set(start, start + count);
+        }
+    }
+
+    private static int index(int localX, int localZ) {
+        return (localX & 31) | (localZ & 31) << 5;
+    }
+
+    private Path externalFile(int localX, int localZ) {
+        return path.resolveSibling("c." + ((regionX << 5) + (localX & 31)) + "." + ((regionZ << 5) + (localZ & 31)) + ".afc");
+    }
+
+    /**
+     * @return the payload, or null if the chunk has never been written
+     */
+    byte[] read(int localX, int localZ) throws IOException {
+        lock.readLock().lock(); // only held while copying, writes take it to publish offsets.
+        try {
+            var entry = offsets[index(localX, localZ)];
+            if (entry == 0) {
+                return null;
+            }
+            var start = (long) (entry >>> 8) * SECTOR_SIZE;
+            var capacity = (entry & 0xFF) * SECTOR_SIZE;
+            var mapped = mapping(start + capacity);
+            var len = mapped.getInt((int) start);
+            if (len == EXTERNAL) {
+                return Files.readAllBytes(externalFile(localX, localZ));
+            }
+            if (len < 0 || len + 4 > capacity) {
+                throw new IOException("Corrupted chunk at " + localX + ", " + localZ + ": length " + len + " exceeds its sectors");
+            }
+            var result = new byte[len];
+            mapped.get((int) start + 4, result);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private MappedByteBuffer mapping(long end) throws IOException {
+        var mapped = this.mapped;
+        if (mapped != null && mapped.capacity() >= end) {
+            return mapped;
+        }
+        synchronized (mappingLock) {
+            mapped = this.mapped;
+            if (mapped == null || mapped.capacity() < end) {
+                mapped = this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // the file has grown since last mapping.
+            }
+            return mapped;
+        }
+    }
+
+    synchronized void write(int localX, int localZ, byte[] payload) throws IOException {
+        var sectors = (payload.length + 4 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        var external = sectors > MAX_SECTORS;
+        var externalFile = externalFile(localX, localZ);
+        if (external) {
+            var temp = externalFile.resolveSibling(externalFile.getFileName() + ".tmp");
+            Files.write(temp, payload);
+            try (var file = FileChannel.open(temp, WRITE)) {
+                file.force(true);
+            }
+            Files.move(temp, externalFile, REPLACE_EXISTING, ATOMIC_MOVE);
+            sectors = 1;
+        }
+        var idx = index(localX, localZ);
+        var old = offsets[idx]; // only writes change it
+        var start = allocate(sectors); // not in place, it may be being read.
+        var buf = ByteBuffer.allocate(sectors * SECTOR_SIZE); // padded, so the file always ends at a sector boundary.
+        if (external) {
+            buf.putInt(EXTERNAL).clear();
+        } else {
+            buf.putInt(payload.length).put(payload).clear();
+        }
+        writeFully(buf, (long) start * SECTOR_SIZE);
+        usedSectors.set(start, start + sectors);
+
+        var entry = start << 8 | sectors;
+        lock.writeLock().lock();
+        try {
+            offsets[idx] = entry;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        writeFully(ByteBuffer.allocate(4).putInt(0, entry), idx * 4L);
+        if (old != 0) {
+            usedSectors.clear(old >>> 8, (old >>> 8) + (old & 0xFF)); // nobody is reading them now.
+        }
+        if (!external) {
+            Files.deleteIfExists(externalFile);
+        }
+    }
+
+    private int allocate(int sectors) {
+        var candidate = usedSectors.nextClearBit(1);
+        while (true) {
+            var nextUsed = usedSectors.nextSetBit(candidate);
+            if (nextUsed == -1 || nextUsed - candidate >= sectors) {
+                return candidate;
+            }
+            candidate = usedSectors.nextClearBit(nextUsed);
+        }
+    }
+
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            mapped = null;
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
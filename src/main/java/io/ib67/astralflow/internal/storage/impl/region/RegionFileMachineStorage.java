@@ -0,0 +1,46 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.region;
+
+import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
+import io.ib67.astralflow.internal.storage.impl.chunk.ChunkBasedMachineStorage;
+import io.ib67.astralflow.internal.storage.impl.chunk.MachineCache;
+import io.ib67.astralflow.manager.IFactoryManager;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Same as {@link ChunkBasedMachineStorage}, but machines are stored in AstralFlow's own region files instead of chunk NBT.
+ *
+ * @see RegionChunkDataBackend
+ */
+@ApiStatus.Internal
+public class RegionFileMachineStorage extends ChunkBasedMachineStorage {
+    /**
+     * @param directory where region files are stored
+     */
+    public RegionFileMachineStorage(MachineCache cache, IFactoryManager factoryManager, MachineStorageType defaultSerializer, int initialCapacity, boolean allowResizing, int chunkLoaderThreads, boolean eagerTickless, Path directory) throws IOException {
+        super(cache, factoryManager, defaultSerializer, initialCapacity, allowResizing, chunkLoaderThreads, eagerTickless, new RegionChunkDataBackend(directory));
+    }
+}
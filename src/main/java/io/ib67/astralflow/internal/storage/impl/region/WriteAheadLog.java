@@ -0,0 +1,142 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.internal.storage.impl.region;
+
+import io.ib67.internal.util.bukkit.Log;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+import static io.ib67.astralflow.internal.storage.impl.chunk.BufferUtil.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Chunk payloads are appended here and forced to disk before they're written into region files, so a crash in the middle
+ * of writing a region can be repaired by replaying the log.
+ * <p>
+ * Record: [magic int][length int][world string][chunkX int][chunkZ int][payloadLen varint][payload][crc32 of the previous fields, long]
+ */
+@ApiStatus.Internal
+final class WriteAheadLog implements Closeable {
+    private static final int MAGIC = 0xA57F_1061;
+    private final FileChannel channel;
+
+    WriteAheadLog(Path path) throws IOException {
+        channel = FileChannel.open(path, CREATE, READ, WRITE);
+    }
+
+    /**
+     * Append the batch and wait until it's durable.
+     */
+    void append(Map<ChunkPos, byte[]> batch) throws IOException {
+        var buf = Unpooled.buffer();
+        try {
+            for (Map.Entry<ChunkPos, byte[]> entry : batch.entrySet()) {
+                writeRecord(entry.getKey(), entry.getValue(), buf);
+            }
+            var nio = buf.nioBuffer();
+            var position = channel.size();
+            while (nio.hasRemaining()) {
+                position += channel.write(nio, position);
+            }
+            channel.force(false);
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static void writeRecord(ChunkPos pos, byte[] payload, ByteBuf buf) {
+        buf.writeInt(MAGIC);
+        var lengthIndex = buf.writerIndex();
+        buf.writeInt(0); // placeholder
+        var start = buf.writerIndex();
+        writeString3(pos.world(), buf);
+        buf.writeInt(pos.x());
+        buf.writeInt(pos.z());
+        writeVarInt(payload.length, buf);
+        buf.writeBytes(payload);
+        var length = buf.writerIndex() - start;
+        buf.setInt(lengthIndex, length);
+        var crc = new CRC32();
+        crc.update(buf.nioBuffer(start, length));
+        buf.writeLong(crc.getValue());
+    }
+
+    /**
+     * Replay committed records in order. A torn record at the tail (crashed while appending) is ignored.
+     *
+     * @return how many records are replayed
+     */
+    int replay(BiConsumer<ChunkPos, byte[]> consumer) throws IOException {
+        var size = channel.size();
+        if (size == 0) {
+            return 0;
+        }
+        var mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        var buf = Unpooled.wrappedBuffer(mapped);
+        var count = 0;
+        while (buf.readableBytes() >= 8) {
+            if (buf.readInt() != MAGIC) {
+                Log.warn("RegionStorage", "Unexpected data in the write-ahead log at " + (buf.readerIndex() - 4) + ", the rest is discarded.");
+                break;
+            }
+            var length = buf.readInt();
+            if (length < 0 || buf.readableBytes() < length + 8L) {
+                break; // torn
+            }
+            var crc = new CRC32();
+            crc.update(buf.nioBuffer(buf.readerIndex(), length));
+            if (crc.getValue() != buf.getLong(buf.readerIndex() + length)) {
+                Log.warn("RegionStorage", "Checksum mismatch in the write-ahead log, the rest is discarded.");
+                break;
+            }
+            var pos = new ChunkPos(readString3(buf), buf.readInt(), buf.readInt());
+            var payload = new byte[readVarInt(buf)];
+            buf.readBytes(payload);
+            buf.skipBytes(8); // crc
+            consumer.accept(pos, payload);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Discard all records, called after they're durable in region files.
+     */
+    void reset() throws IOException {
+        channel.truncate(0);
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
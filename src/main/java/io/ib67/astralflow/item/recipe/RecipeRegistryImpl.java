@@ -21,6 +21,7 @@
 
 package io.ib67.astralflow.item.recipe;
 
+import io.ib67.astralflow.internal.metrics.AstralMetrics;
 import org.bukkit.NamespacedKey;
 import org.jetbrains.annotations.ApiStatus;
 
@@ -62,8 +63,10 @@ public final class RecipeRegistryImpl implements IRecipeRegistry {
         var type = imatrix.getType();
         var matrix = imatrix.getMatrix();
         var craftingRecipes = recipes.getOrDefault(type, Collections.emptyList());
+        AstralMetrics.RECIPE_MATCHES.increment();
         for (AstralRecipe recipe : craftingRecipes) {
             if (recipe.test(matrix)) {
+                AstralMetrics.RECIPE_MATCH_HITS.increment();
                 return recipe;
             }
         }
@@ -0,0 +1,36 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.machines;
+
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * A strong and cheap reference to a registered machine, see {@link io.ib67.astralflow.manager.IMachineManager#getHandle(IMachine)}.<br />
+ * A handle becomes stale once its machine is unregistered (e.g. the chunk is unloaded), and resolving a stale handle fails instead of
+ * returning another machine which reuses the slot.
+ *
+ * @param index      slot index
+ * @param generation generation of the slot when the handle is created
+ */
+@ApiStatus.AvailableSince("0.1.0")
+public record MachineHandle(int index, int generation) {
+}
@@ -0,0 +1,75 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.machines;
+
+import io.ib67.astralflow.machines.factories.IMachineFactory;
+import io.ib67.astralflow.machines.trait.CatchUp;
+import io.ib67.astralflow.machines.trait.Interactive;
+import io.ib67.astralflow.machines.trait.Pushable;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Objects;
+
+/**
+ * Traits of a machine class, computed once by {@link io.ib67.astralflow.manager.IFactoryManager#getDescriptor(Class)}.
+ * Use it instead of reflection when you're dealing with lots of machines.
+ *
+ * @param typeId      id of the type, only stable until the server stops.
+ * @param type        the machine class
+ * @param tickless    is it annotated with {@link Tickless}?
+ * @param pushable    does it implement {@link Pushable}?
+ * @param interactive does it implement {@link Interactive}?
+ * @param alwaysActive is it annotated with {@link AlwaysActive}?
+ * @param catchUp     does it implement {@link CatchUp}?
+ * @param factory     the factory to create machines, null if there isn't any.
+ * @param <M>         type of the machine
+ */
+@ApiStatus.AvailableSince("0.1.0")
+public record MachineTypeDescriptor<M extends IMachine>(
+        int typeId,
+        Class<M> type,
+        boolean tickless,
+        boolean pushable,
+        boolean interactive,
+        boolean alwaysActive,
+        boolean catchUp,
+        @Nullable IMachineFactory<M> factory
+) {
+    public MachineTypeDescriptor {
+        Objects.requireNonNull(type, "type cannot be null");
+    }
+
+    @ApiStatus.Internal
+    public static <M extends IMachine> MachineTypeDescriptor<M> of(int typeId, Class<M> type, @Nullable IMachineFactory<M> factory) {
+        return new MachineTypeDescriptor<>(
+                typeId,
+                type,
+                type.isAnnotationPresent(Tickless.class),
+                Pushable.class.isAssignableFrom(type),
+                Interactive.class.isAssignableFrom(type),
+                type.isAnnotationPresent(AlwaysActive.class),
+                CatchUp.class.isAssignableFrom(type),
+                factory
+        );
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+
+package io.ib67.astralflow.machines;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.lang.reflect.Modifier;
+import java.util.Objects;
+
+/**
+ * A state of numbers, which are stored in flat arrays and addressed by keys of a {@link StateLayout}.
+ * Unlike {@link AbstractMachine.SimpleMachineState}, updating them doesn't box, and they're saved without maps.
+ * <p>
+ * Subclass it with a no-arg constructor which passes your layout, see {@link StateLayout}.
+ * Subclasses cannot have other fields to be saved, put them into slots or use a regular state instead.
+ */
+@ApiStatus.AvailableSince("0.1.0")
+public abstract class PrimitiveMachineState implements IState {
+    private static final ClassValue<Boolean> VALIDATED = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            for (Class<?> clazz = type; clazz != PrimitiveMachineState.class; clazz = clazz.getSuperclass()) {
+                for (var field : clazz.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+                        throw new IllegalStateException(type.getName() + " has a field which won't be saved: " + field.getName());
+                    }
+                }
+            }
+            return true;
+        }
+    };
+
+    private final transient StateLayout layout;
+    private final int[] ints;
+    private final long[] longs;
+    private final double[] doubles;
+
+    protected PrimitiveMachineState(StateLayout layout) {
+        Objects.requireNonNull(layout, "layout cannot be null");
+        VALIDATED.get(getClass());
+        layout.freeze();
+        this.layout = layout;
+        this.ints = new int[layout.getIntKeys().size()];
+        this.longs = new long[layout.getLongKeys().size()];
+        this.doubles = new double[layout.getDoubleKeys().size()];
+    }
+
+    public StateLayout getLayout() {
+        return layout;
+    }
+
+    public int get(StateLayout.IntKey key) {
+        return ints[key.getIndex()];
+    }
+
+    public void set(StateLayout.IntKey key, int value) {
+        ints[key.getIndex()] = value;
+    }
+
+    /**
+     * @return the new value
+     */
+    public int add(StateLayout.IntKey key, int delta) {
+        return ints[key.getIndex()] += delta;
+    }
+
+    public long get(StateLayout.LongKey key) {
+        return longs[key.getIndex()];
+    }
+
+    public void set(StateLayout.LongKey key, long value) {
+        longs[key.getIndex()] = value;
+    }
+
+    /**
+     * @return the new value
+     */
+    public long add(StateLayout.LongKey key, long delta) {
+        return longs[key.getIndex()] += delta;
+    }
+
+    public double get(StateLayout.DoubleKey key) {
+        return doubles[key.getIndex()];
+    }
+
+    public void set(StateLayout.DoubleKey key, double value) {
+        doubles[key.getIndex()] = value;
+    }
+
+    /**
+     * @return the new value
+     */
+    public double add(StateLayout.DoubleKey key, double delta) {
+        return doubles[key.getIndex()] += delta;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+
+package io.ib67.astralflow.machines;
+
+import lombok.Getter;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Slots of a {@link PrimitiveMachineState}. Declare it and its keys as constants of your state class:
+ * <pre>{@code
+ * public final class GeneratorState extends PrimitiveMachineState {
+ *     public static final StateLayout LAYOUT = new StateLayout();
+ *     public static final StateLayout.IntKey ENERGY = LAYOUT.intKey("energy");
+ *     public static final StateLayout.DoubleKey PROGRESS = LAYOUT.doubleKey("progress");
+ *
+ *     public GeneratorState() {
+ *         super(LAYOUT);
+ *     }
+ * }
+ * }</pre>
+ * Keys cannot be added once a state is created with the layout.
+ * <p>
+ * The BINARY storage type saves values by the order of their keys, so only append keys to states that have been released.
+ */
+@ApiStatus.AvailableSince("0.1.0")
+public final class StateLayout {
+    private final List<IntKey> intKeys = new ArrayList<>();
+    private final List<LongKey> longKeys = new ArrayList<>();
+    private final List<DoubleKey> doubleKeys = new ArrayList<>();
+    private final List<IntKey> intKeysView = Collections.unmodifiableList(intKeys);
+    private final List<LongKey> longKeysView = Collections.unmodifiableList(longKeys);
+    private final List<DoubleKey> doubleKeysView = Collections.unmodifiableList(doubleKeys);
+    private final Set<String> names = new HashSet<>();
+    private volatile boolean frozen;
+
+    public synchronized IntKey intKey(String name) {
+        checkName(name);
+        var key = new IntKey(name, intKeys.size());
+        intKeys.add(key);
+        return key;
+    }
+
+    public synchronized LongKey longKey(String name) {
+        checkName(name);
+        var key = new LongKey(name, longKeys.size());
+        longKeys.add(key);
+        return key;
+    }
+
+    public synchronized DoubleKey doubleKey(String name) {
+        checkName(name);
+        var key = new DoubleKey(name, doubleKeys.size());
+        doubleKeys.add(key);
+        return key;
+    }
+
+    private void checkName(String name) {
+        Objects.requireNonNull(name, "name cannot be null");
+        if (frozen) {
+            throw new IllegalStateException("Keys cannot be added after states are created with this layout");
+        }
+        if (!names.add(name)) {
+            throw new IllegalArgumentException("Duplicated key: " + name);
+        }
+    }
+
+    synchronized void freeze() {
+        frozen = true;
+    }
+
+    public List<IntKey> getIntKeys() {
+        return intKeysView;
+    }
+
+    public List<LongKey> getLongKeys() {
+        return longKeysView;
+    }
+
+    public List<DoubleKey> getDoubleKeys() {
+        return doubleKeysView;
+    }
+
+    /**
+     * A slot in the layout.
+     */
+    @Getter
+    public abstract static class Key {
+        /**
+         * Name of the slot, which is used by the JSON storage type.
+         */
+        private final String name;
+        /**
+         * Position of the slot among slots of the same type.
+         */
+        private final int index;
+
+        private Key(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    public static final class IntKey extends Key {
+        private IntKey(String name, int index) {
+            super(name, index);
+        }
+    }
+
+    public static final class LongKey extends Key {
+        private LongKey(String name, int index) {
+            super(name, index);
+        }
+    }
+
+    public static final class DoubleKey extends Key {
+        private DoubleKey(String name, int index) {
+            super(name, index);
+        }
+    }
+}
@@ -27,27 +27,34 @@ import io.ib67.astralflow.machines.factories.IMachineFactory;
 import lombok.SneakyThrows;
 import org.jetbrains.annotations.ApiStatus;
 
-import java.lang.reflect.Constructor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 
 @ApiStatus.Internal
 public final class SimpleMachineFactory<M extends IMachine> implements IMachineFactory<M> {
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(IMachine.class, MachineProperty.class);
 
-    private final Constructor<M> constructor;
+    private final MethodHandle constructor; // (MachineProperty)IMachine
 
 
     public SimpleMachineFactory(Class<M> machineClass) {
         // initialization.
         try {
-            constructor = machineClass.getDeclaredConstructor(MachineProperty.class);
+            var constructor = machineClass.getDeclaredConstructor(MachineProperty.class);
             constructor.setAccessible(true);
+            this.constructor = MethodHandles.lookup().unreflectConstructor(constructor).asType(CONSTRUCTOR_TYPE);
         } catch (NoSuchMethodException e) {
             throw new IllegalArgumentException("The machine class " + machineClass.getName() + " does not have a constructor with MachineProperty as parameter.", e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("The constructor of machine class " + machineClass.getName() + " is not accessible.", e);
         }
     }
 
     @Override
     @SneakyThrows
+    @SuppressWarnings("unchecked")
     public M createMachine(MachineProperty property) {
-        return constructor.newInstance(property);
+        return (M) (IMachine) constructor.invokeExact(property);
     }
 }
@@ -23,13 +23,16 @@ package io.ib67.astralflow.machines.internal.scheduler;
 
 import io.ib67.astralflow.Tickable;
 import io.ib67.astralflow.api.AstralHelper;
+import io.ib67.astralflow.internal.metrics.AstralMetrics;
 import io.ib67.astralflow.scheduler.AwaitingTickable;
 import io.ib67.astralflow.scheduler.Scheduler;
 import io.ib67.astralflow.scheduler.TickReceipt;
 import io.ib67.astralflow.scheduler.exception.TickTaskException;
 import io.ib67.astralflow.util.LogCategory;
 import io.ib67.internal.util.bukkit.Log;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import org.inlambda.kiwi.WeakHashSet;
 
 import java.util.LinkedList;
@@ -41,10 +44,20 @@ public class SimpleCatchingScheduler implements Scheduler {
     private final Queue<AwaitingTickable<? extends Tickable<?>>> tickables = new LinkedList<>();
     private final Set<Tickable<?>> waitingForRemoval = new WeakHashSet<>();
     private final int exceptionLimiter;
+    /**
+     * Profiler of ticks, null if profiling is disabled.
+     */
+    @Getter
+    @Setter
+    private volatile TickProfiler profiler;
 
     @Override
     public void tick() {
         AstralHelper.ensureMainThread("Scheduler tick");
+        var start = System.nanoTime();
+        var ticked = 0;
+        var profiler = this.profiler;
+        var sampling = profiler != null && profiler.beginTick();
         var iter = tickables.iterator();
         while (iter.hasNext()) {
             var tickable = iter.next();
@@ -53,7 +66,14 @@ public class SimpleCatchingScheduler implements Scheduler {
                 continue;
             }
             try {
-                tickable.tick();
+                ticked++;
+                if (sampling) {
+                    var tickStart = System.nanoTime();
+                    tickable.tick();
+                    profiler.record(tickable.tickable, System.nanoTime() - tickStart);
+                } else {
+                    tickable.tick();
+                }
             } catch (Throwable exception) {
                 new TickTaskException("Task " + tickable.getClass().getName() + " threw an exception", exception, tickable.tickable).printStackTrace(); // issue-113: avoid unsafe user code disturbing the scheduler
                 if (tickable.exceptionCounter.incrementAndGet() > exceptionLimiter) {
@@ -63,6 +83,8 @@ public class SimpleCatchingScheduler implements Scheduler {
                 }
             }
         }
+        AstralMetrics.TICKABLES_TICKED.add(ticked);
+        AstralMetrics.SCHEDULER_TICK_TIME.record(System.nanoTime() - start);
     }
 
     @Override
@@ -0,0 +1,226 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.machines.internal.scheduler;
+
+import io.ib67.astralflow.AstralFlow;
+import io.ib67.astralflow.api.external.AstralExtension;
+import io.ib67.astralflow.machines.IMachine;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.*;
+
+/**
+ * A sampling profiler for {@link SimpleCatchingScheduler}. Only one of every {@code sampleInterval} ticks is timed.
+ * Costs are aggregated per machine type in fixed-size primitive tables, and the window rolls every {@code windowTicks} ticks
+ * so that a report covers the last one or two windows.
+ * Not thread-safe, it should be used in the main thread only.
+ */
+@ApiStatus.Internal
+public final class TickProfiler {
+    private static final int BUCKETS = 48; // 2^47 ns is about 39 hours, enough for a tick.
+    private static final String UNKNOWN_NAMESPACE = "unknown";
+
+    private final int capacity;
+    private final int sampleInterval;
+    private final int windowTicks;
+
+    private final Map<Class<?>, Integer> slots = new IdentityHashMap<>();
+    private final Class<?>[] types;
+    private final String[] namespaces;
+
+    // [generation][slot] and [generation][slot * BUCKETS + bucket]
+    private final long[][] totalNanos;
+    private final long[][] samples;
+    private final long[][] histograms;
+    private final long[] sampledTicks = new long[2];
+    private int generation;
+    private long ticks;
+
+    /**
+     * @param capacity       how many machine types can be tracked, the rest are accounted as the last one.
+     * @param sampleInterval time a tick every {@code sampleInterval} ticks
+     * @param windowTicks    how many ticks does a window last
+     */
+    public TickProfiler(int capacity, int sampleInterval, int windowTicks) {
+        if (capacity < 2 || sampleInterval < 1 || windowTicks < sampleInterval) {
+            throw new IllegalArgumentException("Invalid profiler arguments: capacity=" + capacity + ", sampleInterval=" + sampleInterval + ", windowTicks=" + windowTicks);
+        }
+        this.capacity = capacity;
+        this.sampleInterval = sampleInterval;
+        this.windowTicks = windowTicks;
+        this.types = new Class<?>[capacity];
+        this.namespaces = new String[capacity];
+        this.totalNanos = new long[2][capacity];
+        this.samples = new long[2][capacity];
+        this.histograms = new long[2][capacity * BUCKETS];
+    }
+
+    /**
+     * Called at the beginning of a scheduler tick.
+     *
+     * @return should tickables in this tick be timed
+     */
+    public boolean beginTick() {
+        ticks++;
+        if (ticks % windowTicks == 0) {
+            generation ^= 1;
+            Arrays.fill(totalNanos[generation], 0);
+            Arrays.fill(samples[generation], 0);
+            Arrays.fill(histograms[generation], 0);
+            sampledTicks[generation] = 0;
+        }
+        if (ticks % sampleInterval != 0) {
+            return false;
+        }
+        sampledTicks[generation]++;
+        return true;
+    }
+
+    /**
+     * Account a timed tick of {@code tickable}, only meaningful after {@link #beginTick()} returned true.
+     *
+     * @param tickable the machine or other tickable
+     * @param nanos    time spent in its tick
+     */
+    public void record(Object tickable, long nanos) {
+        var type = tickable instanceof IMachine machine ? machine.getType() : tickable.getClass();
+        var slot = slots.get(type);
+        if (slot == null) {
+            slot = slotOf(type);
+        }
+        totalNanos[generation][slot] += nanos;
+        samples[generation][slot]++;
+        histograms[generation][slot * BUCKETS + bucketOf(nanos)]++;
+    }
+
+    private int slotOf(Class<?> type) {
+        var slot = slots.size();
+        if (slot >= capacity - 1) {
+            slot = capacity - 1; // overflow
+            if (types[slot] == null) {
+                types[slot] = Object.class;
+                namespaces[slot] = UNKNOWN_NAMESPACE;
+            }
+        } else {
+            types[slot] = type;
+            namespaces[slot] = namespaceOf(type);
+        }
+        slots.put(type, slot);
+        return slot;
+    }
+
+    private static int bucketOf(long nanos) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+    }
+
+    private static String namespaceOf(Class<?> type) {
+        var loader = type.getClassLoader();
+        for (AstralExtension extension : AstralFlow.getInstance().getExtensionRegistry().getExtensions()) {
+            if (extension.getClass().getClassLoader() == loader) {
+                return extension.getInfo().extensionName();
+            }
+        }
+        try {
+            return JavaPlugin.getProvidingPlugin(type).getName();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return UNKNOWN_NAMESPACE; // not loaded by a plugin.
+        }
+    }
+
+    /**
+     * Summarize the current window and the previous one.
+     *
+     * @param topN how many types and namespaces should be included
+     * @return the report
+     */
+    public Report report(int topN) {
+        var ticksSampled = sampledTicks[0] + sampledTicks[1];
+        var byNamespace = new HashMap<String, long[]>(); // {nanos, samples}
+        var typeEntries = new ArrayList<Entry>();
+        var histogram = new long[BUCKETS];
+        for (int slot = 0; slot < capacity; slot++) {
+            if (types[slot] == null) {
+                continue;
+            }
+            var nanos = totalNanos[0][slot] + totalNanos[1][slot];
+            var count = samples[0][slot] + samples[1][slot];
+            if (count == 0) {
+                continue;
+            }
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram[i] = histograms[0][slot * BUCKETS + i] + histograms[1][slot * BUCKETS + i];
+            }
+            var name = slot == capacity - 1 && types[slot] == Object.class ? "<others>" : types[slot].getName();
+            typeEntries.add(new Entry(name, namespaces[slot], count, nanos, percentile(histogram, count, 0.99)));
+            var ns = byNamespace.computeIfAbsent(namespaces[slot], k -> new long[2]);
+            ns[0] += nanos;
+            ns[1] += count;
+        }
+        typeEntries.sort(Comparator.comparingLong(Entry::totalNanos).reversed());
+        var namespaceEntries = new ArrayList<Entry>(byNamespace.size());
+        byNamespace.forEach((ns, stat) -> namespaceEntries.add(new Entry(ns, ns, stat[1], stat[0], -1)));
+        namespaceEntries.sort(Comparator.comparingLong(Entry::totalNanos).reversed());
+        return new Report(
+                ticksSampled,
+                List.copyOf(typeEntries.subList(0, Math.min(topN, typeEntries.size()))),
+                List.copyOf(namespaceEntries.subList(0, Math.min(topN, namespaceEntries.size())))
+        );
+    }
+
+    private static long percentile(long[] histogram, long count, double percentile) {
+        var rank = Math.max(1, (long) Math.ceil(count * percentile));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return (1L << i) - 1;
+            }
+        }
+        return (1L << (BUCKETS - 1)) - 1;
+    }
+
+    /**
+     * @param sampledTicks how many ticks are timed
+     * @param types        the most expensive machine types
+     * @param namespaces   the most expensive extensions, {@link Entry#p99Nanos()} is always -1
+     */
+    public record Report(long sampledTicks, List<Entry> types, List<Entry> namespaces) {
+    }
+
+    /**
+     * @param name       type name or namespace
+     * @param namespace  extension or plugin which the type belongs to
+     * @param samples    how many ticks of this type are timed
+     * @param totalNanos time spent in all samples
+     * @param p99Nanos   upper bound of the 99th percentile of a single tick
+     */
+    public record Entry(String name, String namespace, long samples, long totalNanos, long p99Nanos) {
+        /**
+         * @param sampledTicks see {@link Report#sampledTicks()}
+         * @return the average cost of this entry in a server tick
+         */
+        public double nanosPerTick(long sampledTicks) {
+            return sampledTicks == 0 ? 0 : (double) totalNanos / sampledTicks;
+        }
+    }
+}
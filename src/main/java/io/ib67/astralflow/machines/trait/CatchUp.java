@@ -0,0 +1,41 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.machines.trait;
+
+import org.jetbrains.annotations.ApiStatus;
+
+
+/**
+ * Represents a trait that can make up for ticks it missed.<br />
+ * Instead of simulating every missing tick, AstralFlow calls {@link #onCatchUp(long)} once when the machine is going to work again,
+ * i.e. when it's re-activated, when its chunk is loaded again (including {@link io.ib67.astralflow.machines.Tickless} machines)
+ * or when its chunk is promoted by {@link io.ib67.astralflow.scheduler.IActivationRange} because a player comes closer.
+ */
+@ApiStatus.AvailableSince("0.1.0")
+public interface CatchUp {
+    /**
+     * Called before the machine is ticked again, outside of its tick. It's called in the main thread.
+     *
+     * @param missedTicks how many ticks are missed, in game time. Always positive.
+     */
+    void onCatchUp(long missedTicks);
+}
@@ -21,11 +21,14 @@
 
 package io.ib67.astralflow.manager;
 
+import io.ib67.astralflow.internal.serialization.TypeRegistry;
 import io.ib67.astralflow.machines.IMachine;
+import io.ib67.astralflow.machines.MachineTypeDescriptor;
 import io.ib67.astralflow.machines.factories.IMachineFactory;
 import org.jetbrains.annotations.ApiStatus;
 
 import java.util.Collection;
+import java.util.Objects;
 
 @ApiStatus.AvailableSince("0.1.0")
 public interface IFactoryManager {
@@ -39,6 +42,25 @@ public interface IFactoryManager {
      */
     <T extends IMachine> IMachineFactory<T> getMachineFactory(Class<T> type);
 
+    /**
+     * Get the descriptor of a machine class, which is computed once and updated when its factory changes.
+     * The default implementation computes it on every call, implementations should cache it.
+     *
+     * @param type The machine class.
+     * @param <T>  The machine type.
+     * @return The descriptor.
+     */
+    default <T extends IMachine> MachineTypeDescriptor<T> getDescriptor(Class<T> type) {
+        Objects.requireNonNull(type, "Type cannot be null");
+        IMachineFactory<T> factory;
+        try {
+            factory = getMachineFactory(type);
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            factory = null;
+        }
+        return MachineTypeDescriptor.of(TypeRegistry.INSTANCE.getId(type), type, factory);
+    }
+
     /**
      * Get all registered machine factories.
      *
@@ -23,13 +23,21 @@ package io.ib67.astralflow.manager;
 
 import io.ib67.astralflow.machines.IMachine;
 import io.ib67.astralflow.machines.Tickless;
+import io.ib67.astralflow.machines.MachineHandle;
 import io.ib67.astralflow.machines.exception.MachineNotPushableException;
 import io.ib67.astralflow.scheduler.TickReceipt;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 /**
  * Manager for machines, where you can activate machines and load machines.
@@ -62,6 +70,76 @@ public interface IMachineManager {
      */
     IMachine getAndLoadMachine(Location location);
 
+    /**
+     * Get machine by location, loading its chunk without blocking the main thread.<br />
+     * The chunk is kept loaded by a chunk ticket until {@link #releaseMachineChunk(Location)} is called as many times as this method,
+     * requests for the same chunk share a single load.
+     *
+     * @param location location of machine
+     * @return future of the machine (null if there isn't), completed in the main thread. If the chunk fails to load,
+     * it's completed exceptionally and there's nothing to release.
+     * The default implementation loads it synchronously by {@link #getAndLoadMachine(Location)} and holds nothing.
+     */
+    default CompletableFuture<IMachine> getAndLoadMachineAsync(Location location) {
+        try {
+            return CompletableFuture.completedFuture(getAndLoadMachine(location));
+        } catch (Throwable t) {
+            return CompletableFuture.failedFuture(t);
+        }
+    }
+
+    /**
+     * Release the chunk held by {@link #getAndLoadMachineAsync(Location)}, it may be unloaded after all requests are released.
+     *
+     * @param location location passed to {@link #getAndLoadMachineAsync(Location)}
+     */
+    default void releaseMachineChunk(Location location) {
+        // the default getAndLoadMachineAsync holds nothing.
+    }
+
+    /**
+     * Get the machine at the block and load it, or null if it isn't a machine.
+     * It's cheaper than {@link #isMachine(Block)} followed by {@link #getAndLoadMachine(Location)}.
+     *
+     * @param world world
+     * @param x     block x
+     * @param y     block y
+     * @param z     block z
+     * @return machine or null
+     */
+    @Nullable
+    default IMachine findMachine(World world, int x, int y, int z) {
+        var block = world.getBlockAt(x, y, z);
+        return isMachine(block) ? getAndLoadMachine(block.getLocation()) : null;
+    }
+
+    /**
+     * @param block block
+     * @return machine or null
+     * @see #findMachine(World, int, int, int)
+     */
+    @Nullable
+    default IMachine findMachine(Block block) {
+        return findMachine(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * Find machines of the blocks in one go, blocks of chunks without machines are skipped at once.
+     *
+     * @param blocks blocks
+     * @return machines by their blocks, in the order of blocks.
+     */
+    default Map<Block, IMachine> findMachines(Collection<? extends Block> blocks) {
+        var result = new LinkedHashMap<Block, IMachine>();
+        for (Block block : blocks) {
+            var machine = findMachine(block);
+            if (machine != null) {
+                result.put(block, machine);
+            }
+        }
+        return result;
+    }
+
     /**
      * Deactivate the machine (untick)
      *
@@ -83,6 +161,86 @@ public interface IMachineManager {
      */
     Collection<? extends IMachine> getLoadedMachines();
 
+    /**
+     * Get a handle of the machine, which is cheaper to keep and look up than the machine itself.
+     *
+     * @param machine a registered machine
+     * @return the handle, null if the machine isn't registered.
+     * @throws UnsupportedOperationException if the implementation doesn't support handles, which is the default.
+     */
+    @Nullable
+    default MachineHandle getHandle(IMachine machine) {
+        throw new UnsupportedOperationException("Machine handles are not supported by " + getClass().getName());
+    }
+
+    /**
+     * Get the machine referred by a handle.
+     *
+     * @param handle handle from {@link #getHandle(IMachine)}
+     * @return the machine
+     * @throws io.ib67.astralflow.machines.exception.StaleMachineHandleException if the machine is unregistered, e.g. its chunk is unloaded.
+     * @throws UnsupportedOperationException                                      if the implementation doesn't support handles, which is the default.
+     */
+    default IMachine resolve(MachineHandle handle) {
+        throw new UnsupportedOperationException("Machine handles are not supported by " + getClass().getName());
+    }
+
+    /**
+     * Get loaded machines in a chunk. The stream is a lazy, weakly consistent view of an index: machines may be registered or removed while consuming it,
+     * removed ones are skipped and newly registered ones may be missing.
+     * <p>
+     * The default implementations of machine queries filter {@link #getLoadedMachines()}, so they visit every loaded machine
+     * and may not allow changes while consuming them. Implementations should index machines instead.
+     *
+     * @param chunk chunk
+     * @return machines in the chunk
+     */
+    default Stream<? extends IMachine> machinesInChunk(Chunk chunk) {
+        var world = chunk.getWorld();
+        return getLoadedMachines().stream().filter(machine -> {
+            var loc = machine.getLocation();
+            return world.equals(loc.getWorld()) && loc.getBlockX() >> 4 == chunk.getX() && loc.getBlockZ() >> 4 == chunk.getZ();
+        });
+    }
+
+    /**
+     * Count loaded machines in a chunk, implementations should do it without iterating them.
+     *
+     * @param chunk chunk
+     * @return count of machines
+     */
+    default int countMachinesInChunk(Chunk chunk) {
+        return (int) machinesInChunk(chunk).count();
+    }
+
+    /**
+     * Get loaded machines within a sphere. Only chunks which overlap the sphere are visited.
+     * The stream is a lazy, weakly consistent view like {@link #machinesInChunk(Chunk)}.
+     *
+     * @param center center of the sphere
+     * @param radius radius in blocks
+     * @return machines in the sphere
+     */
+    default Stream<? extends IMachine> machinesInRadius(Location center, double radius) {
+        var radiusSquared = radius * radius;
+        return getLoadedMachines().stream().filter(machine -> {
+            var loc = machine.getLocation();
+            return center.getWorld().equals(loc.getWorld()) && loc.distanceSquared(center) <= radiusSquared;
+        });
+    }
+
+    /**
+     * Get loaded machines which are instances of the type, including subclasses and implementations of interfaces (e.g. traits).
+     * The stream is a lazy, weakly consistent view like {@link #machinesInChunk(Chunk)}.
+     *
+     * @param type type of machines
+     * @param <M>  the type
+     * @return machines of the type
+     */
+    default <M> Stream<M> machinesOfType(Class<M> type) {
+        return getLoadedMachines().stream().filter(type::isInstance).map(type::cast);
+    }
+
     /**
      * Register the machine and track it in storage
      *
@@ -132,6 +290,18 @@ public interface IMachineManager {
 
     void updateMachineLocation(Location previousLocation, Location newLocation, IMachine machine) throws MachineNotPushableException;
 
+    /**
+     * Update locations of moved machines in storage at once, they're serialized at next save.
+     * Unlike {@link #updateMachineLocation(Location, Location, IMachine)}, it doesn't call {@link io.ib67.astralflow.machines.trait.Pushable#push}.
+     *
+     * @param moves old locations to new locations
+     * @throws IllegalArgumentException      if there isn't a machine at any of the old locations
+     * @throws UnsupportedOperationException if the implementation can't move machines without pushing them, which is the default.
+     */
+    default void relocateMachines(Map<Location, Location> moves) {
+        throw new UnsupportedOperationException("Relocating machines is not supported by " + getClass().getName());
+    }
+
     /**
      * Helper method to remove a machine from storage and tick queue.
      *
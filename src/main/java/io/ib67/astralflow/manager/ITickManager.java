@@ -22,6 +22,7 @@
 package io.ib67.astralflow.manager;
 
 import io.ib67.astralflow.Tickable;
+import io.ib67.astralflow.scheduler.IActivationRange;
 import io.ib67.astralflow.scheduler.TickReceipt;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
@@ -96,4 +97,13 @@ public interface ITickManager {
      */
     @NotNull
     List<? extends TickReceipt<?>> matchReceipt(String prefixOrRegex, boolean isRegex);
+
+    /**
+     * Get the activation range which throttles machines far from players.
+     *
+     * @return the activation range, {@link IActivationRange#DISABLED} if it's not enabled, which is the default.
+     */
+    default IActivationRange getActivationRange() {
+        return IActivationRange.DISABLED;
+    }
 }
@@ -21,27 +21,37 @@
 
 package io.ib67.astralflow.manager.impl;
 
+import io.ib67.astralflow.internal.serialization.TypeRegistry;
 import io.ib67.astralflow.machines.AutoFactory;
 import io.ib67.astralflow.machines.IMachine;
+import io.ib67.astralflow.machines.MachineTypeDescriptor;
 import io.ib67.astralflow.machines.factories.IMachineFactory;
 import io.ib67.astralflow.machines.factories.internal.SimpleMachineFactory;
 import io.ib67.astralflow.manager.IFactoryManager;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class FactoryManagerImpl implements IFactoryManager {
-    private final Map<Class<? extends IMachine>, IMachineFactory<?>> machineFactories = new HashMap<>();
+    private final Map<Class<? extends IMachine>, IMachineFactory<?>> machineFactories = new ConcurrentHashMap<>(); // chunk loaders may look up factories off the main thread
+    private final Set<Class<? extends IMachine>> typesWithoutFactory = ConcurrentHashMap.newKeySet(); // don't look up annotations again
+    private final Map<Class<? extends IMachine>, MachineTypeDescriptor<?>> descriptors = new ConcurrentHashMap<>();
 
     @SuppressWarnings("unchecked")
     @Override
     public <T extends IMachine> IMachineFactory<T> getMachineFactory(Class<T> type) {
         Objects.requireNonNull(type, "Type cannot be null");
+        var factory = machineFactories.get(type);
+        if (factory != null || typesWithoutFactory.contains(type)) {
+            return (IMachineFactory<T>) factory;
+        }
         return (IMachineFactory<T>) machineFactories.computeIfAbsent(type, t -> {
             if (!t.isAnnotationPresent(AutoFactory.class)) {
+                typesWithoutFactory.add(t);
                 return null;
             }
             var annotation = t.getAnnotation(AutoFactory.class);
@@ -57,6 +67,25 @@ public final class FactoryManagerImpl implements IFactoryManager {
         });
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends IMachine> MachineTypeDescriptor<T> getDescriptor(Class<T> type) {
+        Objects.requireNonNull(type, "Type cannot be null");
+        var descriptor = descriptors.get(type);
+        if (descriptor == null) {
+            // not in computeIfAbsent, getMachineFactory may update the maps.
+            IMachineFactory<T> factory;
+            try {
+                factory = getMachineFactory(type);
+            } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                factory = null; // invalid @AutoFactory, which is reported when creating machines.
+            }
+            descriptor = MachineTypeDescriptor.of(TypeRegistry.INSTANCE.getId(type), type, factory);
+            descriptors.put(type, descriptor);
+        }
+        return (MachineTypeDescriptor<T>) descriptor;
+    }
+
     @Override
     public Collection<? extends IMachineFactory<?>> getMachineFactories() {
         return machineFactories.values();
@@ -72,12 +101,15 @@ public final class FactoryManagerImpl implements IFactoryManager {
         }
 
         machineFactories.put(claz, factory);
+        typesWithoutFactory.remove(claz);
+        descriptors.remove(claz);
         return true;
     }
 
     @Override
     public <T extends IMachine> boolean unregister(Class<T> type) {
         Objects.requireNonNull(type, "Type cannot be null");
+        descriptors.remove(type);
         return machineFactories.containsKey(type) && machineFactories.remove(type) != null;
     }
 }
@@ -21,57 +21,67 @@
 
 package io.ib67.astralflow.manager.impl;
 
+import io.ib67.astralflow.AstralFlow;
 import io.ib67.astralflow.api.AstralHelper;
 import io.ib67.astralflow.hook.HookType;
 import io.ib67.astralflow.hook.event.server.SaveDataEvent;
 import io.ib67.astralflow.internal.IChunkTracker;
+import io.ib67.astralflow.internal.storage.ChunkTicketLoader;
 import io.ib67.astralflow.internal.storage.IMachineStorage;
 import io.ib67.astralflow.machines.IMachine;
-import io.ib67.astralflow.machines.Tickless;
+import io.ib67.astralflow.machines.MachineHandle;
+import io.ib67.astralflow.machines.MachineTypeDescriptor;
 import io.ib67.astralflow.machines.exception.MachineNotPushableException;
+import io.ib67.astralflow.machines.trait.CatchUp;
 import io.ib67.astralflow.machines.trait.Pushable;
+import io.ib67.astralflow.manager.IFactoryManager;
 import io.ib67.astralflow.manager.IMachineManager;
 import io.ib67.astralflow.manager.ITickManager;
 import io.ib67.astralflow.scheduler.TickReceipt;
 import io.ib67.astralflow.security.mem.ILeakTracker;
+import io.ib67.astralflow.util.LogCategory;
 import io.ib67.internal.util.bukkit.Log;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.event.world.ChunkLoadEvent;
-import org.inlambda.kiwi.WeakHashSet;
+import org.bukkit.persistence.PersistentDataType;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 public final class MachineManagerImpl implements IMachineManager {
 
     private final IMachineStorage machineStorage;
-    private final Set<IMachine> loadedMachines;
-
-    private final Map<IMachine, TickReceipt<IMachine>> tickReceipts;
+    private final MachineSlotTable machines; // registered machines and receipts
     private final ITickManager scheduler;
 
     private final IChunkTracker chunkTracker; // to check loaded chunks out of astral flow
 
     private final ILeakTracker leakTracker;
 
+    private final IFactoryManager factories;
+
+    private final NamespacedKey lastTickKey = new NamespacedKey(AstralFlow.getInstance().asPlugin(), "last_tick");
+    private final MachineQueryIndex queryIndex = new MachineQueryIndex();
+    private final ChunkTicketLoader chunkLoader = new ChunkTicketLoader(AstralFlow.getInstance().asPlugin());
+
     public MachineManagerImpl
             (IMachineStorage storage,
+             IFactoryManager factories,
              ITickManager scheduler,
              int machineCapacity,
              boolean allowResizingMachineMap,
              IChunkTracker chunkTracker, ILeakTracker leakTracker) {
         this.machineStorage = storage;
+        this.factories = factories;
         this.leakTracker = leakTracker;
         storage.init(this);
-        int defaultCapacity = Math.max(machineCapacity, 16);
-        tickReceipts = new WeakHashMap<>(machineCapacity);
         this.scheduler = scheduler;
-
-        loadedMachines = new WeakHashSet<>(defaultCapacity);
-        if (!allowResizingMachineMap) {
-            ((WeakHashSet<?>) loadedMachines).disableResizing();
-        }
+        this.machines = new MachineSlotTable(machineCapacity); // growing the table is only an array copy, so allowResizingMachineMap is ignored.
 
         this.chunkTracker = chunkTracker;
         HookType.CHUNK_LOAD.register(this::initChunk);
@@ -81,30 +91,70 @@ public final class MachineManagerImpl implements IMachineManager {
 
     private void finalizeAll() {
         var chunks = List.copyOf(chunkTracker.getMarkedChunks());
-        chunks.stream().forEach(this::finalizeChunk);
+        var start = System.nanoTime();
+        chunks.forEach(this::releaseChunk);
+        Log.info(LogCategory.TERMINATION, String.format("Terminated machines in %d chunks. (%.1f ms)", chunks.size(), (System.nanoTime() - start) / 1e6));
+        machineStorage.finalizeChunks(chunks);
     }
 
     private void initChunk(ChunkLoadEvent hook) {
         chunkTracker.markChunk(hook.getChunk());
 
-        machineStorage.initChunk(hook.getChunk());
-        for (IMachine machine : machineStorage.getMachinesByChunk(hook.getChunk())) {
-            setupMachine(machine, !machine.getClass().isAnnotationPresent(Tickless.class));
-        }
+        var chunk = hook.getChunk();
+        var lastTick = chunk.getPersistentDataContainer().get(lastTickKey, PersistentDataType.LONG);
+        machineStorage.initChunk(chunk, machines -> {
+            for (IMachine machine : machines) {
+                setupMachine(machine, !descriptorOf(machine).tickless());
+            }
+            if (lastTick != null) {
+                var missedTicks = chunk.getWorld().getGameTime() - lastTick;
+                for (IMachine machine : machines) {
+                    catchUp(machine, missedTicks);
+                }
+            }
+        });
     }
 
     private void finalizeChunk(Chunk chunk) {
+        releaseChunk(chunk);
+        machineStorage.finalizeChunk(chunk, true);
+    }
+
+    /**
+     * Terminate machines in the chunk before it's finalized.
+     */
+    private void releaseChunk(Chunk chunk) {
         chunkTracker.unmarkChunk(chunk);
 
-        machineStorage.getMachinesByChunk(chunk)
-                .forEach(this::terminateMachine);
-        machineStorage.finalizeChunk(chunk, true);
+        var machines = machineStorage.getMachinesByChunk(chunk);
+        var pdc = chunk.getPersistentDataContainer();
+        if (machines.isEmpty() && !machineStorage.mayHaveMachines(chunk.getWorld(), chunk.getX(), chunk.getZ())) {
+            pdc.remove(lastTickKey);
+        } else {
+            pdc.set(lastTickKey, PersistentDataType.LONG, chunk.getWorld().getGameTime());
+        }
+        machines.forEach(this::terminateMachine);
+    }
+
+    private MachineTypeDescriptor<?> descriptorOf(IMachine machine) {
+        return factories.getDescriptor(machine.getClass());
+    }
+
+    private void catchUp(IMachine machine, long missedTicks) {
+        if (missedTicks <= 0 || !descriptorOf(machine).catchUp() || !isRegistered(machine)) { // tickless ones as well.
+            return;
+        }
+        try {
+            ((CatchUp) machine).onCatchUp(missedTicks);
+        } catch (Throwable t) {
+            new IllegalStateException("Failed to catch up machine " + machine.getClass() + " (" + missedTicks + " ticks)", t).printStackTrace();
+        }
     }
 
     private void terminateMachine(IMachine machine) {
         Objects.requireNonNull(machine, "Machine cannot be null");
-        if (getReceiptByMachine(machine) != null && !machine.getClass().isAnnotationPresent(Tickless.class)) {
-            deactivateMachine(machine);
+        if (getReceiptByMachine(machine) != null && !descriptorOf(machine).tickless()) {
+            deactivateMachine(machine); // its chunk remembers the time for CatchUp.
         }
         unregisterMachine(machine);
         leakTracker.track(machine);
@@ -127,6 +177,58 @@ public final class MachineManagerImpl implements IMachineManager {
         return machineStorage.get(loc); // machine will be initialized at `loadChunk`
     }
 
+    @Override
+    public CompletableFuture<IMachine> getAndLoadMachineAsync(Location location) {
+        Objects.requireNonNull(location, "Location cannot be null");
+        var loc = AstralHelper.purifyLocation(location);
+        Objects.requireNonNull(loc.getWorld(), "World cannot be null");
+        return chunkLoader.acquire(loc.getWorld(), loc.getBlockX() >> 4, loc.getBlockZ() >> 4)
+                .thenApply(chunk -> machineStorage.get(loc)); // machines are initialized by ChunkLoadEvent.
+    }
+
+    @Override
+    public void releaseMachineChunk(Location location) {
+        Objects.requireNonNull(location, "Location cannot be null");
+        Objects.requireNonNull(location.getWorld(), "World cannot be null");
+        chunkLoader.release(location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4);
+    }
+
+    @Override
+    public IMachine findMachine(World world, int x, int y, int z) {
+        Objects.requireNonNull(world, "World cannot be null");
+        if (!world.isChunkLoaded(x >> 4, z >> 4)) {
+            return getAndLoadMachine(new Location(world, x, y, z));
+        }
+        return machineStorage.find(world, x, y, z);
+    }
+
+    @Override
+    public Map<Block, IMachine> findMachines(Collection<? extends Block> blocks) {
+        Objects.requireNonNull(blocks, "Blocks cannot be null");
+        var result = new LinkedHashMap<Block, IMachine>();
+        var probedChunks = new HashMap<Long, Boolean>(); // chunk -> may have machines
+        World world = null;
+        for (Block block : blocks) {
+            if (block.getWorld() != world) {
+                world = block.getWorld();
+                probedChunks.clear();
+            }
+            int chunkX = block.getX() >> 4;
+            int chunkZ = block.getZ() >> 4;
+            var finalWorld = world;
+            boolean mayHaveMachines = probedChunks.computeIfAbsent(((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL),
+                    k -> machineStorage.mayHaveMachines(finalWorld, chunkX, chunkZ));
+            if (!mayHaveMachines) {
+                continue;
+            }
+            var machine = findMachine(world, block.getX(), block.getY(), block.getZ());
+            if (machine != null) {
+                result.put(block, machine);
+            }
+        }
+        return result;
+    }
+
     @Override
     public void deactivateMachine(IMachine machine) {
         Objects.requireNonNull(machine, "Machine cannot be null");
@@ -134,7 +236,10 @@ public final class MachineManagerImpl implements IMachineManager {
             throw new IllegalStateException("Machine " + machine + " is not active");
         }
         Optional.ofNullable(getReceiptByMachine(machine)).ifPresent(TickReceipt::drop);
-        tickReceipts.remove(machine);
+        machines.setReceipt(machine, null);
+        if (descriptorOf(machine).catchUp()) {
+            machines.setDeactivatedAt(machine, machine.getLocation().getWorld().getGameTime());
+        }
     }
 
     @Override
@@ -143,40 +248,69 @@ public final class MachineManagerImpl implements IMachineManager {
         if (getReceiptByMachine(machine) != null) {
             throw new IllegalStateException("Machine " + machine + " is already active");
         }
-        tickReceipts.put(machine, scheduler.registerTickable(machine));
+        var receipt = scheduler.registerTickable(machine);
+        if (!descriptorOf(machine).alwaysActive()) {
+            scheduler.getActivationRange().apply(receipt, machine);
+        }
+        machines.setReceipt(machine, receipt);
+        var since = machines.takeDeactivatedAt(machine);
+        if (since != null) {
+            catchUp(machine, machine.getLocation().getWorld().getGameTime() - since);
+        }
 
     }
 
     @Override
     public Collection<? extends IMachine> getLoadedMachines() {
-        return loadedMachines;
+        return Collections.unmodifiableCollection(machines.registeredMachines());
     }
 
     @Override
     public void registerMachine(IMachine machine) {
         Objects.requireNonNull(machine, "Machine cannot be null");
-        loadedMachines.add(machine);
-        machineStorage.save(AstralHelper.purifyLocation(machine.getLocation()), machine);
+        machines.register(machine);
+        queryIndex.add(machine);
+        var loc = AstralHelper.purifyLocation(machine.getLocation());
+        if (!machineStorage.has(loc)) { // loaded machines are already there, only new ones are saved.
+            machineStorage.save(loc, machine);
+        }
+    }
+
+    @Override
+    public void terminateAndRemoveMachine(IMachine machine) {
+        removeMachine(machine);
+        if (!descriptorOf(machine).tickless()) {
+            deactivateMachine(machine);
+        }
+        unregisterMachine(machine);
     }
 
     @Override
     public void unregisterMachine(IMachine machine) {
         Objects.requireNonNull(machine, "Machine cannot be null");
-        loadedMachines.remove(machine);
+        machines.unregister(machine);
+        queryIndex.remove(machine);
         machine.onUnload();
     }
 
     @Override
     public boolean isMachine(Block block) {
         Objects.requireNonNull(block, "Block cannot be null");
-        return machineStorage.get(AstralHelper.purifyLocation(block.getLocation())) != null;
+        return machineStorage.has(AstralHelper.purifyLocation(block.getLocation()));
     }
 
     private void onSaveData(SaveDataEvent event) {
         if (event.isShuttingDown()) {
+            chunkLoader.releaseAll();
             finalizeAll();
         }
+        var start = System.nanoTime();
         saveMachines();
+        if (event.isShuttingDown()) {
+            var saveTime = System.nanoTime();
+            machineStorage.close();
+            Log.info(LogCategory.TERMINATION, String.format("Machines saved. (flush %.1f ms, close %.1f ms)", (saveTime - start) / 1e6, (System.nanoTime() - saveTime) / 1e6));
+        }
     }
 
     @Override
@@ -197,7 +331,7 @@ public final class MachineManagerImpl implements IMachineManager {
     @Override
     public TickReceipt<IMachine> getReceiptByMachine(IMachine machine) {
         Objects.requireNonNull(machine, "Machine cannot be null");
-        var r = tickReceipts.get(machine);
+        var r = machines.getReceipt(machine);
         if (r == null || r.isDropped()) {
             return null;
         }
@@ -207,7 +341,19 @@ public final class MachineManagerImpl implements IMachineManager {
     @Override
     public boolean isRegistered(IMachine machine) {
         Objects.requireNonNull(machine, "Machine cannot be null");
-        return loadedMachines.contains(machine);
+        return machines.isRegistered(machine);
+    }
+
+    @Override
+    public MachineHandle getHandle(IMachine machine) {
+        Objects.requireNonNull(machine, "Machine cannot be null");
+        return machines.handleOf(machine);
+    }
+
+    @Override
+    public IMachine resolve(MachineHandle handle) {
+        Objects.requireNonNull(handle, "Handle cannot be null");
+        return machines.resolve(handle);
     }
 
     @Override
@@ -221,7 +367,49 @@ public final class MachineManagerImpl implements IMachineManager {
             throw new MachineNotPushableException("Machine " + machine + " is not pushable", machine);
         }
         pushMachine.push(newLocation, newLocation.toVector().subtract(previousLocation.toVector()));
-        machineStorage.remove(AstralHelper.purifyLocation(previousLocation));
-        machineStorage.save(AstralHelper.purifyLocation(newLocation), machine);
+        machineStorage.relocate(Map.of(AstralHelper.purifyLocation(previousLocation), AstralHelper.purifyLocation(newLocation)));
+        queryIndex.add(machine); // re-index
+    }
+
+    @Override
+    public void relocateMachines(Map<Location, Location> moves) {
+        Objects.requireNonNull(moves, "Moves cannot be null");
+        if (!moves.isEmpty()) {
+            machineStorage.relocate(moves);
+            for (Location target : moves.values()) {
+                var machine = machineStorage.get(target);
+                if (machine != null && isRegistered(machine)) {
+                    queryIndex.add(machine); // re-index
+                }
+            }
+        }
+    }
+
+    @Override
+    public Stream<? extends IMachine> machinesInChunk(Chunk chunk) {
+        Objects.requireNonNull(chunk, "Chunk cannot be null");
+        return queryIndex.inChunk(chunk.getWorld(), chunk.getX(), chunk.getZ());
+    }
+
+    @Override
+    public int countMachinesInChunk(Chunk chunk) {
+        Objects.requireNonNull(chunk, "Chunk cannot be null");
+        return queryIndex.countInChunk(chunk.getWorld(), chunk.getX(), chunk.getZ());
+    }
+
+    @Override
+    public Stream<? extends IMachine> machinesInRadius(Location center, double radius) {
+        Objects.requireNonNull(center, "Center cannot be null");
+        Objects.requireNonNull(center.getWorld(), "World cannot be null");
+        if (radius < 0) {
+            throw new IllegalArgumentException("Radius cannot be negative");
+        }
+        return queryIndex.inRadius(center, radius);
+    }
+
+    @Override
+    public <M> Stream<M> machinesOfType(Class<M> type) {
+        Objects.requireNonNull(type, "Type cannot be null");
+        return queryIndex.ofType(type);
     }
 }
@@ -0,0 +1,233 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.manager.impl;
+
+import io.ib67.astralflow.machines.IMachine;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Indexes of registered machines by type and by chunk. Machines are compared by identity and removed when they're unregistered.
+ * Should be used in the main thread only.
+ * <p>
+ * Queries are lazy views over the index rather than copies. Slots of a bucket are never reused in place, so the views are weakly consistent:
+ * machines may be registered or removed while consuming them, removed ones are skipped, and ones registered after the query may not be included.
+ */
+final class MachineQueryIndex {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final Map<Class<? extends IMachine>, Bucket> byType = new HashMap<>();
+    private final Map<World, Map<Long, Bucket>> byChunk = new HashMap<>();
+    private final Map<IMachine, Entry> entries = new IdentityHashMap<>();
+
+    private static long chunkKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    void add(IMachine machine) {
+        var location = machine.getLocation();
+        var world = location.getWorld();
+        var chunkKey = chunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+        var entry = entries.get(machine);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(machine, entry);
+            entry.typeSlot = byType.computeIfAbsent(machine.getClass(), k -> new Bucket(true)).add(machine);
+        } else if (Objects.equals(entry.world, world) && entry.chunkKey == chunkKey) {
+            return;
+        } else {
+            removeFromChunk(entry); // moved.
+        }
+        entry.world = world;
+        entry.chunkKey = chunkKey;
+        entry.chunkSlot = byChunk.computeIfAbsent(world, k -> new HashMap<>())
+                .computeIfAbsent(chunkKey, k -> new Bucket(false))
+                .add(machine);
+    }
+
+    void remove(IMachine machine) {
+        var entry = entries.remove(machine);
+        if (entry == null) {
+            return;
+        }
+        var typed = byType.get(machine.getClass());
+        if (typed != null && typed.remove(entry.typeSlot)) {
+            byType.remove(machine.getClass());
+        }
+        removeFromChunk(entry);
+    }
+
+    private void removeFromChunk(Entry entry) {
+        var chunks = byChunk.get(entry.world);
+        if (chunks == null) {
+            return;
+        }
+        var machines = chunks.get(entry.chunkKey);
+        if (machines != null && machines.remove(entry.chunkSlot)) {
+            chunks.remove(entry.chunkKey);
+            if (chunks.isEmpty()) {
+                byChunk.remove(entry.world);
+            }
+        }
+    }
+
+    private Bucket chunk(World world, int chunkX, int chunkZ) {
+        var chunks = byChunk.get(world);
+        return chunks == null ? null : chunks.get(chunkKey(chunkX, chunkZ));
+    }
+
+    Stream<IMachine> inChunk(World world, int chunkX, int chunkZ) {
+        var machines = chunk(world, chunkX, chunkZ);
+        return machines == null ? Stream.empty() : machines.stream();
+    }
+
+    int countInChunk(World world, int chunkX, int chunkZ) {
+        var machines = chunk(world, chunkX, chunkZ);
+        return machines == null ? 0 : machines.live;
+    }
+
+    Stream<IMachine> inRadius(Location center, double radius) {
+        var chunks = byChunk.get(center.getWorld());
+        if (chunks == null) {
+            return Stream.empty();
+        }
+        var minX = (int) Math.floor(center.getX() - radius) >> 4;
+        var maxX = (int) Math.floor(center.getX() + radius) >> 4;
+        var minZ = (int) Math.floor(center.getZ() - radius) >> 4;
+        var maxZ = (int) Math.floor(center.getZ() + radius) >> 4;
+        var buckets = new ArrayList<Bucket>();
+        if ((long) (maxX - minX + 1) * (maxZ - minZ + 1) <= chunks.size()) {
+            for (int x = minX; x <= maxX; x++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    var machines = chunks.get(chunkKey(x, z));
+                    if (machines != null) {
+                        buckets.add(machines);
+                    }
+                }
+            }
+        } else { // a large sphere, visit indexed chunks only.
+            for (Map.Entry<Long, Bucket> entry : chunks.entrySet()) {
+                var x = (int) (entry.getKey() >> 32);
+                var z = (int) (long) entry.getKey();
+                if (x >= minX && x <= maxX && z >= minZ && z <= maxZ) {
+                    buckets.add(entry.getValue());
+                }
+            }
+        }
+        var radiusSquared = radius * radius;
+        return buckets.stream()
+                .flatMap(Bucket::stream)
+                .filter(machine -> distanceSquared(machine.getLocation(), center) <= radiusSquared);
+    }
+
+    private static double distanceSquared(Location a, Location b) {
+        var dx = a.getX() - b.getX();
+        var dy = a.getY() - b.getY();
+        var dz = a.getZ() - b.getZ();
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    <M> Stream<M> ofType(Class<M> type) { // there are only a few machine classes.
+        var buckets = new ArrayList<Bucket>();
+        for (Map.Entry<Class<? extends IMachine>, Bucket> entry : byType.entrySet()) {
+            if (type.isAssignableFrom(entry.getKey())) {
+                buckets.add(entry.getValue());
+            }
+        }
+        return buckets.stream()
+                .flatMap(Bucket::stream)
+                .map(type::cast);
+    }
+
+    private static final class Entry {
+        private World world;
+        private long chunkKey;
+        private int typeSlot;
+        private int chunkSlot;
+    }
+
+    /**
+     * An append-only array of machines. Removed slots are cleared, and the array is replaced instead of shifted when it's compacted,
+     * so that streams over a previous array are still valid.
+     */
+    private final class Bucket {
+        private final boolean typed;
+        private IMachine[] machines = new IMachine[INITIAL_CAPACITY];
+        private int size; // used slots, including cleared ones.
+        private int live;
+
+        private Bucket(boolean typed) {
+            this.typed = typed;
+        }
+
+        int add(IMachine machine) {
+            if (size == machines.length) {
+                compact(Math.max(INITIAL_CAPACITY, live * 2));
+            }
+            machines[size] = machine;
+            live++;
+            return size++;
+        }
+
+        /**
+         * @return true if the bucket is empty now
+         */
+        boolean remove(int slot) {
+            machines[slot] = null;
+            live--;
+            if (live == 0) {
+                return true;
+            }
+            if (live < size / 4 && machines.length > INITIAL_CAPACITY * 4) {
+                compact(live * 2);
+            }
+            return false;
+        }
+
+        private void compact(int capacity) {
+            var compacted = new IMachine[capacity];
+            var n = 0;
+            for (int i = 0; i < size; i++) {
+                var machine = machines[i];
+                if (machine == null) {
+                    continue;
+                }
+                var entry = entries.get(machine);
+                if (typed) {
+                    entry.typeSlot = n;
+                } else {
+                    entry.chunkSlot = n;
+                }
+                compacted[n++] = machine;
+            }
+            machines = compacted;
+            size = n;
+        }
+
+        Stream<IMachine> stream() {
+            return Arrays.stream(machines, 0, size).filter(Objects::nonNull);
+        }
+    }
+}
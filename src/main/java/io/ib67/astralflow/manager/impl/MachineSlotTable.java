@@ -0,0 +1,226 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.manager.impl;
+
+import io.ib67.astralflow.machines.IMachine;
+import io.ib67.astralflow.machines.MachineHandle;
+import io.ib67.astralflow.machines.exception.StaleMachineHandleException;
+import io.ib67.astralflow.scheduler.TickReceipt;
+
+import java.util.*;
+
+/**
+ * Bookkeeping of machines in parallel arrays. A slot is taken when a machine is registered or activated,
+ * and is freed once it's neither registered nor active, which bumps the generation of the slot.
+ * Machines are looked up by identity, so their {@code equals} and {@code hashCode} are never called.
+ * Should be used in the main thread only.
+ */
+final class MachineSlotTable {
+    private static final long NOT_DEACTIVATED = Long.MIN_VALUE;
+
+    private final Map<IMachine, Integer> slots;
+    private IMachine[] machines;
+    private int[] generations;
+    private TickReceipt<IMachine>[] receipts;
+    private boolean[] registered;
+    private long[] deactivatedAt;
+    private int[] nextFree;
+    private int freeHead = -1;
+    private int used; // slots ever used
+    private int registeredCount;
+
+    private final Collection<IMachine> registeredView = new AbstractCollection<>() {
+        @Override
+        public Iterator<IMachine> iterator() {
+            return new Iterator<>() {
+                private int cursor = advance(0);
+
+                private int advance(int from) {
+                    while (from < used && !registered[from]) from++;
+                    return from;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return cursor < used;
+                }
+
+                @Override
+                public IMachine next() {
+                    if (cursor >= used) {
+                        throw new NoSuchElementException();
+                    }
+                    var machine = machines[cursor];
+                    cursor = advance(cursor + 1);
+                    return machine;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return registeredCount;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof IMachine machine && isRegistered(machine);
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    MachineSlotTable(int capacity) {
+        capacity = Math.max(capacity, 16);
+        slots = new IdentityHashMap<>(capacity);
+        machines = new IMachine[capacity];
+        generations = new int[capacity];
+        receipts = new TickReceipt[capacity];
+        registered = new boolean[capacity];
+        deactivatedAt = new long[capacity];
+        nextFree = new int[capacity];
+    }
+
+    private int slotOf(IMachine machine) {
+        var slot = slots.get(machine);
+        return slot == null ? -1 : slot;
+    }
+
+    private int acquire(IMachine machine) {
+        var slot = slotOf(machine);
+        if (slot != -1) {
+            return slot;
+        }
+        if (freeHead != -1) {
+            slot = freeHead;
+            freeHead = nextFree[slot];
+        } else {
+            if (used == machines.length) {
+                grow();
+            }
+            slot = used++;
+        }
+        machines[slot] = machine;
+        deactivatedAt[slot] = NOT_DEACTIVATED;
+        slots.put(machine, slot);
+        return slot;
+    }
+
+    private void grow() { // no rehashing, just copying arrays.
+        var capacity = machines.length * 2;
+        machines = Arrays.copyOf(machines, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        receipts = Arrays.copyOf(receipts, capacity);
+        registered = Arrays.copyOf(registered, capacity);
+        deactivatedAt = Arrays.copyOf(deactivatedAt, capacity);
+        nextFree = Arrays.copyOf(nextFree, capacity);
+    }
+
+    private void releaseIfUnused(int slot) {
+        var receipt = receipts[slot];
+        if (registered[slot] || (receipt != null && !receipt.isDropped())) {
+            return;
+        }
+        receipts[slot] = null;
+        slots.remove(machines[slot]);
+        machines[slot] = null;
+        generations[slot]++; // handles to this slot are stale now.
+        nextFree[slot] = freeHead;
+        freeHead = slot;
+    }
+
+    void register(IMachine machine) {
+        var slot = acquire(machine);
+        if (!registered[slot]) {
+            registered[slot] = true;
+            registeredCount++;
+        }
+    }
+
+    void unregister(IMachine machine) {
+        var slot = slotOf(machine);
+        if (slot == -1 || !registered[slot]) {
+            return;
+        }
+        registered[slot] = false;
+        registeredCount--;
+        deactivatedAt[slot] = NOT_DEACTIVATED;
+        releaseIfUnused(slot);
+    }
+
+    boolean isRegistered(IMachine machine) {
+        var slot = slotOf(machine);
+        return slot != -1 && registered[slot];
+    }
+
+    Collection<IMachine> registeredMachines() {
+        return registeredView;
+    }
+
+    TickReceipt<IMachine> getReceipt(IMachine machine) {
+        var slot = slotOf(machine);
+        return slot == -1 ? null : receipts[slot];
+    }
+
+    void setReceipt(IMachine machine, TickReceipt<IMachine> receipt) {
+        var slot = acquire(machine);
+        receipts[slot] = receipt;
+        if (receipt == null) {
+            releaseIfUnused(slot);
+        }
+    }
+
+    /**
+     * @return game time when the machine was deactivated, or null.
+     */
+    Long takeDeactivatedAt(IMachine machine) {
+        var slot = slotOf(machine);
+        if (slot == -1 || deactivatedAt[slot] == NOT_DEACTIVATED) {
+            return null;
+        }
+        var time = deactivatedAt[slot];
+        deactivatedAt[slot] = NOT_DEACTIVATED;
+        return time;
+    }
+
+    void setDeactivatedAt(IMachine machine, long gameTime) {
+        var slot = slotOf(machine);
+        if (slot != -1 && registered[slot]) { // unregistered machines don't need it.
+            deactivatedAt[slot] = gameTime;
+        }
+    }
+
+    MachineHandle handleOf(IMachine machine) {
+        var slot = slotOf(machine);
+        if (slot == -1 || !registered[slot]) {
+            return null;
+        }
+        return new MachineHandle(slot, generations[slot]);
+    }
+
+    IMachine resolve(MachineHandle handle) {
+        var slot = handle.index();
+        if (slot < 0 || slot >= used || generations[slot] != handle.generation() || !registered[slot]) {
+            throw new StaleMachineHandleException(handle);
+        }
+        return machines[slot];
+    }
+}
@@ -25,6 +25,7 @@ import com.google.common.base.Preconditions;
 import io.ib67.astralflow.AstralFlow;
 import io.ib67.astralflow.Tickable;
 import io.ib67.astralflow.manager.ITickManager;
+import io.ib67.astralflow.scheduler.IActivationRange;
 import io.ib67.astralflow.scheduler.Scheduler;
 import io.ib67.astralflow.scheduler.TickReceipt;
 import io.ib67.astralflow.scheduler.internal.SchedulerAdapter;
@@ -56,6 +57,8 @@ public final class SimpleTickManager implements ITickManager {
      */
     @Getter
     private final Scheduler scheduler;
+    @Getter
+    private final IActivationRange activationRange;
 
     @Deprecated
     public SimpleTickManager() {
@@ -63,7 +66,13 @@ public final class SimpleTickManager implements ITickManager {
     }
 
     public SimpleTickManager(Scheduler scheduler) {
+        this(scheduler, IActivationRange.DISABLED);
+    }
+
+    public SimpleTickManager(Scheduler scheduler, IActivationRange activationRange) {
+        Objects.requireNonNull(activationRange, "activationRange cannot be null");
         this.scheduler = scheduler;
+        this.activationRange = activationRange;
         this.adapter = new SchedulerAdapter(scheduler);
         Bukkit.getScheduler().runTaskLater(AstralFlow.getInstance().asPlugin(), () -> {
             adapter.runTaskTimer(AstralFlow.getInstance().asPlugin(), 0L, 1L);
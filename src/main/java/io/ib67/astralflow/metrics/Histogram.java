@@ -0,0 +1,120 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.metrics;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram with power-of-two buckets, so recording a value is a bit count and an add.
+ * Percentiles are reported as the upper bound of their bucket, which is at most twice the real value.
+ */
+@ApiStatus.AvailableSince("0.1.0")
+public final class Histogram extends Metric {
+    private static final int BUCKETS = 64;
+    // bucket i holds values in [2^(i-1), 2^i), bucket 0 holds zeros.
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram(String name, String help) {
+        super(name, help);
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a value, negative values are counted as zero.
+     *
+     * @param value value
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+        count.increment();
+        sum.add(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Get the estimated percentile.
+     *
+     * @param percentile 0 ~ 100
+     * @return upper bound of the bucket where the percentile is, 0 if nothing is recorded.
+     */
+    public long getPercentile(double percentile) {
+        var counts = snapshot();
+        long total = 0;
+        for (long c : counts) total += c;
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(rank, 1)) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    private long[] snapshot() {
+        var result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            result[i] = buckets[i].sum();
+        }
+        return result;
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    @Override
+    public void writeTo(StringBuilder out) {
+        writeHeader(out, "histogram");
+        var counts = snapshot();
+        int last = BUCKETS - 1;
+        while (last > 0 && counts[last] == 0) last--;
+        long cumulative = 0;
+        for (int i = 0; i <= last && i < BUCKETS - 1; i++) {
+            cumulative += counts[i];
+            out.append(getName()).append("_bucket{le=\"").append(upperBound(i)).append("\"} ").append(cumulative).append('\n');
+        }
+        long total = 0;
+        for (long c : counts) total += c; // consistent with buckets even if values are being recorded.
+        out.append(getName()).append("_bucket{le=\"+Inf\"} ").append(total).append('\n');
+        out.append(getName()).append("_sum ").append(getSum()).append('\n');
+        out.append(getName()).append("_count ").append(total).append('\n');
+    }
+}
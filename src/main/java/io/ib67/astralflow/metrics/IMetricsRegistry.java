@@ -0,0 +1,69 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.metrics;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.Collection;
+
+/**
+ * Registry of metrics. AstralFlow's own metrics are prefixed with {@code astralflow_}, please use your own prefix.
+ */
+@ApiStatus.AvailableSince("0.1.0")
+public interface IMetricsRegistry {
+    /**
+     * Get or create a counter.
+     *
+     * @param name name of the counter
+     * @param help description
+     * @return the counter
+     * @throws IllegalArgumentException if there is a metric which has the same name but isn't a counter
+     */
+    Counter counter(String name, String help);
+
+    /**
+     * Get or create a histogram.
+     *
+     * @param name name of the histogram
+     * @param help description
+     * @return the histogram
+     * @throws IllegalArgumentException if there is a metric which has the same name but isn't a histogram
+     */
+    Histogram histogram(String name, String help);
+
+    /**
+     * Register a metric.
+     *
+     * @param metric metric
+     * @return false if there is already a metric with the same name
+     */
+    boolean register(Metric metric);
+
+    Collection<? extends Metric> getMetrics();
+
+    /**
+     * Export all metrics in Prometheus text format.
+     *
+     * @return text
+     */
+    String exportPrometheus();
+}
@@ -0,0 +1,68 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.metrics;
+
+import lombok.Getter;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * A named metric which can be exported in Prometheus text format.
+ */
+@ApiStatus.AvailableSince("0.1.0")
+@Getter
+public abstract class Metric {
+    private static final Pattern NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+    /**
+     * Name of the metric, such as {@code astralflow_scheduler_tick_nanoseconds}
+     */
+    private final String name;
+    /**
+     * A short description
+     */
+    private final String help;
+
+    protected Metric(String name, String help) {
+        Objects.requireNonNull(name, "name cannot be null");
+        Objects.requireNonNull(help, "help cannot be null");
+        if (!NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid metric name: " + name);
+        }
+        this.name = name;
+        this.help = help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    /**
+     * Append samples of this metric in Prometheus text format.
+     *
+     * @param out output
+     */
+    @ApiStatus.Internal
+    public abstract void writeTo(StringBuilder out);
+
+    protected void writeHeader(StringBuilder out, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
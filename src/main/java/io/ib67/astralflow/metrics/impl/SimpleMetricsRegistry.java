@@ -0,0 +1,76 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.metrics.impl;
+
+import io.ib67.astralflow.metrics.Counter;
+import io.ib67.astralflow.metrics.Histogram;
+import io.ib67.astralflow.metrics.IMetricsRegistry;
+import io.ib67.astralflow.metrics.Metric;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+public final class SimpleMetricsRegistry implements IMetricsRegistry {
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>(); // sorted for stable output
+
+    @Override
+    public Counter counter(String name, String help) {
+        return getOrCreate(name, Counter.class, () -> new Counter(name, help));
+    }
+
+    @Override
+    public Histogram histogram(String name, String help) {
+        return getOrCreate(name, Histogram.class, () -> new Histogram(name, help));
+    }
+
+    private <M extends Metric> M getOrCreate(String name, Class<M> type, Supplier<M> creator) {
+        Objects.requireNonNull(name, "name cannot be null");
+        var metric = metrics.computeIfAbsent(name, k -> creator.get());
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + metric.getClass().getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    @Override
+    public boolean register(Metric metric) {
+        Objects.requireNonNull(metric, "metric cannot be null");
+        return metrics.putIfAbsent(metric.getName(), metric) == null;
+    }
+
+    @Override
+    public Collection<? extends Metric> getMetrics() {
+        return metrics.values();
+    }
+
+    @Override
+    public String exportPrometheus() {
+        var sb = new StringBuilder(4096);
+        for (Metric metric : metrics.values()) {
+            metric.writeTo(sb);
+        }
+        return sb.toString();
+    }
+}
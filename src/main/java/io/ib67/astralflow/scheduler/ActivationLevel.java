@@ -0,0 +1,43 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.scheduler;
+
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * How often are machines in a chunk ticked. Also see {@link IActivationRange}
+ */
+@ApiStatus.AvailableSince("0.1.0")
+public enum ActivationLevel {
+    /**
+     * Players are nearby, machines are ticked every tick.
+     */
+    FULL,
+    /**
+     * Players are a bit far away, machines are ticked at a reduced rate.
+     */
+    REDUCED,
+    /**
+     * No players are in range, machines are ticked rarely or suspended.
+     */
+    INACTIVE
+}
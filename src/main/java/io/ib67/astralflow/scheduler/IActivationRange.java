@@ -0,0 +1,67 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.scheduler;
+
+import io.ib67.astralflow.machines.AlwaysActive;
+import io.ib67.astralflow.machines.IMachine;
+import org.bukkit.World;
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * Activation range decides how often machines are ticked by their distance to players.<br />
+ * Machines annotated with {@link AlwaysActive} are not affected.
+ */
+@ApiStatus.AvailableSince("0.1.0")
+public interface IActivationRange {
+    /**
+     * An activation range that ticks all machines at full rate.
+     */
+    IActivationRange DISABLED = new IActivationRange() {
+        @Override
+        public ActivationLevel getLevel(World world, int chunkX, int chunkZ) {
+            return ActivationLevel.FULL;
+        }
+
+        @Override
+        public void apply(TickReceipt<IMachine> receipt, IMachine machine) {
+
+        }
+    };
+
+    /**
+     * Get the activation level of a chunk.
+     *
+     * @param world  world
+     * @param chunkX chunk x
+     * @param chunkZ chunk z
+     * @return level
+     */
+    ActivationLevel getLevel(World world, int chunkX, int chunkZ);
+
+    /**
+     * Throttle ticks of a machine. Called once when the machine is activated.
+     *
+     * @param receipt receipt of the machine
+     * @param machine the machine
+     */
+    void apply(TickReceipt<IMachine> receipt, IMachine machine);
+}
@@ -44,6 +44,7 @@ public final class TickReceipt<T extends Tickable<T>> {
     private Predicate<T> requirement;
     private boolean dropped = false;
     private String name = null;
+    private long ticks;
 
     /**
      * Also see {@link io.ib67.astralflow.scheduler.strategies.PeriodicTicks}
@@ -154,6 +155,16 @@ public final class TickReceipt<T extends Tickable<T>> {
         return name;
     }
 
+    /**
+     * How many times the tickable has been called since the receipt is created. Used to tell if its state may have changed.
+     *
+     * @return count of ticks
+     */
+    @ApiStatus.Internal
+    public long getTicks() {
+        return ticks;
+    }
+
     @SuppressWarnings("all")
     protected boolean tick(Object t) throws Throwable {
         if (always.size() != 0) {
@@ -167,6 +178,7 @@ public final class TickReceipt<T extends Tickable<T>> {
                     sync.tick();
                 }
             }
+            ticks++;
             return true;
         } else {
             return false;
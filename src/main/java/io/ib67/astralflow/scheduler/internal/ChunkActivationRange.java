@@ -0,0 +1,341 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.scheduler.internal;
+
+import io.ib67.astralflow.machines.IMachine;
+import io.ib67.astralflow.machines.trait.CatchUp;
+import io.ib67.astralflow.scheduler.ActivationLevel;
+import io.ib67.astralflow.scheduler.IActivationRange;
+import io.ib67.astralflow.scheduler.TickReceipt;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Activation range by chebyshev distance in chunks.<br />
+ * Each chunk with active machines counts players in its ranges. The counters are updated when a player crosses chunks,
+ * so levels are never computed by scanning machines. Should be used in the main thread only.
+ */
+@ApiStatus.Internal
+public final class ChunkActivationRange implements IActivationRange, Listener {
+    private final int fullRange;
+    private final int reducedRange;
+    private final int reducedInterval;
+    private final int inactiveInterval;
+
+    private final Map<World, Map<Long, ChunkState>> chunks = new HashMap<>();
+    private final Map<UUID, PlayerPosition> players = new HashMap<>();
+
+    /**
+     * @param fullRange        machines in this range of a player are ticked every tick, in chunks
+     * @param reducedRange     machines in this range of a player are ticked every {@code reducedInterval} ticks, in chunks
+     * @param reducedInterval  tick interval of machines in reduced range
+     * @param inactiveInterval tick interval of machines out of range, 0 to suspend them
+     */
+    public ChunkActivationRange(int fullRange, int reducedRange, int reducedInterval, int inactiveInterval) {
+        if (fullRange < 0 || reducedInterval < 1 || inactiveInterval < 0) {
+            throw new IllegalArgumentException("Invalid activation range: full=" + fullRange + ", reducedInterval=" + reducedInterval + ", inactiveInterval=" + inactiveInterval);
+        }
+        this.fullRange = fullRange;
+        this.reducedRange = Math.max(fullRange, reducedRange);
+        this.reducedInterval = reducedInterval;
+        this.inactiveInterval = inactiveInterval;
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            moveTo(player.getUniqueId(), player.getLocation());
+        }
+    }
+
+    private static long chunkKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public ActivationLevel getLevel(World world, int chunkX, int chunkZ) {
+        var worldChunks = chunks.get(world);
+        var state = worldChunks == null ? null : worldChunks.get(chunkKey(chunkX, chunkZ));
+        if (state == null) { // don't track chunks without machines.
+            state = newState(world, chunkX, chunkZ);
+        }
+        return state.level();
+    }
+
+    @Override
+    public void apply(TickReceipt<IMachine> receipt, IMachine machine) {
+        receipt.requires(new Gate(machine instanceof CatchUp catchUp ? catchUp : null, receipt));
+    }
+
+    private ChunkState stateOf(World world, int chunkX, int chunkZ) {
+        var worldChunks = chunks.computeIfAbsent(world, k -> new HashMap<>());
+        var key = chunkKey(chunkX, chunkZ);
+        var state = worldChunks.get(key);
+        if (state == null) {
+            state = newState(world, chunkX, chunkZ);
+            worldChunks.put(key, state);
+        }
+        return state;
+    }
+
+    private ChunkState newState(World world, int chunkX, int chunkZ) {
+        var state = new ChunkState(world, chunkX, chunkZ);
+        for (PlayerPosition position : players.values()) {
+            if (position.world() == world) {
+                state.count(position, 1);
+            }
+        }
+        return state;
+    }
+
+    private void moveTo(UUID player, Location location) {
+        var world = location.getWorld();
+        var position = world == null ? null : new PlayerPosition(world, location.getBlockX() >> 4, location.getBlockZ() >> 4);
+        var previous = position == null ? players.remove(player) : players.put(player, position);
+        if (position != null && position.equals(previous)) {
+            return;
+        }
+        if (previous != null) {
+            count(previous, -1);
+        }
+        if (position != null) {
+            count(position, 1);
+        }
+    }
+
+    private void count(PlayerPosition position, int delta) {
+        var worldChunks = chunks.get(position.world());
+        if (worldChunks == null || worldChunks.isEmpty()) {
+            return;
+        }
+        List<ChunkState> promoted = null;
+        long side = 2L * reducedRange + 1;
+        if (side * side > worldChunks.size()) { // fewer chunks have machines than chunks in range.
+            for (ChunkState state : worldChunks.values()) {
+                if (state.count(position, delta)) {
+                    (promoted == null ? promoted = new ArrayList<>() : promoted).add(state);
+                }
+            }
+        } else {
+            for (int dx = -reducedRange; dx <= reducedRange; dx++) {
+                for (int dz = -reducedRange; dz <= reducedRange; dz++) {
+                    var state = worldChunks.get(chunkKey(position.x() + dx, position.z() + dz));
+                    if (state != null && state.count(position, delta)) {
+                        (promoted == null ? promoted = new ArrayList<>() : promoted).add(state);
+                    }
+                }
+            }
+        }
+        if (promoted != null) { // machines may register others, which modifies the chunk map.
+            promoted.forEach(ChunkState::catchUp);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        var from = event.getFrom();
+        var to = event.getTo();
+        if (to == null) {
+            return;
+        }
+        if (from.getWorld() == to.getWorld()
+                && from.getBlockX() >> 4 == to.getBlockX() >> 4
+                && from.getBlockZ() >> 4 == to.getBlockZ() >> 4) {
+            return;
+        }
+        moveTo(event.getPlayer().getUniqueId(), to);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent event) { // it has its own handler list, commands, portals and ender pearls.
+        onPlayerMove(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        moveTo(event.getPlayer().getUniqueId(), event.getPlayer().getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        moveTo(event.getPlayer().getUniqueId(), event.getPlayer().getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerRespawn(PlayerRespawnEvent event) {
+        moveTo(event.getPlayer().getUniqueId(), event.getRespawnLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        var previous = players.remove(event.getPlayer().getUniqueId());
+        if (previous != null) {
+            count(previous, -1);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        var worldChunks = chunks.get(event.getWorld());
+        if (worldChunks != null) {
+            var state = worldChunks.remove(chunkKey(event.getChunk().getX(), event.getChunk().getZ()));
+            if (state != null) {
+                state.removed = true;
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        var worldChunks = chunks.remove(event.getWorld());
+        if (worldChunks != null) {
+            worldChunks.values().forEach(state -> state.removed = true);
+        }
+    }
+
+    private record PlayerPosition(World world, int x, int z) {
+    }
+
+    private final class ChunkState {
+        private final World world;
+        private final int x;
+        private final int z;
+        private int playersInFullRange;
+        private int playersInReducedRange;
+        private boolean removed;
+        private final List<Gate> lagging = new ArrayList<>(); // CatchUp machines which have missed ticks.
+
+        private ChunkState(World world, int x, int z) {
+            this.world = world;
+            this.x = x;
+            this.z = z;
+        }
+
+        /**
+         * @return true if it's promoted and some machines need to catch up.
+         */
+        private boolean count(PlayerPosition position, int delta) {
+            var before = level();
+            var distance = Math.max(Math.abs(position.x() - x), Math.abs(position.z() - z));
+            if (distance <= fullRange) {
+                playersInFullRange += delta;
+            }
+            if (distance <= reducedRange) {
+                playersInReducedRange += delta;
+            }
+            return !lagging.isEmpty() && level().ordinal() < before.ordinal();
+        }
+
+        private void catchUp() {
+            var gates = List.copyOf(lagging);
+            lagging.clear();
+            for (Gate gate : gates) {
+                gate.catchUp();
+            }
+        }
+
+        private ActivationLevel level() {
+            if (playersInFullRange > 0) {
+                return ActivationLevel.FULL;
+            }
+            return playersInReducedRange > 0 ? ActivationLevel.REDUCED : ActivationLevel.INACTIVE;
+        }
+    }
+
+    /**
+     * Tick requirement of a machine. It remembers the chunk state, so that it only looks up again if the machine is moved.
+     * {@link CatchUp} machines count the ticks they skipped, and are told when their chunk is promoted, outside the tick loop.
+     */
+    private final class Gate implements Predicate<IMachine> {
+        private final CatchUp catchUp;
+        private final TickReceipt<IMachine> receipt;
+        private ChunkState state;
+        private int skipped;
+        private long missed;
+
+        private Gate(@Nullable CatchUp catchUp, TickReceipt<IMachine> receipt) {
+            this.catchUp = catchUp;
+            this.receipt = receipt;
+        }
+
+        @Override
+        public boolean test(IMachine machine) {
+            var location = machine.getLocation();
+            var chunkX = location.getBlockX() >> 4;
+            var chunkZ = location.getBlockZ() >> 4;
+            var state = this.state;
+            if (state == null || state.removed || state.x != chunkX || state.z != chunkZ || state.world != location.getWorld()) {
+                if (state != null && missed != 0) {
+                    state.lagging.remove(this); // moved, catches up with its new chunk.
+                }
+                state = this.state = stateOf(location.getWorld(), chunkX, chunkZ);
+                if (missed != 0) {
+                    state.lagging.add(this);
+                }
+            }
+            var interval = switch (state.level()) {
+                case FULL -> 1;
+                case REDUCED -> reducedInterval;
+                case INACTIVE -> inactiveInterval;
+            };
+            if (interval != 1 && (interval == 0 || ++skipped < interval)) {
+                if (catchUp != null && missed++ == 0) {
+                    state.lagging.add(this);
+                }
+                return false;
+            }
+            skipped = 0;
+            return true;
+        }
+
+        private void catchUp() {
+            var ticks = missed;
+            missed = 0;
+            if (receipt.isDropped()) {
+                return; // deactivated machines catch up when they're activated again.
+            }
+            try {
+                catchUp.onCatchUp(ticks);
+            } catch (Throwable t) {
+                new IllegalStateException("Failed to catch up machine " + catchUp.getClass() + " (" + ticks + " ticks)", t).printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+
+package io.ib67.astralflow.internal.serialization;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TypeRegistryTest {
+    @Test
+    public void testStableIds() throws ClassNotFoundException {
+        var registry = new TypeRegistry();
+        var id = registry.getId(String.class);
+        assertEquals(id, registry.getId(String.class));
+        assertEquals(id, registry.getId("java.lang.String"));
+        assertNotEquals(id, registry.getId(Integer.class));
+        assertSame(String.class, registry.getType(id));
+        assertSame(String.class, registry.resolve("java.lang.String"));
+        assertNull(registry.getType(-1));
+        assertNull(registry.getType(100));
+        assertThrows(ClassNotFoundException.class, () -> registry.resolve("no.such.Type"));
+        assertNull(registry.resolveOrNull("no.such.Type"));
+    }
+
+    @Test
+    public void testIntern() throws ClassNotFoundException {
+        var registry = new TypeRegistry();
+        var name = new String("java.lang.Long"); // not the constant
+        assertSame(name, registry.intern(name), "Unknown names are returned as is");
+        var id = registry.getId(name);
+        var interned = registry.intern(new String("java.lang.Long"));
+        assertSame(name, interned, "Known names share one instance");
+        assertSame(Long.class, registry.getType(registry.getId(interned)));
+        assertEquals(id, registry.getId(interned));
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        var registry = new TypeRegistry();
+        var registered = registerInNewLoader(registry);
+        var ref = registered.type();
+        var id = registered.id();
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get(), "The registry doesn't pin unloaded classes");
+        assertNull(registry.getType(id));
+
+        var reloaded = new ReloadingLoader().loadClass(Reloadable.class.getName());
+        assertEquals(id, registry.getId(reloaded), "A reloaded class keeps its id");
+        assertSame(reloaded, registry.getType(id));
+        assertSame(reloaded, registry.resolve(Reloadable.class.getName()));
+
+        registry.clear();
+        assertNull(registry.getType(id));
+        assertSame(Reloadable.class, registry.resolve(Reloadable.class.getName()), "Resolved by its name again after clearing");
+        assertEquals(0, registry.getId(Reloadable.class), "Ids are reassigned");
+    }
+
+    private static Registered registerInNewLoader(TypeRegistry registry) throws ClassNotFoundException {
+        var type = new ReloadingLoader().loadClass(Reloadable.class.getName());
+        assertNotSame(Reloadable.class, type);
+        return new Registered(registry.getId(type), new WeakReference<>(type));
+    }
+
+    private record Registered(int id, WeakReference<Class<?>> type) {
+    }
+
+    public static final class Reloadable {
+    }
+
+    /**
+     * Loads its own copy of {@link Reloadable}, like a reloaded plugin.
+     */
+    private static final class ReloadingLoader extends ClassLoader {
+        private ReloadingLoader() {
+            super(TypeRegistryTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(Reloadable.class.getName())) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                var loaded = findLoadedClass(name);
+                if (loaded != null) {
+                    return loaded;
+                }
+                try (var in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                    if (in == null) {
+                        throw new ClassNotFoundException(name);
+                    }
+                    var bytes = in.readAllBytes();
+                    return defineClass(name, bytes, 0, bytes.length);
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+        }
+    }
+}
@@ -22,18 +22,29 @@
 package io.ib67.astralflow.machine;
 
 import io.ib67.astralflow.AstralFlow;
+import io.ib67.astralflow.api.events.MachinesExplodeEvent;
 import io.ib67.astralflow.machines.MachineProperty;
 import io.ib67.astralflow.machines.exception.MachineNotPushableException;
+import io.ib67.astralflow.machines.exception.StaleMachineHandleException;
 import io.ib67.astralflow.manager.IMachineManager;
 import io.ib67.astralflow.storage.DummyStatefulMachine;
 import io.ib67.astralflow.test.TestUtil;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class MachineManagerTest {
     IMachineManager manager;
@@ -62,4 +73,129 @@ public class MachineManagerTest {
         Assertions.assertFalse(manager.isMachine(newLoc.getBlock()));
         Assertions.assertFalse(manager.isRegistered(machine));
     }
+
+    @Test
+    public void testQueries() {
+        var world = Bukkit.getWorld("world");
+        var near = new DummyStatefulMachine(MachineProperty.builder().manager(manager).location(new Location(world, 100, 64, 100)).build());
+        var far = new DummyStatefulMachine(MachineProperty.builder().manager(manager).location(new Location(world, 180, 64, 100)).build());
+        manager.setupMachine(near, true);
+        manager.setupMachine(far, true);
+
+        Assertions.assertEquals(1, manager.countMachinesInChunk(world.getChunkAt(100 >> 4, 100 >> 4)));
+        Assertions.assertTrue(manager.machinesInChunk(world.getChunkAt(100 >> 4, 100 >> 4)).anyMatch(m -> m == near));
+        Assertions.assertEquals(1, manager.machinesInRadius(new Location(world, 110, 64, 100), 20).count());
+        Assertions.assertEquals(2, manager.machinesInRadius(new Location(world, 140, 64, 100), 40).count());
+        Assertions.assertTrue(manager.machinesOfType(DummyStatefulMachine.class).anyMatch(m -> m == far));
+
+        manager.terminateAndRemoveMachine(near);
+        manager.terminateAndRemoveMachine(far);
+        Assertions.assertEquals(0, manager.countMachinesInChunk(world.getChunkAt(100 >> 4, 100 >> 4)));
+        Assertions.assertTrue(manager.machinesOfType(DummyStatefulMachine.class).noneMatch(m -> m == far));
+    }
+
+    @Test
+    public void testRemoveWhileQuerying() {
+        var world = Bukkit.getWorld("world");
+        for (int i = 0; i < 3; i++) {
+            manager.setupMachine(new DummyStatefulMachine(MachineProperty.builder().manager(manager).location(new Location(world, 300 + i, 64, 300)).build()), true);
+        }
+        var chunk = world.getChunkAt(300 >> 4, 300 >> 4);
+        Assertions.assertDoesNotThrow(() -> manager.machinesInChunk(chunk).forEach(manager::terminateAndRemoveMachine));
+        Assertions.assertEquals(0, manager.countMachinesInChunk(chunk));
+    }
+
+    @Test
+    public void testRegisterWhileQuerying() {
+        var world = Bukkit.getWorld("world");
+        for (int i = 0; i < 3; i++) {
+            manager.setupMachine(new DummyStatefulMachine(MachineProperty.builder().manager(manager).location(new Location(world, 350 + i, 64, 350)).build()), true);
+        }
+        var chunk = world.getChunkAt(350 >> 4, 350 >> 4);
+        Assertions.assertDoesNotThrow(() -> manager.machinesInChunk(chunk).forEach(machine -> manager.setupMachine(
+                new DummyStatefulMachine(MachineProperty.builder().manager(manager).location(machine.getLocation().clone().add(0, 1, 0)).build()), true)
+        ));
+        Assertions.assertEquals(6, manager.countMachinesInChunk(chunk));
+        Assertions.assertEquals(6, manager.machinesInRadius(new Location(world, 351, 64, 350), 4).count());
+        Assertions.assertEquals(0, manager.machinesInRadius(new Location(world, 351, 64, 350), 10_000).filter(m -> m.getLocation().getBlockY() > 65).count());
+        manager.machinesInChunk(chunk).forEach(manager::terminateAndRemoveMachine);
+        Assertions.assertEquals(0, manager.countMachinesInChunk(chunk));
+    }
+
+    @Test
+    public void testUnregisterOnUnload() {
+        var world = Bukkit.getWorld("world");
+        var chunk = world.getChunkAt(400 >> 4, 400 >> 4);
+        Bukkit.getPluginManager().callEvent(new ChunkLoadEvent(chunk, false));
+        var machine = new DummyStatefulMachine(MachineProperty.builder().manager(manager).location(new Location(world, 400, 64, 400)).build());
+        manager.setupMachine(machine, true);
+        Assertions.assertTrue(manager.isRegistered(machine));
+
+        Bukkit.getPluginManager().callEvent(new ChunkUnloadEvent(chunk));
+        Assertions.assertFalse(manager.isRegistered(machine), "Machines are released with their chunks");
+        Assertions.assertNull(manager.getHandle(machine));
+        Assertions.assertEquals(0, manager.countMachinesInChunk(chunk));
+    }
+
+    @Test
+    public void testFindMachines() {
+        var world = Bukkit.getWorld("world");
+        var machine = new DummyStatefulMachine(MachineProperty.builder().manager(manager).location(new Location(world, 500, 64, 500)).build());
+        manager.setupMachine(machine, true);
+        var blocks = List.of(
+                world.getBlockAt(500, 64, 500),
+                world.getBlockAt(501, 64, 500), // same chunk, no machine
+                world.getBlockAt(800, 64, 800) // chunk without machines
+        );
+        var found = manager.findMachines(blocks);
+        Assertions.assertEquals(1, found.size());
+        for (Block block : blocks) {
+            Assertions.assertSame(manager.findMachine(block), found.get(block), "findMachines and findMachine disagree at " + block);
+        }
+        manager.terminateAndRemoveMachine(machine);
+        Assertions.assertTrue(manager.findMachines(blocks).isEmpty());
+    }
+
+    @Test
+    public void testExplosion() {
+        var world = Bukkit.getWorld("world");
+        var source = world.getBlockAt(600, 64, 598);
+        var destroyed = new DummyStatefulMachine(MachineProperty.builder().manager(manager).location(new Location(world, 600, 64, 600)).build());
+        var kept = new DummyStatefulMachine(MachineProperty.builder().manager(manager).location(new Location(world, 601, 64, 600)).build());
+        manager.setupMachine(destroyed, true);
+        manager.setupMachine(kept, true);
+        var seen = new ArrayList<Block>();
+        Bukkit.getPluginManager().registerEvents(new Listener() {
+            @EventHandler
+            public void onMachinesExplode(MachinesExplodeEvent event) {
+                if (!event.getSource().equals(source)) {
+                    return;
+                }
+                seen.addAll(event.getMachines().keySet());
+                event.getMachines().remove(kept.getLocation().getBlock()); // protect it
+            }
+        }, AstralFlow.getInstance().asPlugin());
+
+        var plain = world.getBlockAt(602, 64, 600);
+        var event = new BlockExplodeEvent(source, new ArrayList<>(List.of(destroyed.getLocation().getBlock(), kept.getLocation().getBlock(), plain)), 1f);
+        Bukkit.getPluginManager().callEvent(event);
+
+        Assertions.assertEquals(2, seen.size(), "All machines are reported in one event");
+        Assertions.assertFalse(manager.isRegistered(destroyed));
+        Assertions.assertTrue(manager.isRegistered(kept), "Protected machines stay");
+        Assertions.assertEquals(List.of(plain), event.blockList(), "Machine blocks are left to the machines");
+        manager.terminateAndRemoveMachine(kept);
+    }
+
+    @Test
+    public void testStaleHandle() {
+        var machine = new DummyStatefulMachine(MachineProperty.builder().manager(manager).location(new Location(Bukkit.getWorld("world"), 200, 64, 200)).build());
+        manager.setupMachine(machine, true);
+        var handle = manager.getHandle(machine);
+        Assertions.assertNotNull(handle);
+        Assertions.assertSame(machine, manager.resolve(handle));
+        manager.terminateAndRemoveMachine(machine);
+        Assertions.assertNull(manager.getHandle(machine));
+        Assertions.assertThrows(StaleMachineHandleException.class, () -> manager.resolve(handle));
+    }
 }
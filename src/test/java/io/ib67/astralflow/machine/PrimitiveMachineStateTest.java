@@ -0,0 +1,117 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+
+package io.ib67.astralflow.machine;
+
+import io.ib67.astralflow.AstralFlow;
+import io.ib67.astralflow.internal.serialization.MachineStorageHelper;
+import io.ib67.astralflow.internal.serialization.codec.StateCodecCompiler;
+import io.ib67.astralflow.machines.IState;
+import io.ib67.astralflow.machines.PrimitiveMachineState;
+import io.ib67.astralflow.machines.StateLayout;
+import io.ib67.astralflow.test.TestUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public final class PrimitiveMachineStateTest {
+    @BeforeAll
+    public void setup() {
+        TestUtil.init();
+    }
+
+    @Test
+    public void testSlots() {
+        var state = new GeneratorState();
+        state.set(GeneratorState.ENERGY, 100);
+        assertEquals(150, state.add(GeneratorState.ENERGY, 50));
+        state.add(GeneratorState.TICKS, 3L);
+        state.set(GeneratorState.PROGRESS, 0.25);
+        assertEquals(150, state.get(GeneratorState.ENERGY));
+        assertEquals(3L, state.get(GeneratorState.TICKS));
+        assertEquals(0.25, state.get(GeneratorState.PROGRESS));
+
+        assertThrows(IllegalStateException.class, () -> GeneratorState.LAYOUT.intKey("late"), "Layout is frozen");
+        var layout = new StateLayout();
+        layout.intKey("a");
+        assertThrows(IllegalArgumentException.class, () -> layout.doubleKey("a"), "Names are unique");
+        assertThrows(IllegalStateException.class, BadState::new, "Other fields aren't saved");
+    }
+
+    @Test
+    public void testCodec() {
+        var codec = StateCodecCompiler.compile(GeneratorState.class);
+        assertNotNull(codec);
+        var state = new GeneratorState();
+        state.set(GeneratorState.ENERGY, 7);
+        state.set(GeneratorState.TICKS, Long.MAX_VALUE);
+        state.set(GeneratorState.PROGRESS, 0.5);
+
+        var buf = Unpooled.buffer();
+        codec.encode(state, buf);
+        assertEquals(3 + 4 + 8 + 8, buf.readableBytes(), "No names are written");
+        var decoded = codec.decode(buf);
+        assertEquals(7, decoded.get(GeneratorState.ENERGY));
+        assertEquals(Long.MAX_VALUE, decoded.get(GeneratorState.TICKS));
+        assertEquals(0.5, decoded.get(GeneratorState.PROGRESS));
+    }
+
+    @Test
+    public void testJson() {
+        var flow = AstralFlow.getInstance();
+        var helper = new MachineStorageHelper(flow.getFactories(), flow.getMachineManager());
+        var state = new GeneratorState();
+        state.set(GeneratorState.ENERGY, 9);
+        state.set(GeneratorState.PROGRESS, 0.75);
+        var json = helper.toJson(state);
+        assertTrue(json.contains("\"energy\":9"), json);
+
+        var decoded = (GeneratorState) helper.fromJson(json, IState.class);
+        assertEquals(9, decoded.get(GeneratorState.ENERGY));
+        assertEquals(0, decoded.get(GeneratorState.TICKS));
+        assertEquals(0.75, decoded.get(GeneratorState.PROGRESS));
+    }
+
+    public static final class GeneratorState extends PrimitiveMachineState {
+        public static final StateLayout LAYOUT = new StateLayout();
+        public static final StateLayout.IntKey ENERGY = LAYOUT.intKey("energy");
+        public static final StateLayout.LongKey TICKS = LAYOUT.longKey("ticks");
+        public static final StateLayout.DoubleKey PROGRESS = LAYOUT.doubleKey("progress");
+
+        public GeneratorState() {
+            super(LAYOUT);
+        }
+    }
+
+    public static final class BadState extends PrimitiveMachineState {
+        private static final StateLayout LAYOUT = new StateLayout();
+        private String owner;
+
+        public BadState() {
+            super(LAYOUT);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+
+package io.ib67.astralflow.machine;
+
+import io.ib67.astralflow.machines.AbstractMachine;
+import io.ib67.astralflow.machines.IMachine;
+import io.ib67.astralflow.machines.MachineContext;
+import io.ib67.astralflow.machines.MachineProperty;
+import io.ib67.astralflow.machines.factories.internal.SimpleMachineFactory;
+import org.bukkit.Location;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SimpleMachineFactoryTest {
+    @Test
+    public void testCreateMachine() {
+        var factory = new SimpleMachineFactory<>(ContextMachine.class);
+        var context = new MachineContext<>(MachineContext.Reason.MACHINE, null, null, "parameter");
+        var uuid = UUID.randomUUID();
+        var location = new Location(null, 1, 2, 3);
+        var property = MachineProperty.builder().uuid(uuid).location(location).context(context).build();
+
+        var machine = factory.createMachine(property);
+        assertSame(ContextMachine.class, machine.getClass());
+        assertSame(property, machine.getProperty(), "The property is passed to the constructor");
+        assertSame(context, machine.getProperty().getContext());
+        assertEquals(uuid, machine.getId());
+        assertEquals(location, machine.getLocation());
+        assertNotSame(machine, factory.createMachine(property), "A new machine for each call");
+    }
+
+    @Test
+    public void testMissingConstructor() {
+        assertThrows(IllegalArgumentException.class, () -> new SimpleMachineFactory<>(NoPropertyMachine.class));
+    }
+
+    public static final class ContextMachine extends AbstractMachine {
+        private ContextMachine(MachineProperty property) { // not public, the factory still finds it.
+            super(property);
+        }
+
+        @Override
+        public void update(IMachine self) {
+
+        }
+    }
+
+    public static final class NoPropertyMachine extends AbstractMachine {
+        public NoPropertyMachine() {
+            super(MachineProperty.builder().build());
+        }
+
+        @Override
+        public void update(IMachine self) {
+
+        }
+    }
+}
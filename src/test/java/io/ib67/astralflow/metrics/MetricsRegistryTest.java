@@ -0,0 +1,54 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.metrics;
+
+import io.ib67.astralflow.metrics.impl.SimpleMetricsRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MetricsRegistryTest {
+    @Test
+    public void testHistogramPercentile() {
+        var histogram = new Histogram("test_histogram", "test");
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        Assertions.assertEquals(100, histogram.getCount());
+        Assertions.assertEquals(5050, histogram.getSum());
+        Assertions.assertEquals(63, histogram.getPercentile(50)); // 50 is in [32, 63]
+        Assertions.assertEquals(127, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void testPrometheusExport() {
+        var registry = new SimpleMetricsRegistry();
+        registry.counter("test_counter_total", "a counter").add(3);
+        registry.histogram("test_histogram", "a histogram").record(2);
+        Assertions.assertSame(registry.counter("test_counter_total", "a counter"), registry.counter("test_counter_total", "a counter"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> registry.histogram("test_counter_total", "conflict"));
+
+        var text = registry.exportPrometheus();
+        Assertions.assertTrue(text.contains("# TYPE test_counter_total counter\ntest_counter_total 3\n"));
+        Assertions.assertTrue(text.contains("test_histogram_bucket{le=\"3\"} 1\n"));
+        Assertions.assertTrue(text.contains("test_histogram_count 1\n"));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.scheduler;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import io.ib67.astralflow.machines.IMachine;
+import io.ib67.astralflow.machines.MachineProperty;
+import io.ib67.astralflow.machines.trait.CatchUp;
+import io.ib67.astralflow.scheduler.internal.ChunkActivationRange;
+import io.ib67.astralflow.storage.DummyStatefulMachine;
+import io.ib67.astralflow.test.TestUtil;
+import org.bukkit.Location;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.util.UUID;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class ActivationRangeTest {
+    @BeforeAll
+    public void setup() {
+        TestUtil.init();
+    }
+
+    @Test
+    public void testPromotionAndDemotion() {
+        var world = MockBukkit.getMock().addSimpleWorld("testActivation");
+        var player = MockBukkit.getMock().addPlayer();
+        var origin = new Location(world, 8, 64, 8);
+        player.setLocation(origin);
+        var range = new ChunkActivationRange(2, 4, 4, 0);
+
+        Assertions.assertEquals(ActivationLevel.FULL, range.getLevel(world, 1, 1));
+        Assertions.assertEquals(ActivationLevel.REDUCED, range.getLevel(world, 3, 0));
+        Assertions.assertEquals(ActivationLevel.INACTIVE, range.getLevel(world, 10, 0));
+
+        var far = new Location(world, 10 * 16 + 8, 64, 8);
+        range.onPlayerMove(new PlayerMoveEvent(player, origin, far));
+        Assertions.assertEquals(ActivationLevel.FULL, range.getLevel(world, 10, 0));
+        Assertions.assertEquals(ActivationLevel.INACTIVE, range.getLevel(world, 1, 1));
+    }
+
+    @Test
+    public void testTeleport() throws Throwable {
+        var world = MockBukkit.getMock().addSimpleWorld("testTeleport");
+        var nether = MockBukkit.getMock().addSimpleWorld("testTeleportNether");
+        var player = MockBukkit.getMock().addPlayer();
+        var origin = new Location(world, 8, 64, 8);
+        player.setLocation(origin);
+        var range = new ChunkActivationRange(2, 4, 4, 0);
+
+        var machineLoc = new Location(world, 50 * 16 + 3, 64, 3);
+        IMachine machine = new DummyStatefulMachine(MachineProperty.builder().uuid(UUID.randomUUID()).location(machineLoc).build());
+        var receipt = new TickReceipt<IMachine>();
+        range.apply(receipt, machine);
+        Assertions.assertFalse(receipt.tick(machine), "Suspended when nobody is around");
+
+        range.onPlayerTeleport(new PlayerTeleportEvent(player, origin, machineLoc));
+        Assertions.assertTrue(receipt.tick(machine), "Active after the player teleports to it");
+        Assertions.assertEquals(ActivationLevel.INACTIVE, range.getLevel(world, 0, 0), "Not active where the player was");
+
+        var netherLoc = new Location(nether, 8, 64, 8);
+        player.setLocation(netherLoc);
+        range.onPlayerChangedWorld(new PlayerChangedWorldEvent(player, world));
+        Assertions.assertFalse(receipt.tick(machine), "Suspended after the player leaves the world");
+        Assertions.assertEquals(ActivationLevel.FULL, range.getLevel(nether, 0, 0));
+    }
+
+    @Test
+    public void testCatchUpOnPromotion() throws Throwable {
+        var world = MockBukkit.getMock().addSimpleWorld("testCatchUp");
+        var player = MockBukkit.getMock().addPlayer();
+        var origin = new Location(world, 8, 64, 8);
+        player.setLocation(origin);
+        var range = new ChunkActivationRange(2, 4, 4, 0);
+
+        var machineLoc = new Location(world, 30 * 16 + 3, 64, 3);
+        var machine = new CatchingUpMachine(MachineProperty.builder().uuid(UUID.randomUUID()).location(machineLoc).build());
+        var receipt = new TickReceipt<IMachine>();
+        range.apply(receipt, machine);
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertFalse(receipt.tick(machine));
+        }
+        Assertions.assertEquals(0, machine.caughtUp, "Not called while being suspended");
+
+        range.onPlayerTeleport(new PlayerTeleportEvent(player, origin, machineLoc));
+        Assertions.assertEquals(5, machine.caughtUp, "Called once its chunk is promoted");
+        Assertions.assertTrue(receipt.tick(machine));
+        Assertions.assertEquals(5, machine.caughtUp, "Not called again while ticking");
+    }
+
+    private static final class CatchingUpMachine extends DummyStatefulMachine implements CatchUp {
+        private long caughtUp;
+
+        private CatchingUpMachine(MachineProperty property) {
+            super(property);
+        }
+
+        @Override
+        public void onCatchUp(long missedTicks) {
+            caughtUp += missedTicks;
+        }
+    }
+}
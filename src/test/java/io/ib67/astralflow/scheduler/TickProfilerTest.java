@@ -0,0 +1,113 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+
+package io.ib67.astralflow.scheduler;
+
+import io.ib67.astralflow.machines.internal.scheduler.TickProfiler;
+import io.ib67.astralflow.test.TestUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TickProfilerTest {
+    @BeforeAll
+    public void setup() {
+        TestUtil.init();
+    }
+
+    @Test
+    public void testSampling() {
+        var profiler = new TickProfiler(8, 4, 100);
+        int sampled = 0;
+        for (int i = 0; i < 20; i++) {
+            if (profiler.beginTick()) {
+                sampled++;
+                profiler.record("tickable", 10);
+            }
+        }
+        Assertions.assertEquals(5, sampled, "One of every 4 ticks is timed");
+        var report = profiler.report(10);
+        Assertions.assertEquals(5, report.sampledTicks());
+        Assertions.assertEquals(5, report.types().get(0).samples());
+        Assertions.assertEquals(10.0, report.types().get(0).nanosPerTick(report.sampledTicks()));
+    }
+
+    @Test
+    public void testAggregation() {
+        var profiler = new TickProfiler(4, 1, 1000);
+        Assertions.assertTrue(profiler.beginTick());
+        profiler.record("a", 100);
+        profiler.record("b", 100);
+        profiler.record(1, 300);
+        profiler.record(1L, 80);
+        profiler.record(1.0D, 30); // the 4th type doesn't fit in and goes to the last slot
+        profiler.record((short) 1, 30);
+
+        var report = profiler.report(10);
+        Assertions.assertEquals(1, report.sampledTicks());
+        var types = report.types();
+        Assertions.assertEquals(4, types.size());
+        Assertions.assertEquals(Integer.class.getName(), types.get(0).name(), "Sorted by cost");
+        Assertions.assertEquals(String.class.getName(), types.get(1).name());
+        Assertions.assertEquals(2, types.get(1).samples());
+        Assertions.assertEquals(200, types.get(1).totalNanos());
+        Assertions.assertEquals(127, types.get(1).p99Nanos(), "Upper bound of the power-of-two bucket");
+        Assertions.assertEquals(Long.class.getName(), types.get(2).name());
+        Assertions.assertEquals("<others>", types.get(3).name());
+        Assertions.assertEquals(60, types.get(3).totalNanos());
+
+        Assertions.assertEquals(1, report.namespaces().size(), "JDK classes aren't provided by any extension");
+        var namespace = report.namespaces().get(0);
+        Assertions.assertEquals(6, namespace.samples());
+        Assertions.assertEquals(640, namespace.totalNanos());
+        Assertions.assertEquals(-1, namespace.p99Nanos());
+
+        var top = profiler.report(2);
+        Assertions.assertEquals(2, top.types().size());
+        Assertions.assertEquals(Integer.class.getName(), top.types().get(0).name());
+    }
+
+    @Test
+    public void testWindowRollOver() {
+        var profiler = new TickProfiler(4, 1, 10);
+        for (int i = 1; i < 10; i++) { // ticks 1-9, the first window
+            Assertions.assertTrue(profiler.beginTick());
+            profiler.record("old", 100);
+        }
+        for (int i = 10; i < 20; i++) { // ticks 10-19, the second window
+            profiler.beginTick();
+            profiler.record(1, 100);
+        }
+        var report = profiler.report(10);
+        Assertions.assertEquals(19, report.sampledTicks(), "Both windows are reported");
+        Assertions.assertEquals(2, report.types().size());
+
+        profiler.beginTick(); // tick 20 drops the first window
+        report = profiler.report(10);
+        Assertions.assertEquals(11, report.sampledTicks());
+        Assertions.assertEquals(1, report.types().size());
+        Assertions.assertEquals(Integer.class.getName(), report.types().get(0).name());
+        Assertions.assertEquals(10, report.types().get(0).samples());
+    }
+}
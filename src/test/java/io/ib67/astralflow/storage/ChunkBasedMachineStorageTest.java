@@ -24,17 +24,16 @@ package io.ib67.astralflow.storage;
 import io.ib67.astralflow.AstralFlow;
 import io.ib67.astralflow.internal.storage.SimpleChunkTracker;
 import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
-import io.ib67.astralflow.internal.storage.impl.chunk.ChunkBasedMachineStorage;
-import io.ib67.astralflow.internal.storage.impl.chunk.ChunkMachineIndex;
-import io.ib67.astralflow.internal.storage.impl.chunk.MachineCache;
-import io.ib67.astralflow.internal.storage.impl.chunk.MachineData;
+import io.ib67.astralflow.internal.storage.impl.chunk.*;
 import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineDataTag;
 import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineIndexTag;
 import io.ib67.astralflow.machines.MachineProperty;
 import io.ib67.astralflow.manager.impl.MachineManagerImpl;
 import io.ib67.astralflow.test.TestUtil;
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
+import org.bukkit.util.Vector;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
@@ -42,9 +41,13 @@ import org.junit.jupiter.api.TestInstance;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.inlambda.kiwi.Kiwi.pairOf;
 import static org.junit.jupiter.api.Assertions.*;
@@ -70,6 +73,7 @@ public final class ChunkBasedMachineStorageTest {
         testMDT(sec, "second quad");
         testMDT(third, "third quad");
         testMDT(fourth, " fourth quad");
+        testMDT(new Location(worldMock, -22, -60, -41), "negative y");
     }
 
     private void testMDT(Location loc, String reason) {
@@ -90,6 +94,33 @@ public final class ChunkBasedMachineStorageTest {
         assertArrayEquals(machineData.getMachineData().get(loc).right, desMd.getMachineData().get(loc).right, "Test MachineData Serialization # " + reason);
     }
 
+    @Test
+    public void testCompressedMachineDataTag() {
+        var tag = MachineDataTag.INSTANCE;
+        var world = Bukkit.getWorld("world");
+        var machineData = new MachineData(1, 2);
+        var big = ("{\"type\":\"io.ib67.astralflow.Dummy\",\"state\":\"" + "a".repeat(4096) + "\"}").getBytes(StandardCharsets.UTF_8);
+        machineData.save(new Location(world, 16, -3, 32), MachineStorageType.JSON, big);
+        machineData.save(new Location(world, 17, 70, 33), MachineStorageType.JSON, "{}".getBytes(StandardCharsets.UTF_8));
+        var threshold = tag.getCompressionThreshold();
+        try {
+            tag.setCompressionThreshold(-1);
+            var raw = tag.toPrimitive(machineData, List.of("io.ib67.astralflow.Dummy"));
+            tag.setCompressionThreshold(1024);
+            var compressed = tag.toPrimitive(machineData, List.of("io.ib67.astralflow.Dummy"));
+            assertTrue(compressed.length < raw.length, "Compressed data should be smaller");
+            // both of them are readable regardless of the current setting.
+            for (byte[] bytes : List.of(raw, compressed)) {
+                var read = tag.fromPrimitive(bytes, null);
+                assertNotNull(read);
+                assertArrayEquals(big, read.getData(new Location(world, 16, -3, 32)).right);
+                assertArrayEquals("{}".getBytes(StandardCharsets.UTF_8), read.getData(new Location(world, 17, 70, 33)).right);
+            }
+        } finally {
+            tag.setCompressionThreshold(threshold);
+        }
+    }
+
     @Test
     public void testMachineIndexTag() {
         var worldMock = Bukkit.getWorld("world");
@@ -101,6 +132,7 @@ public final class ChunkBasedMachineStorageTest {
         testMIT(sec, "second quad");
         testMIT(third, "third quad");
         testMIT(fourth, " fourth quad");
+        testMIT(new Location(worldMock, -22, -60, -41), "negative y");
         //todo test empty machine index.
     }
 
@@ -122,7 +154,7 @@ public final class ChunkBasedMachineStorageTest {
         var file = AstralFlow.getInstance().asPlugin().getDataFolder().toPath().resolve("test.index");
         Files.createFile(file);
         storage = new ChunkBasedMachineStorage(new MachineCache(file), AstralFlow.getInstance().getFactories(), MachineStorageType.JSON, 256, false);
-        var machineManager = new MachineManagerImpl(storage, null, 16, true, new SimpleChunkTracker(256, true), AstralFlow.getInstance().getSecurityService().getLeakTracker());
+        var machineManager = new MachineManagerImpl(storage, AstralFlow.getInstance().getFactories(), null, 16, true, new SimpleChunkTracker(256), AstralFlow.getInstance().getSecurityService().getLeakTracker());
         var random = ThreadLocalRandom.current();
         var randomLoc = new Location(Bukkit.getWorld("world"), random.nextInt(0, 3000), 1, random.nextInt(0, 3000)); //first quadrant
         saveAndTest(randomLoc, "first quad");
@@ -144,6 +176,155 @@ public final class ChunkBasedMachineStorageTest {
         saveAndTest(randomLoc, "y-axis negative");
     }
 
+    @Test
+    public void testFinalizeChunks() throws IOException {
+        AstralFlow.getInstance().getFactories().register(DummyStatefulMachine.class, DummyStatefulMachine::new);
+        var file = AstralFlow.getInstance().asPlugin().getDataFolder().toPath().resolve("test-finalize.index");
+        Files.deleteIfExists(file);
+        Files.createFile(file);
+        var pdc = new PdcChunkDataBackend(ChunkBasedMachineStorage.MACHINE_INDEX_TAG, ChunkBasedMachineStorage.MACHINE_DATA_TAG);
+        var writes = new AtomicInteger();
+        var backend = new ChunkDataBackend() {
+            @Override
+            public RawChunk read(Chunk chunk) {
+                return pdc.read(chunk);
+            }
+
+            @Override
+            public void write(Chunk chunk, ChunkMachineIndex index, MachineData data) {
+                writes.incrementAndGet();
+                pdc.write(chunk, index, data);
+            }
+
+            @Override
+            public CompletableFuture<Void> flush() {
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+        var chunkStorage = new ChunkBasedMachineStorage(new MachineCache(file), AstralFlow.getInstance().getFactories(), MachineStorageType.JSON, 256, false, 0, true, backend) {
+        };
+        new MachineManagerImpl(chunkStorage, AstralFlow.getInstance().getFactories(), null, 16, true, new SimpleChunkTracker(256), AstralFlow.getInstance().getSecurityService().getLeakTracker());
+        var world = Bukkit.getWorld("world");
+        var chunks = new ArrayList<Chunk>();
+        for (int i = 0; i < 4; i++) {
+            var loc = new Location(world, 5000 + i * 16, 1, 5000);
+            chunkStorage.initChunk(loc.getChunk());
+            chunkStorage.save(loc, new DummyStatefulMachine(MachineProperty.builder().uuid(UUID.randomUUID()).location(loc).build()));
+            chunks.add(loc.getChunk());
+        }
+        chunkStorage.finalizeChunks(chunks);
+        assertEquals(4, writes.get(), "Chunks with new machines are written");
+
+        chunks.forEach(chunkStorage::initChunk);
+        assertNotNull(chunkStorage.get(new Location(world, 5000, 1, 5000)));
+        chunkStorage.finalizeChunks(chunks);
+        assertEquals(4, writes.get(), "Unchanged chunks are skipped");
+
+        var loc = new Location(world, 5000, 1, 5000);
+        chunkStorage.initChunk(loc.getChunk());
+        var machine = (DummyStatefulMachine) chunkStorage.get(loc);
+        chunkStorage.finalizeChunk(loc.getChunk(), false);
+        assertEquals(4, writes.get(), "Loaded machines without changes don't make the chunk dirty");
+        machine.getState().put("nullcat?", "changed");
+        chunkStorage.finalizeChunk(loc.getChunk(), false);
+        assertEquals(5, writes.get(), "Changed states are written");
+        chunkStorage.finalizeChunk(loc.getChunk(), true);
+        assertEquals(5, writes.get(), "Written states are up-to-date");
+    }
+
+    @Test
+    public void testRelocate() throws IOException {
+        AstralFlow.getInstance().getFactories().register(DummyStatefulMachine.class, DummyStatefulMachine::new);
+        var file = AstralFlow.getInstance().asPlugin().getDataFolder().toPath().resolve("test-relocate.index");
+        Files.deleteIfExists(file);
+        Files.createFile(file);
+        var pdc = new PdcChunkDataBackend(ChunkBasedMachineStorage.MACHINE_INDEX_TAG, ChunkBasedMachineStorage.MACHINE_DATA_TAG);
+        var chunkStorage = new ChunkBasedMachineStorage(new MachineCache(file), AstralFlow.getInstance().getFactories(), MachineStorageType.JSON, 256, false, 0, true, pdc);
+        new MachineManagerImpl(chunkStorage, AstralFlow.getInstance().getFactories(), null, 16, true, new SimpleChunkTracker(256), AstralFlow.getInstance().getSecurityService().getLeakTracker());
+        var world = Bukkit.getWorld("world");
+        var from = new Location(world, 6015, 1, 6000);
+        var to = new Location(world, 6016, 1, 6000); // next chunk
+        var swapped = new Location(world, 6017, 1, 6000);
+        chunkStorage.initChunk(from.getChunk());
+        chunkStorage.initChunk(to.getChunk());
+        var machine = new DummyStatefulMachine(MachineProperty.builder().uuid(UUID.randomUUID()).location(from).build());
+        var other = new DummyStatefulMachine(MachineProperty.builder().uuid(UUID.randomUUID()).location(to).build());
+        chunkStorage.save(from, machine);
+        chunkStorage.save(to, other);
+
+        assertThrows(IllegalArgumentException.class, () -> chunkStorage.relocate(Map.of(swapped, from)), "Nothing to move");
+        chunkStorage.relocate(Map.of(from, to, to, swapped)); // into each other's old place
+        machine.push(to, new Vector(1, 0, 0));
+        other.push(swapped, new Vector(1, 0, 0));
+        assertNull(chunkStorage.get(from));
+        assertSame(machine, chunkStorage.get(to));
+        assertSame(other, chunkStorage.get(swapped));
+
+        chunkStorage.finalizeChunk(from.getChunk(), true);
+        chunkStorage.finalizeChunk(to.getChunk(), true);
+        chunkStorage.initChunk(from.getChunk());
+        chunkStorage.initChunk(to.getChunk());
+        assertNull(chunkStorage.get(from), "Moved out");
+        assertEquals(machine.getId(), chunkStorage.get(to).getId(), "Moved in");
+        assertEquals(other.getId(), chunkStorage.get(swapped).getId());
+    }
+
+    @Test
+    public void testStagedLoading() throws IOException {
+        AstralFlow.getInstance().getFactories().register(DummyStatefulMachine.class, DummyStatefulMachine::new);
+        var file = AstralFlow.getInstance().asPlugin().getDataFolder().toPath().resolve("test-staged.index");
+        Files.deleteIfExists(file);
+        Files.createFile(file);
+        var chunkStorage = new ChunkBasedMachineStorage(new MachineCache(file), AstralFlow.getInstance().getFactories(), MachineStorageType.JSON, 256, false, 2, true);
+        new MachineManagerImpl(chunkStorage, AstralFlow.getInstance().getFactories(), null, 16, true, new SimpleChunkTracker(256), AstralFlow.getInstance().getSecurityService().getLeakTracker());
+        var loc = new Location(Bukkit.getWorld("world"), 7500, 3, 7500);
+        var id = UUID.randomUUID();
+        chunkStorage.initChunk(loc.getChunk());
+        chunkStorage.save(loc, new DummyStatefulMachine(MachineProperty.builder().uuid(id).location(loc).build()));
+        chunkStorage.finalizeChunk(loc.getChunk(), true);
+
+        var ready = new ArrayList<UUID>();
+        chunkStorage.initChunk(loc.getChunk(), machines -> machines.forEach(it -> ready.add(it.getId())));
+        var machine = chunkStorage.get(loc); // waits for the chunk
+        assertNotNull(machine);
+        assertEquals(id, machine.getId());
+        assertEquals(List.of(id), ready, "Decoded machines are handed over once");
+        assertSame(machine, chunkStorage.get(loc));
+    }
+
+    @Test
+    public void testFindAgreesWithGet() throws IOException {
+        AstralFlow.getInstance().getFactories().register(DummyStatefulMachine.class, DummyStatefulMachine::new);
+        var file = AstralFlow.getInstance().asPlugin().getDataFolder().toPath().resolve("test-find.index");
+        Files.deleteIfExists(file);
+        Files.createFile(file);
+        var chunkStorage = new ChunkBasedMachineStorage(new MachineCache(file), AstralFlow.getInstance().getFactories(), MachineStorageType.JSON, 256, false, 2, true);
+        new MachineManagerImpl(chunkStorage, AstralFlow.getInstance().getFactories(), null, 16, true, new SimpleChunkTracker(256), AstralFlow.getInstance().getSecurityService().getLeakTracker());
+        var world = Bukkit.getWorld("world");
+        var staged = new Location(world, 7000, 3, 7000);
+        var loaded = new Location(world, 7100, 3, 7000);
+        var empty = world.getChunkAt(7200 >> 4, 7000 >> 4);
+        chunkStorage.initChunk(staged.getChunk());
+        chunkStorage.initChunk(loaded.getChunk());
+        chunkStorage.save(staged, new DummyStatefulMachine(MachineProperty.builder().uuid(UUID.randomUUID()).location(staged).build()));
+        chunkStorage.save(loaded, new DummyStatefulMachine(MachineProperty.builder().uuid(UUID.randomUUID()).location(loaded).build()));
+        chunkStorage.finalizeChunk(staged.getChunk(), true);
+
+        chunkStorage.initChunk(staged.getChunk(), machines -> {
+        }); // decoded in the background
+        assertTrue(chunkStorage.mayHaveMachines(world, staged.getBlockX() >> 4, staged.getBlockZ() >> 4), "Pending chunks may have machines");
+        assertFalse(chunkStorage.mayHaveMachines(world, empty.getX(), empty.getZ()), "Other chunks are not affected by pending ones");
+        for (Location base : List.of(staged, loaded)) {
+            for (int dx = 0; dx < 3; dx++) {
+                var loc = base.clone().add(dx, 0, 0);
+                var found = chunkStorage.find(world, loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+                var got = chunkStorage.get(loc);
+                assertSame(got, found, "find and get disagree at " + loc);
+                assertEquals(dx == 0, found != null, "Machine at " + loc);
+            }
+        }
+    }
+
     private void saveAndTest(Location location, String phase) {
         storage.initChunk(location.getChunk());
         var machine = new DummyStatefulMachine(MachineProperty
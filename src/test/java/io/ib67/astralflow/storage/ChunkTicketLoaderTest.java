@@ -0,0 +1,69 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+
+package io.ib67.astralflow.storage;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import io.ib67.astralflow.AstralFlow;
+import io.ib67.astralflow.internal.storage.ChunkTicketLoader;
+import io.ib67.astralflow.test.TestUtil;
+import org.bukkit.World;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public final class ChunkTicketLoaderTest {
+    @BeforeAll
+    public void setup() {
+        TestUtil.init();
+    }
+
+    private static World brokenWorld() {
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class[]{World.class}, (proxy, method, args) -> switch (method.getName()) {
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "isChunkLoaded" -> false;
+            case "getChunkAtAsync" -> CompletableFuture.failedFuture(new IllegalStateException("Broken world"));
+            default -> throw new IllegalStateException("Broken world");
+        });
+    }
+
+    @Test
+    public void testFailedLoad() {
+        var loader = new ChunkTicketLoader(AstralFlow.getInstance().asPlugin());
+        var world = brokenWorld();
+        var first = loader.acquire(world, 1, 2);
+        MockBukkit.getMock().getScheduler().performOneTick(); // for servers without the async API
+        assertTrue(first.isCompletedExceptionally(), "Load failed");
+
+        var second = loader.acquire(world, 1, 2);
+        assertNotSame(first, second, "Failed requests are not shared");
+        MockBukkit.getMock().getScheduler().performOneTick();
+        assertTrue(second.isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+
+package io.ib67.astralflow.storage;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
+import io.ib67.astralflow.internal.storage.impl.chunk.ChunkMachineIndex;
+import io.ib67.astralflow.internal.storage.impl.chunk.MachineData;
+import io.ib67.astralflow.internal.storage.impl.kv.KvChunkDataBackend;
+import io.ib67.astralflow.test.TestUtil;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public final class KvDeltaTest {
+    @BeforeAll
+    public void setup() {
+        TestUtil.init();
+    }
+
+    @Test
+    public void testPatchAndCompaction(@TempDir Path dir) throws IOException {
+        var world = Bukkit.getWorld("world");
+        var chunk = world.getChunkAt(12, -4);
+        var loc = new Location(world, 12 * 16 + 1, 70, -4 * 16 + 2);
+        var backend = new KvChunkDataBackend(dir, 1 << 20, 4, 3);
+        backend.read(chunk);
+
+        backend.write(chunk, index(loc), data(loc, 0));
+        backend.flush().join();
+        assertEquals(1, entries(backend), "First save is a whole state");
+        for (int i = 1; i <= 3; i++) {
+            backend.write(chunk, index(loc), data(loc, i));
+        }
+        backend.flush().join();
+        assertEquals(4, entries(backend), "Changes are saved as patches");
+
+        var read = backend.read(chunk).decodedData().getData(loc);
+        assertEquals(state(3), parse(read.right), "Patches are applied in order");
+
+        backend.write(chunk, index(loc), data(loc, 4));
+        backend.flush().join();
+        assertEquals(1, entries(backend), "Rewritten as a whole after too many patches");
+        backend.write(chunk, index(loc), data(loc, 5));
+        backend.close();
+
+        backend = new KvChunkDataBackend(dir, 1 << 20, 4, 3);
+        read = backend.read(chunk).decodedData().getData(loc);
+        assertEquals(MachineStorageType.JSON, read.left);
+        assertEquals(state(5), parse(read.right));
+
+        backend.write(chunk, new ChunkMachineIndex(new HashMap<>(), 12, -4), new MachineData(12, -4));
+        backend.flush().join();
+        assertEquals(0, entries(backend), "Patches are removed with the machine");
+        backend.close();
+    }
+
+    private static int entries(KvChunkDataBackend backend) {
+        var count = 0;
+        for (var it = backend.snapshot(); it.hasNext(); it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    private static JsonObject state(int progress) {
+        var state = new JsonObject();
+        state.addProperty("progress", progress);
+        state.addProperty("owner", "x".repeat(256)); // large enough for patches to be worth it
+        var inner = new JsonObject();
+        inner.addProperty("energy", progress * 10);
+        state.add("inner", inner);
+        return state;
+    }
+
+    private static JsonObject parse(byte[] bytes) {
+        return JsonParser.parseString(new String(bytes, StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    private static ChunkMachineIndex index(Location loc) {
+        return new ChunkMachineIndex(new HashMap<>(Map.of(loc, "dummy")), loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+    }
+
+    private static MachineData data(Location loc, int progress) {
+        var data = new MachineData(loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+        data.save(loc, MachineStorageType.JSON, state(progress).toString().getBytes(StandardCharsets.UTF_8));
+        return data;
+    }
+}
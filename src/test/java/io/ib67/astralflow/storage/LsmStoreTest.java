@@ -0,0 +1,102 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.storage;
+
+import io.ib67.astralflow.internal.storage.impl.kv.LsmStore;
+import io.ib67.astralflow.internal.storage.impl.kv.WriteBatch;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class LsmStoreTest {
+    private static byte[] key(int i) {
+        return ByteBuffer.allocate(4).putInt(i).array();
+    }
+
+    private static List<Integer> keys(Iterator<Map.Entry<byte[], byte[]>> it) {
+        var result = new ArrayList<Integer>();
+        it.forEachRemaining(e -> result.add(ByteBuffer.wrap(e.getKey()).getInt()));
+        return result;
+    }
+
+    @Test
+    public void testFlushAndCompaction(@TempDir Path dir) throws IOException {
+        var store = new LsmStore(dir, 256, 2); // tiny limits to create and merge lots of tables
+        for (int i = 0; i < 100; i++) {
+            store.write(new WriteBatch().put(key(i), new byte[]{(byte) i}));
+        }
+        for (int i = 0; i < 100; i += 2) {
+            store.write(new WriteBatch().delete(key(i)));
+        }
+        var snapshot = store.snapshot();
+        store.write(new WriteBatch().put(key(1000), new byte[0]));
+
+        assertNull(store.get(key(10)));
+        assertArrayEquals(new byte[]{11}, store.get(key(11)));
+        assertEquals(List.of(11, 13, 15), keys(store.scan(key(10), key(16))));
+        assertEquals(50, keys(snapshot).size(), "Snapshot ignores later writes");
+        store.close();
+
+        store = new LsmStore(dir, 256, 2);
+        assertNull(store.get(key(10)));
+        assertArrayEquals(new byte[0], store.get(key(1000)), "Recovered from the log");
+        assertEquals(51, keys(store.scan(null, null)).size());
+        store.close();
+    }
+
+    @Test
+    public void testCrashBeforeDeletingCompactedTables(@TempDir Path dir) throws IOException {
+        var store = new LsmStore(dir, 1 << 20, 2); // flush on checkpoints only
+        store.write(new WriteBatch().put(key(1), new byte[]{1}));
+        store.checkpoint();
+        List<Path> stale;
+        try (var files = Files.list(dir)) {
+            stale = files.filter(it -> it.getFileName().toString().endsWith(".sst")).toList();
+        }
+        assertEquals(1, stale.size());
+        var staleBytes = Files.readAllBytes(stale.get(0));
+
+        store.write(new WriteBatch().delete(key(1)));
+        store.checkpoint();
+        store.write(new WriteBatch().put(key(2), new byte[]{2}));
+        store.checkpoint(); // the third table triggers a compaction, which drops the tombstone.
+        assertFalse(Files.exists(stale.get(0)), "Compacted");
+        store.close();
+
+        Files.write(stale.get(0), staleBytes); // as if the server crashed before the old tables were deleted.
+        store = new LsmStore(dir, 1 << 20, 2);
+        assertNull(store.get(key(1)), "Deleted entries don't come back");
+        assertArrayEquals(new byte[]{2}, store.get(key(2)));
+        assertFalse(Files.exists(stale.get(0)), "Unlisted tables are deleted");
+        store.close();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.storage;
+
+import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
+import io.ib67.astralflow.internal.storage.impl.journal.JournalEntry;
+import io.ib67.astralflow.internal.storage.impl.journal.MachineJournal;
+import io.ib67.astralflow.test.TestUtil;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public final class MachineJournalTest {
+    @BeforeAll
+    public void setup() {
+        TestUtil.init();
+    }
+
+    private static Map<Integer, JournalEntry> recovered(MachineJournal journal, Location loc) {
+        var entries = journal.getRecovered(loc.getWorld().getUID(), loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+        assertNotNull(entries, "Recovered entries of the chunk");
+        return entries.stream().collect(Collectors.toMap(JournalEntry::x, Function.identity()));
+    }
+
+    @Test
+    public void testRecovery(@TempDir Path dir) throws IOException {
+        var world = Bukkit.getWorld("world");
+        var loc = new Location(world, -30, -60, 17);
+        var removed = new Location(world, -29, 70, 18); // same chunk
+        var journal = new MachineJournal(dir, 0);
+        journal.put(loc, "dummy", MachineStorageType.JSON, new byte[]{1});
+        journal.put(loc, "dummy", MachineStorageType.JSON, new byte[]{2});
+        journal.put(removed, "dummy", MachineStorageType.JSON, new byte[]{3});
+        journal.remove(removed);
+        journal.close(false); // crashed
+
+        journal = new MachineJournal(dir, 0);
+        var entries = recovered(journal, loc);
+        assertArrayEquals(new byte[]{2}, entries.get(-30).data(), "Latest state wins");
+        assertEquals(-60, entries.get(-30).y());
+        assertEquals("dummy", entries.get(-30).machineType());
+        assertTrue(entries.get(-29).isRemoval());
+        journal.close(true);
+
+        journal = new MachineJournal(dir, 0);
+        assertEquals(2, recovered(journal, loc).size(), "Unwritten entries are carried over");
+        journal.markWritten(world.getUID(), loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+        journal.close(true);
+        try (var files = Files.list(dir)) {
+            assertEquals(0, files.count(), "Nothing left after a clean shutdown");
+        }
+    }
+
+    @Test
+    public void testSealAndRelease(@TempDir Path dir) throws IOException {
+        var world = Bukkit.getWorld("world");
+        var saved = new Location(world, 1, 64, 1);
+        var unsaved = new Location(world, 100, 64, 100);
+        var journal = new MachineJournal(dir, 0);
+        journal.put(saved, "dummy", MachineStorageType.JSON, new byte[]{1});
+        var sealed = journal.seal();
+        journal.put(unsaved, "dummy", MachineStorageType.JSON, new byte[]{2});
+        journal.release(sealed);
+        journal.close(false);
+
+        journal = new MachineJournal(dir, 0);
+        assertNull(journal.getRecovered(world.getUID(), 0, 0), "Covered by the full save");
+        assertArrayEquals(new byte[]{2}, recovered(journal, unsaved).get(100).data());
+        journal.close(false);
+    }
+
+    @Test
+    public void testReleasedSegmentsAreSkipped(@TempDir Path dir, @TempDir Path staleDir) throws IOException {
+        var world = Bukkit.getWorld("world");
+        var saved = new Location(world, 1, 64, 1);
+        var journal = new MachineJournal(dir, 0);
+        journal.put(saved, "dummy", MachineStorageType.JSON, new byte[]{1});
+        journal.release(journal.seal());
+        journal.close(false);
+
+        // a released segment which survived a crash while being deleted
+        var stale = new MachineJournal(staleDir, 0);
+        stale.put(saved, "dummy", MachineStorageType.JSON, new byte[]{0});
+        stale.close(false);
+        try (var files = Files.list(staleDir)) {
+            var segment = files.filter(it -> it.getFileName().toString().endsWith(".seg")).findFirst().orElseThrow();
+            Files.copy(segment, dir.resolve(segment.getFileName()));
+        }
+
+        journal = new MachineJournal(dir, 0);
+        assertNull(journal.getRecovered(world.getUID(), 0, 0), "Covered by a durable save");
+        journal.close(false);
+    }
+}
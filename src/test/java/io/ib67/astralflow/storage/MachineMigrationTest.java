@@ -0,0 +1,201 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.storage;
+
+import io.ib67.astralflow.AstralFlow;
+import io.ib67.astralflow.internal.storage.impl.MachineStorageBackend;
+import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
+import io.ib67.astralflow.internal.storage.impl.chunk.ChunkMachineIndex;
+import io.ib67.astralflow.internal.storage.impl.chunk.MachineCache;
+import io.ib67.astralflow.internal.storage.impl.chunk.MachineData;
+import io.ib67.astralflow.internal.storage.impl.chunk.PdcChunkDataBackend;
+import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineDataTag;
+import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineIndexTag;
+import io.ib67.astralflow.internal.storage.impl.migration.MachineMigrator;
+import io.ib67.astralflow.internal.storage.impl.migration.MigrationPlan;
+import io.ib67.astralflow.internal.storage.impl.migration.RegionScanner;
+import io.ib67.astralflow.internal.storage.impl.region.RegionChunkDataBackend;
+import io.ib67.astralflow.machines.MachineProperty;
+import io.ib67.astralflow.test.TestUtil;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.NamespacedKey;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static io.ib67.astralflow.internal.storage.impl.migration.RegionScanner.unpackX;
+import static io.ib67.astralflow.internal.storage.impl.migration.RegionScanner.unpackZ;
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public final class MachineMigrationTest {
+    @BeforeAll
+    public void setup() {
+        TestUtil.init();
+    }
+
+    private static void writeRegion(Path dir, int regionX, int regionZ, int... chunks) throws IOException {
+        Files.createDirectories(dir);
+        var header = ByteBuffer.allocate(8192);
+        for (int i : chunks) {
+            header.putInt(i * 4, 2 << 8 | 1); // sector 2, 1 sector long
+        }
+        Files.write(dir.resolve("r." + regionX + "." + regionZ + ".mca"), header.array());
+    }
+
+    @Test
+    public void testScanRegions(@TempDir Path dir) throws IOException {
+        writeRegion(dir, -1, 2, 0, 33);
+        Files.writeString(dir.resolve("r.0.0.mca.tmp"), "");
+        var regions = RegionScanner.listRegions(dir);
+        assertEquals(1, regions.size(), "Only region files");
+        var chunks = regions.get(0).readChunks();
+        assertEquals(2, chunks.length);
+        assertEquals(-32, unpackX(chunks[0]));
+        assertEquals(64, unpackZ(chunks[0]));
+        assertEquals(-31, unpackX(chunks[1]));
+        assertEquals(65, unpackZ(chunks[1]));
+    }
+
+    @Test
+    public void testMigrate(@TempDir Path dir) throws IOException {
+        var world = Bukkit.getWorld("world");
+        var worldRegions = dir.resolve("region");
+        writeRegion(worldRegions, 0, -1, 5 * 32 + 3, 5 * 32 + 4); // chunk (3, -27) and (4, -27)
+        var chunk = world.getChunkAt(3, -27);
+        world.getChunkAt(4, -27); // without machines
+
+        var source = new PdcChunkDataBackend(new NamespacedKey("test", "migration_index"), new NamespacedKey("test", "migration_data"));
+        var loc = new Location(world, 3 * 16 + 1, -10, -27 * 16 + 2);
+        var id = UUID.randomUUID();
+        var data = new MachineData(3, -27);
+        data.save(loc, MachineStorageType.JSON, ("{\"uuid\":\"" + id + "\"}").getBytes(StandardCharsets.UTF_8));
+        source.write(chunk, new ChunkMachineIndex(new HashMap<>(Map.of(loc, "dummy")), 3, -27), data);
+
+        var cacheFile = dir.resolve("machines.index");
+        Files.writeString(cacheFile, "{}");
+        var cache = new MachineCache(cacheFile);
+        cache.update(UUID.randomUUID(), new Location(world, 1000, 64, 1000));
+        var target = new RegionChunkDataBackend(dir.resolve("regions"));
+        var planFile = dir.resolve("migration.json");
+        var plan = new MigrationPlan(MachineStorageBackend.CHUNK, MachineStorageBackend.REGION, MachineStorageType.JSON);
+        new MachineMigrator(source, target, MachineStorageType.JSON, type -> type.apply(null, null), cache, 2, 1)
+                .migrate(plan, planFile, Map.of(world, worldRegions));
+
+        assertEquals(loc, cache.getLocationByUUID(id));
+        assertEquals(1, cache.getAllMachineLocation().size(), "Stale entries are dropped");
+        assertEquals("dummy", MachineIndexTag.INSTANCE.fromPrimitive(target.read(chunk).index(), null).getMachineType(loc));
+        var saved = MigrationPlan.load(planFile);
+        assertNotNull(saved);
+        assertEquals(1, saved.getCompletedRegions().size());
+        assertEquals(1, saved.getChunks());
+        assertEquals(1, saved.getMachines());
+
+        // resume
+        source.write(chunk, new ChunkMachineIndex(new HashMap<>(), 3, -27), new MachineData(3, -27));
+        new MachineMigrator(source, target, MachineStorageType.JSON, type -> type.apply(null, null), cache, 2, 1)
+                .migrate(saved, planFile, Map.of(world, worldRegions));
+        assertTrue(MachineIndexTag.INSTANCE.fromPrimitive(target.read(chunk).index(), null).isHasMachines(), "Completed regions are skipped");
+        assertEquals(loc, cache.getLocationByUUID(id), "The cache is kept when resuming");
+        target.close();
+    }
+
+    @Test
+    public void testFailedChunks(@TempDir Path dir) throws IOException {
+        var world = Bukkit.getWorld("world");
+        var worldRegions = dir.resolve("region");
+        writeRegion(worldRegions, 1, 1, 7); // chunk (39, 32)
+        var chunk = world.getChunkAt(39, 32);
+        var source = new PdcChunkDataBackend(new NamespacedKey("test", "failed_index"), new NamespacedKey("test", "failed_data"));
+        var loc = new Location(world, 39 * 16 + 5, 70, 32 * 16 + 5);
+        var index = new ChunkMachineIndex(new HashMap<>(Map.of(loc, "dummy")), 39, 32);
+        var data = new MachineData(39, 32);
+        data.save(loc, MachineStorageType.JSON, "broken".getBytes(StandardCharsets.UTF_8));
+        source.write(chunk, index, data);
+
+        var cacheFile = dir.resolve("machines.index");
+        Files.writeString(cacheFile, "{}");
+        var cache = new MachineCache(cacheFile);
+        var target = new RegionChunkDataBackend(dir.resolve("regions"));
+        var planFile = dir.resolve("migration.json");
+        var plan = new MigrationPlan(MachineStorageBackend.CHUNK, MachineStorageBackend.REGION, MachineStorageType.JSON);
+        new MachineMigrator(source, target, MachineStorageType.JSON, type -> type.apply(null, null), cache, 1, 4)
+                .migrate(plan, planFile, Map.of(world, worldRegions));
+        assertEquals(1, plan.getFailedChunkCount());
+        assertNull(target.read(chunk).index(), "Nothing is written for failed chunks");
+        var saved = MigrationPlan.load(planFile);
+        assertEquals(1, saved.getFailedChunkCount(), "Failed chunks are saved");
+
+        var id = UUID.randomUUID();
+        data.save(loc, MachineStorageType.JSON, ("{\"uuid\":\"" + id + "\"}").getBytes(StandardCharsets.UTF_8));
+        source.write(chunk, index, data);
+        new MachineMigrator(source, target, MachineStorageType.JSON, type -> type.apply(null, null), cache, 1, 4)
+                .migrate(saved, planFile, Map.of(world, worldRegions));
+        assertEquals(0, saved.getFailedChunkCount(), "Failed chunks are retried");
+        assertEquals(loc, cache.getLocationByUUID(id));
+        target.close();
+    }
+
+    @Test
+    public void testChangeStorageType(@TempDir Path dir) throws IOException {
+        var flow = AstralFlow.getInstance();
+        flow.getFactories().register(DummyStatefulMachine.class, DummyStatefulMachine::new);
+        var world = Bukkit.getWorld("world");
+        var worldRegions = dir.resolve("region");
+        writeRegion(worldRegions, -2, 0, 3); // chunk (-61, 0)
+        var chunk = world.getChunkAt(-61, 0);
+        var loc = new Location(world, -61 * 16 + 2, 64, 9);
+        var machine = new DummyStatefulMachine(MachineProperty.builder().uuid(UUID.randomUUID()).location(loc).build());
+        var source = new PdcChunkDataBackend(new NamespacedKey("test", "binary_index"), new NamespacedKey("test", "binary_data"));
+        var data = new MachineData(-61, 0);
+        data.save(loc, MachineStorageType.JSON, MachineStorageType.JSON.apply(flow.getFactories(), null).toData(machine));
+        source.write(chunk, new ChunkMachineIndex(new HashMap<>(Map.of(loc, DummyStatefulMachine.class.getName())), -61, 0), data);
+
+        var cacheFile = dir.resolve("machines.index");
+        Files.writeString(cacheFile, "{}");
+        var target = new RegionChunkDataBackend(dir.resolve("regions"));
+        var plan = new MigrationPlan(MachineStorageBackend.CHUNK, MachineStorageBackend.REGION, MachineStorageType.BINARY);
+        new MachineMigrator(source, target, MachineStorageType.BINARY, type -> type.apply(flow.getFactories(), null), new MachineCache(cacheFile), 1, 4)
+                .migrate(plan, dir.resolve("migration.json"), Map.of(world, worldRegions));
+        assertEquals(0, plan.getFailedChunkCount());
+        assertEquals(1, plan.getMachines());
+
+        var raw = target.read(chunk);
+        var migrated = MachineDataTag.INSTANCE.fromPrimitive(raw.data(), null).getData(loc);
+        assertEquals(MachineStorageType.BINARY, migrated.left);
+        var read = MachineStorageType.BINARY.apply(flow.getFactories(), null).fromData(migrated.right);
+        assertEquals(machine.getId(), read.getId());
+        assertEquals(loc, read.getLocation());
+        target.close();
+    }
+}
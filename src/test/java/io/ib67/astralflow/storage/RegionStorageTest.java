@@ -0,0 +1,123 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+package io.ib67.astralflow.storage;
+
+import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
+import io.ib67.astralflow.internal.storage.impl.chunk.ChunkDataBackend;
+import io.ib67.astralflow.internal.storage.impl.chunk.ChunkMachineIndex;
+import io.ib67.astralflow.internal.storage.impl.chunk.MachineData;
+import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineDataTag;
+import io.ib67.astralflow.internal.storage.impl.chunk.tag.MachineIndexTag;
+import io.ib67.astralflow.internal.storage.impl.region.RegionChunkDataBackend;
+import io.ib67.astralflow.test.TestUtil;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.inlambda.kiwi.tuple.Pair;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public final class RegionStorageTest {
+    @BeforeAll
+    public void setup() {
+        TestUtil.init();
+    }
+
+    @Test
+    public void testReadWrite(@TempDir Path dir) throws IOException {
+        var world = Bukkit.getWorld("world");
+        var chunk = world.getChunkAt(-33, 5);
+        var other = world.getChunkAt(-34, 5); // same region
+        var backend = new RegionChunkDataBackend(dir);
+        assertNull(backend.read(chunk).index(), "Unwritten chunk");
+
+        var loc = new Location(world, -33 * 16 + 3, 64, 5 * 16 + 7);
+        backend.write(chunk, index(loc, "dummy"), data(loc, 5000));
+        assertNotNull(backend.read(chunk).index(), "Pending writes are visible");
+        var otherLoc = new Location(world, -34 * 16, -10, 5 * 16);
+        backend.write(other, index(otherLoc, "other"), data(otherLoc, 1));
+        backend.close();
+
+        backend = new RegionChunkDataBackend(dir);
+        assertEquals("dummy", decode(backend, chunk).left.getMachineType(loc));
+        assertEquals(5000, decode(backend, chunk).right.getData(loc).right.length);
+        assertEquals(1, decode(backend, other).right.getData(otherLoc).right.length);
+
+        // grow and shrink in place
+        backend.write(chunk, index(loc, "dummy"), data(loc, 20000));
+        backend.write(other, new ChunkMachineIndex(new HashMap<>(), -34, 5), new MachineData(-34, 5));
+        backend.close();
+
+        backend = new RegionChunkDataBackend(dir);
+        assertEquals(20000, decode(backend, chunk).right.getData(loc).right.length);
+        assertFalse(decode(backend, other).left.isHasMachines());
+        backend.close();
+    }
+
+    @Test
+    public void testOversizedChunk(@TempDir Path dir) throws IOException {
+        var world = Bukkit.getWorld("world");
+        var chunk = world.getChunkAt(40, -3);
+        var loc = new Location(world, 40 * 16 + 1, 70, -3 * 16 + 2);
+        var external = dir.resolve(world.getName()).resolve("c.40.-3.afc");
+        var backend = new RegionChunkDataBackend(dir);
+        backend.write(chunk, index(loc, "dummy"), data(loc, 2 * 1024 * 1024)); // more than 255 sectors
+        backend.close();
+        assertTrue(Files.exists(external), "Oversized chunks are stored in their own files");
+
+        backend = new RegionChunkDataBackend(dir);
+        assertEquals(2 * 1024 * 1024, decode(backend, chunk).right.getData(loc).right.length);
+        backend.write(chunk, index(loc, "dummy"), data(loc, 100));
+        backend.close();
+        assertFalse(Files.exists(external), "Stale external chunks are removed");
+
+        backend = new RegionChunkDataBackend(dir);
+        assertEquals(100, decode(backend, chunk).right.getData(loc).right.length);
+        backend.close();
+    }
+
+    private static ChunkMachineIndex index(Location loc, String type) {
+        return new ChunkMachineIndex(new HashMap<>(Map.of(loc, type)), loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+    }
+
+    private static MachineData data(Location loc, int size) {
+        var data = new MachineData(loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+        data.save(loc, MachineStorageType.JSON, new byte[size]);
+        return data;
+    }
+
+    private static Pair<ChunkMachineIndex, MachineData> decode(ChunkDataBackend backend, Chunk chunk) {
+        var raw = backend.read(chunk);
+        return new Pair<>(MachineIndexTag.INSTANCE.fromPrimitive(raw.index(), null), MachineDataTag.INSTANCE.fromPrimitive(raw.data(), null));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *
+ *   AstralFlow - The plugin enriches bukkit servers
+ *   Copyright (C) 2022 The Inlined Lambdas and Contributors
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2.1 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the Free Software
+ *   Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+
+
+package io.ib67.astralflow.storage;
+
+import io.ib67.astralflow.AstralFlow;
+import io.ib67.astralflow.internal.serialization.codec.StateCodecCompiler;
+import io.ib67.astralflow.internal.storage.impl.MachineStorageType;
+import io.ib67.astralflow.machines.IState;
+import io.ib67.astralflow.machines.MachineProperty;
+import io.ib67.astralflow.test.TestUtil;
+import io.netty.buffer.Unpooled;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public final class StateCodecTest {
+    @BeforeAll
+    public void setup() {
+        TestUtil.init();
+    }
+
+    @Test
+    public void testClassState() {
+        var codec = StateCodecCompiler.compile(FurnaceState.class);
+        assertNotNull(codec);
+        var state = new FurnaceState();
+        state.owner = UUID.randomUUID();
+        state.energy = 42;
+        state.progress = 0.5;
+        state.fuel = null;
+        state.unit = TimeUnit.SECONDS;
+        state.cached = "not saved";
+
+        var buf = Unpooled.buffer();
+        codec.encode(state, buf);
+        var decoded = codec.decode(buf);
+        assertEquals(state.owner, decoded.owner);
+        assertEquals(42, decoded.energy);
+        assertEquals(0.5, decoded.progress);
+        assertNull(decoded.fuel, "Nulls are kept");
+        assertEquals(TimeUnit.SECONDS, decoded.unit);
+        assertEquals("default", decoded.name, "Inherited fields");
+        assertNull(decoded.cached, "Transient fields are skipped");
+        assertEquals(0, buf.readableBytes());
+    }
+
+    @Test
+    public void testRecordState() {
+        var codec = StateCodecCompiler.compile(Point.class);
+        assertNotNull(codec);
+        var buf = Unpooled.buffer();
+        codec.encode(new Point(1, -2L, "p"), buf);
+        assertEquals(new Point(1, -2L, "p"), codec.decode(buf));
+    }
+
+    @Test
+    public void testSchemaChange() {
+        var buf = Unpooled.buffer();
+        StateCodecCompiler.compile(Point.class).encode(new Point(7, 8L, "q"), buf);
+        // x is the same, y has another type, label is gone.
+        var decoded = StateCodecCompiler.compile(PointV2.class).decode(buf);
+        assertEquals(new PointV2(7, 0, 0), decoded);
+
+        buf = Unpooled.buffer();
+        StateCodecCompiler.compile(Point.class).encode(new Point(7, 8L, "q"), buf);
+        var json = StateCodecCompiler.toJson(buf);
+        assertEquals(8L, json.get("y").getAsLong());
+        assertEquals("q", json.get("label").getAsString());
+    }
+
+    @Test
+    public void testUnsupported() {
+        assertNull(StateCodecCompiler.compile(MapState.class), "Maps are left to gson");
+        assertNull(StateCodecCompiler.compile(NoConstructorState.class));
+        assertNull(StateCodecCompiler.compile(IState.class));
+    }
+
+    @Test
+    public void testBinaryMachine() {
+        var flow = AstralFlow.getInstance();
+        flow.getFactories().register(DummyStatefulMachine.class, DummyStatefulMachine::new);
+        var serializer = MachineStorageType.BINARY.apply(flow.getFactories(), flow.getMachineManager());
+        var machine = new DummyStatefulMachine(MachineProperty.builder()
+                .uuid(UUID.randomUUID())
+                .location(new Location(Bukkit.getWorld("world"), 1, 2, 3))
+                .manager(flow.getMachineManager())
+                .build());
+        var data = serializer.toData(machine);
+        assertEquals(machine.getId(), serializer.readId(data));
+        var read = serializer.fromData(data);
+        assertEquals(machine.getId(), read.getId());
+        assertEquals(machine.getLocation(), read.getLocation());
+        assertEquals("sexy!", ((DummyStatefulMachine) read).getState().get("nullcat?"));
+    }
+
+    public static class NamedState implements IState {
+        protected String name = "default";
+    }
+
+    public static final class FurnaceState extends NamedState {
+        private UUID owner;
+        private int energy;
+        private double progress;
+        private Integer fuel = 3;
+        private TimeUnit unit;
+        private transient String cached;
+    }
+
+    public record Point(int x, long y, String label) implements IState {
+    }
+
+    public record PointV2(int x, int y, int z) implements IState {
+    }
+
+    public static final class MapState implements IState {
+        private final Map<String, Integer> values = new HashMap<>();
+    }
+
+    public static final class NoConstructorState implements IState {
+        private final int value;
+
+        public NoConstructorState(int value) {
+            this.value = value;
+        }
+    }
+}